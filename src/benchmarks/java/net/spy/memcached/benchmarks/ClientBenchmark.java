@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.benchmarks;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.ConnectionFactoryBuilder;
+import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
+import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.server.FakeMemcachedServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Full round trips through MemcachedClient against an in-process server.
+ *
+ * Several threads share one client so that the IO thread sees concurrent
+ * load and gets a chance to batch operations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(4)
+public class ClientBenchmark {
+
+  private static final int KEY_COUNT = 1024;
+  private static final int BULK_SIZE = 10;
+
+  @Param({ "32", "4096" })
+  private int valueSize;
+
+  @Param({ "BINARY", "TEXT" })
+  private Protocol protocol;
+
+  private FakeMemcachedServer server;
+  private MemcachedClient client;
+  private String[] keys;
+  private byte[] value;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    server = new FakeMemcachedServer();
+    client = new MemcachedClient(new ConnectionFactoryBuilder()
+        .setProtocol(protocol).setOpTimeout(10000).build(),
+        Arrays.asList(server.getAddress()));
+    keys = Keys.generate(KEY_COUNT);
+    value = new byte[valueSize];
+    Arrays.fill(value, (byte) 'v');
+    for (String k : keys) {
+      client.set(k, 0, value).get();
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws InterruptedException {
+    client.shutdown();
+    server.shutdown();
+  }
+
+  /**
+   * Per-thread position in the key space.
+   */
+  @State(Scope.Thread)
+  public static class Cursor {
+    private int next;
+
+    String nextKey(String[] keys) {
+      return keys[next++ & (keys.length - 1)];
+    }
+
+    Collection<String> nextKeys(String[] keys, int n) {
+      String[] rv = new String[n];
+      for (int i = 0; i < n; i++) {
+        rv[i] = nextKey(keys);
+      }
+      return Arrays.asList(rv);
+    }
+  }
+
+  @Benchmark
+  public Object get(Cursor c) {
+    return client.get(c.nextKey(keys));
+  }
+
+  @Benchmark
+  public Boolean set(Cursor c) throws InterruptedException,
+    ExecutionException {
+    return client.set(c.nextKey(keys), 0, value).get();
+  }
+
+  @Benchmark
+  public Map<String, Object> getBulk(Cursor c) {
+    return client.getBulk(c.nextKeys(keys, BULK_SIZE));
+  }
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.benchmarks;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import net.spy.memcached.AddrUtil;
+import net.spy.memcached.BoundedLoadNodeLocator;
+import net.spy.memcached.ConnectionFactoryBuilder.Locator;
+import net.spy.memcached.DefaultHashAlgorithm;
+import net.spy.memcached.HashAlgorithm;
+import net.spy.memcached.JumpNodeLocator;
+import net.spy.memcached.KetamaNodeLocator;
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.MockMemcachedNode;
+import net.spy.memcached.NodeLocator;
+import net.spy.memcached.RendezvousNodeLocator;
+
+/**
+ * How evenly each kind of consistent locator spreads keys, and how many keys
+ * move when a node is appended or removed. Then, how busy the busiest node
+ * is under a skewed workload, with and without bounded loads. Prints tables;
+ * run with no arguments, or with the number of keys to place.
+ */
+public final class LocatorDistribution {
+
+  private static final Locator[] LOCATORS = { Locator.CONSISTENT,
+    Locator.JUMP, Locator.RENDEZVOUS, };
+  private static final int[] NODE_COUNTS = { 4, 32, 200 };
+  // The exponent of the Zipf distribution of key popularity.
+  private static final double ZIPF_EXPONENT = 0.99;
+
+  private LocatorDistribution() {
+    // Empty
+  }
+
+  static NodeLocator create(Locator type, List<MemcachedNode> nodes,
+      HashAlgorithm alg) {
+    switch (type) {
+    case CONSISTENT:
+      return new KetamaNodeLocator(nodes, alg);
+    case JUMP:
+      return new JumpNodeLocator(nodes, alg);
+    case RENDEZVOUS:
+      return new RendezvousNodeLocator(nodes, alg);
+    default:
+      throw new IllegalArgumentException("Not a consistent locator: " + type);
+    }
+  }
+
+  static List<MemcachedNode> nodes(int n) {
+    StringBuilder addrs = new StringBuilder();
+    for (int i = 0; i < n; i++) {
+      addrs.append("10.0.").append(i / 250).append('.').append(i % 250)
+        .append(":11211 ");
+    }
+    List<MemcachedNode> rv = new ArrayList<MemcachedNode>();
+    for (InetSocketAddress sa : AddrUtil.getAddresses(addrs.toString())) {
+      rv.add(new MockMemcachedNode(sa));
+    }
+    return rv;
+  }
+
+  private static MemcachedNode[] place(NodeLocator l, String[] keys) {
+    MemcachedNode[] rv = new MemcachedNode[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      rv[i] = l.getPrimary(keys[i]);
+    }
+    return rv;
+  }
+
+  private static double moved(MemcachedNode[] a, MemcachedNode[] b) {
+    int n = 0;
+    for (int i = 0; i < a.length; i++) {
+      if (a[i] != b[i]) {
+        n++;
+      }
+    }
+    return (double) n / a.length;
+  }
+
+  public static void main(String[] args) {
+    int numKeys = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    String[] keys = Keys.generate(numKeys);
+    HashAlgorithm alg = DefaultHashAlgorithm.KETAMA_HASH;
+    System.out.printf("%-12s %6s %8s %8s %10s %10s%n", "locator", "nodes",
+        "max/avg", "min/avg", "appended", "removed");
+    for (Locator type : LOCATORS) {
+      for (int n : NODE_COUNTS) {
+        List<MemcachedNode> all = nodes(n + 1);
+        List<MemcachedNode> nodes = all.subList(0, n);
+        MemcachedNode[] before = place(create(type, nodes, alg), keys);
+
+        Map<MemcachedNode, int[]> counts =
+            new IdentityHashMap<MemcachedNode, int[]>();
+        for (MemcachedNode node : nodes) {
+          counts.put(node, new int[1]);
+        }
+        for (MemcachedNode node : before) {
+          counts.get(node)[0]++;
+        }
+        int max = 0;
+        int min = Integer.MAX_VALUE;
+        for (int[] c : counts.values()) {
+          max = Math.max(max, c[0]);
+          min = Math.min(min, c[0]);
+        }
+        double avg = (double) numKeys / n;
+
+        MemcachedNode[] appended = place(create(type, all, alg), keys);
+        List<MemcachedNode> fewer = new ArrayList<MemcachedNode>(nodes);
+        fewer.remove(n / 2);
+        MemcachedNode[] removed = place(create(type, fewer, alg), keys);
+
+        System.out.printf("%-12s %6d %8.3f %8.3f %9.2f%% %9.2f%%%n", type,
+            n, max / avg, min / avg, 100 * moved(before, appended),
+            100 * moved(before, removed));
+      }
+    }
+
+    System.out.printf("%nZipf(%.2f) requests over %d keys%n", ZIPF_EXPONENT,
+        numKeys);
+    System.out.printf("%6s %10s %10s %10s%n", "nodes", "imbalance", "ketama",
+        "bounded");
+    double[] cumulative = zipf(numKeys);
+    for (int n : NODE_COUNTS) {
+      for (double e : new double[] { 0.1, 0.25, 0.5 }) {
+        List<MemcachedNode> nodes = nodes(n);
+        BoundedLoadNodeLocator l = new BoundedLoadNodeLocator(nodes,
+            new KetamaNodeLocator(nodes, alg), e);
+        Random r = new Random(n);
+        for (int i = 0; i < numKeys; i++) {
+          l.getPrimary(keys[sample(cumulative, r.nextDouble())]);
+        }
+        System.out.printf("%6d %10.2f %10.3f %10.3f%n", n, e,
+            l.getPrimarySkew(), l.getSkew());
+      }
+    }
+  }
+
+  private static double[] zipf(int n) {
+    double[] rv = new double[n];
+    double sum = 0;
+    for (int i = 0; i < n; i++) {
+      sum += 1 / Math.pow(i + 1, ZIPF_EXPONENT);
+      rv[i] = sum;
+    }
+    for (int i = 0; i < n; i++) {
+      rv[i] /= sum;
+    }
+    return rv;
+  }
+
+  private static int sample(double[] cumulative, double u) {
+    int i = Arrays.binarySearch(cumulative, u);
+    return i < 0 ? Math.min(-i - 1, cumulative.length - 1) : i;
+  }
+}
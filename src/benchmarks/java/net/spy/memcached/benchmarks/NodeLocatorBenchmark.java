@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.benchmarks;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.AddrUtil;
+import net.spy.memcached.ConnectionFactoryBuilder.Locator;
+import net.spy.memcached.DefaultHashAlgorithm;
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.MockMemcachedNode;
+import net.spy.memcached.NodeLocator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of finding the primary node for a key with each kind of consistent
+ * locator.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class NodeLocatorBenchmark {
+
+  @Param({ "4", "32", "200" })
+  private int nodeCount;
+
+  @Param({ "CONSISTENT", "JUMP", "RENDEZVOUS" })
+  private Locator locatorType;
+
+  @Param({ "KETAMA_HASH", "MURMUR3_HASH" })
+  private DefaultHashAlgorithm hashAlg;
+
+  private NodeLocator locator;
+  private String[] keys;
+  private int next;
+
+  @Setup
+  public void setup() {
+    StringBuilder addrs = new StringBuilder();
+    for (int i = 0; i < nodeCount; i++) {
+      addrs.append("10.0.").append(i / 250).append('.').append(i % 250)
+        .append(":11211 ");
+    }
+    List<MemcachedNode> nodes = new ArrayList<MemcachedNode>();
+    for (InetSocketAddress sa : AddrUtil.getAddresses(addrs.toString())) {
+      nodes.add(new MockMemcachedNode(sa));
+    }
+    locator = LocatorDistribution.create(locatorType, nodes, hashAlg);
+    keys = Keys.generate(1024);
+  }
+
+  @Benchmark
+  public MemcachedNode getPrimary() {
+    return locator.getPrimary(keys[next++ & (keys.length - 1)]);
+  }
+}
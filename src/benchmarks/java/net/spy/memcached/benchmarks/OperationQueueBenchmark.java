@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.ops.ArrayOperationQueueFactory;
+import net.spy.memcached.ops.MpscOperationQueueFactory;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.protocol.binary.BinaryOperationFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Contention on a node's input queue: several application threads adding
+ * operations while a single IO thread drains them, as copyInputQueue does.
+ * Adds that find the queue full are counted as failed rather than retried,
+ * so compare the add scores.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OperationQueueBenchmark {
+
+  private static final int CAPACITY = 16384;
+
+  @Param({ "array", "linked", "mpsc" })
+  private String queue;
+
+  private BlockingQueue<Operation> q;
+  private Operation op;
+
+  @Setup
+  public void setup() {
+    if (queue.equals("array")) {
+      q = new ArrayOperationQueueFactory(CAPACITY).create();
+    } else if (queue.equals("linked")) {
+      q = new LinkedBlockingQueue<Operation>(CAPACITY);
+    } else {
+      q = new MpscOperationQueueFactory(CAPACITY).create();
+    }
+    // Never written, so it needs no callback.
+    op = new BinaryOperationFactory().noop(null);
+  }
+
+  /**
+   * Per-thread scratch space for the draining thread.
+   */
+  @State(Scope.Thread)
+  public static class Drain {
+    private final List<Operation> ops = new ArrayList<Operation>(256);
+  }
+
+  @Benchmark
+  @Group("contended")
+  @GroupThreads(4)
+  public boolean add() {
+    return q.offer(op);
+  }
+
+  @Benchmark
+  @Group("contended")
+  @GroupThreads(1)
+  public int drain(Drain d) {
+    int n = q.drainTo(d.ops, 256);
+    d.ops.clear();
+    return n;
+  }
+}
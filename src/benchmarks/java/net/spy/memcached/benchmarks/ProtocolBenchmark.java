@@ -0,0 +1,252 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.OperationFactory;
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StoreType;
+import net.spy.memcached.protocol.ascii.AsciiOperationFactory;
+import net.spy.memcached.protocol.binary.BinaryOperationFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of encoding requests and decoding responses for get, set and
+ * multi-get in both protocols, without any IO.
+ *
+ * The encode benchmarks build and initialize an operation and then release
+ * its buffer as if it had been written. The round trip benchmarks also feed
+ * a canned response through the operation, so the difference between the two
+ * is the decoding cost.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProtocolBenchmark {
+
+  private static final int MULTI_GET_KEYS = 10;
+
+  private static final byte RES_MAGIC = (byte) 0x81;
+  private static final byte CMD_GET = 0x00;
+  private static final byte CMD_SET = 0x01;
+  private static final byte CMD_GETQ = 0x09;
+  private static final byte CMD_NOOP = 0x0a;
+
+  @Param({ "binary", "ascii" })
+  private String protocol;
+
+  @Param({ "32", "4096" })
+  private int valueSize;
+
+  private boolean binary;
+  private OperationFactory opFact;
+  private String key;
+  private List<String> keys;
+  private byte[] value;
+
+  private ByteBuffer getResponse;
+  private ByteBuffer setResponse;
+  private ByteBuffer multiGetResponse;
+
+  private final GetCallback getCallback = new GetCallback();
+  private final OperationCallback storeCallback = new OperationCallback() {
+    public void receivedStatus(OperationStatus status) {
+      // Nothing to do
+    }
+
+    public void complete() {
+      // Nothing to do
+    }
+  };
+
+  @Setup
+  public void setup() {
+    binary = "binary".equals(protocol);
+    opFact = binary ? new BinaryOperationFactory()
+        : new AsciiOperationFactory();
+    String[] generated = Keys.generate(MULTI_GET_KEYS);
+    key = generated[0];
+    keys = Arrays.asList(generated);
+    value = new byte[valueSize];
+    Arrays.fill(value, (byte) 'v');
+
+    if (binary) {
+      getResponse = binaryResponse(CMD_GET, value);
+      setResponse = binaryResponse(CMD_SET, null);
+      multiGetResponse = ByteBuffer.allocate(MULTI_GET_KEYS
+          * getResponse.capacity() + setResponse.capacity());
+      for (int i = 0; i < MULTI_GET_KEYS; i++) {
+        multiGetResponse.put(binaryResponse(CMD_GETQ, value));
+      }
+      multiGetResponse.put(binaryResponse(CMD_NOOP, null));
+      multiGetResponse.flip();
+    } else {
+      getResponse = asciiResponse(Arrays.asList(key));
+      setResponse = ByteBuffer.wrap("STORED\r\n".getBytes());
+      multiGetResponse = asciiResponse(keys);
+    }
+  }
+
+  @Benchmark
+  public ByteBuffer encodeGet() {
+    return encode(opFact.get(key, getCallback));
+  }
+
+  @Benchmark
+  public ByteBuffer encodeSet() {
+    return encode(opFact.store(StoreType.set, key, 0, 0, value,
+        storeCallback));
+  }
+
+  @Benchmark
+  public ByteBuffer encodeMultiGet() {
+    return encode(opFact.get(keys, getCallback));
+  }
+
+  @Benchmark
+  public byte[] get() throws IOException {
+    roundTrip(opFact.get(key, getCallback), getResponse);
+    return getCallback.data;
+  }
+
+  @Benchmark
+  public OperationState set() throws IOException {
+    Operation op = opFact.store(StoreType.set, key, 0, 0, value,
+        storeCallback);
+    roundTrip(op, setResponse);
+    return op.getState();
+  }
+
+  @Benchmark
+  public byte[] multiGet() throws IOException {
+    roundTrip(opFact.get(keys, getCallback), multiGetResponse);
+    return getCallback.data;
+  }
+
+  private ByteBuffer encode(Operation op) {
+    op.initialize();
+    ByteBuffer rv = op.getBuffer();
+    written(op);
+    return rv;
+  }
+
+  private void roundTrip(Operation op, ByteBuffer response)
+    throws IOException {
+    op.initialize();
+    if (binary) {
+      // Binary responses have to echo their request's opaque.
+      copyOpaques(op.getBuffer(), response);
+    }
+    written(op);
+    read(op, response);
+  }
+
+  private static void written(Operation op) {
+    op.writing();
+    op.writeComplete();
+  }
+
+  private static void read(Operation op, ByteBuffer response)
+    throws IOException {
+    response.rewind();
+    while (response.hasRemaining()
+        && op.getState() != OperationState.COMPLETE) {
+      op.readFromBuffer(response);
+    }
+  }
+
+  private static ByteBuffer binaryResponse(byte cmd, byte[] val) {
+    int extraLen = val == null ? 0 : 4;
+    int bodyLen = val == null ? 0 : extraLen + val.length;
+    ByteBuffer bb = ByteBuffer.allocate(24 + bodyLen);
+    bb.put(RES_MAGIC);
+    bb.put(cmd);
+    bb.putShort((short) 0); // key length
+    bb.put((byte) extraLen);
+    bb.put((byte) 0); // data type
+    bb.putShort((short) 0); // status
+    bb.putInt(bodyLen);
+    bb.putInt(0); // opaque
+    bb.putLong(0); // cas
+    if (val != null) {
+      bb.putInt(0); // flags
+      bb.put(val);
+    }
+    bb.flip();
+    return bb;
+  }
+
+  // Give each response the opaque of the request in the same position.
+  private static void copyOpaques(ByteBuffer request, ByteBuffer response) {
+    int reqPos = request.position();
+    int resPos = 0;
+    while (reqPos < request.limit()) {
+      response.putInt(resPos + 12, request.getInt(reqPos + 12));
+      reqPos += 24 + request.getInt(reqPos + 8);
+      resPos += 24 + response.getInt(resPos + 8);
+    }
+  }
+
+  private ByteBuffer asciiResponse(List<String> ks) {
+    StringBuilder sb = new StringBuilder();
+    for (String k : ks) {
+      sb.append("VALUE ").append(k).append(" 0 ").append(value.length)
+        .append("\r\n").append(new String(value)).append("\r\n");
+    }
+    sb.append("END\r\n");
+    return ByteBuffer.wrap(sb.toString().getBytes());
+  }
+
+  private static final class GetCallback implements GetOperation.Callback {
+    private byte[] data;
+
+    public void gotData(String k, int flags, byte[] d) {
+      data = d;
+    }
+
+    public void receivedStatus(OperationStatus status) {
+      // Nothing to do
+    }
+
+    public void complete() {
+      // Nothing to do
+    }
+  }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.transcoders.SerializingTranscoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of encoding and decoding values of various sizes with the default
+ * transcoder. Values past the compression threshold are compressed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TranscoderBenchmark {
+
+  @Param({ "16", "1024", "16384", "131072" })
+  private int size;
+
+  private SerializingTranscoder tc;
+  private String string;
+  private byte[] bytes;
+  private Integer[] objects;
+  private CachedData encodedString;
+  private CachedData encodedBytes;
+  private CachedData encodedObjects;
+
+  @Setup
+  public void setup() {
+    tc = new SerializingTranscoder(Integer.MAX_VALUE);
+    char[] chars = new char[size];
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = (char) ('a' + i % 26);
+    }
+    string = new String(chars);
+    bytes = new byte[size];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) i;
+    }
+    // Something that has to go through Java serialization.
+    objects = new Integer[Math.max(1, size / 16)];
+    for (int i = 0; i < objects.length; i++) {
+      objects[i] = Integer.valueOf(i);
+    }
+
+    encodedString = tc.encode(string);
+    encodedBytes = tc.encode(bytes);
+    encodedObjects = tc.encode(objects);
+  }
+
+  @Benchmark
+  public CachedData encodeString() {
+    return tc.encode(string);
+  }
+
+  @Benchmark
+  public Object decodeString() {
+    return tc.decode(encodedString);
+  }
+
+  @Benchmark
+  public CachedData encodeBytes() {
+    return tc.encode(bytes);
+  }
+
+  @Benchmark
+  public Object decodeBytes() {
+    return tc.decode(encodedBytes);
+  }
+
+  @Benchmark
+  public CachedData encodeSerializable() {
+    return tc.encode(objects);
+  }
+
+  @Benchmark
+  public Object decodeSerializable() {
+    return tc.decode(encodedObjects);
+  }
+}
@@ -34,7 +34,8 @@ import net.spy.memcached.vbucket.config.Config;
  * NodeLocator implementation for dealing with simple array lookups using a
  * modulus of the hash code and node list length.
  */
-public final class ArrayModNodeLocator implements NodeLocator {
+public final class ArrayModNodeLocator implements NodeLocator,
+    EncodedKeyLocator {
 
   private final HashAlgorithm hashAlg;
 
@@ -67,6 +68,11 @@ public final class ArrayModNodeLocator implements NodeLocator {
     return nodes[getServerForKey(k)];
   }
 
+  public MemcachedNode getPrimary(EncodedKey k) {
+    MemcachedNode[] current = nodes;
+    return current[(int) (k.hash(hashAlg) % current.length)];
+  }
+
   public Iterator<MemcachedNode> getSequence(String k) {
     return new NodeIterator(getServerForKey(k));
   }
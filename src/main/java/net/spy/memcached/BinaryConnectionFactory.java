@@ -67,7 +67,8 @@ public class BinaryConnectionFactory extends DefaultConnectionFactory {
     return new BinaryMemcachedNodeImpl(sa, c, bufSize,
         createReadOperationQueue(), createWriteOperationQueue(),
         createOperationQueue(), getOpQueueMaxBlockTime(), doAuth,
-        getOperationTimeout());
+        getOperationTimeout(), shouldMatchResponsesByOpaque(),
+        getOptimizeWindow());
   }
 
   @Override
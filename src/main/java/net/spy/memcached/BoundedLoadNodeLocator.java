@@ -0,0 +1,353 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.spy.memcached.vbucket.config.Config;
+
+/**
+ * A ketama locator that keeps any node from serving much more than its share
+ * of gets.
+ *
+ * <p>
+ * The locator counts the gets it has recently sent to each node. The
+ * connection places single-key gets with {@link #getReadNode(String)}. A get
+ * of a key goes to the key's node on the continuum, unless that node already
+ * has more than (1 + imbalance) times the mean count. In that case the key
+ * moves to the first node of its ketama sequence that doesn't, and the
+ * locator records the move. From then on {@link #getPrimary(String)}, and so
+ * every operation on the key, follows the record. A key's node therefore
+ * changes at most once, before the first get that finds it full, and
+ * changes and gets of a key always go to the same node. The first get on
+ * the new node misses, as it would for a new key. While loads are within the
+ * bound, keys stay exactly where ketama puts them.
+ * </p>
+ *
+ * <p>
+ * Each key keeps its node, so one key's gets can't be split. The bound
+ * spreads the many keys that would land on a busy node, not the load of a
+ * single hot key. Once the locator holds its maximum number of records, it
+ * stops moving keys. The records last until the nodes change, when those on
+ * departed nodes are dropped and their keys go back to the continuum, as
+ * ketama's own keys do.
+ * </p>
+ *
+ * <p>
+ * With weighted nodes, the mean is that of the node's weight: each node's
+ * bound is in proportion to its share of the continuum.
+ * </p>
+ *
+ * <p>
+ * {@link #getPrimarySkew()} and {@link #getSkew()} give the busiest node's
+ * share of recent gets relative to the mean, before and after the loads are
+ * bounded.
+ * </p>
+ *
+ * @see <a href="http://arxiv.org/abs/1608.01350">Consistent Hashing with
+ *      Bounded Loads</a>
+ */
+public final class BoundedLoadNodeLocator implements NodeLocator,
+    EncodedKeyLocator, WeightedNodeLocator {
+
+  /**
+   * The default imbalance: no node takes more than 1.25 times the mean.
+   */
+  public static final double DEFAULT_IMBALANCE = 0.25;
+
+  // Counts are halved each time this many gets have been placed, so
+  // they reflect recent traffic.
+  private static final int DECAY_INTERVAL = 1 << 16;
+  // How far along its sequence a key looks for a node to move to.
+  private static final int MAX_TRIES = 32;
+  // How many moved keys the locator remembers.
+  private static final int MAX_MOVED = 1 << 16;
+
+  private final KetamaNodeLocator ketama;
+  private final double imbalance;
+  // The keys that have moved off their ketama node, and where to.
+  private final ConcurrentMap<String, MemcachedNode> moved =
+      new ConcurrentHashMap<String, MemcachedNode>();
+
+  private volatile Loads loads;
+
+  /**
+   * Create a bounded load locator over a ketama continuum of the given nodes,
+   * with the default imbalance.
+   *
+   * @param nodes the nodes
+   * @param alg the hash algorithm
+   */
+  public BoundedLoadNodeLocator(List<MemcachedNode> nodes, HashAlgorithm alg) {
+    this(nodes, new KetamaNodeLocator(nodes, alg), DEFAULT_IMBALANCE);
+  }
+
+  /**
+   * Create a bounded load locator over the given ketama locator.
+   *
+   * @param nodes the nodes of the ketama locator
+   * @param k the ketama locator
+   * @param e how far above the mean number of gets a node may go, as a
+   *          fraction of the mean
+   */
+  public BoundedLoadNodeLocator(List<MemcachedNode> nodes,
+      KetamaNodeLocator k, double e) {
+    if (e <= 0) {
+      throw new IllegalArgumentException("Imbalance must be positive, not "
+          + e);
+    }
+    ketama = k;
+    imbalance = e;
+    loads = new Loads(nodes, ketama);
+  }
+
+  /**
+   * Get the node the key has moved to, or its node on the ketama continuum.
+   */
+  public MemcachedNode getPrimary(String k) {
+    MemcachedNode rv = moved.get(k);
+    return rv == null ? ketama.getPrimary(k) : rv;
+  }
+
+  public MemcachedNode getPrimary(EncodedKey k) {
+    MemcachedNode rv = moved.get(k.getKey());
+    return rv == null ? ketama.getPrimary(k) : rv;
+  }
+
+  /**
+   * Get the node to send a get of the given key to, and count the get
+   * against it. If the key hasn't moved and its ketama node is full, the key
+   * moves first.
+   */
+  public MemcachedNode getReadNode(String k) {
+    return place(k, ketama.getPrimary(k), moved.get(k));
+  }
+
+  MemcachedNode getReadNode(EncodedKey k) {
+    return place(k.getKey(), ketama.getPrimary(k), moved.get(k.getKey()));
+  }
+
+  /**
+   * Get how many keys have moved off their ketama nodes.
+   */
+  public int getMovedKeys() {
+    return moved.size();
+  }
+
+  /**
+   * Place a get whose ketama node is known, moving the key if it hasn't
+   * already moved and that node is full.
+   */
+  private MemcachedNode place(String k, MemcachedNode primary,
+      MemcachedNode current) {
+    Loads l = loads;
+    Integer p = l.index.get(primary);
+    if (p == null) {
+      return current == null ? primary : current;
+    }
+    MemcachedNode rv = current;
+    if (rv == null && l.isFull(p, imbalance) && moved.size() < MAX_MOVED) {
+      MemcachedNode to = findRoom(l, k, primary);
+      if (to != null) {
+        rv = moved.putIfAbsent(k, to);
+        if (rv == null) {
+          rv = to;
+        }
+      }
+    }
+    if (rv == null) {
+      rv = primary;
+    }
+    Integer chosen = l.index.get(rv);
+    l.placed(p, chosen == null ? p : chosen);
+    return rv;
+  }
+
+  /**
+   * Find the first node of the key's sequence that isn't full, or null if
+   * there's none.
+   */
+  private MemcachedNode findRoom(Loads l, String k, MemcachedNode primary) {
+    Iterator<MemcachedNode> i = ketama.getSequence(k, MAX_TRIES);
+    while (i.hasNext()) {
+      MemcachedNode n = i.next();
+      Integer idx = l.index.get(n);
+      if (n != primary && idx != null && !l.isFull(idx, imbalance)) {
+        return n;
+      }
+    }
+    // A weak hash can keep a short sequence on one node, so fall back to
+    // the node list.
+    for (MemcachedNode n : ketama.getAll()) {
+      Integer idx = l.index.get(n);
+      if (n != primary && idx != null && !l.isFull(idx, imbalance)) {
+        return n;
+      }
+    }
+    return null;
+  }
+
+  public Iterator<MemcachedNode> getSequence(String k) {
+    return ketama.getSequence(k);
+  }
+
+  public Collection<MemcachedNode> getAll() {
+    return ketama.getAll();
+  }
+
+  /**
+   * Get a read-only copy of the underlying continuum, which places moved
+   * keys on their ketama nodes.
+   */
+  public NodeLocator getReadonlyCopy() {
+    return ketama.getReadonlyCopy();
+  }
+
+  @Override
+  public void updateLocator(List<MemcachedNode> nodes, Config conf) {
+    ketama.updateLocator(nodes, conf);
+    loads = new Loads(nodes, ketama);
+    // Keys on departed nodes go back to the continuum.
+    moved.values().retainAll(loads.index.keySet());
+  }
+
+  /**
+   * Rebuild the continuum and the bounds over the same nodes, picking up any
+   * change to their weights.
+   *
+   * @see KetamaNodeLocator#reweight()
+   */
+  public void reweight() {
+    ketama.reweight();
+    loads = new Loads(new ArrayList<MemcachedNode>(ketama.getAll()), ketama);
+  }
+
+  /**
+   * Weight the nodes of the continuum and rebuild it.
+   *
+   * @see KetamaNodeLocator#setNodeWeights(Map)
+   */
+  public void setNodeWeights(Map<? extends SocketAddress, Integer> w) {
+    ketama.setNodeWeights(w);
+    loads = new Loads(new ArrayList<MemcachedNode>(ketama.getAll()), ketama);
+  }
+
+  /**
+   * Get how many times the mean the busiest node's share of recent gets
+   * would be, had every key gone to its node on the continuum.
+   */
+  public double getPrimarySkew() {
+    return loads.skew(loads.primaries);
+  }
+
+  /**
+   * Get how many times the mean the busiest node's share of recent gets is.
+   */
+  public double getSkew() {
+    return loads.skew(loads.counts);
+  }
+
+  /**
+   * The recent request counts of a set of nodes. Changes to the nodes start
+   * a new one.
+   */
+  private static final class Loads {
+    private final Map<MemcachedNode, Integer> index;
+    // Gets placed on each node, and gets whose ketama node each node was.
+    private final AtomicLongArray counts;
+    private final AtomicLongArray primaries;
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong placed = new AtomicLong();
+    // Each node's fair share of gets, by weight.
+    private final double[] shares;
+
+    Loads(List<MemcachedNode> nodes, KetamaNodeLocator k) {
+      index = new IdentityHashMap<MemcachedNode, Integer>(nodes.size());
+      long totalWeight = 0;
+      int[] weights = new int[nodes.size()];
+      for (MemcachedNode n : nodes) {
+        if (!index.containsKey(n)) {
+          weights[index.size()] = k.getNodeWeight(n);
+          totalWeight += weights[index.size()];
+          index.put(n, index.size());
+        }
+      }
+      counts = new AtomicLongArray(index.size());
+      primaries = new AtomicLongArray(index.size());
+      shares = new double[index.size()];
+      for (int i = 0; i < shares.length; i++) {
+        shares[i] = (double) weights[i] / totalWeight;
+      }
+    }
+
+    /**
+     * Whether one more request would take the node over the bound.
+     */
+    boolean isFull(int node, double imbalance) {
+      double bound = Math.ceil((1 + imbalance) * (total.get() + 1)
+          * shares[node]);
+      return counts.get(node) + 1 > bound;
+    }
+
+    void placed(int primary, int node) {
+      primaries.incrementAndGet(primary);
+      counts.incrementAndGet(node);
+      total.incrementAndGet();
+      if (placed.incrementAndGet() % DECAY_INTERVAL == 0) {
+        decay();
+      }
+    }
+
+    // Concurrent gets may be counted before or after the halving, which
+    // only blurs the counts a little.
+    private void decay() {
+      long sum = 0;
+      for (int i = 0; i < counts.length(); i++) {
+        sum += counts.addAndGet(i, -counts.get(i) / 2);
+        primaries.addAndGet(i, -primaries.get(i) / 2);
+      }
+      total.set(sum);
+    }
+
+    double skew(AtomicLongArray a) {
+      double max = 0;
+      long sum = 0;
+      for (int i = 0; i < a.length(); i++) {
+        long c = a.get(i);
+        max = Math.max(max, c / shares[i]);
+        sum += c;
+      }
+      return sum == 0 ? 1 : max / sum;
+    }
+  }
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.net.SocketAddress;
+
+import net.spy.memcached.ops.OperationStatus;
+
+/**
+ * Receives the results of a streaming bulk get as they arrive.
+ *
+ * <p>
+ * Methods are called on the IO thread that read the response, so they
+ * should return quickly. Values for different servers may be delivered
+ * concurrently.
+ * </p>
+ *
+ * @param <T> the type of the values
+ * @see MemcachedClient#asyncGetBulk(java.util.Collection,
+ *      net.spy.memcached.transcoders.Transcoder,
+ *      BulkGetCallback)
+ */
+public interface BulkGetCallback<T> {
+
+  /**
+   * Called for each key found, as soon as its value has been read.
+   *
+   * @param key the key
+   * @param value the decoded value
+   */
+  void gotValue(String key, T value);
+
+  /**
+   * Called once for each server when it has answered for all of its keys,
+   * or has failed or been cancelled. Keys that were not found are never
+   * passed to {@link #gotValue(String, Object)}.
+   *
+   * @param server the server
+   * @param status the status of that server's part of the get
+   */
+  void serverComplete(SocketAddress server, OperationStatus status);
+}
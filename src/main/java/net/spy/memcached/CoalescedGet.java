@@ -0,0 +1,202 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationStatus;
+
+/**
+ * A get for a single key that any number of callers may be waiting on.
+ *
+ * <p>
+ * The entry lives in the client's in-flight table from the time its fetch is
+ * issued until the response (or cancellation) arrives. Callers asking for
+ * the same key in the meantime {@link #join(Waiter)} it instead of sending a
+ * fetch of their own, and every waiter is handed the same raw response.
+ * </p>
+ *
+ * <p>
+ * A waiter that stops waiting {@link #leave(Waiter, boolean) leaves}
+ * without disturbing the others. The fetch is only given up on once no one
+ * is waiting on any of the keys its operation fetches.
+ * </p>
+ */
+final class CoalescedGet {
+
+  private final String key;
+  private final ConcurrentMap<String, CoalescedGet> table;
+  private final List<Waiter> waiters = new ArrayList<Waiter>(2);
+  private volatile Operation op;
+  // How many of the entries sharing the operation still have waiters.
+  private volatile AtomicInteger wanted;
+  private boolean done = false;
+  private int flags;
+  private byte[] data;
+  private OperationStatus status;
+
+  CoalescedGet(String k, ConcurrentMap<String, CoalescedGet> t) {
+    key = k;
+    table = t;
+  }
+
+  String getKey() {
+    return key;
+  }
+
+  /**
+   * Set the operation fetching this key. Must be called before the entry is
+   * published in the in-flight table.
+   */
+  void setOperation(Operation o) {
+    setOperation(o, new AtomicInteger(1));
+  }
+
+  /**
+   * Set the operation fetching this key along with others.
+   *
+   * @param o the operation
+   * @param w the number of entries the operation fetches, shared by all of
+   *          them
+   */
+  void setOperation(Operation o, AtomicInteger w) {
+    op = o;
+    wanted = w;
+  }
+
+  Operation getOperation() {
+    return op;
+  }
+
+  /**
+   * Register interest in the result of this fetch.
+   *
+   * @return false if the fetch can no longer be shared, in which case the
+   *         waiter will not be called
+   */
+  boolean join(Waiter w) {
+    // The operation is checked without holding this entry's lock since the
+    // IO thread completes entries while holding the operation's lock.
+    if (isAbandoned()) {
+      return false;
+    }
+    synchronized (this) {
+      if (done) {
+        return false;
+      }
+      waiters.add(w);
+      return true;
+    }
+  }
+
+  /**
+   * True while the fetch can still answer new callers: it has not completed
+   * and its operation has not been cancelled or timed out.
+   */
+  boolean isJoinable() {
+    if (isAbandoned()) {
+      return false;
+    }
+    synchronized (this) {
+      return !done;
+    }
+  }
+
+  private boolean isAbandoned() {
+    Operation o = op;
+    return o != null && (o.isCancelled() || o.isTimedOut());
+  }
+
+  synchronized void gotData(int f, byte[] d) {
+    flags = f;
+    data = d;
+  }
+
+  synchronized void receivedStatus(OperationStatus s) {
+    status = s;
+  }
+
+  /**
+   * Stop waiting on this fetch. Once no one waits on any of the keys its
+   * operation fetches, the operation is cancelled, or timed out if the last
+   * waiter left because it timed out.
+   *
+   * @return false if the fetch has already completed, in which case the
+   *         waiter is being handed the result
+   */
+  boolean leave(Waiter w, boolean timedOut) {
+    synchronized (this) {
+      if (done || !waiters.remove(w)) {
+        return false;
+      }
+      if (!waiters.isEmpty()) {
+        return true;
+      }
+      // No one new may join a fetch that may be about to be given up on.
+      done = true;
+    }
+    table.remove(key, this);
+    if (wanted.decrementAndGet() == 0) {
+      if (timedOut) {
+        op.timeOut();
+      } else {
+        op.cancel();
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Retire this entry and hand the result to every waiter.
+   */
+  void complete() {
+    table.remove(key, this);
+    synchronized (this) {
+      if (done) {
+        // Already answered, or everyone left.
+        return;
+      }
+      done = true;
+    }
+    // No waiter can be added once done is set, so the list is stable here.
+    for (Waiter w : waiters) {
+      w.completed(flags, data, status);
+    }
+  }
+
+  /**
+   * Receives the result of a shared fetch.
+   */
+  interface Waiter {
+    /**
+     * @param flags the flags of the item
+     * @param data the raw value, or null if the key was not found
+     * @param status the status of the fetch
+     */
+    void completed(int flags, byte[] data, OperationStatus status);
+  }
+}
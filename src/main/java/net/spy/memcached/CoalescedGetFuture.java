@@ -0,0 +1,174 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.spy.memcached.internal.CheckedOperationTimeoutException;
+import net.spy.memcached.internal.GetFuture;
+import net.spy.memcached.ops.CancelledOperationStatus;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.TimedOutOperationStatus;
+
+/**
+ * The future of one caller waiting on a {@link CoalescedGet}.
+ *
+ * <p>
+ * Timing out or cancelling this future only stops this caller waiting. The
+ * shared fetch carries on for everyone else, and is only timed out or
+ * cancelled once no one is left waiting on it.
+ * </p>
+ *
+ * @param <T> Type of object returned from the get
+ */
+final class CoalescedGetFuture<T> extends GetFuture<T> {
+
+  private final CountDownLatch latch;
+  private final long timeout;
+  private volatile CoalescedGet fetch;
+  private volatile CoalescedGet.Waiter waiter;
+  private volatile Future<T> value;
+  private volatile OperationStatus status;
+  // Set when this caller gave up before the fetch answered.
+  private volatile boolean cancelled = false;
+  private volatile boolean timedOut = false;
+
+  CoalescedGetFuture(CountDownLatch l, long opTimeout, String key) {
+    super(l, opTimeout, key);
+    latch = l;
+    timeout = opTimeout;
+  }
+
+  /**
+   * Wait on the given fetch. Must be called before the waiter joins it.
+   */
+  void setFetch(CoalescedGet cg, CoalescedGet.Waiter w) {
+    fetch = cg;
+    waiter = w;
+  }
+
+  @Override
+  public void setOperation(Operation to) {
+    // The operation is reached through the fetch, which may be replaced.
+  }
+
+  @Override
+  public void set(Future<T> d, OperationStatus s) {
+    value = d;
+    status = s;
+  }
+
+  @Override
+  public boolean cancel(boolean ign) {
+    if (!leave(false)) {
+      return false;
+    }
+    cancelled = true;
+    status = new CancelledOperationStatus();
+    release();
+    return true;
+  }
+
+  @Override
+  public T get() throws InterruptedException, ExecutionException {
+    try {
+      return get(timeout, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      throw new RuntimeException("Timed out waiting for operation", e);
+    }
+  }
+
+  @Override
+  public T get(long duration, TimeUnit units) throws InterruptedException,
+      TimeoutException, ExecutionException {
+    Operation op = fetch.getOperation();
+    if (!latch.await(duration, units)) {
+      MemcachedConnection.opTimedOut(op);
+      if (leave(true)) {
+        timedOut = true;
+        status = new TimedOutOperationStatus();
+        release();
+        throw new CheckedOperationTimeoutException(
+            "Timed out waiting for operation", op);
+      }
+      // The fetch answered as this caller gave up, and is handing over the
+      // result now.
+      latch.await();
+    } else {
+      MemcachedConnection.opSucceeded(op);
+    }
+    if (cancelled || status instanceof CancelledOperationStatus) {
+      throw new ExecutionException(new RuntimeException("Cancelled"));
+    }
+    if (timedOut || status instanceof TimedOutOperationStatus) {
+      throw new ExecutionException(new CheckedOperationTimeoutException(
+          "Operation timed out.", op));
+    }
+    if (op.hasErrored()) {
+      throw new ExecutionException(op.getException());
+    }
+    Future<T> v = value;
+    return v == null ? null : v.get();
+  }
+
+  @Override
+  public OperationStatus getStatus() {
+    if (status == null) {
+      try {
+        get();
+      } catch (InterruptedException e) {
+        status = new OperationStatus(false, "Interrupted");
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+        getLogger().warn("Error getting status of operation", e);
+      }
+    }
+    return status;
+  }
+
+  @Override
+  public boolean isCancelled() {
+    return cancelled || status instanceof CancelledOperationStatus;
+  }
+
+  @Override
+  public boolean isDone() {
+    return latch.getCount() == 0;
+  }
+
+  private boolean leave(boolean timingOut) {
+    CoalescedGet cg = fetch;
+    return cg != null && cg.leave(waiter, timingOut);
+  }
+
+  private void release() {
+    latch.countDown();
+    signalComplete();
+  }
+}
@@ -31,7 +31,9 @@ import java.util.List;
 import java.util.concurrent.BlockingQueue;
 
 import net.spy.memcached.auth.AuthDescriptor;
+import net.spy.memcached.metrics.MetricsCollector;
 import net.spy.memcached.ops.Operation;
+import net.spy.memcached.protocol.DirectBufferPool;
 import net.spy.memcached.transcoders.Transcoder;
 
 /**
@@ -158,4 +160,89 @@ public interface ConnectionFactory {
    * Maximum number of timeout exception for shutdown connection.
    */
   int getTimeoutExceptionThreshold();
+
+  /**
+   * Number of IO threads (each with its own selector) the nodes of a
+   * connection should be spread across.
+   *
+   * <p>
+   * A connection never uses more threads than it has nodes.
+   * </p>
+   */
+  int getIOThreadCount();
+
+  /**
+   * Number of connections to open to each server.
+   *
+   * <p>
+   * Operations for a server are spread across its connections, so a large
+   * value being sent or received on one of them doesn't hold up the others.
+   * </p>
+   */
+  int getConnectionsPerNode();
+
+  /**
+   * If true, binary connections match each response to its request by
+   * opaque, so servers and proxies may answer requests in any order.
+   *
+   * <p>
+   * Otherwise responses are expected in the order requests were written,
+   * which is all a memcached server ever does. Tap streams need it that way.
+   * </p>
+   */
+  boolean shouldMatchResponsesByOpaque();
+
+  /**
+   * How many operations into a binary node's write queue the optimizer
+   * looks for gets or stores to merge, or 0 to only merge those at the
+   * head.
+   *
+   * <p>
+   * Gets and stores are only moved past operations on other keys, so what
+   * is done to any one key stays in order.
+   * </p>
+   */
+  int getOptimizeWindow();
+
+  /**
+   * If true, the IO threads time operations out as their timeout passes.
+   *
+   * <p>
+   * Otherwise an operation is only seen to have timed out when something
+   * waits on its future, or when it reaches the head of its node's write
+   * queue. With this on, a future completes with a timed out status at
+   * about the operation timeout, whether or not anyone is waiting on it,
+   * and its node's continuous timeout count goes up straight away.
+   * </p>
+   *
+   * <p>
+   * Without it, the listeners of a future whose response never arrives
+   * only run once a thread waiting on that future times out.
+   * </p>
+   */
+  boolean useProactiveTimeouts();
+
+  /**
+   * If true, concurrent gets for the same key share a single fetch.
+   *
+   * <p>
+   * A get (or a key of a bulk get) issued while a fetch for its key is still
+   * outstanding waits for that fetch instead of sending its own, so the
+   * futures of all of those gets are completed from one response. Any other
+   * operation on a key stops later gets from joining a fetch sent before it.
+   * </p>
+   */
+  boolean shouldCoalesceGets();
+
+  /**
+   * Get the collector operation timings are reported to, or null to not time
+   * operations at all.
+   */
+  MetricsCollector getMetricsCollector();
+
+  /**
+   * Get the pool binary operations borrow direct buffers to encode into, or
+   * null to encode into heap buffers.
+   */
+  DirectBufferPool getBufferPool();
 }
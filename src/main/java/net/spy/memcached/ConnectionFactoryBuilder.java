@@ -24,18 +24,24 @@
 package net.spy.memcached;
 
 import java.io.IOException;
+import java.net.SocketAddress;
 import java.net.URI;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 
 import net.spy.memcached.auth.AuthDescriptor;
+import net.spy.memcached.metrics.MetricsCollector;
 import net.spy.memcached.ops.Operation;
 import net.spy.memcached.ops.OperationQueueFactory;
+import net.spy.memcached.protocol.DirectBufferPool;
 import net.spy.memcached.protocol.ascii.AsciiOperationFactory;
 import net.spy.memcached.protocol.binary.BinaryOperationFactory;
 import net.spy.memcached.transcoders.Transcoder;
+import net.spy.memcached.util.DefaultKetamaNodeLocatorConfiguration;
 import net.spy.memcached.vbucket.VBucketNodeLocator;
 import net.spy.memcached.vbucket.config.Config;
 
@@ -58,6 +64,8 @@ public class ConnectionFactoryBuilder {
   private OperationFactory opFact;
 
   private Locator locator = Locator.ARRAY_MOD;
+  private double maxLoadImbalance = BoundedLoadNodeLocator.DEFAULT_IMBALANCE;
+  private Map<SocketAddress, Integer> nodeWeights = Collections.emptyMap();
   private long opTimeout = -1;
   private boolean isDaemon = false;
   private boolean shouldOptimize = true;
@@ -73,6 +81,17 @@ public class ConnectionFactoryBuilder {
   private int timeoutExceptionThreshold =
       DefaultConnectionFactory.DEFAULT_MAX_TIMEOUTEXCEPTION_THRESHOLD;
   private Config vBucketConfig;
+  private int ioThreadCount = DefaultConnectionFactory.DEFAULT_IO_THREAD_COUNT;
+  private int connectionsPerNode =
+      DefaultConnectionFactory.DEFAULT_CONNECTIONS_PER_NODE;
+  private boolean matchResponsesByOpaque =
+      DefaultConnectionFactory.DEFAULT_MATCH_RESPONSES_BY_OPAQUE;
+  private int optimizeWindow = DefaultConnectionFactory.DEFAULT_OPTIMIZE_WINDOW;
+  private boolean proactiveTimeouts =
+      DefaultConnectionFactory.DEFAULT_PROACTIVE_TIMEOUTS;
+  private boolean coalesceGets = DefaultConnectionFactory.DEFAULT_COALESCE_GETS;
+  private MetricsCollector metricsCollector = null;
+  private DirectBufferPool bufferPool = DirectBufferPool.getInstance();
 
   /**
    * Set the operation queue factory.
@@ -96,8 +115,25 @@ public class ConnectionFactoryBuilder {
     setTimeoutExceptionThreshold(cf.getTimeoutExceptionThreshold());
     setTranscoder(cf.getDefaultTranscoder());
     setUseNagleAlgorithm(cf.useNagleAlgorithm());
+    setIOThreadCount(cf.getIOThreadCount());
+    setConnectionsPerNode(cf.getConnectionsPerNode());
+    setMatchResponsesByOpaque(cf.shouldMatchResponsesByOpaque());
+    setOptimizeWindow(cf.getOptimizeWindow());
+    setProactiveTimeouts(cf.useProactiveTimeouts());
+    setCoalesceGets(cf.shouldCoalesceGets());
+    setMetricsCollector(cf.getMetricsCollector());
+    setBufferPool(cf.getBufferPool());
   }
 
+  /**
+   * Set the operation queue factory.
+   *
+   * <p>
+   * This queue is added to by every thread using the client, and drained by
+   * an IO thread. A {@link net.spy.memcached.ops.MpscOperationQueueFactory}
+   * keeps those threads from contending for a lock.
+   * </p>
+   */
   public ConnectionFactoryBuilder setOpQueueFactory(OperationQueueFactory q) {
     opQueueFactory = q;
     return this;
@@ -114,6 +150,11 @@ public class ConnectionFactoryBuilder {
 
   /**
    * Set the write queue factory.
+   *
+   * <p>
+   * A {@link net.spy.memcached.ops.LaneOperationQueueFactory} here lets
+   * small requests go ahead of large ones waiting to be written.
+   * </p>
    */
   public ConnectionFactoryBuilder
   setWriteOpQueueFactory(OperationQueueFactory q) {
@@ -241,6 +282,44 @@ public class ConnectionFactoryBuilder {
     return this;
   }
 
+  /**
+   * Set how far above the mean number of recent gets a node may go with
+   * the {@link Locator#CONSISTENT_BOUNDED_LOAD} locator, as a fraction of the
+   * mean.
+   *
+   * <p>
+   * Smaller values spread keys off busy nodes sooner, at the cost of moving
+   * more keys away from their usual nodes.
+   * </p>
+   */
+  public ConnectionFactoryBuilder setMaxLoadImbalance(double to) {
+    assert to > 0 : "Load imbalance must be positive";
+    maxLoadImbalance = to;
+    return this;
+  }
+
+  /**
+   * Set the weights of nodes by socket address, for the
+   * {@link Locator#CONSISTENT}, {@link Locator#CONSISTENT_BOUNDED_LOAD} and
+   * {@link Locator#RENDEZVOUS} locators. Each node gets a share of the keys
+   * in proportion to its weight, and nodes without one have a weight of 1.
+   *
+   * <p>
+   * To weight servers by memory, pass
+   * {@link DefaultKetamaNodeLocatorConfiguration#getMaxBytesWeights(Map,
+   * java.util.Collection)} of their stats, or call
+   * {@link MemcachedClient#reweightByMaxBytes()} once the client is running.
+   * </p>
+   */
+  public ConnectionFactoryBuilder setNodeWeights(
+      Map<? extends SocketAddress, Integer> to) {
+    for (Integer w : to.values()) {
+      assert w != null && w > 0 : "Node weights must be positive";
+    }
+    nodeWeights = new HashMap<SocketAddress, Integer>(to);
+    return this;
+  }
+
   /**
    * Set the maximum reconnect delay.
    */
@@ -269,6 +348,138 @@ public class ConnectionFactoryBuilder {
     return this;
   }
 
+  /**
+   * Set the number of IO threads the nodes are spread across.
+   *
+   * <p>
+   * Each thread runs its own selector over a share of the nodes, so
+   * throughput can grow with the thread count up to the number of nodes.
+   * </p>
+   */
+  public ConnectionFactoryBuilder setIOThreadCount(int to) {
+    assert to > 0 : "IO thread count must be a positive number";
+    ioThreadCount = to;
+    return this;
+  }
+
+  /**
+   * Set the number of connections to open to each server.
+   *
+   * <p>
+   * Keys are spread across the server's connections by their hash, so small
+   * operations on most keys aren't stuck behind a large value on the same
+   * socket. Operations on a key all go over one connection, waiting for it
+   * if it's reconnecting, so the server applies them in the order they were
+   * added.
+   * Operations on no key, or on keys spread across several connections,
+   * go to whichever connection has the fewest operations outstanding.
+   * </p>
+   *
+   * <p>
+   * Operations sent over different connections may complete in any order,
+   * so wait for a bulk write to complete before relying on a later
+   * operation on one of its keys seeing it.
+   * </p>
+   */
+  public ConnectionFactoryBuilder setConnectionsPerNode(int to) {
+    assert to > 0 : "Connections per node must be a positive number";
+    connectionsPerNode = to;
+    return this;
+  }
+
+  /**
+   * Set to true to match binary responses to their requests by opaque.
+   *
+   * <p>
+   * Responses may then arrive in any order, as from proxies that answer
+   * requests as their backends do. It has no effect on the text protocol
+   * and must be left off for tap connections.
+   * </p>
+   */
+  public ConnectionFactoryBuilder setMatchResponsesByOpaque(boolean to) {
+    matchResponsesByOpaque = to;
+    return this;
+  }
+
+  /**
+   * Set how many queued operations the optimizer looks through for gets or
+   * stores to merge, when optimizing a binary connection.
+   *
+   * <p>
+   * With a window, interleaved gets and sets are merged into one batch of
+   * each rather than not at all. Gets and stores only move past operations
+   * on other keys. The write queue must support removing any of its
+   * elements, as the default one does. With a
+   * {@link net.spy.memcached.ops.LaneOperationQueueFactory} write queue the
+   * window is not used, and only runs at the head of the queue are merged.
+   * </p>
+   *
+   * @param to the number of operations, or 0 to only merge runs at the head
+   *          of the queue
+   */
+  public ConnectionFactoryBuilder setOptimizeWindow(int to) {
+    assert to >= 0 : "Optimize window must not be negative";
+    optimizeWindow = to;
+    return this;
+  }
+
+  /**
+   * Set to true to have the IO threads time operations out as soon as their
+   * timeout passes.
+   *
+   * <p>
+   * Futures then complete with a timed out status, and run their listeners,
+   * even when nothing is waiting on them, and nodes that stop answering are
+   * noticed without anyone calling get. Each IO thread keeps the deadlines
+   * of its operations on a timing wheel, so this costs little per operation.
+   * </p>
+   */
+  public ConnectionFactoryBuilder setProactiveTimeouts(boolean to) {
+    proactiveTimeouts = to;
+    return this;
+  }
+
+  /**
+   * Set to true to let concurrent gets for the same key share one fetch.
+   *
+   * <p>
+   * Futures that share a fetch also share its operation, so cancelling one
+   * of them, or letting one time out, affects all the others.
+   * </p>
+   */
+  public ConnectionFactoryBuilder setCoalesceGets(boolean to) {
+    coalesceGets = to;
+    return this;
+  }
+
+  /**
+   * Set the collector operation timings are reported to.
+   *
+   * <p>
+   * Operations are only timed when a collector is set, so leaving this null
+   * (the default) costs nothing.
+   * </p>
+   */
+  public ConnectionFactoryBuilder setMetricsCollector(MetricsCollector to) {
+    metricsCollector = to;
+    return this;
+  }
+
+  /**
+   * Set the pool binary operations borrow direct buffers to encode into, or
+   * null to encode into heap buffers.
+   *
+   * <p>
+   * By default every connection shares {@link DirectBufferPool#getInstance()}.
+   * A pool of its own lets a client size its buffers and cap the direct
+   * memory its queued operations hold.
+   * </p>
+   */
+  public ConnectionFactoryBuilder setBufferPool(DirectBufferPool to) {
+    bufferPool = to;
+    return this;
+  }
+
   public Config getVBucketConfig() {
     return vBucketConfig;
   }
@@ -307,9 +518,19 @@ public class ConnectionFactoryBuilder {
         case ARRAY_MOD:
           return new ArrayModNodeLocator(nodes, getHashAlg());
         case CONSISTENT:
-          return new KetamaNodeLocator(nodes, getHashAlg());
+          return new KetamaNodeLocator(nodes, getHashAlg(),
+              new DefaultKetamaNodeLocatorConfiguration(nodeWeights));
         case VBUCKET:
           return new VBucketNodeLocator(nodes, getVBucketConfig());
+        case JUMP:
+          return new JumpNodeLocator(nodes, getHashAlg());
+        case RENDEZVOUS:
+          return new RendezvousNodeLocator(nodes, getHashAlg(), nodeWeights);
+        case CONSISTENT_BOUNDED_LOAD:
+          return new BoundedLoadNodeLocator(nodes,
+              new KetamaNodeLocator(nodes, getHashAlg(),
+                  new DefaultKetamaNodeLocatorConfiguration(nodeWeights)),
+              maxLoadImbalance);
         default:
           throw new IllegalStateException("Unhandled locator type: " + locator);
         }
@@ -385,6 +606,46 @@ public class ConnectionFactoryBuilder {
         return timeoutExceptionThreshold;
       }
 
+      @Override
+      public int getIOThreadCount() {
+        return ioThreadCount;
+      }
+
+      @Override
+      public int getConnectionsPerNode() {
+        return connectionsPerNode;
+      }
+
+      @Override
+      public boolean shouldMatchResponsesByOpaque() {
+        return matchResponsesByOpaque;
+      }
+
+      @Override
+      public int getOptimizeWindow() {
+        return optimizeWindow;
+      }
+
+      @Override
+      public boolean useProactiveTimeouts() {
+        return proactiveTimeouts;
+      }
+
+      @Override
+      public boolean shouldCoalesceGets() {
+        return coalesceGets;
+      }
+
+      @Override
+      public MetricsCollector getMetricsCollector() {
+        return metricsCollector;
+      }
+
+      @Override
+      public DirectBufferPool getBufferPool() {
+        return bufferPool;
+      }
+
     };
 
   }
@@ -509,6 +770,46 @@ public class ConnectionFactoryBuilder {
         return timeoutExceptionThreshold;
       }
 
+      @Override
+      public int getIOThreadCount() {
+        return ioThreadCount;
+      }
+
+      @Override
+      public int getConnectionsPerNode() {
+        return connectionsPerNode;
+      }
+
+      @Override
+      public boolean shouldMatchResponsesByOpaque() {
+        return matchResponsesByOpaque;
+      }
+
+      @Override
+      public int getOptimizeWindow() {
+        return optimizeWindow;
+      }
+
+      @Override
+      public boolean useProactiveTimeouts() {
+        return proactiveTimeouts;
+      }
+
+      @Override
+      public boolean shouldCoalesceGets() {
+        return coalesceGets;
+      }
+
+      @Override
+      public MetricsCollector getMetricsCollector() {
+        return metricsCollector;
+      }
+
+      @Override
+      public DirectBufferPool getBufferPool() {
+        return bufferPool;
+      }
+
     };
 
   }
@@ -545,6 +846,25 @@ public class ConnectionFactoryBuilder {
     /**
      * VBucket support.
      */
-    VBUCKET
+    VBUCKET,
+    /**
+     * Jump consistent hash: no ring to build or search, and only the keys
+     * moving to a new node move when nodes are appended.
+     */
+    JUMP,
+    /**
+     * Rendezvous (highest random weight) hashing: only the keys of a node
+     * that's added or removed move, and a dead node's keys spread over all
+     * the others.
+     */
+    RENDEZVOUS,
+    /**
+     * Consistent hashing with bounded loads: ketama's distribution, except
+     * that keys first read while their node takes much more than its share
+     * of gets move to the next node in their sequence, and stay there.
+     *
+     * @see BoundedLoadNodeLocator
+     */
+    CONSISTENT_BOUNDED_LOAD
   }
 }
@@ -167,6 +167,7 @@ public class CouchbaseClient extends MembaseClient
               @Override
               public void complete() {
                 couchLatch.countDown();
+                crv.signalComplete();
               }
 
               @Override
@@ -207,6 +208,7 @@ public class CouchbaseClient extends MembaseClient
           @Override
           public void complete() {
             couchLatch.countDown();
+            crv.signalComplete();
           }
 
           @Override
@@ -299,6 +301,7 @@ public class CouchbaseClient extends MembaseClient
       @Override
       public void complete() {
         couchLatch.countDown();
+        crv.signalComplete();
       }
 
       @Override
@@ -341,6 +344,7 @@ public class CouchbaseClient extends MembaseClient
           @Override
           public void complete() {
             couchLatch.countDown();
+            crv.signalComplete();
           }
 
           @Override
@@ -385,6 +389,7 @@ public class CouchbaseClient extends MembaseClient
           @Override
           public void complete() {
             couchLatch.countDown();
+            crv.signalComplete();
           }
 
           @Override
@@ -37,7 +37,9 @@ import java.util.concurrent.TimeUnit;
 
 import net.spy.memcached.auth.AuthDescriptor;
 import net.spy.memcached.compat.SpyObject;
+import net.spy.memcached.metrics.MetricsCollector;
 import net.spy.memcached.ops.Operation;
+import net.spy.memcached.protocol.DirectBufferPool;
 import net.spy.memcached.protocol.ascii.AsciiMemcachedNodeImpl;
 import net.spy.memcached.protocol.ascii.AsciiOperationFactory;
 import net.spy.memcached.protocol.binary.BinaryMemcachedNodeImpl;
@@ -105,6 +107,36 @@ public class DefaultConnectionFactory extends SpyObject implements
    */
   public static final int DEFAULT_MAX_TIMEOUTEXCEPTION_THRESHOLD = 998;
 
+  /**
+   * Default number of IO threads driving the connections.
+   */
+  public static final int DEFAULT_IO_THREAD_COUNT = 1;
+
+  /**
+   * Default number of connections to each server.
+   */
+  public static final int DEFAULT_CONNECTIONS_PER_NODE = 1;
+
+  /**
+   * Whether concurrent gets for the same key share a fetch by default.
+   */
+  public static final boolean DEFAULT_COALESCE_GETS = false;
+
+  /**
+   * Whether binary responses are matched to requests by opaque by default.
+   */
+  public static final boolean DEFAULT_MATCH_RESPONSES_BY_OPAQUE = false;
+
+  /**
+   * Default number of queued operations the optimizer looks through.
+   */
+  public static final int DEFAULT_OPTIMIZE_WINDOW = 0;
+
+  /**
+   * Whether the IO threads time operations out by default.
+   */
+  public static final boolean DEFAULT_PROACTIVE_TIMEOUTS = false;
+
   protected final int opQueueLen;
   private final int readBufSize;
   private final HashAlgorithm hashAlg;
@@ -160,7 +192,9 @@ public class DefaultConnectionFactory extends SpyObject implements
           createOperationQueue(),
           getOpQueueMaxBlockTime(),
           doAuth,
-          getOperationTimeout());
+          getOperationTimeout(),
+          shouldMatchResponsesByOpaque(),
+          getOptimizeWindow());
     } else {
       throw new IllegalStateException("Unhandled operation factory type " + of);
     }
@@ -345,6 +379,78 @@ public class DefaultConnectionFactory extends SpyObject implements
     return DEFAULT_MAX_TIMEOUTEXCEPTION_THRESHOLD;
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getIOThreadCount()
+   */
+  public int getIOThreadCount() {
+    return DEFAULT_IO_THREAD_COUNT;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getConnectionsPerNode()
+   */
+  public int getConnectionsPerNode() {
+    return DEFAULT_CONNECTIONS_PER_NODE;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#shouldMatchResponsesByOpaque()
+   */
+  public boolean shouldMatchResponsesByOpaque() {
+    return DEFAULT_MATCH_RESPONSES_BY_OPAQUE;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getOptimizeWindow()
+   */
+  public int getOptimizeWindow() {
+    return DEFAULT_OPTIMIZE_WINDOW;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#useProactiveTimeouts()
+   */
+  public boolean useProactiveTimeouts() {
+    return DEFAULT_PROACTIVE_TIMEOUTS;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#shouldCoalesceGets()
+   */
+  public boolean shouldCoalesceGets() {
+    return DEFAULT_COALESCE_GETS;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getMetricsCollector()
+   */
+  public MetricsCollector getMetricsCollector() {
+    return null;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getBufferPool()
+   */
+  public DirectBufferPool getBufferPool() {
+    return DirectBufferPool.getInstance();
+  }
+
   protected String getName() {
     return "DefaultConnectionFactory";
   }
@@ -356,10 +462,19 @@ public class DefaultConnectionFactory extends SpyObject implements
       + getMaxReconnectDelay() + ", Max Op Timeout: " + getOperationTimeout()
       + ", Op Queue Length: " + getOpQueueLen() + ", Op Max Queue Block Time"
       + getOpQueueMaxBlockTime() + ", Max Timeout Exception Threshold: "
-      + getTimeoutExceptionThreshold() + ", Read Buffer Size: "
+      + getTimeoutExceptionThreshold() + ", IO Threads: "
+      + getIOThreadCount() + ", Connections Per Node: "
+      + getConnectionsPerNode() + ", Match Responses By Opaque: "
+      + shouldMatchResponsesByOpaque() + ", Coalesce Gets: "
+      + shouldCoalesceGets()
+      + ", Metrics Collector: " + getMetricsCollector()
+      + ", Buffer Pool: " + getBufferPool()
+      + ", Read Buffer Size: "
       + getReadBufSize() + ", Transcoder: " + getDefaultTranscoder()
       + ", Operation Factory: " + getOperationFactory() + " isDaemon: "
-      + isDaemon() + ", Optimized: " + shouldOptimize() + ", Using Nagle: "
+      + isDaemon() + ", Optimized: " + shouldOptimize()
+      + ", Optimize Window: " + getOptimizeWindow()
+      + ", Proactive Timeouts: " + useProactiveTimeouts() + ", Using Nagle: "
       + useNagleAlgorithm() + ", ConnectionFactory: " + getName();
   }
 }
@@ -70,7 +70,20 @@ public enum DefaultHashAlgorithm implements HashAlgorithm {
   /**
    * MD5-based hash algorithm used by ketama.
    */
-  KETAMA_HASH;
+  KETAMA_HASH,
+  /**
+   * 32-bit Murmur3 (x86_32, seed 0) over the UTF-8 bytes of the key. Much
+   * cheaper than the MD5 of ketama, and spreads keys about as well.
+   *
+   * @see <a href="https://github.com/aappleby/smhasher">smhasher</a>
+   */
+  MURMUR3_HASH,
+  /**
+   * The lower 32 bits of xxHash64 (seed 0) over the UTF-8 bytes of the key.
+   *
+   * @see <a href="https://github.com/Cyan4973/xxHash">xxHash</a>
+   */
+  XXHASH64_HASH;
 
   private static final long FNV_64_INIT = 0xcbf29ce484222325L;
   private static final long FNV_64_PRIME = 0x100000001b3L;
@@ -78,15 +91,36 @@ public enum DefaultHashAlgorithm implements HashAlgorithm {
   private static final long FNV_32_INIT = 2166136261L;
   private static final long FNV_32_PRIME = 16777619;
 
-  private static MessageDigest md5Digest = null;
+  private static final int MURMUR3_C1 = 0xcc9e2d51;
+  private static final int MURMUR3_C2 = 0x1b873593;
 
-  static {
-    try {
-      md5Digest = MessageDigest.getInstance("MD5");
-    } catch (NoSuchAlgorithmException e) {
-      throw new RuntimeException("MD5 not supported", e);
-    }
-  }
+  private static final long XXH_PRIME1 = 0x9E3779B185EBCA87L;
+  private static final long XXH_PRIME2 = 0xC2B2AE3D27D4EB4FL;
+  private static final long XXH_PRIME3 = 0x165667B19E3779F9L;
+  private static final long XXH_PRIME4 = 0x85EBCA77C2B2AE63L;
+  private static final long XXH_PRIME5 = 0x27D4EB2F165667C5L;
+
+  // Digests and checksums are reset and reused by the thread that owns them,
+  // rather than made anew for every key.
+  private static final ThreadLocal<MessageDigest> MD5_DIGEST =
+      new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+          try {
+            return MessageDigest.getInstance("MD5");
+          } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("MD5 not supported", e);
+          }
+        }
+      };
+
+  private static final ThreadLocal<CRC32> CRC32_CHECKSUM =
+      new ThreadLocal<CRC32>() {
+        @Override
+        protected CRC32 initialValue() {
+          return new CRC32();
+        }
+      };
 
   /**
    * Compute the hash for the given key.
@@ -94,6 +128,17 @@ public enum DefaultHashAlgorithm implements HashAlgorithm {
    * @return a positive integer hash
    */
   public long hash(final String k) {
+    return hash(k, null);
+  }
+
+  /**
+   * Compute the hash for the given key, using its bytes if already encoded.
+   *
+   * @param k the key
+   * @param keyBytes the UTF-8 bytes of the key, or null
+   * @return a positive integer hash
+   */
+  long hash(final String k, byte[] keyBytes) {
     long rv = 0;
     int len = k.length();
     switch (this) {
@@ -102,8 +147,9 @@ public enum DefaultHashAlgorithm implements HashAlgorithm {
       break;
     case CRC_HASH:
       // return (crc32(shift) >> 16) & 0x7fff;
-      CRC32 crc32 = new CRC32();
-      crc32.update(KeyUtil.getKeyBytes(k));
+      CRC32 crc32 = CRC32_CHECKSUM.get();
+      crc32.reset();
+      crc32.update(keyBytes == null ? KeyUtil.encode(k) : keyBytes);
       rv = (crc32.getValue() >> 16) & 0x7fff;
       break;
     case FNV1_64_HASH:
@@ -136,12 +182,19 @@ public enum DefaultHashAlgorithm implements HashAlgorithm {
       }
       break;
     case KETAMA_HASH:
-      byte[] bKey = computeMd5(k);
+      byte[] bKey = computeMd5(keyBytes == null ? KeyUtil.encode(k)
+          : keyBytes);
       rv = ((long) (bKey[3] & 0xFF) << 24)
           | ((long) (bKey[2] & 0xFF) << 16)
           | ((long) (bKey[1] & 0xFF) << 8)
           | (bKey[0] & 0xFF);
       break;
+    case MURMUR3_HASH:
+      rv = murmur3(keyBytes == null ? KeyUtil.encode(k) : keyBytes);
+      break;
+    case XXHASH64_HASH:
+      rv = xxHash64(keyBytes == null ? KeyUtil.encode(k) : keyBytes);
+      break;
     default:
       assert false;
     }
@@ -152,13 +205,106 @@ public enum DefaultHashAlgorithm implements HashAlgorithm {
    * Get the md5 of the given key.
    */
   public static byte[] computeMd5(String k) {
-    MessageDigest md5;
-    try {
-      md5 = (MessageDigest) md5Digest.clone();
-    } catch (CloneNotSupportedException e) {
-      throw new RuntimeException("clone of MD5 not supported", e);
-    }
-    md5.update(KeyUtil.getKeyBytes(k));
+    return computeMd5(KeyUtil.getKeyBytes(k));
+  }
+
+  private static byte[] computeMd5(byte[] keyBytes) {
+    MessageDigest md5 = MD5_DIGEST.get();
+    md5.reset();
+    md5.update(keyBytes);
     return md5.digest();
   }
+
+  private static int murmur3(byte[] b) {
+    int n = b.length;
+    int h = 0;
+    int i = 0;
+    for (; i + 4 <= n; i += 4) {
+      h ^= murmur3Mix(getInt(b, i));
+      h = Integer.rotateLeft(h, 13) * 5 + 0xe6546b64;
+    }
+    if (i < n) {
+      // The last one to three bytes, little-endian.
+      int k = 0;
+      for (int j = n - 1; j >= i; j--) {
+        k = k << 8 | b[j] & 0xff;
+      }
+      h ^= murmur3Mix(k);
+    }
+    h ^= n;
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+
+  private static int murmur3Mix(int k) {
+    return Integer.rotateLeft(k * MURMUR3_C1, 15) * MURMUR3_C2;
+  }
+
+  private static long xxHash64(byte[] b) {
+    int n = b.length;
+    int i = 0;
+    long h;
+    if (n >= 32) {
+      long v1 = XXH_PRIME1 + XXH_PRIME2;
+      long v2 = XXH_PRIME2;
+      long v3 = 0;
+      long v4 = -XXH_PRIME1;
+      for (; i + 32 <= n; i += 32) {
+        v1 = xxRound(v1, getLong(b, i));
+        v2 = xxRound(v2, getLong(b, i + 8));
+        v3 = xxRound(v3, getLong(b, i + 16));
+        v4 = xxRound(v4, getLong(b, i + 24));
+      }
+      h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7)
+          + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+      h = xxMerge(h, v1);
+      h = xxMerge(h, v2);
+      h = xxMerge(h, v3);
+      h = xxMerge(h, v4);
+    } else {
+      h = XXH_PRIME5;
+    }
+    h += n;
+    for (; i + 8 <= n; i += 8) {
+      h ^= xxRound(0, getLong(b, i));
+      h = Long.rotateLeft(h, 27) * XXH_PRIME1 + XXH_PRIME4;
+    }
+    if (i + 4 <= n) {
+      h ^= (getInt(b, i) & 0xffffffffL) * XXH_PRIME1;
+      h = Long.rotateLeft(h, 23) * XXH_PRIME2 + XXH_PRIME3;
+      i += 4;
+    }
+    for (; i < n; i++) {
+      h ^= (b[i] & 0xff) * XXH_PRIME5;
+      h = Long.rotateLeft(h, 11) * XXH_PRIME1;
+    }
+    h ^= h >>> 33;
+    h *= XXH_PRIME2;
+    h ^= h >>> 29;
+    h *= XXH_PRIME3;
+    h ^= h >>> 32;
+    return h;
+  }
+
+  private static long xxRound(long acc, long input) {
+    return Long.rotateLeft(acc + input * XXH_PRIME2, 31) * XXH_PRIME1;
+  }
+
+  private static long xxMerge(long acc, long v) {
+    return (acc ^ xxRound(0, v)) * XXH_PRIME1 + XXH_PRIME4;
+  }
+
+  // Little-endian reads, as both hashes define them.
+  private static int getInt(byte[] b, int i) {
+    return (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff) << 16
+        | b[i + 3] << 24;
+  }
+
+  private static long getLong(byte[] b, int i) {
+    return (getInt(b, i) & 0xffffffffL) | (long) getInt(b, i + 4) << 32;
+  }
 }
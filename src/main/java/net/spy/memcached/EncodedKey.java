@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+/**
+ * A key, encoded and checked once.
+ *
+ * <p>
+ * A key's UTF-8 bytes are needed to check it, to hash it to a node and to
+ * write it out, and its hash may be needed more than once on the way. An
+ * encoded key keeps its bytes and the hash it last had, so each is worked out
+ * a single time.
+ * </p>
+ *
+ * <p>
+ * The connection hands the encoded key to the {@link EncodedKeyLocator}s and
+ * gives its bytes to the operation it's queueing, so neither encodes or
+ * hashes the key again.
+ * </p>
+ */
+final class EncodedKey {
+
+  private final String key;
+  private final byte[] bytes;
+  private volatile CachedHash hash;
+
+  private EncodedKey(String k, byte[] b) {
+    key = k;
+    bytes = b;
+  }
+
+  /**
+   * Encode a key, making sure it's fit to send to a server.
+   *
+   * @param key the key
+   * @return the encoded key
+   * @throws IllegalArgumentException if the key is empty, too long, or
+   *           contains whitespace or nulls
+   */
+  public static EncodedKey of(String key) {
+    byte[] keyBytes = KeyUtil.encode(key);
+    if (keyBytes.length > MemcachedClientIF.MAX_KEY_LENGTH) {
+      throw new IllegalArgumentException("Key is too long (maxlen = "
+          + MemcachedClientIF.MAX_KEY_LENGTH + ")");
+    }
+    if (keyBytes.length == 0) {
+      throw new IllegalArgumentException(
+          "Key must contain at least one character.");
+    }
+    // Validate the key
+    for (byte b : keyBytes) {
+      if (b == ' ' || b == '\n' || b == '\r' || b == 0) {
+        throw new IllegalArgumentException(
+            "Key contains invalid characters:  ``" + key + "''");
+      }
+    }
+    return new EncodedKey(key, keyBytes);
+  }
+
+  /**
+   * Get the key.
+   */
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * Get the UTF-8 bytes of the key. The array is shared, and must not be
+   * modified.
+   */
+  public byte[] getBytes() {
+    return bytes;
+  }
+
+  /**
+   * Hash the key, reusing the hash if it was last hashed with the same
+   * algorithm.
+   *
+   * @param alg the hash algorithm
+   * @return the hash of the key
+   */
+  public long hash(HashAlgorithm alg) {
+    CachedHash h = hash;
+    if (h == null || h.alg != alg) {
+      long v = alg instanceof DefaultHashAlgorithm
+          ? ((DefaultHashAlgorithm) alg).hash(key, bytes) : alg.hash(key);
+      h = new CachedHash(alg, v);
+      hash = h;
+    }
+    return h.value;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof EncodedKey && key.equals(((EncodedKey) o).key);
+  }
+
+  @Override
+  public int hashCode() {
+    return key.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return key;
+  }
+
+  private static final class CachedHash {
+    private final HashAlgorithm alg;
+    private final long value;
+
+    CachedHash(HashAlgorithm a, long v) {
+      alg = a;
+      value = v;
+    }
+  }
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import net.spy.memcached.vbucket.config.Config;
+
+/**
+ * NodeLocator implementation using jump consistent hashing.
+ *
+ * <p>
+ * The key's hash picks a node with no more state than the list of nodes, and
+ * a lookup costs a handful of multiplications. When a node is added to the
+ * end of the list, only the keys that move to it change nodes. Nodes removed
+ * from anywhere but the end move more than their share, so this suits
+ * clusters that grow by appending servers and rely on failover, rather than
+ * removal, for dead ones.
+ * </p>
+ *
+ * @see <a href="http://arxiv.org/abs/1406.2294">A Fast, Minimal Memory,
+ *      Consistent Hash Algorithm</a>
+ */
+public final class JumpNodeLocator implements NodeLocator,
+    EncodedKeyLocator {
+
+  // How many other places a key is tried when its node is down. As with
+  // ketama, seven tries leave about a 1 in 2^7 chance of only finding dead
+  // nodes.
+  private static final int BACKUP_TRIES = 7;
+
+  private static final double JUMP_SCALE = 1L << 31;
+
+  private final HashAlgorithm hashAlg;
+
+  private volatile MemcachedNode[] nodes;
+
+  /**
+   * Construct a JumpNodeLocator over the given nodes, using the given hash
+   * algorithm.
+   *
+   * @param n the nodes, in the order they were added to the cluster
+   * @param alg the hash algorithm
+   */
+  public JumpNodeLocator(List<MemcachedNode> n, HashAlgorithm alg) {
+    this(n.toArray(new MemcachedNode[n.size()]), alg);
+  }
+
+  private JumpNodeLocator(MemcachedNode[] n, HashAlgorithm alg) {
+    super();
+    nodes = n;
+    hashAlg = alg;
+  }
+
+  public Collection<MemcachedNode> getAll() {
+    return Arrays.asList(nodes);
+  }
+
+  public MemcachedNode getPrimary(String k) {
+    MemcachedNode[] current = nodes;
+    return current[jump(hashAlg.hash(k), current.length)];
+  }
+
+  public MemcachedNode getPrimary(EncodedKey k) {
+    MemcachedNode[] current = nodes;
+    return current[jump(k.hash(hashAlg), current.length)];
+  }
+
+  public Iterator<MemcachedNode> getSequence(String k) {
+    return new JumpIterator(k, nodes);
+  }
+
+  public NodeLocator getReadonlyCopy() {
+    MemcachedNode[] current = nodes;
+    MemcachedNode[] n = new MemcachedNode[current.length];
+    for (int i = 0; i < current.length; i++) {
+      n[i] = new MemcachedNodeROImpl(current[i]);
+    }
+    return new JumpNodeLocator(n, hashAlg);
+  }
+
+  @Override
+  public void updateLocator(List<MemcachedNode> newNodes, Config conf) {
+    nodes = newNodes.toArray(new MemcachedNode[newNodes.size()]);
+  }
+
+  /**
+   * Find the bucket a key falls into.
+   *
+   * @param key the hash of the key
+   * @param buckets the number of buckets
+   * @return a bucket from 0 to buckets - 1
+   */
+  static int jump(long key, int buckets) {
+    long b = -1;
+    long j = 0;
+    while (j < buckets) {
+      b = j;
+      key = key * 2862933555777941757L + 1;
+      j = (long) ((b + 1) * (JUMP_SCALE / ((key >>> 33) + 1)));
+    }
+    return (int) b;
+  }
+
+  /**
+   * Walks the nodes a key lands on when it's hashed again with the number of
+   * the attempt in front of it, as the ketama locator does.
+   */
+  private final class JumpIterator implements Iterator<MemcachedNode> {
+
+    private final String key;
+    private final MemcachedNode[] current;
+    private int remainingTries = BACKUP_TRIES;
+    private int numTries = 0;
+
+    private JumpIterator(String k, MemcachedNode[] n) {
+      key = k;
+      current = n;
+    }
+
+    public boolean hasNext() {
+      return remainingTries > 0;
+    }
+
+    public MemcachedNode next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      remainingTries--;
+      numTries++;
+      return current[jump(hashAlg.hash(numTries + key), current.length)];
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException("Can't remove a node");
+    }
+  }
+}
@@ -23,8 +23,10 @@
 
 package net.spy.memcached;
 
+import java.net.SocketAddress;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -41,14 +43,17 @@ import net.spy.memcached.vbucket.config.Config;
  * last.fm. This implementation may not be compatible with libketama as hashing
  * is considered separate from node location.
  *
- * Note that this implementation does not currently supported weighted nodes.
+ * Nodes are weighted by the {@link KetamaNodeLocatorConfiguration}. As with
+ * libketama, each node gets a share of the points in the continuum in
+ * proportion to its weight.
  *
  * @see <a href="http://www.last.fm/user/RJ/journal/2007/04/10/392555/">RJ's
  *      blog post</a>
  */
-public final class KetamaNodeLocator extends SpyObject implements NodeLocator {
+public final class KetamaNodeLocator extends SpyObject implements NodeLocator,
+    EncodedKeyLocator, WeightedNodeLocator {
 
-  private volatile TreeMap<Long, MemcachedNode> ketamaNodes;
+  private volatile Continuum ketamaNodes;
   private final Collection<MemcachedNode> allNodes;
 
   private final HashAlgorithm hashAlg;
@@ -86,7 +91,7 @@ public final class KetamaNodeLocator extends SpyObject implements NodeLocator {
     setKetamaNodes(nodes);
   }
 
-  private KetamaNodeLocator(TreeMap<Long, MemcachedNode> smn,
+  private KetamaNodeLocator(Continuum smn,
       Collection<MemcachedNode> an, HashAlgorithm alg,
       KetamaNodeLocatorConfiguration conf) {
     super();
@@ -106,49 +111,62 @@ public final class KetamaNodeLocator extends SpyObject implements NodeLocator {
     return rv;
   }
 
+  public MemcachedNode getPrimary(EncodedKey k) {
+    MemcachedNode rv = getNodeForKey(k.hash(hashAlg));
+    assert rv != null : "Found no node for key " + k;
+    return rv;
+  }
+
   long getMaxKey() {
-    return getKetamaNodes().lastKey();
+    long[] points = ketamaNodes.points;
+    return points[points.length - 1];
   }
 
   MemcachedNode getNodeForKey(long hash) {
-    final MemcachedNode rv;
-    if (!ketamaNodes.containsKey(hash)) {
-      // Java 1.6 adds a ceilingKey method, but I'm still stuck in 1.5
-      // in a lot of places, so I'm doing this myself.
-      SortedMap<Long, MemcachedNode> tailMap = getKetamaNodes().tailMap(hash);
-      if (tailMap.isEmpty()) {
-        hash = getKetamaNodes().firstKey();
-      } else {
-        hash = tailMap.firstKey();
-      }
-    }
-    rv = getKetamaNodes().get(hash);
-    return rv;
+    return ketamaNodes.getNodeForKey(hash);
   }
 
   public Iterator<MemcachedNode> getSequence(String k) {
     // Seven searches gives us a 1 in 2^7 chance of hitting the
     // same dead node all of the time.
-    return new KetamaIterator(k, 7, getKetamaNodes(), hashAlg);
+    return getSequence(k, 7);
+  }
+
+  /**
+   * Get a sequence of the given number of searches for a key, starting with
+   * its primary.
+   */
+  Iterator<MemcachedNode> getSequence(String k, int tries) {
+    return new KetamaIterator(k, tries, ketamaNodes, hashAlg);
   }
 
   public NodeLocator getReadonlyCopy() {
-    TreeMap<Long, MemcachedNode> smn =
-        new TreeMap<Long, MemcachedNode>(getKetamaNodes());
+    Continuum current = ketamaNodes;
+    Map<MemcachedNode, MemcachedNode> ro =
+        new IdentityHashMap<MemcachedNode, MemcachedNode>();
     Collection<MemcachedNode> an =
         new ArrayList<MemcachedNode>(allNodes.size());
 
-    // Rewrite the values a copy of the map.
-    for (Map.Entry<Long, MemcachedNode> me : smn.entrySet()) {
-      me.setValue(new MemcachedNodeROImpl(me.getValue()));
-    }
-
     // Copy the allNodes collection.
     for (MemcachedNode n : allNodes) {
-      an.add(new MemcachedNodeROImpl(n));
+      MemcachedNode ron = new MemcachedNodeROImpl(n);
+      ro.put(n, ron);
+      an.add(ron);
     }
 
-    return new KetamaNodeLocator(smn, an, hashAlg, config);
+    // Point a copy of the continuum at the same read-only nodes.
+    MemcachedNode[] nodes = new MemcachedNode[current.nodes.length];
+    for (int i = 0; i < nodes.length; i++) {
+      MemcachedNode ron = ro.get(current.nodes[i]);
+      if (ron == null) {
+        ron = new MemcachedNodeROImpl(current.nodes[i]);
+        ro.put(current.nodes[i], ron);
+      }
+      nodes[i] = ron;
+    }
+
+    return new KetamaNodeLocator(new Continuum(current.points, nodes), an,
+        hashAlg, config);
   }
 
   @Override
@@ -157,10 +175,46 @@ public final class KetamaNodeLocator extends SpyObject implements NodeLocator {
   }
 
   /**
-   * @return the ketamaNodes
+   * Get the weight of a node in the configuration.
+   */
+  int getNodeWeight(MemcachedNode node) {
+    return config.getNodeWeight(node);
+  }
+
+  /**
+   * Rebuild the continuum over the same nodes, picking up any change to
+   * their weights in the configuration.
    */
-  protected TreeMap<Long, MemcachedNode> getKetamaNodes() {
-    return ketamaNodes;
+  public void reweight() {
+    setKetamaNodes(new ArrayList<MemcachedNode>(allNodes));
+  }
+
+  /**
+   * Set the weights in the configuration and rebuild the continuum with
+   * them.
+   *
+   * @throws UnsupportedOperationException if the configuration is not a
+   *           {@link DefaultKetamaNodeLocatorConfiguration}
+   */
+  public void setNodeWeights(Map<? extends SocketAddress, Integer> w) {
+    if (!(config instanceof DefaultKetamaNodeLocatorConfiguration)) {
+      throw new UnsupportedOperationException("Can't weight nodes with "
+          + config);
+    }
+    ((DefaultKetamaNodeLocatorConfiguration) config).setNodeWeights(w);
+    reweight();
+  }
+
+  /**
+   * @return a copy of the continuum as a map from position to node
+   */
+  protected SortedMap<Long, MemcachedNode> getKetamaNodes() {
+    Continuum current = ketamaNodes;
+    SortedMap<Long, MemcachedNode> rv = new TreeMap<Long, MemcachedNode>();
+    for (int i = 0; i < current.points.length; i++) {
+      rv.put(current.points[i], current.nodes[i]);
+    }
+    return rv;
   }
 
   /**
@@ -173,10 +227,23 @@ public final class KetamaNodeLocator extends SpyObject implements NodeLocator {
     TreeMap<Long, MemcachedNode> newNodeMap =
         new TreeMap<Long, MemcachedNode>();
     int numReps = config.getNodeRepetitions();
+    int[] weights = new int[nodes.size()];
+    long totalWeight = 0;
+    for (int i = 0; i < weights.length; i++) {
+      weights[i] = config.getNodeWeight(nodes.get(i));
+      assert weights[i] > 0 : "Weight of " + nodes.get(i) + " is "
+          + weights[i];
+      totalWeight += weights[i];
+    }
+    int numPoints = 0;
+    int n = 0;
     for (MemcachedNode node : nodes) {
+      int weight = weights[n++];
       // Ketama does some special work with md5 where it reuses chunks.
       if (hashAlg == DefaultHashAlgorithm.KETAMA_HASH) {
-        for (int i = 0; i < numReps / 4; i++) {
+        int chunks = getNodePoints(numReps / 4, weight, totalWeight,
+            weights.length);
+        for (int i = 0; i < chunks; i++) {
           byte[] digest =
               DefaultHashAlgorithm.computeMd5(config.getKeyForNode(node, i));
           for (int h = 0; h < 4; h++) {
@@ -188,13 +255,78 @@ public final class KetamaNodeLocator extends SpyObject implements NodeLocator {
             getLogger().debug("Adding node %s in position %d", node, k);
           }
         }
+        numPoints += chunks * 4;
       } else {
-        for (int i = 0; i < numReps; i++) {
+        int reps = getNodePoints(numReps, weight, totalWeight,
+            weights.length);
+        for (int i = 0; i < reps; i++) {
           newNodeMap.put(hashAlg.hash(config.getKeyForNode(node, i)), node);
         }
+        numPoints += reps;
+      }
+    }
+    assert newNodeMap.size() == numPoints;
+    ketamaNodes = new Continuum(newNodeMap);
+  }
+
+  /**
+   * Get a node's share of the given number of points per node, by weight.
+   * Nodes of equal weight get exactly that many, and every node gets at
+   * least one so that it stays in the continuum.
+   */
+  static int getNodePoints(int perNode, int weight, long totalWeight,
+      int numNodes) {
+    long rv = (long) perNode * numNodes * weight / totalWeight;
+    return (int) Math.max(1, rv);
+  }
+
+  /**
+   * An immutable continuum: the sorted positions on the ring and the node at
+   * each of them. Changes build a new one, so lookups never lock or allocate.
+   */
+  static final class Continuum {
+    private final long[] points;
+    private final MemcachedNode[] nodes;
+
+    Continuum(SortedMap<Long, MemcachedNode> m) {
+      points = new long[m.size()];
+      nodes = new MemcachedNode[m.size()];
+      int i = 0;
+      for (Map.Entry<Long, MemcachedNode> me : m.entrySet()) {
+        points[i] = me.getKey();
+        nodes[i] = me.getValue();
+        i++;
+      }
+    }
+
+    private Continuum(long[] p, MemcachedNode[] n) {
+      points = p;
+      nodes = n;
+    }
+
+    /**
+     * Get the node at the first position at or after the given hash,
+     * wrapping around to the start of the ring.
+     */
+    MemcachedNode getNodeForKey(long hash) {
+      int last = points.length - 1;
+      if (last < 0) {
+        return null;
+      }
+      if (hash > points[last]) {
+        return nodes[0];
+      }
+      int low = 0;
+      int high = last;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (points[mid] < hash) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
       }
+      return nodes[low];
     }
-    assert newNodeMap.size() == numReps * nodes.size();
-    ketamaNodes = newNodeMap;
   }
 }
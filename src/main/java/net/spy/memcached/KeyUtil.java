@@ -22,7 +22,7 @@
 
 package net.spy.memcached;
 
-import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
 
@@ -31,6 +31,8 @@ import java.util.Collection;
  */
 public final class KeyUtil {
 
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
   private KeyUtil() {
     // Empty
   }
@@ -42,11 +44,14 @@ public final class KeyUtil {
    * @return the bytes
    */
   public static byte[] getKeyBytes(String k) {
-    try {
-      return k.getBytes("UTF-8");
-    } catch (UnsupportedEncodingException e) {
-      throw new RuntimeException(e);
-    }
+    return encode(k);
+  }
+
+  /**
+   * Encode a key as UTF-8.
+   */
+  static byte[] encode(String k) {
+    return k.getBytes(UTF8);
   }
 
   /**
@@ -207,6 +207,7 @@ public class MembaseClient extends MemcachedClient implements MembaseClientIF,
 
       public void complete() {
         latch.countDown();
+        rv.signalComplete();
       }
     });
     rv.setOperation(op);
@@ -30,6 +30,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -42,6 +43,7 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -51,8 +53,12 @@ import net.spy.memcached.compat.SpyObject;
 import net.spy.memcached.internal.BulkFuture;
 import net.spy.memcached.internal.BulkGetFuture;
 import net.spy.memcached.internal.GetFuture;
+import net.spy.memcached.internal.ImmediateFuture;
+import net.spy.memcached.internal.ListenableFuture;
 import net.spy.memcached.internal.OperationFuture;
 import net.spy.memcached.internal.SingleElementInfiniteIterator;
+import net.spy.memcached.internal.StreamingGetFuture;
+import net.spy.memcached.ops.BulkOperationCallback;
 import net.spy.memcached.ops.CASOperationStatus;
 import net.spy.memcached.ops.CancelledOperationStatus;
 import net.spy.memcached.ops.ConcatenationType;
@@ -70,6 +76,7 @@ import net.spy.memcached.ops.StoreType;
 import net.spy.memcached.ops.TimedOutOperationStatus;
 import net.spy.memcached.transcoders.TranscodeService;
 import net.spy.memcached.transcoders.Transcoder;
+import net.spy.memcached.util.DefaultKetamaNodeLocatorConfiguration;
 
 /**
  * Client to a memcached server.
@@ -124,6 +131,13 @@ import net.spy.memcached.transcoders.Transcoder;
 public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     ConnectionObserver {
 
+  // Bulk requests send each server its keys in runs of at most this many
+  // keys and roughly this many bytes, so that no one operation holds up
+  // the server's queue, needs a huge buffer or has to fit the whole run
+  // in a single operation timeout.
+  private static final int MAX_BULK_RUN_KEYS = 1024;
+  private static final int MAX_BULK_RUN_BYTES = 2 * 1024 * 1024;
+
   protected volatile boolean shuttingDown = false;
 
   protected final long operationTimeout;
@@ -142,6 +156,10 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
   protected final AuthThreadMonitor authMonitor = new AuthThreadMonitor();
 
+  private final ConcurrentMap<String, CoalescedGet> inFlightGets;
+
+  private final AtomicLong coalescedGets = new AtomicLong();
+
   /**
    * Get a memcache client operating on the specified memcached locations.
    *
@@ -194,8 +212,17 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     operationTimeout = cf.getOperationTimeout();
     authDescriptor = cf.getAuthDescriptor();
     if (authDescriptor != null) {
-      addObserver(this);
+      mconn.addObserver(this);
+      // Channels that connected before we were watching still need to
+      // authenticate.
+      for (MemcachedNode node : mconn.getChannels()) {
+        if (node.isActive()) {
+          authenticate(node);
+        }
+      }
     }
+    inFlightGets = cf.shouldCoalesceGets()
+        ? new ConcurrentHashMap<String, CoalescedGet>() : null;
   }
 
   /**
@@ -259,22 +286,7 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
   }
 
   private void validateKey(String key) {
-    byte[] keyBytes = KeyUtil.getKeyBytes(key);
-    if (keyBytes.length > MAX_KEY_LENGTH) {
-      throw new IllegalArgumentException("Key is too long (maxlen = "
-          + MAX_KEY_LENGTH + ")");
-    }
-    if (keyBytes.length == 0) {
-      throw new IllegalArgumentException(
-          "Key must contain at least one character.");
-    }
-    // Validate the key
-    for (byte b : keyBytes) {
-      if (b == ' ' || b == '\n' || b == '\r' || b == 0) {
-        throw new IllegalArgumentException(
-            "Key contains invalid characters:  ``" + key + "''");
-      }
-    }
+    EncodedKey.of(key);
   }
 
   /**
@@ -286,9 +298,14 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
    * @return the Operation
    */
   Operation addOp(final String key, final Operation op) {
-    validateKey(key);
+    EncodedKey k = EncodedKey.of(key);
     mconn.checkState();
-    mconn.addOperation(key, op);
+    if (inFlightGets != null && !(op instanceof GetOperation)) {
+      // Gets issued after this operation must not be answered by a fetch
+      // that was sent before it.
+      inFlightGets.remove(key);
+    }
+    mconn.addOperation(k, op);
     return op;
   }
 
@@ -323,6 +340,7 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
             public void complete() {
               latch.countDown();
+              rv.signalComplete();
             }
           });
     rv.setOperation(op);
@@ -335,6 +353,166 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     return asyncStore(storeType, key, exp, value, transcoder);
   }
 
+  private <T> BulkFuture<Map<String, Boolean>> asyncStoreBulk(
+      final StoreType storeType, Map<String, ? extends T> values,
+      final int exp, Transcoder<T> tc) {
+    final Map<String, CachedData> encoded =
+        new HashMap<String, CachedData>(values.size());
+    for (Map.Entry<String, ? extends T> me : values.entrySet()) {
+      validateKey(me.getKey());
+      encoded.put(me.getKey(), tc.encode(me.getValue()));
+    }
+    return asyncBulk(encoded.keySet(), new BulkOpFactory() {
+      @Override
+      public Operation newOp(Collection<String> keys,
+          BulkOperationCallback cb) {
+        Map<String, CachedData> data =
+            new HashMap<String, CachedData>(keys.size());
+        for (String key : keys) {
+          data.put(key, encoded.get(key));
+        }
+        return opFact.store(storeType, data, exp, cb);
+      }
+
+      @Override
+      public int bytes(String key) {
+        return key.length() + encoded.get(key).getData().length;
+      }
+    });
+  }
+
+  /**
+   * Creates the operation for a run of the keys of one node in a bulk
+   * request.
+   */
+  private abstract static class BulkOpFactory {
+    abstract Operation newOp(Collection<String> keys,
+        BulkOperationCallback cb);
+
+    /**
+     * Estimate how many bytes the command for a key takes.
+     */
+    int bytes(String key) {
+      return key.length();
+    }
+  }
+
+  /**
+   * Split the keys of one node into runs for separate operations.
+   */
+  private static List<Collection<String>> splitRuns(Collection<String> keys,
+      BulkOpFactory of) {
+    List<Collection<String>> rv = new ArrayList<Collection<String>>();
+    Collection<String> run = new ArrayList<String>();
+    long bytes = 0;
+    for (String key : keys) {
+      int b = of.bytes(key);
+      if (!run.isEmpty() && (run.size() >= MAX_BULK_RUN_KEYS
+          || bytes + b > MAX_BULK_RUN_BYTES)) {
+        rv.add(run);
+        run = new ArrayList<String>();
+        bytes = 0;
+      }
+      run.add(key);
+      bytes += b;
+    }
+    if (!run.isEmpty()) {
+      rv.add(run);
+    }
+    return rv;
+  }
+
+  /**
+   * Validate the given keys and break them down into groups by node.
+   */
+  private Map<MemcachedNode, Collection<String>> chunkKeys(
+      Collection<String> keys) {
+    Map<MemcachedNode, Collection<String>> chunks =
+        new HashMap<MemcachedNode, Collection<String>>();
+    NodeLocator locator = mconn.getLocator();
+    for (String key : keys) {
+      validateKey(key);
+      MemcachedNode node = getBulkNode(locator, key);
+      Collection<String> ks = chunks.get(node);
+      if (ks == null) {
+        ks = new ArrayList<String>();
+        chunks.put(node, ks);
+      }
+      ks.add(key);
+    }
+    return chunks;
+  }
+
+  /**
+   * Send each node its keys in runs of operations, and collect the keys
+   * they fail on.
+   */
+  private BulkFuture<Map<String, Boolean>> asyncBulk(Collection<String> keys,
+      BulkOpFactory of) {
+    final Map<MemcachedNode, Collection<String>> chunks = chunkKeys(keys);
+    final Map<MemcachedNode, List<Collection<String>>> runs =
+        new HashMap<MemcachedNode, List<Collection<String>>>();
+    int numRuns = 0;
+    int maxRuns = 0;
+    for (Map.Entry<MemcachedNode, Collection<String>> me : chunks.entrySet()) {
+      List<Collection<String>> r = splitRuns(me.getValue(), of);
+      runs.put(me.getKey(), r);
+      numRuns += r.size();
+      maxRuns = Math.max(maxRuns, r.size());
+    }
+    final Map<String, Future<Boolean>> m =
+        new ConcurrentHashMap<String, Future<Boolean>>();
+    final CountDownLatch latch = new CountDownLatch(numRuns);
+    final Collection<Operation> ops = new ArrayList<Operation>(numRuns);
+    final BulkGetFuture<Boolean> rv = new BulkGetFuture<Boolean>(m, ops, latch);
+    BulkOperationCallback cb = new BulkOperationCallback() {
+      public void gotFailure(String k, OperationStatus status) {
+        m.put(k, new ImmediateFuture(false));
+        rv.setStatus(status);
+      }
+
+      public void receivedStatus(OperationStatus status) {
+        // Don't let the OK ending a batch hide a key that failed.
+        if (!status.isSuccess() || m.isEmpty()) {
+          rv.setStatus(status);
+        }
+      }
+
+      public void complete() {
+        latch.countDown();
+        rv.signalComplete();
+      }
+    };
+
+    // The i-th run of every node goes out together, so that the nodes work
+    // through their runs side by side.
+    final List<Map<MemcachedNode, Operation>> rounds =
+        new ArrayList<Map<MemcachedNode, Operation>>(maxRuns);
+    for (int i = 0; i < maxRuns; i++) {
+      Map<MemcachedNode, Operation> mops =
+          new HashMap<MemcachedNode, Operation>();
+      for (Map.Entry<MemcachedNode, List<Collection<String>>> me
+          : runs.entrySet()) {
+        if (i < me.getValue().size()) {
+          Operation op = of.newOp(me.getValue().get(i), cb);
+          mops.put(me.getKey(), op);
+          ops.add(op);
+        }
+      }
+      rounds.add(mops);
+    }
+    mconn.checkState();
+    if (inFlightGets != null) {
+      for (String key : keys) {
+        inFlightGets.remove(key);
+      }
+    }
+    for (Map<MemcachedNode, Operation> mops : rounds) {
+      mconn.addOperations(mops);
+    }
+    return rv;
+  }
+
   private <T> OperationFuture<Boolean> asyncCat(ConcatenationType catType,
       long cas, String key, T value, Transcoder<T> tc) {
     CachedData co = tc.encode(value);
@@ -349,6 +527,7 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
           public void complete() {
             latch.countDown();
+            rv.signalComplete();
           }
         });
     rv.setOperation(op);
@@ -395,6 +574,7 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
       public void complete() {
         latch.countDown();
+        rv.signalComplete();
       }
     });
     rv.setOperation(op);
@@ -402,6 +582,33 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     return rv;
   }
 
+  /**
+   * Touch many keys to reset their expiration times.
+   *
+   * <p>
+   * The keys are grouped by server, and each server is sent its
+   * touches in pipelined runs of bounded size. The future holds
+   * <code>false</code> for each key that could not be touched, and nothing
+   * for the keys that were.
+   * </p>
+   *
+   * @param keys the keys to touch
+   * @param exp the new expiration to set for the given keys
+   * @return a future holding the keys that were not touched
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   */
+  public BulkFuture<Map<String, Boolean>> asyncTouchBulk(
+      Collection<String> keys, final int exp) {
+    return asyncBulk(keys, new BulkOpFactory() {
+      @Override
+      public Operation newOp(Collection<String> ks,
+          BulkOperationCallback cb) {
+        return opFact.touch(ks, exp, cb);
+      }
+    });
+  }
+
   /**
    * Append to an existing value in the cache.
    *
@@ -493,8 +700,8 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
    * @throws IllegalStateException in the rare circumstance where queue is too
    *           full to accept any more requests
    */
-  public <T> Future<CASResponse> asyncCAS(String key, long casId, T value,
-      Transcoder<T> tc) {
+  public <T> OperationFuture<CASResponse> asyncCAS(String key, long casId,
+      T value, Transcoder<T> tc) {
     return asyncCAS(key, casId, 0, value, tc);
   }
 
@@ -511,8 +718,8 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
    * @throws IllegalStateException in the rare circumstance where queue is too
    *           full to accept any more requests
    */
-  public <T> Future<CASResponse> asyncCAS(String key, long casId, int exp,
-      T value, Transcoder<T> tc) {
+  public <T> OperationFuture<CASResponse> asyncCAS(String key, long casId,
+      int exp, T value, Transcoder<T> tc) {
     CachedData co = tc.encode(value);
     final CountDownLatch latch = new CountDownLatch(1);
     final OperationFuture<CASResponse> rv =
@@ -533,6 +740,7 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
             public void complete() {
               latch.countDown();
+              rv.signalComplete();
             }
           });
     rv.setOperation(op);
@@ -550,7 +758,8 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
    * @throws IllegalStateException in the rare circumstance where queue is too
    *           full to accept any more requests
    */
-  public Future<CASResponse> asyncCAS(String key, long casId, Object value) {
+  public OperationFuture<CASResponse> asyncCAS(String key, long casId,
+      Object value) {
     return asyncCAS(key, casId, value, transcoder);
   }
 
@@ -833,6 +1042,121 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     return asyncStore(StoreType.replace, key, exp, o, transcoder);
   }
 
+  /**
+   * Set many objects in the cache regardless of any existing values.
+   *
+   * <p>
+   * The keys are grouped by server, and each server is sent its
+   * stores in pipelined runs of bounded size. The server only answers for the
+   * stores that fail, so the future holds <code>false</code> for each key
+   * that was not stored, and nothing for the keys that were.
+   * </p>
+   *
+   * @param <T>
+   * @param values the objects to store, by key
+   * @param exp the expiration of these objects
+   * @param tc the transcoder to serialize the values
+   * @return a future holding the keys that were not stored
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   */
+  public <T> BulkFuture<Map<String, Boolean>> asyncSetBulk(
+      Map<String, T> values, int exp, Transcoder<T> tc) {
+    return asyncStoreBulk(StoreType.set, values, exp, tc);
+  }
+
+  /**
+   * Set many objects in the cache (using the default transcoder) regardless
+   * of any existing values.
+   *
+   * @param values the objects to store, by key
+   * @param exp the expiration of these objects
+   * @return a future holding the keys that were not stored
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   */
+  public BulkFuture<Map<String, Boolean>> asyncSetBulk(
+      Map<String, ?> values, int exp) {
+    return asyncStoreBulk(StoreType.set, values, exp, transcoder);
+  }
+
+  /**
+   * Add many objects to the cache, each only if it does not already exist.
+   *
+   * <p>
+   * The keys are grouped by server, and each server is sent its
+   * stores in pipelined runs of bounded size. The server only answers for the
+   * stores that fail, so the future holds <code>false</code> for each key
+   * that was not stored, and nothing for the keys that were.
+   * </p>
+   *
+   * @param <T>
+   * @param values the objects to store, by key
+   * @param exp the expiration of these objects
+   * @param tc the transcoder to serialize the values
+   * @return a future holding the keys that were not stored
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   */
+  public <T> BulkFuture<Map<String, Boolean>> asyncAddBulk(
+      Map<String, T> values, int exp, Transcoder<T> tc) {
+    return asyncStoreBulk(StoreType.add, values, exp, tc);
+  }
+
+  /**
+   * Add many objects to the cache (using the default transcoder), each only
+   * if it does not already exist.
+   *
+   * @param values the objects to store, by key
+   * @param exp the expiration of these objects
+   * @return a future holding the keys that were not stored
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   */
+  public BulkFuture<Map<String, Boolean>> asyncAddBulk(
+      Map<String, ?> values, int exp) {
+    return asyncStoreBulk(StoreType.add, values, exp, transcoder);
+  }
+
+  /**
+   * Replace many objects in the cache, each only if there is already a
+   * value for its key.
+   *
+   * <p>
+   * The keys are grouped by server, and each server is sent its
+   * stores in pipelined runs of bounded size. The server only answers for the
+   * stores that fail, so the future holds <code>false</code> for each key
+   * that was not stored, and nothing for the keys that were.
+   * </p>
+   *
+   * @param <T>
+   * @param values the objects to store, by key
+   * @param exp the expiration of these objects
+   * @param tc the transcoder to serialize the values
+   * @return a future holding the keys that were not stored
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   */
+  public <T> BulkFuture<Map<String, Boolean>> asyncReplaceBulk(
+      Map<String, T> values, int exp, Transcoder<T> tc) {
+    return asyncStoreBulk(StoreType.replace, values, exp, tc);
+  }
+
+  /**
+   * Replace many objects in the cache (using the default transcoder), each
+   * only if there is already a value for its key.
+   *
+   * @param values the objects to store, by key
+   * @param exp the expiration of these objects
+   * @return a future holding the keys that were not stored
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   */
+  public BulkFuture<Map<String, Boolean>> asyncReplaceBulk(
+      Map<String, ?> values, int exp) {
+    return asyncStoreBulk(StoreType.replace, values, exp, transcoder);
+  }
+
   /**
    * Get the given key asynchronously.
    *
@@ -844,6 +1168,9 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
    *           full to accept any more requests
    */
   public <T> GetFuture<T> asyncGet(final String key, final Transcoder<T> tc) {
+    if (inFlightGets != null) {
+      return asyncCoalescedGet(key, tc);
+    }
 
     final CountDownLatch latch = new CountDownLatch(1);
     final GetFuture<T> rv = new GetFuture<T>(latch, operationTimeout, key);
@@ -862,6 +1189,7 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
       public void complete() {
         latch.countDown();
+        rv.signalComplete();
       }
     });
     rv.setOperation(op);
@@ -869,6 +1197,52 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     return rv;
   }
 
+  private <T> GetFuture<T> asyncCoalescedGet(final String key,
+      final Transcoder<T> tc) {
+    validateKey(key);
+    final CountDownLatch latch = new CountDownLatch(1);
+    final CoalescedGetFuture<T> rv =
+        new CoalescedGetFuture<T>(latch, operationTimeout, key);
+    CoalescedGet.Waiter w = new CoalescedGet.Waiter() {
+      public void completed(int flags, byte[] data, OperationStatus status) {
+        rv.set(data == null ? null : tcService.decode(tc,
+            new CachedData(flags, data, tc.getMaxSize())), status);
+        latch.countDown();
+        rv.signalComplete();
+      }
+    };
+    CoalescedGet cg = null;
+    for (;;) {
+      CoalescedGet cur = inFlightGets.get(key);
+      if (cur != null) {
+        rv.setFetch(cur, w);
+        if (cur.join(w)) {
+          coalescedGets.incrementAndGet();
+          return rv;
+        }
+      }
+      if (cg == null) {
+        cg = new CoalescedGet(key, inFlightGets);
+        cg.setOperation(opFact.get(key, new CoalescingCallback(cg)));
+        cg.join(w);
+      }
+      rv.setFetch(cg, w);
+      if (cur == null ? inFlightGets.putIfAbsent(key, cg) == null
+          : inFlightGets.replace(key, cur, cg)) {
+        break;
+      }
+    }
+    Operation op = cg.getOperation();
+    try {
+      addOp(key, op);
+    } catch (RuntimeException e) {
+      // Release anyone who joined before the fetch could be queued.
+      op.cancel();
+      throw e;
+    }
+    return rv;
+  }
+
   /**
    * Get the given key asynchronously and decode with the default transcoder.
    *
@@ -915,6 +1289,7 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
       public void complete() {
         latch.countDown();
+        rv.signalComplete();
       }
     });
     rv.setOperation(op);
@@ -1067,6 +1442,9 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
    */
   public <T> BulkFuture<Map<String, T>> asyncGetBulk(Collection<String> keys,
       Iterator<Transcoder<T>> tcIter) {
+    if (inFlightGets != null) {
+      return asyncCoalescedGetBulk(keys, tcIter);
+    }
     final Map<String, Future<T>> m = new ConcurrentHashMap<String, Future<T>>();
 
     // This map does not need to be a ConcurrentHashMap
@@ -1084,23 +1462,7 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
       String key = keyIter.next();
       tcMap.put(key, tcIter.next());
       validateKey(key);
-      final MemcachedNode primaryNode = locator.getPrimary(key);
-      MemcachedNode node = null;
-      if (primaryNode.isActive()) {
-        node = primaryNode;
-      } else {
-        for (Iterator<MemcachedNode> i = locator.getSequence(key); node == null
-            && i.hasNext();) {
-          MemcachedNode n = i.next();
-          if (n.isActive()) {
-            node = n;
-          }
-        }
-        if (node == null) {
-          node = primaryNode;
-        }
-      }
-      assert node != null : "Didn't find a node for " + key;
+      MemcachedNode node = getBulkNode(locator, key);
       Collection<String> ks = chunks.get(node);
       if (ks == null) {
         ks = new ArrayList<String>();
@@ -1127,6 +1489,7 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
       public void complete() {
         latch.countDown();
+        rv.signalComplete();
       }
     };
 
@@ -1146,6 +1509,190 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     return rv;
   }
 
+  private <T> BulkFuture<Map<String, T>> asyncCoalescedGetBulk(
+      Collection<String> keys, Iterator<Transcoder<T>> tcIter) {
+    final Map<String, Future<T>> m = new ConcurrentHashMap<String, Future<T>>();
+    final Map<String, Transcoder<T>> tcMap =
+        new HashMap<String, Transcoder<T>>();
+    Iterator<String> keyIter = keys.iterator();
+    while (keyIter.hasNext() && tcIter.hasNext()) {
+      String key = keyIter.next();
+      validateKey(key);
+      tcMap.put(key, tcIter.next());
+    }
+
+    // Every key counts the latch down once, whether it is fetched here or
+    // answered by a get that is already in flight.
+    final CountDownLatch latch = new CountDownLatch(tcMap.size());
+    final Collection<Operation> ops = new HashSet<Operation>();
+    final List<CoalescedGet> fetches = new ArrayList<CoalescedGet>();
+    final List<CoalescedGet.Waiter> waiters =
+        new ArrayList<CoalescedGet.Waiter>();
+    final BulkGetFuture<T> rv = new BulkGetFuture<T>(m, ops, latch) {
+      @Override
+      protected boolean cancelOperations() {
+        // Fetches other callers are waiting on carry on without this one.
+        boolean left = false;
+        for (int i = 0; i < fetches.size(); i++) {
+          if (fetches.get(i).leave(waiters.get(i), false)) {
+            left = true;
+            latch.countDown();
+          }
+        }
+        signalComplete();
+        return left;
+      }
+    };
+
+    final Map<MemcachedNode, Map<String, CoalescedGet>> chunks =
+        new HashMap<MemcachedNode, Map<String, CoalescedGet>>();
+    final NodeLocator locator = mconn.getLocator();
+    for (Map.Entry<String, Transcoder<T>> me : tcMap.entrySet()) {
+      final String key = me.getKey();
+      final Transcoder<T> tc = me.getValue();
+      CoalescedGet.Waiter w = new CoalescedGet.Waiter() {
+        public void completed(int flags, byte[] data, OperationStatus status) {
+          if (data != null) {
+            m.put(key, tcService.decode(tc,
+                new CachedData(flags, data, tc.getMaxSize())));
+          }
+          rv.setStatus(status);
+          latch.countDown();
+          rv.signalComplete();
+        }
+      };
+      CoalescedGet cur = inFlightGets.get(key);
+      if (cur != null && cur.join(w)) {
+        coalescedGets.incrementAndGet();
+        ops.add(cur.getOperation());
+        fetches.add(cur);
+        waiters.add(w);
+        continue;
+      }
+      CoalescedGet cg = new CoalescedGet(key, inFlightGets);
+      MemcachedNode node = getBulkNode(locator, key);
+      Map<String, CoalescedGet> ks = chunks.get(node);
+      if (ks == null) {
+        ks = new HashMap<String, CoalescedGet>();
+        chunks.put(node, ks);
+      }
+      ks.put(key, cg);
+      cg.join(w);
+      fetches.add(cg);
+      waiters.add(w);
+    }
+
+    final Map<MemcachedNode, Operation> mops =
+        new HashMap<MemcachedNode, Operation>();
+    for (Map.Entry<MemcachedNode, Map<String, CoalescedGet>> me
+        : chunks.entrySet()) {
+      final Map<String, CoalescedGet> cgs = me.getValue();
+      Operation op = opFact.get(cgs.keySet(), new GetOperation.Callback() {
+        public void receivedStatus(OperationStatus status) {
+          for (CoalescedGet cg : cgs.values()) {
+            cg.receivedStatus(status);
+          }
+        }
+
+        public void gotData(String k, int flags, byte[] data) {
+          cgs.get(k).gotData(flags, data);
+        }
+
+        public void complete() {
+          for (CoalescedGet cg : cgs.values()) {
+            cg.complete();
+          }
+        }
+      });
+      AtomicInteger wanted = new AtomicInteger(cgs.size());
+      for (CoalescedGet cg : cgs.values()) {
+        cg.setOperation(op, wanted);
+        publishInFlightGet(cg);
+      }
+      mops.put(me.getKey(), op);
+      ops.add(op);
+    }
+    try {
+      mconn.checkState();
+      mconn.addOperations(mops);
+    } catch (RuntimeException e) {
+      for (Operation op : mops.values()) {
+        op.cancel();
+      }
+      throw e;
+    }
+    return rv;
+  }
+
+  /**
+   * Make a fetch that has not been queued yet visible to other gets. If a
+   * live fetch for the same key got there first, this one stays private.
+   */
+  private void publishInFlightGet(CoalescedGet cg) {
+    CoalescedGet cur = inFlightGets.putIfAbsent(cg.getKey(), cg);
+    if (cur != null && !cur.isJoinable()) {
+      inFlightGets.replace(cg.getKey(), cur, cg);
+    }
+  }
+
+  private MemcachedNode getBulkNode(NodeLocator locator, String key) {
+    final MemcachedNode primaryNode = locator.getPrimary(key);
+    MemcachedNode node = null;
+    if (primaryNode.isActive()) {
+      node = primaryNode;
+    } else {
+      for (Iterator<MemcachedNode> i = locator.getSequence(key); node == null
+          && i.hasNext();) {
+        MemcachedNode n = i.next();
+        if (n.isActive()) {
+          node = n;
+        }
+      }
+      if (node == null) {
+        node = primaryNode;
+      }
+    }
+    assert node != null : "Didn't find a node for " + key;
+    return node;
+  }
+
+  /**
+   * Get the number of gets, single or bulk (counted per key), that were
+   * answered by a fetch already in flight instead of sending their own.
+   *
+   * <p>
+   * This stays zero unless the connection factory enables get coalescing.
+   * </p>
+   */
+  public long getCoalescedGetCount() {
+    return coalescedGets.get();
+  }
+
+  /**
+   * Feeds the response of a single key fetch to its in-flight entry.
+   */
+  private static final class CoalescingCallback
+      implements GetOperation.Callback {
+    private final CoalescedGet cg;
+
+    CoalescingCallback(CoalescedGet c) {
+      cg = c;
+    }
+
+    public void receivedStatus(OperationStatus status) {
+      cg.receivedStatus(status);
+    }
+
+    public void gotData(String k, int flags, byte[] data) {
+      assert cg.getKey().equals(k) : "Wrong key returned";
+      cg.gotData(flags, data);
+    }
+
+    public void complete() {
+      cg.complete();
+    }
+  }
+
   /**
    * Asynchronously get a bunch of objects from the cache.
    *
@@ -1202,6 +1749,98 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     return asyncGetBulk(Arrays.asList(keys), transcoder);
   }
 
+  /**
+   * Asynchronously get a bunch of objects from the cache, handing each value
+   * to the given callback as soon as it has been read.
+   *
+   * <p>
+   * Unlike {@link #asyncGetBulk(Collection, Transcoder)} this does not wait
+   * for the slowest server before any value can be used, and does not
+   * collect the values into a map. Values are decoded on the IO thread, and
+   * {@link BulkGetCallback#serverComplete(SocketAddress, OperationStatus)} is
+   * called once for each server involved. Keys that are not found are simply
+   * not reported. Gets made this way are not shared with concurrent gets of
+   * the same keys.
+   * </p>
+   *
+   * @param <T>
+   * @param keys the keys to request
+   * @param tc the transcoder to unserialize values
+   * @param cb the callback to receive the values
+   * @return a Future that completes when every server has answered, holding
+   *         true if all of them answered successfully
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   */
+  public <T> ListenableFuture<Boolean> asyncGetBulk(Collection<String> keys,
+      final Transcoder<T> tc, final BulkGetCallback<? super T> cb) {
+    final Map<MemcachedNode, Collection<String>> chunks = chunkKeys(keys);
+    final CountDownLatch latch = new CountDownLatch(chunks.size());
+    final Collection<Operation> ops = new ArrayList<Operation>(chunks.size());
+    final StreamingGetFuture rv = new StreamingGetFuture(ops, latch);
+
+    final Map<MemcachedNode, Operation> mops =
+        new HashMap<MemcachedNode, Operation>();
+    for (Map.Entry<MemcachedNode, Collection<String>> me : chunks.entrySet()) {
+      final SocketAddress sa = me.getKey().getSocketAddress();
+      Operation op = opFact.get(me.getValue(), new GetOperation.Callback() {
+        private OperationStatus status;
+
+        public void receivedStatus(OperationStatus s) {
+          status = s;
+          rv.setStatus(s);
+        }
+
+        public void gotData(String k, int flags, byte[] data) {
+          try {
+            cb.gotValue(k, tc.decode(new CachedData(flags, data,
+                tc.getMaxSize())));
+          } catch (RuntimeException e) {
+            getLogger().warn("Failed to deliver value for " + k, e);
+          }
+        }
+
+        public void complete() {
+          try {
+            OperationStatus s = status;
+            if (s == null) {
+              s = new CancelledOperationStatus();
+              rv.setStatus(s);
+            }
+            cb.serverComplete(sa, s);
+          } catch (RuntimeException e) {
+            getLogger().warn("Failed to complete get from " + sa, e);
+          } finally {
+            latch.countDown();
+            rv.signalComplete();
+          }
+        }
+      });
+      mops.put(me.getKey(), op);
+      ops.add(op);
+    }
+    mconn.checkState();
+    mconn.addOperations(mops);
+    return rv;
+  }
+
+  /**
+   * Asynchronously get a bunch of objects from the cache with the default
+   * transcoder, handing each value to the given callback as soon as it has
+   * been read.
+   *
+   * @param keys the keys to request
+   * @param cb the callback to receive the values
+   * @return a Future that completes when every server has answered
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   * @see #asyncGetBulk(Collection, Transcoder, BulkGetCallback)
+   */
+  public ListenableFuture<Boolean> asyncGetBulk(Collection<String> keys,
+      BulkGetCallback<Object> cb) {
+    return asyncGetBulk(keys, transcoder, cb);
+  }
+
   /**
    * Get the given key to reset its expiration time.
    *
@@ -1242,6 +1881,7 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
           public void complete() {
             latch.countDown();
+            rv.signalComplete();
           }
 
           public void gotData(String k, int flags, long cas, byte[] data) {
@@ -1416,6 +2056,52 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     return rv;
   }
 
+  /**
+   * Weight the servers by their socket address, moving keys between them to
+   * match. Servers without a weight have a weight of 1.
+   *
+   * @param w the weight of the server at each address
+   * @throws UnsupportedOperationException if the locator can't weight
+   *           servers
+   * @throws IllegalArgumentException if a weight is not positive
+   */
+  public void setNodeWeights(Map<? extends SocketAddress, Integer> w) {
+    NodeLocator locator = mconn.getLocator();
+    if (!(locator instanceof WeightedNodeLocator)) {
+      throw new UnsupportedOperationException("Can't weight servers with "
+          + locator);
+    }
+    ((WeightedNodeLocator) locator).setNodeWeights(w);
+  }
+
+  /**
+   * Weight the servers by the memory they may use, from their stats.
+   *
+   * <p>
+   * Servers that don't answer get the median weight of those that do. If
+   * none answer, the weights are left as they are.
+   * </p>
+   *
+   * @return the weight of each server, or an empty map if none answered
+   * @throws UnsupportedOperationException if the locator can't weight
+   *           servers
+   * @see DefaultKetamaNodeLocatorConfiguration#getMaxBytesWeights(Map,
+   *      Collection)
+   */
+  public Map<SocketAddress, Integer> reweightByMaxBytes() {
+    Collection<SocketAddress> servers = new ArrayList<SocketAddress>();
+    for (MemcachedNode node : mconn.getLocator().getAll()) {
+      servers.add(node.getSocketAddress());
+    }
+    Map<SocketAddress, Integer> rv =
+        DefaultKetamaNodeLocatorConfiguration.getMaxBytesWeights(getStats(),
+            servers);
+    if (!rv.isEmpty()) {
+      setNodeWeights(rv);
+    }
+    return rv;
+  }
+
   private long mutate(Mutator m, String key, long by, long def, int exp) {
     final AtomicLong rv = new AtomicLong();
     final CountDownLatch latch = new CountDownLatch(1);
@@ -1643,6 +2329,7 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
           public void complete() {
             latch.countDown();
+            rv.signalComplete();
           }
         }));
     rv.setOperation(op);
@@ -1701,6 +2388,58 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     return asyncMutate(Mutator.decr, key, (long)by, 0, -1);
   }
 
+  /**
+   * Asynchronously increment many counters.
+   *
+   * <p>
+   * The keys are grouped by server, and each server is sent its
+   * increments in pipelined runs of bounded size. Counters that don't exist are
+   * not created. The new values are not returned: the future holds
+   * <code>false</code> for each key that could not be incremented, and
+   * nothing for the keys that were.
+   * </p>
+   *
+   * @param keys the keys of the counters to increment
+   * @param by the amount to increment each value by
+   * @return a future holding the keys that were not incremented
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   */
+  public BulkFuture<Map<String, Boolean>> asyncIncrBulk(
+      Collection<String> keys, long by) {
+    return asyncMutateBulk(Mutator.incr, keys, by);
+  }
+
+  /**
+   * Asynchronously decrement many counters.
+   *
+   * <p>
+   * Like {@link #asyncIncrBulk(Collection, long)}, the future only holds
+   * the keys that could not be decremented.
+   * </p>
+   *
+   * @param keys the keys of the counters to decrement
+   * @param by the amount to decrement each value by
+   * @return a future holding the keys that were not decremented
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   */
+  public BulkFuture<Map<String, Boolean>> asyncDecrBulk(
+      Collection<String> keys, long by) {
+    return asyncMutateBulk(Mutator.decr, keys, by);
+  }
+
+  private BulkFuture<Map<String, Boolean>> asyncMutateBulk(final Mutator m,
+      Collection<String> keys, final long by) {
+    return asyncBulk(keys, new BulkOpFactory() {
+      @Override
+      public Operation newOp(Collection<String> ks,
+          BulkOperationCallback cb) {
+        return opFact.mutate(m, ks, by, cb);
+      }
+    });
+  }
+
   /**
    * Increment the given counter, returning the new value.
    *
@@ -1808,6 +2547,7 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
       public void complete() {
         latch.countDown();
+        rv.signalComplete();
       }
     });
     rv.setOperation(op);
@@ -1815,6 +2555,32 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     return rv;
   }
 
+  /**
+   * Delete many keys from the cache.
+   *
+   * <p>
+   * The keys are grouped by server, and each server is sent its
+   * deletes in pipelined runs of bounded size. The future holds
+   * <code>false</code> for each key that could not be deleted, including
+   * keys that were not found, and nothing for the keys that were.
+   * </p>
+   *
+   * @param keys the keys to delete
+   * @return a future holding the keys that were not deleted
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   */
+  public BulkFuture<Map<String, Boolean>> asyncDeleteBulk(
+      Collection<String> keys) {
+    return asyncBulk(keys, new BulkOpFactory() {
+      @Override
+      public Operation newOp(Collection<String> ks,
+          BulkOperationCallback cb) {
+        return opFact.delete(ks, cb);
+      }
+    });
+  }
+
   /**
    * Flush all caches from all servers with a delay of application.
    *
@@ -1828,6 +2594,12 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
         new AtomicReference<Boolean>(null);
     final ConcurrentLinkedQueue<Operation> ops =
         new ConcurrentLinkedQueue<Operation>();
+    // The future can only be built once the ops have been broadcast.
+    final AtomicReference<OperationFuture<Boolean>> futureRef =
+        new AtomicReference<OperationFuture<Boolean>>(null);
+    if (inFlightGets != null) {
+      inFlightGets.clear();
+    }
     CountDownLatch blatch = broadcastOp(new BroadcastOpFactory() {
       public Operation newOp(final MemcachedNode n,
           final CountDownLatch latch) {
@@ -1838,6 +2610,10 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
           public void complete() {
             latch.countDown();
+            OperationFuture<Boolean> f = futureRef.get();
+            if (f != null) {
+              f.signalComplete();
+            }
           }
         });
         ops.add(op);
@@ -1845,8 +2621,8 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
       }
     });
 
-    return new OperationFuture<Boolean>(null, blatch, flushResult,
-        operationTimeout) {
+    OperationFuture<Boolean> rv = new OperationFuture<Boolean>(null, blatch,
+        flushResult, operationTimeout) {
       @Override
       public boolean cancel(boolean ign) {
         boolean rv = false;
@@ -1882,6 +2658,9 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
         return rv || isCancelled();
       }
     };
+    futureRef.set(rv);
+    rv.signalComplete();
+    return rv;
   }
 
   /**
@@ -2035,22 +2814,17 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
   public void connectionEstablished(SocketAddress sa, int reconnectCount) {
     if (authDescriptor != null) {
-      if (authDescriptor.authThresholdReached()) {
-        this.shutdown();
-      }
-      authMonitor.authConnection(mconn, opFact, authDescriptor, findNode(sa));
+      MemcachedNode node = mconn.findNode(sa);
+      assert node != null : "Couldn't find node connected to " + sa;
+      authenticate(node);
     }
   }
 
-  private MemcachedNode findNode(SocketAddress sa) {
-    MemcachedNode node = null;
-    for (MemcachedNode n : mconn.getLocator().getAll()) {
-      if (n.getSocketAddress().equals(sa)) {
-        node = n;
-      }
+  private void authenticate(MemcachedNode node) {
+    if (authDescriptor.authThresholdReached()) {
+      this.shutdown();
     }
-    assert node != null : "Couldn't find node connected to " + sa;
-    return node;
+    authMonitor.authConnection(mconn, opFact, authDescriptor, node);
   }
 
   public void connectionLost(SocketAddress sa) {
@@ -81,6 +81,24 @@ public interface MemcachedClientIF {
 
   Future<Boolean> replace(String key, int exp, Object o);
 
+  <T> BulkFuture<Map<String, Boolean>> asyncSetBulk(Map<String, T> values,
+      int exp, Transcoder<T> tc);
+
+  BulkFuture<Map<String, Boolean>> asyncSetBulk(Map<String, ?> values,
+      int exp);
+
+  <T> BulkFuture<Map<String, Boolean>> asyncAddBulk(Map<String, T> values,
+      int exp, Transcoder<T> tc);
+
+  BulkFuture<Map<String, Boolean>> asyncAddBulk(Map<String, ?> values,
+      int exp);
+
+  <T> BulkFuture<Map<String, Boolean>> asyncReplaceBulk(Map<String, T> values,
+      int exp, Transcoder<T> tc);
+
+  BulkFuture<Map<String, Boolean>> asyncReplaceBulk(Map<String, ?> values,
+      int exp);
+
   <T> Future<T> asyncGet(String key, Transcoder<T> tc);
 
   Future<Object> asyncGet(String key);
@@ -131,6 +149,9 @@ public interface MemcachedClientIF {
 
   <T> Future<Boolean> touch(final String key, final int exp);
 
+  BulkFuture<Map<String, Boolean>> asyncTouchBulk(Collection<String> keys,
+      int exp);
+
   Map<SocketAddress, String> getVersions();
 
   Map<SocketAddress, Map<String, String>> getStats();
@@ -161,6 +182,12 @@ public interface MemcachedClientIF {
 
   Future<Long> asyncDecr(String key, int by);
 
+  BulkFuture<Map<String, Boolean>> asyncIncrBulk(Collection<String> keys,
+      long by);
+
+  BulkFuture<Map<String, Boolean>> asyncDecrBulk(Collection<String> keys,
+      long by);
+
   long incr(String key, long by, long def);
 
   long incr(String key, int by, long def);
@@ -171,6 +198,8 @@ public interface MemcachedClientIF {
 
   Future<Boolean> delete(String key);
 
+  BulkFuture<Map<String, Boolean>> asyncDeleteBulk(Collection<String> keys);
+
   Future<Boolean> flush(int delay);
 
   Future<Boolean> flush();
@@ -36,7 +36,9 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
@@ -45,24 +47,44 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import net.spy.memcached.compat.SpyThread;
 import net.spy.memcached.compat.log.LoggerFactory;
+import net.spy.memcached.metrics.MetricsCollector;
+import net.spy.memcached.ops.GetOperation;
 import net.spy.memcached.ops.KeyedOperation;
 import net.spy.memcached.ops.Operation;
 import net.spy.memcached.ops.OperationException;
 import net.spy.memcached.ops.OperationState;
 import net.spy.memcached.ops.TapOperation;
 import net.spy.memcached.ops.VBucketAware;
+import net.spy.memcached.protocol.BaseOperationImpl;
+import net.spy.memcached.protocol.DirectBufferPool;
 import net.spy.memcached.protocol.binary.TapAckOperationImpl;
+import net.spy.memcached.util.TimingWheel;
 import net.spy.memcached.vbucket.Reconfigurable;
 import net.spy.memcached.vbucket.VBucketNodeLocator;
 import net.spy.memcached.vbucket.config.Bucket;
 
 /**
  * Connection to a cluster of memcached servers.
+ *
+ * <p>
+ * By default a single thread drives the IO for every node through one
+ * selector. When the connection factory asks for more than one IO thread,
+ * the nodes are partitioned across that many selector loops. Each loop is
+ * itself a MemcachedConnection with its own selector, added queue, reconnect
+ * queue and retry list; this instance is the first loop and routes
+ * operations to whichever loop owns the target node.
+ * </p>
  */
 public final class MemcachedConnection extends SpyThread implements
     Reconfigurable {
@@ -76,11 +98,15 @@ public final class MemcachedConnection extends SpyThread implements
   // find those bugs and often works around them.
   private static final int EXCESSIVE_EMPTY = 0x1000000;
 
+  // The number of slots in the wheels timing operations out.
+  private static final int TIMEOUT_WHEEL_SLOTS = 256;
+
   private volatile boolean shutDown = false;
   // If true, optimization will collapse multiple sequential get ops
   private final boolean shouldOptimize;
   private Selector selector = null;
-  private final NodeLocator locator;
+  // Assigned once before any of the IO loops are started.
+  private NodeLocator locator;
   private final FailureMode failureMode;
   // maximum amount of time to wait between reconnect attempts
   private final long maxDelay;
@@ -90,6 +116,13 @@ public final class MemcachedConnection extends SpyThread implements
   // AddedQueue is used to track the QueueAttachments for which operations
   // have recently been queued.
   private final ConcurrentLinkedQueue<MemcachedNode> addedQueue;
+  // The nodes currently in addedQueue, so a node is queued once no matter
+  // how many operations are added to it before the loop gets around to it.
+  private final ConcurrentMap<MemcachedNode, Boolean> queuedNodes;
+  // Set by the first submitter to wake the selector, and cleared by the
+  // loop before it looks at addedQueue again. Submitters that find it set
+  // know a wakeup is already on its way and skip the system call.
+  private final AtomicBoolean wakeupPending = new AtomicBoolean();
   // reconnectQueue contains the attachments that need to be reconnected
   // The key is the time at which they are eligible for reconnect
   private final SortedMap<Long, MemcachedNode> reconnectQueue;
@@ -97,12 +130,48 @@ public final class MemcachedConnection extends SpyThread implements
   protected volatile boolean reconfiguring = false;
   protected volatile boolean running = true;
 
-  private final Collection<ConnectionObserver> connObservers =
-      new ConcurrentLinkedQueue<ConnectionObserver>();
+  private final Collection<ConnectionObserver> connObservers;
   private final OperationFactory opFact;
   private final int timeoutExceptionThreshold;
   private final Collection<Operation> retryOps;
   private final ConcurrentLinkedQueue<MemcachedNode> nodesToShutdown;
+  // Null unless operations are to be timed.
+  private final MetricsCollector metrics;
+  // Where operations borrow their write buffers, or null for the heap.
+  private final DirectBufferPool bufferPool;
+
+  // All of the IO loops sharing the nodes of this connection. The first one
+  // is the connection handed out to the client.
+  private final MemcachedConnection[] ioLoops;
+  private final int loopIndex;
+  // Which loop owns each node's channel.
+  private final Map<MemcachedNode, MemcachedConnection> nodeLoops;
+  // Round-robin position for assigning new nodes to loops.
+  private int nextLoop = 0;
+  // How many channels are opened to each server.
+  private final int connectionsPerNode;
+  // Every channel to a server, keyed by the first of them, which is the one
+  // the locator knows. Only used with more than one channel per server.
+  private final Map<MemcachedNode, MemcachedNode[]> channels;
+  // Which channel the keys preferring each channel of a server are on, keyed
+  // like channels.
+  private final Map<MemcachedNode, AtomicIntegerArray> routes;
+  // Channels that lost their connection and haven't got it back yet. Only
+  // used with more than one channel per server.
+  private final Set<MemcachedNode> lostChannels;
+  // Where the search for the least busy channel starts, so that channels
+  // which are equally busy take turns.
+  private final AtomicInteger nextChannel;
+  // The channel observers are being told has connected. Only touched by
+  // this loop's thread.
+  private MemcachedNode connecting = null;
+  // The operation timeout, in milliseconds.
+  private final long opTimeout;
+  // Operations queued on this loop's nodes since it last looked, and the
+  // deadlines of those it's timing out. Both null unless operations are
+  // timed out by the IO threads; the wheel is only touched by this loop.
+  private final ConcurrentLinkedQueue<QueuedOperation> timeoutQueue;
+  private final TimingWheel<Operation> timeouts;
 
   /**
    * Construct a memcached connection.
@@ -116,61 +185,158 @@ public final class MemcachedConnection extends SpyThread implements
   public MemcachedConnection(int bufSize, ConnectionFactory f,
       List<InetSocketAddress> a, Collection<ConnectionObserver> obs,
       FailureMode fm, OperationFactory opfactory) throws IOException {
-    connObservers.addAll(obs);
+    connObservers = new ConcurrentLinkedQueue<ConnectionObserver>(obs);
     reconnectQueue = new TreeMap<Long, MemcachedNode>();
     addedQueue = new ConcurrentLinkedQueue<MemcachedNode>();
+    queuedNodes = new ConcurrentHashMap<MemcachedNode, Boolean>();
     failureMode = fm;
     shouldOptimize = f.shouldOptimize();
     maxDelay = f.getMaxReconnectDelay();
     opFact = opfactory;
     timeoutExceptionThreshold = f.getTimeoutExceptionThreshold();
+    metrics = f.getMetricsCollector();
+    bufferPool = f.getBufferPool();
+    opTimeout = f.getOperationTimeout();
+    timeoutQueue = f.useProactiveTimeouts()
+        ? new ConcurrentLinkedQueue<QueuedOperation>() : null;
+    timeouts = createTimingWheel();
     selector = Selector.open();
     retryOps = new ArrayList<Operation>();
     nodesToShutdown = new ConcurrentLinkedQueue<MemcachedNode>();
     this.bufSize = bufSize;
     this.connectionFactory = f;
+    connectionsPerNode = Math.max(1, f.getConnectionsPerNode());
+    channels = new ConcurrentHashMap<MemcachedNode, MemcachedNode[]>();
+    routes = new ConcurrentHashMap<MemcachedNode, AtomicIntegerArray>();
+    lostChannels = Collections.newSetFromMap(
+        new ConcurrentHashMap<MemcachedNode, Boolean>());
+    nextChannel = new AtomicInteger();
+    // There's no point in having more loops than channels.
+    int numLoops = Math.max(1, Math.min(f.getIOThreadCount(),
+        a.size() * connectionsPerNode));
+    ioLoops = new MemcachedConnection[numLoops];
+    ioLoops[0] = this;
+    loopIndex = 0;
+    nodeLoops = new ConcurrentHashMap<MemcachedNode, MemcachedConnection>();
+    for (int i = 1; i < numLoops; i++) {
+      ioLoops[i] = new MemcachedConnection(this, i);
+    }
     List<MemcachedNode> connections = createConnections(a);
     locator = f.createLocator(connections);
-    setName("Memcached IO over " + this);
-    setDaemon(f.isDaemon());
-    start();
+    for (MemcachedConnection loop : ioLoops) {
+      loop.locator = locator;
+      loop.setName("Memcached IO over " + this
+          + (numLoops > 1 ? " (loop " + loop.loopIndex + ")" : ""));
+      loop.setDaemon(f.isDaemon());
+    }
+    for (MemcachedConnection loop : ioLoops) {
+      loop.start();
+    }
+  }
+
+  /**
+   * Construct an additional IO loop sharing the configuration, observers and
+   * node assignments of the given connection.
+   */
+  private MemcachedConnection(MemcachedConnection first, int index)
+    throws IOException {
+    connObservers = first.connObservers;
+    reconnectQueue = new TreeMap<Long, MemcachedNode>();
+    addedQueue = new ConcurrentLinkedQueue<MemcachedNode>();
+    queuedNodes = new ConcurrentHashMap<MemcachedNode, Boolean>();
+    failureMode = first.failureMode;
+    shouldOptimize = first.shouldOptimize;
+    maxDelay = first.maxDelay;
+    opFact = first.opFact;
+    timeoutExceptionThreshold = first.timeoutExceptionThreshold;
+    metrics = first.metrics;
+    bufferPool = first.bufferPool;
+    opTimeout = first.opTimeout;
+    timeoutQueue = first.timeoutQueue == null
+        ? null : new ConcurrentLinkedQueue<QueuedOperation>();
+    timeouts = createTimingWheel();
+    selector = Selector.open();
+    retryOps = new ArrayList<Operation>();
+    nodesToShutdown = new ConcurrentLinkedQueue<MemcachedNode>();
+    bufSize = first.bufSize;
+    connectionFactory = first.connectionFactory;
+    ioLoops = first.ioLoops;
+    loopIndex = index;
+    nodeLoops = first.nodeLoops;
+    connectionsPerNode = first.connectionsPerNode;
+    channels = first.channels;
+    routes = first.routes;
+    lostChannels = first.lostChannels;
+    nextChannel = first.nextChannel;
+  }
+
+  private TimingWheel<Operation> createTimingWheel() {
+    if (timeoutQueue == null) {
+      return null;
+    }
+    // Two turns of the wheel cover an operation timeout, so most deadlines
+    // are in the current turn.
+    long tick = Math.max(1, opTimeout / (TIMEOUT_WHEEL_SLOTS / 2));
+    return new TimingWheel<Operation>(tick, TimeUnit.MILLISECONDS,
+        TIMEOUT_WHEEL_SLOTS);
   }
 
   private List<MemcachedNode> createConnections(
       final Collection<InetSocketAddress> a) throws IOException {
     List<MemcachedNode> connections = new ArrayList<MemcachedNode>(a.size());
     for (SocketAddress sa : a) {
-      SocketChannel ch = SocketChannel.open();
-      ch.configureBlocking(false);
-      MemcachedNode qa =
-          this.connectionFactory.createMemcachedNode(sa, ch, bufSize);
-      int ops = 0;
-      ch.socket().setTcpNoDelay(!this.connectionFactory.useNagleAlgorithm());
-      // Initially I had attempted to skirt this by queueing every
-      // connect, but it considerably slowed down start time.
-      try {
-        if (ch.connect(sa)) {
-          getLogger().info("Connected to %s immediately", qa);
-          connected(qa);
-        } else {
-          getLogger().info("Added %s to connect queue", qa);
-          ops = SelectionKey.OP_CONNECT;
+      MemcachedNode qa = openChannel(sa);
+      if (connectionsPerNode > 1) {
+        MemcachedNode[] group = new MemcachedNode[connectionsPerNode];
+        AtomicIntegerArray route = new AtomicIntegerArray(group.length);
+        group[0] = qa;
+        for (int i = 1; i < group.length; i++) {
+          group[i] = openChannel(sa);
+          route.set(i, i);
         }
-        qa.setSk(ch.register(selector, ops, qa));
-        assert ch.isConnected()
-            || qa.getSk().interestOps() == SelectionKey.OP_CONNECT
-            : "Not connected, and not wanting to connect";
-      } catch (SocketException e) {
-        getLogger().warn("Socket error on initial connect", e);
-        queueReconnect(qa);
+        channels.put(qa, group);
+        routes.put(qa, route);
       }
       connections.add(qa);
     }
     return connections;
   }
 
+  /**
+   * Open a new channel to the given server and hand it to the next IO loop.
+   */
+  private MemcachedNode openChannel(SocketAddress sa) throws IOException {
+    SocketChannel ch = SocketChannel.open();
+    ch.configureBlocking(false);
+    MemcachedNode qa =
+        this.connectionFactory.createMemcachedNode(sa, ch, bufSize);
+    MemcachedConnection loop = ioLoops[nextLoop++ % ioLoops.length];
+    nodeLoops.put(qa, loop);
+    int ops = 0;
+    ch.socket().setTcpNoDelay(!this.connectionFactory.useNagleAlgorithm());
+    // Initially I had attempted to skirt this by queueing every
+    // connect, but it considerably slowed down start time.
+    try {
+      if (ch.connect(sa)) {
+        getLogger().info("Connected to %s immediately", qa);
+        connected(qa);
+      } else {
+        getLogger().info("Added %s to connect queue", qa);
+        ops = SelectionKey.OP_CONNECT;
+      }
+      qa.setSk(ch.register(loop.selector, ops, qa));
+      assert ch.isConnected()
+          || qa.getSk().interestOps() == SelectionKey.OP_CONNECT
+          : "Not connected, and not wanting to connect";
+    } catch (SocketException e) {
+      getLogger().warn("Socket error on initial connect", e);
+      loop.queueReconnect(qa);
+    }
+    return qa;
+  }
+
   public void reconfigure(Bucket bucket) {
-    reconfiguring = true;
+    setReconfiguring(true);
     try {
       // get a new collection of addresses from the received config
       List<String> servers = bucket.getConfig().getServers();
@@ -222,16 +388,47 @@ public final class MemcachedConnection extends SpyThread implements
       locator.updateLocator(mergedNodes, bucket.getConfig());
 
       // schedule shutdown for the oddNodes
-      nodesToShutdown.addAll(oddNodes);
+      for (MemcachedNode odd : oddNodes) {
+        for (MemcachedNode qa : getChannels(odd)) {
+          loopFor(qa).nodesToShutdown.add(qa);
+          lostChannels.remove(qa);
+        }
+        channels.remove(odd);
+        routes.remove(odd);
+      }
     } catch (IOException e) {
       getLogger().error("Connection reconfiguration failed", e);
     } finally {
-      reconfiguring = false;
+      setReconfiguring(false);
     }
   }
 
+  private void setReconfiguring(boolean to) {
+    for (MemcachedConnection loop : ioLoops) {
+      loop.reconfiguring = to;
+      if (to) {
+        // Get the loop out of select() so new channels can be registered.
+        loop.wakeup();
+      }
+    }
+  }
+
+  /**
+   * Get the IO loop whose selector the given node is registered with.
+   */
+  private MemcachedConnection loopFor(MemcachedNode node) {
+    if (ioLoops.length == 1) {
+      return this;
+    }
+    MemcachedConnection loop = nodeLoops.get(node);
+    return loop == null ? ioLoops[0] : loop;
+  }
+
   private boolean selectorsMakeSense() {
-    for (MemcachedNode qa : locator.getAll()) {
+    for (MemcachedNode qa : getChannels()) {
+      if (loopFor(qa) != this) {
+        continue;
+      }
       if (qa.getSk() != null && qa.getSk().isValid()) {
         if (qa.getChannel().isConnected()) {
           int sops = qa.getSk().interestOps();
@@ -266,6 +463,9 @@ public final class MemcachedConnection extends SpyThread implements
       throw new IOException("No IO while shut down");
     }
 
+    // Anything submitted from here on needs to wake the selector again.
+    wakeupPending.set(false);
+
     // Deal with all of the stuff that's been added, but may not be marked
     // writable.
     handleInputQueue();
@@ -277,6 +477,18 @@ public final class MemcachedConnection extends SpyThread implements
       long then = reconnectQueue.firstKey();
       delay = Math.max(then - now, 1);
     }
+    // Set if the select may return early just to time operations out.
+    boolean timing = false;
+    if (timeouts != null) {
+      long next = expireOperations();
+      if (next >= 0) {
+        long ms = Math.max(TimeUnit.NANOSECONDS.toMillis(next), 1);
+        if (delay == 0 || ms < delay) {
+          delay = ms;
+          timing = true;
+        }
+      }
+    }
     getLogger().debug("Selecting with delay of %sms", delay);
     assert selectorsMakeSense() : "Selectors don't make sense.";
     int selected = selector.select(delay);
@@ -285,7 +497,7 @@ public final class MemcachedConnection extends SpyThread implements
     if (selectedKeys.isEmpty() && !shutDown) {
       getLogger().debug("No selectors ready, interrupted: "
           + Thread.interrupted());
-      if (++emptySelects > DOUBLE_CHECK_EMPTY) {
+      if (!timing && ++emptySelects > DOUBLE_CHECK_EMPTY) {
         for (SelectionKey sk : selector.keys()) {
           getLogger().info("%s has %s, interested in %s", sk, sk.readyOps(),
               sk.interestOps());
@@ -327,7 +539,7 @@ public final class MemcachedConnection extends SpyThread implements
 
     // try to shutdown odd nodes
     for (MemcachedNode qa : nodesToShutdown) {
-      if (!addedQueue.contains(qa)) {
+      if (!queuedNodes.containsKey(qa)) {
         nodesToShutdown.remove(qa);
         Collection<Operation> notCompletedOperations = qa.destroyInputQueue();
         if (qa.getChannel() != null) {
@@ -339,6 +551,7 @@ public final class MemcachedConnection extends SpyThread implements
           }
           getLogger().debug("Shut down channel %s", qa.getChannel());
         }
+        nodeLoops.remove(qa);
         redistributeOperations(notCompletedOperations);
       }
     }
@@ -349,17 +562,13 @@ public final class MemcachedConnection extends SpyThread implements
     if (!addedQueue.isEmpty()) {
       getLogger().debug("Handling queue");
       // If there's stuff in the added queue. Try to process it.
-      Collection<MemcachedNode> toAdd = new HashSet<MemcachedNode>();
-      // Transfer the queue into a hashset. There are very likely more
-      // additions than there are nodes.
-      Collection<MemcachedNode> todo = new HashSet<MemcachedNode>();
-      MemcachedNode qaNode = null;
-      while ((qaNode = addedQueue.poll()) != null) {
-        todo.add(qaNode);
-      }
-
-      // Now process the queue.
-      for (MemcachedNode qa : todo) {
+      Collection<MemcachedNode> toAdd = new ArrayList<MemcachedNode>();
+      // Nodes are only queued once, so there's no need to dedup here.
+      MemcachedNode qa = null;
+      while ((qa = addedQueue.poll()) != null) {
+        // Operations added after this point queue the node again, while
+        // those added before it are picked up by copyInputQueue below.
+        queuedNodes.remove(qa);
         boolean readyForIO = false;
         if (qa.isActive()) {
           if (qa.getCurrentWriteOp() != null) {
@@ -382,7 +591,9 @@ public final class MemcachedConnection extends SpyThread implements
         }
         qa.fixupOps();
       }
-      addedQueue.addAll(toAdd);
+      for (MemcachedNode node : toAdd) {
+        nodeAdded(node);
+      }
     }
   }
 
@@ -408,8 +619,14 @@ public final class MemcachedConnection extends SpyThread implements
     assert qa.getChannel().isConnected() : "Not connected.";
     int rt = qa.getReconnectCount();
     qa.connected();
-    for (ConnectionObserver observer : connObservers) {
-      observer.connectionEstablished(qa.getSocketAddress(), rt);
+    lostChannels.remove(qa);
+    connecting = qa;
+    try {
+      for (ConnectionObserver observer : connObservers) {
+        observer.connectionEstablished(qa.getSocketAddress(), rt);
+      }
+    } finally {
+      connecting = null;
     }
   }
 
@@ -433,7 +650,7 @@ public final class MemcachedConnection extends SpyThread implements
         final SocketChannel channel = qa.getChannel();
         if (channel.finishConnect()) {
           connected(qa);
-          addedQueue.offer(qa);
+          nodeAdded(qa);
           if (qa.getWbuf().hasRemaining()) {
             handleWrites(sk, qa);
           }
@@ -521,7 +738,12 @@ public final class MemcachedConnection extends SpyThread implements
       getLogger().debug("Read %d bytes", read);
       rbuf.flip();
       while (rbuf.remaining() > 0) {
+        currentOp = qa.getReadOpFor(rbuf);
         if (currentOp == null) {
+          if (qa.hasReadOp()) {
+            // Keep the start of the response until the rest of it arrives.
+            break;
+          }
           throw new IllegalStateException("No read operation.");
         }
         synchronized(currentOp) {
@@ -532,6 +754,14 @@ public final class MemcachedConnection extends SpyThread implements
             Operation op = qa.removeCurrentReadOp();
             assert op == currentOp : "Expected to pop " + currentOp + " got "
                 + op;
+            if (metrics != null && op.getEnqueueTime() != 0) {
+              metrics.operationCompleted(qa, op);
+            }
+            if (timeouts != null) {
+              timeouts.cancel(op);
+              // The server's answering, so it isn't timing out.
+              qa.setContinuousTimeout(false);
+            }
           } else if (currentOp.getState() == OperationState.RETRY) {
             getLogger().warn("Reschedule read op due to NOT_MY_VBUCKET error: "
                 + "%s ", currentOp);
@@ -540,12 +770,14 @@ public final class MemcachedConnection extends SpyThread implements
             Operation op = qa.removeCurrentReadOp();
             assert op == currentOp : "Expected to pop " + currentOp + " got "
                 + op;
+            if (timeouts != null) {
+              timeouts.cancel(op);
+            }
             retryOps.add(currentOp);
           }
         }
-        currentOp=qa.getCurrentReadOp();
       }
-      rbuf.clear();
+      rbuf.compact();
       read = channel.read(rbuf);
     }
   }
@@ -575,6 +807,9 @@ public final class MemcachedConnection extends SpyThread implements
         assert !qa.getSk().isValid() : "Cancelled selection key is valid";
       }
       qa.reconnecting();
+      if (connectionsPerNode > 1) {
+        lostChannels.add(qa);
+      }
       try {
         if (qa.getChannel() != null && qa.getChannel().socket() != null) {
           qa.getChannel().socket().close();
@@ -621,6 +856,11 @@ public final class MemcachedConnection extends SpyThread implements
       if (op.isCancelled() || op.isTimedOut()) {
         continue;
       }
+      // Clones take the op's place, so its buffer goes back to the pool.
+      if (op instanceof BaseOperationImpl
+          && op.getState() == OperationState.WRITE_QUEUED) {
+        ((BaseOperationImpl) op).discardBuffer();
+      }
       if (op instanceof KeyedOperation) {
         KeyedOperation ko = (KeyedOperation) op;
         int added = 0;
@@ -698,6 +938,182 @@ public final class MemcachedConnection extends SpyThread implements
     return locator;
   }
 
+  /**
+   * Get every channel to every server.
+   */
+  Collection<MemcachedNode> getChannels() {
+    Collection<MemcachedNode> nodes = locator.getAll();
+    if (connectionsPerNode == 1) {
+      return nodes;
+    }
+    List<MemcachedNode> rv =
+        new ArrayList<MemcachedNode>(nodes.size() * connectionsPerNode);
+    for (MemcachedNode node : nodes) {
+      rv.addAll(getChannels(node));
+    }
+    return rv;
+  }
+
+  /**
+   * Get the channels to the server of a node from the locator.
+   */
+  private Collection<MemcachedNode> getChannels(MemcachedNode node) {
+    MemcachedNode[] group = channels.get(node);
+    return group == null ? Collections.singletonList(node)
+        : Arrays.asList(group);
+  }
+
+  /**
+   * Find the node for the given server. When called by a connection
+   * observer being told about a new connection, this is the channel that
+   * was just connected rather than the one the locator knows.
+   */
+  MemcachedNode findNode(SocketAddress sa) {
+    for (MemcachedConnection loop : ioLoops) {
+      if (loop == Thread.currentThread() && loop.connecting != null
+          && loop.connecting.getSocketAddress().equals(sa)) {
+        return loop.connecting;
+      }
+    }
+    MemcachedNode rv = null;
+    for (MemcachedNode n : locator.getAll()) {
+      if (n.getSocketAddress().equals(sa)) {
+        rv = n;
+      }
+    }
+    return rv;
+  }
+
+  /**
+   * Pick the channel to the given node's server for an operation.
+   *
+   * <p>
+   * Operations on a key go over the channel the key hashes to, so the
+   * server sees them in the order they were added. If that channel loses its
+   * connection they go over the next connected channel after it instead, and
+   * come back once it is connected again and the other channel is idle.
+   * Operations on no key, or on keys that hash to different channels, go
+   * over the connected channel with the fewest outstanding operations. If
+   * none are connected the node itself is used.
+   * </p>
+   *
+   * @param node the node the locator picked
+   * @param key the key the operation is on, or null to pick the least busy
+   */
+  private MemcachedNode channelFor(MemcachedNode node, String key) {
+    if (connectionsPerNode == 1) {
+      return node;
+    }
+    MemcachedNode[] group = channels.get(node);
+    if (group == null) {
+      return node;
+    }
+    if (key != null) {
+      return keyChannel(node, group, channelIndex(key));
+    }
+    MemcachedNode rv = null;
+    int least = Integer.MAX_VALUE;
+    int start = (nextChannel.getAndIncrement() & Integer.MAX_VALUE)
+        % group.length;
+    for (int i = 0; i < group.length; i++) {
+      MemcachedNode n = group[(start + i) % group.length];
+      if (n.isActive()) {
+        int outstanding = n.getOutstandingOps();
+        if (outstanding < least) {
+          rv = n;
+          least = outstanding;
+        }
+      }
+    }
+    return rv == null ? node : rv;
+  }
+
+  /**
+   * The channel for operations on keys that prefer the given one.
+   *
+   * <p>
+   * Keys only move to another channel once everything sent over theirs is
+   * done, so they can't overtake themselves, or once theirs has lost its
+   * connection. They move to the first connected channel from the one they
+   * prefer. Until any is connected they stay, and wait.
+   * </p>
+   */
+  private MemcachedNode keyChannel(MemcachedNode node, MemcachedNode[] group,
+      int preferred) {
+    AtomicIntegerArray route = routes.get(node);
+    int current = route.get(preferred);
+    MemcachedNode rv = group[current];
+    if (rv.getOutstandingOps() > 0 && !lostChannels.contains(rv)) {
+      return rv;
+    }
+    for (int i = 0; i < group.length; i++) {
+      int next = (preferred + i) % group.length;
+      if (group[next].isActive()) {
+        if (next != current
+            && !route.compareAndSet(preferred, current, next)) {
+          // Another thread moved them first.
+          return group[route.get(preferred)];
+        }
+        return group[next];
+      }
+    }
+    return rv;
+  }
+
+  /**
+   * The channel to a server that operations on the given key prefer.
+   */
+  private int channelIndex(String key) {
+    return (key.hashCode() & Integer.MAX_VALUE) % connectionsPerNode;
+  }
+
+  /**
+   * The key that decides the channel for an operation on several keys: any
+   * one of them if they all prefer the same channel, otherwise null.
+   */
+  private String channelKey(Operation o) {
+    if (connectionsPerNode == 1 || !(o instanceof KeyedOperation)) {
+      return null;
+    }
+    String rv = null;
+    for (String k : ((KeyedOperation) o).getKeys()) {
+      if (rv == null) {
+        rv = k;
+      } else if (channelIndex(k) != channelIndex(rv)) {
+        return null;
+      }
+    }
+    return rv;
+  }
+
+  /**
+   * Whether any channel to the given node's server is connected.
+   */
+  private boolean isActive(MemcachedNode node) {
+    if (node.isActive() || connectionsPerNode == 1) {
+      return node.isActive();
+    }
+    return channelFor(node, null).isActive();
+  }
+
+  /**
+   * Add an operation to the given connection.
+   *
+   * <p>
+   * The key's hash is used to place the operation, and its bytes to encode
+   * it, rather than either being worked out again.
+   * </p>
+   *
+   * @param key the encoded key the operation is operating upon
+   * @param o the operation
+   */
+  void addOperation(final EncodedKey key, final Operation o) {
+    if (o instanceof BaseOperationImpl) {
+      ((BaseOperationImpl) o).setKeyBytes(key.getKey(), key.getBytes());
+    }
+    addOperation(key.getKey(), key, o);
+  }
+
   /**
    * Add an operation to the given connection.
    *
@@ -705,9 +1121,25 @@ public final class MemcachedConnection extends SpyThread implements
    * @param o the operation
    */
   public void addOperation(final String key, final Operation o) {
+    addOperation(key, null, o);
+  }
+
+  private void addOperation(final String key, final EncodedKey encoded,
+      final Operation o) {
     MemcachedNode placeIn = null;
-    MemcachedNode primary = locator.getPrimary(key);
-    if (primary.isActive() || failureMode == FailureMode.Retry) {
+    MemcachedNode primary;
+    if (locator instanceof BoundedLoadNodeLocator
+        && o instanceof GetOperation) {
+      // Only gets move keys off busy nodes. Everything else follows them.
+      BoundedLoadNodeLocator bl = (BoundedLoadNodeLocator) locator;
+      primary = encoded != null ? bl.getReadNode(encoded)
+          : bl.getReadNode(key);
+    } else if (encoded != null && locator instanceof EncodedKeyLocator) {
+      primary = ((EncodedKeyLocator) locator).getPrimary(encoded);
+    } else {
+      primary = locator.getPrimary(key);
+    }
+    if (isActive(primary) || failureMode == FailureMode.Retry) {
       placeIn = primary;
     } else if (failureMode == FailureMode.Cancel) {
       o.cancel();
@@ -716,7 +1148,7 @@ public final class MemcachedConnection extends SpyThread implements
       for (Iterator<MemcachedNode> i = locator.getSequence(key); placeIn == null
           && i.hasNext();) {
         MemcachedNode n = i.next();
-        if (n.isActive()) {
+        if (isActive(n)) {
           placeIn = n;
         }
       }
@@ -749,7 +1181,7 @@ public final class MemcachedConnection extends SpyThread implements
           }
         }
       }
-      addOperation(placeIn, o);
+      addOperation(placeIn, key, o);
     } else {
       assert o.isCancelled() : "No node found for " + key
           + " (and not immediately cancelled)";
@@ -758,29 +1190,132 @@ public final class MemcachedConnection extends SpyThread implements
 
   public void insertOperation(final MemcachedNode node, final Operation o) {
     o.setHandlingNode(node);
-    o.initialize();
+    initialize(o);
+    enqueued(node, o);
     node.insertOp(o);
-    addedQueue.offer(node);
-    Selector s = selector.wakeup();
-    assert s == selector : "Wakeup returned the wrong selector.";
+    loopFor(node).nodeAdded(node).wakeupForInput();
     getLogger().debug("Added %s to %s", o, node);
   }
 
-  private void addOperation(final MemcachedNode node, final Operation o) {
+  private void addOperation(final MemcachedNode primary, final String key,
+      final Operation o) {
+    MemcachedNode node = channelFor(primary, key);
     o.setHandlingNode(node);
-    o.initialize();
+    initialize(o);
+    enqueued(node, o);
     node.addOp(o);
-    addedQueue.offer(node);
+    loopFor(node).nodeAdded(node).wakeupForInput();
+    getLogger().debug("Added %s to %s", o, node);
+  }
+
+  /**
+   * Encode an operation that is about to be queued, into a buffer from this
+   * connection's pool.
+   */
+  private void initialize(Operation o) {
+    if (o instanceof BaseOperationImpl) {
+      ((BaseOperationImpl) o).setBufferPool(bufferPool);
+    }
+    o.initialize();
+  }
+
+  /**
+   * Start timing an operation that is about to be queued on a node.
+   */
+  private void enqueued(MemcachedNode node, Operation o) {
+    if (metrics != null) {
+      o.setEnqueueTime(System.nanoTime());
+    }
+    // Tap streams run for as long as they're wanted.
+    if (timeoutQueue != null && !(o instanceof TapOperation)) {
+      loopFor(node).timeoutQueue.add(
+          new QueuedOperation(o, System.nanoTime()));
+    }
+  }
+
+  /**
+   * Schedule newly queued operations to time out from when they were
+   * queued, and time out any whose timeout has passed.
+   *
+   * @return nanoseconds until more operations may time out, or -1 if none
+   *         are waiting to
+   */
+  private long expireOperations() {
+    long now = System.nanoTime();
+    long timeout = TimeUnit.MILLISECONDS.toNanos(opTimeout);
+    QueuedOperation q;
+    while ((q = timeoutQueue.poll()) != null) {
+      if (!isFinished(q.op)) {
+        timeouts.schedule(q.op, q.enqueued + timeout);
+      }
+    }
+    List<Operation> expired = new ArrayList<Operation>();
+    timeouts.expire(now, expired);
+    for (Operation op : expired) {
+      synchronized (op) {
+        if (isFinished(op)) {
+          continue;
+        }
+        getLogger().debug("Timing out %s", op);
+        opTimedOut(op);
+        op.timeOut();
+      }
+    }
+    return timeouts.nanosToNextTick(now);
+  }
+
+  private static boolean isFinished(Operation o) {
+    return o.getState() == OperationState.COMPLETE || o.isCancelled()
+        || o.isTimedOut();
+  }
+
+  /**
+   * Queue a node with new operations for this loop to pick up.
+   *
+   * @return this loop
+   */
+  private MemcachedConnection nodeAdded(MemcachedNode node) {
+    if (!queuedNodes.containsKey(node)
+        && queuedNodes.putIfAbsent(node, Boolean.TRUE) == null) {
+      addedQueue.offer(node);
+    }
+    return this;
+  }
+
+  /**
+   * Wake up this loop's selector for newly added operations, unless another
+   * submitter has done so since the loop last looked at its added queue.
+   */
+  private void wakeupForInput() {
+    if (!wakeupPending.get() && wakeupPending.compareAndSet(false, true)) {
+      wakeup();
+    }
+  }
+
+  /**
+   * Wake up this loop's selector so it'll handle its added queue.
+   */
+  private void wakeup() {
     Selector s = selector.wakeup();
     assert s == selector : "Wakeup returned the wrong selector.";
-    getLogger().debug("Added %s to %s", o, node);
   }
 
-  public void addOperations(final Map<MemcachedNode, Operation> ops) {
+  /**
+   * Wake up every loop that was marked as having new work.
+   */
+  private void wakeup(boolean[] touched) {
+    for (int i = 0; i < touched.length; i++) {
+      if (touched[i]) {
+        ioLoops[i].wakeupForInput();
+      }
+    }
+  }
 
+  public void addOperations(final Map<MemcachedNode, Operation> ops) {
+    final boolean[] touched = new boolean[ioLoops.length];
     for (Map.Entry<MemcachedNode, Operation> me : ops.entrySet()) {
-      final MemcachedNode node = me.getKey();
       Operation o = me.getValue();
+      final MemcachedNode node = channelFor(me.getKey(), channelKey(o));
       // add the vbucketIndex to the operation
       if (locator instanceof VBucketNodeLocator) {
         if (o instanceof KeyedOperation && o instanceof VBucketAware) {
@@ -794,12 +1329,12 @@ public final class MemcachedConnection extends SpyThread implements
         }
       }
       o.setHandlingNode(node);
-      o.initialize();
+      initialize(o);
+      enqueued(node, o);
       node.addOp(o);
-      addedQueue.offer(node);
+      touched[loopFor(node).nodeAdded(node).loopIndex] = true;
     }
-    Selector s = selector.wakeup();
-    assert s == selector : "Wakeup returned the wrong selector.";
+    wakeup(touched);
   }
 
   /**
@@ -815,15 +1350,18 @@ public final class MemcachedConnection extends SpyThread implements
   public CountDownLatch broadcastOperation(final BroadcastOpFactory of,
       Collection<MemcachedNode> nodes) {
     final CountDownLatch latch = new CountDownLatch(locator.getAll().size());
+    final boolean[] touched = new boolean[ioLoops.length];
     for (MemcachedNode node : nodes) {
       Operation op = of.newOp(node, latch);
-      op.initialize();
-      node.addOp(op);
-      op.setHandlingNode(node);
-      addedQueue.offer(node);
+      // Any channel to the server will do.
+      MemcachedNode channel = channelFor(node, null);
+      initialize(op);
+      enqueued(channel, op);
+      channel.addOp(op);
+      op.setHandlingNode(channel);
+      touched[loopFor(channel).nodeAdded(channel).loopIndex] = true;
     }
-    Selector s = selector.wakeup();
-    assert s == selector : "Wakeup returned the wrong selector.";
+    wakeup(touched);
     return latch;
   }
 
@@ -831,10 +1369,11 @@ public final class MemcachedConnection extends SpyThread implements
    * Shut down all of the connections.
    */
   public void shutdown() throws IOException {
-    shutDown = true;
-    Selector s = selector.wakeup();
-    assert s == selector : "Wakeup returned the wrong selector.";
-    for (MemcachedNode qa : locator.getAll()) {
+    for (MemcachedConnection loop : ioLoops) {
+      loop.shutDown = true;
+      loop.wakeup();
+    }
+    for (MemcachedNode qa : getChannels()) {
       if (qa.getChannel() != null) {
         qa.getChannel().close();
         qa.setSk(null);
@@ -845,9 +1384,11 @@ public final class MemcachedConnection extends SpyThread implements
         getLogger().debug("Shut down channel %s", qa.getChannel());
       }
     }
-    running = false;
-    selector.close();
-    getLogger().debug("Shut down selector %s", selector);
+    for (MemcachedConnection loop : ioLoops) {
+      loop.running = false;
+      loop.selector.close();
+      getLogger().debug("Shut down selector %s", loop.selector);
+    }
   }
 
   @Override
@@ -942,4 +1483,18 @@ public final class MemcachedConnection extends SpyThread implements
       getLogger().warn("Problem handling memcached IO", e);
     }
   }
+
+  /**
+   * An operation waiting for its loop to start timing it, and when it was
+   * queued.
+   */
+  private static final class QueuedOperation {
+    private final Operation op;
+    private final long enqueued;
+
+    QueuedOperation(Operation o, long t) {
+      op = o;
+      enqueued = t;
+    }
+  }
 }
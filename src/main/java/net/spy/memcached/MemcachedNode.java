@@ -79,6 +79,22 @@ public interface MemcachedNode {
    */
   Operation removeCurrentReadOp();
 
+  /**
+   * Get the operation the bytes at the position of the read buffer belong
+   * to, and make it the current read operation.
+   *
+   * <p>
+   * Nodes that read responses in the order their requests were written
+   * simply return {@link #getCurrentReadOp()}. Nodes that match responses
+   * to requests may need to see the start of a response first.
+   * </p>
+   *
+   * @param rbuf the read buffer, flipped for reading
+   * @return the operation, or null if there is none or if the buffer does
+   *         not yet hold enough of a response to tell which it is
+   */
+  Operation getReadOpFor(ByteBuffer rbuf);
+
   /**
    * Get the operation at the top of the queue that has information available to
    * write.
@@ -220,4 +236,11 @@ public interface MemcachedNode {
   void setContinuousTimeout(boolean timedOut);
 
   int getContinuousTimeout();
+
+  /**
+   * Get the number of operations that are queued for this node or waiting
+   * for its response. This is cheap enough to ask for every operation added,
+   * but may briefly lag behind what the IO thread has written and read.
+   */
+  int getOutstandingOps();
 }
@@ -134,6 +134,10 @@ class MemcachedNodeROImpl implements MemcachedNode {
     throw new UnsupportedOperationException();
   }
 
+  public Operation getReadOpFor(ByteBuffer rbuf) {
+    throw new UnsupportedOperationException();
+  }
+
   public Operation removeCurrentWriteOp() {
     throw new UnsupportedOperationException();
   }
@@ -174,6 +178,10 @@ class MemcachedNodeROImpl implements MemcachedNode {
     throw new UnsupportedOperationException();
   }
 
+  public int getOutstandingOps() {
+    return root.getOutstandingOps();
+  }
+
   public void setContinuousTimeout(boolean isIncrease) {
     throw new UnsupportedOperationException();
   }
@@ -0,0 +1,387 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, in-process cache of decoded values used by
+ * {@link NearCacheMemcachedClient}.
+ *
+ * <p>
+ * The cache is split into segments, each an LRU list guarded by its own lock
+ * and holding at most its share of the configured number of bytes. The
+ * weight of an entry is the size of the value as it came off the wire plus
+ * the length of its key, so the bound tracks what memcached itself would be
+ * storing rather than the (unknowable) size of the decoded object.
+ * </p>
+ *
+ * <p>
+ * Entries live for at most the configured time to live. When the client
+ * stores a key with an expiration the cache remembers when the server will
+ * expire the item and never keeps a copy past that point.
+ * </p>
+ *
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+public final class NearCache {
+
+  /**
+   * The default number of independently locked segments.
+   */
+  public static final int DEFAULT_SEGMENTS = 16;
+
+  // Rough per-entry bookkeeping cost charged against the byte bound.
+  private static final int ENTRY_OVERHEAD = 64;
+
+  // Expirations beyond this many seconds are absolute unix times.
+  private static final int MAX_RELATIVE_EXPIRATION = 60 * 60 * 24 * 30;
+
+  private final Segment[] segments;
+  private final long ttlNanos;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong expirations = new AtomicLong();
+  private final AtomicLong invalidations = new AtomicLong();
+
+  /**
+   * Create a near cache with the default number of segments.
+   *
+   * @param maxBytes the most bytes of values (and keys) to hold
+   * @param ttl how long a value may be served locally
+   * @param unit the unit of the ttl
+   */
+  public NearCache(long maxBytes, long ttl, TimeUnit unit) {
+    this(maxBytes, ttl, unit, DEFAULT_SEGMENTS);
+  }
+
+  /**
+   * Create a near cache.
+   *
+   * @param maxBytes the most bytes of values (and keys) to hold
+   * @param ttl how long a value may be served locally
+   * @param unit the unit of the ttl
+   * @param numSegments the number of independently locked segments (rounded
+   *        up to a power of two)
+   */
+  public NearCache(long maxBytes, long ttl, TimeUnit unit, int numSegments) {
+    assert maxBytes > 0 : "Maximum size must be positive";
+    assert ttl > 0 : "TTL must be positive";
+    assert numSegments > 0 : "Need at least one segment";
+    int n = Integer.highestOneBit(numSegments);
+    if (n < numSegments) {
+      n <<= 1;
+    }
+    segments = new Segment[n];
+    for (int i = 0; i < n; i++) {
+      segments[i] = new Segment(Math.max(1, maxBytes / n));
+    }
+    ttlNanos = unit.toNanos(ttl);
+  }
+
+  /**
+   * Get the locally held value for a key.
+   *
+   * @param key the key
+   * @param owner the transcoder the caller would decode the value with; a
+   *        value decoded by another transcoder doesn't count
+   * @return the value, or null if there's no usable local copy
+   */
+  public Object get(String key, Object owner) {
+    Object rv = segmentFor(key).get(key, owner, System.nanoTime());
+    if (rv == null) {
+      misses.incrementAndGet();
+    } else {
+      hits.incrementAndGet();
+    }
+    return rv;
+  }
+
+  /**
+   * Note that a value for the key is about to be fetched.
+   *
+   * @return a stamp to pass to {@link #put} when the value arrives
+   */
+  public long startLoad(String key) {
+    return segmentFor(key).version;
+  }
+
+  /**
+   * Store a fetched value, unless the key's segment was invalidated since the
+   * load started (in which case the value may already be stale).
+   *
+   * @param key the key
+   * @param owner the transcoder that decoded the value
+   * @param value the decoded value
+   * @param size the size of the value as it was read from the server
+   * @param stamp the stamp returned by {@link #startLoad}
+   * @return true if the value was stored
+   */
+  public boolean put(String key, Object owner, Object value, int size,
+      long stamp) {
+    assert value != null : "Can't cache null values";
+    return segmentFor(key).put(key, owner, value,
+        size + key.length() + ENTRY_OVERHEAD, stamp, System.nanoTime());
+  }
+
+  /**
+   * Drop any local copy of a key.
+   */
+  public void invalidate(String key) {
+    invalidations.incrementAndGet();
+    segmentFor(key).invalidate(key, 0, false);
+  }
+
+  /**
+   * Drop any local copy of a key that was just stored with the given
+   * expiration, and cap the life of the next local copy accordingly.
+   *
+   * @param key the key
+   * @param exp the memcached expiration the key was stored with
+   */
+  public void invalidate(String key, int exp) {
+    invalidations.incrementAndGet();
+    segmentFor(key).invalidate(key, expiresAt(exp), exp != 0);
+  }
+
+  /**
+   * Drop every local copy.
+   */
+  public void clear() {
+    for (Segment s : segments) {
+      s.clear();
+    }
+  }
+
+  /**
+   * Get the number of lookups that found a local copy.
+   */
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  /**
+   * Get the number of lookups that had to go to the server.
+   */
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /**
+   * Get the number of values dropped to stay within the size bound.
+   */
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  /**
+   * Get the number of values dropped because they outlived their ttl.
+   */
+  public long getExpirationCount() {
+    return expirations.get();
+  }
+
+  /**
+   * Get the number of keys invalidated by local writes.
+   */
+  public long getInvalidationCount() {
+    return invalidations.get();
+  }
+
+  /**
+   * Get the number of values currently held.
+   */
+  public int size() {
+    int rv = 0;
+    for (Segment s : segments) {
+      rv += s.size();
+    }
+    return rv;
+  }
+
+  /**
+   * Get the weight, in bytes, of everything currently held.
+   */
+  public long getWeight() {
+    long rv = 0;
+    for (Segment s : segments) {
+      rv += s.weight();
+    }
+    return rv;
+  }
+
+  @Override
+  public String toString() {
+    return "{NearCache size=" + size() + ", weight=" + getWeight() + ", hits="
+        + getHitCount() + ", misses=" + getMissCount() + ", evictions="
+        + getEvictionCount() + ", expirations=" + getExpirationCount()
+        + ", invalidations=" + getInvalidationCount() + "}";
+  }
+
+  private Segment segmentFor(String key) {
+    int h = key.hashCode();
+    h ^= (h >>> 16);
+    return segments[h & (segments.length - 1)];
+  }
+
+  // Convert a memcached expiration into a System.nanoTime() deadline.
+  private static long expiresAt(int exp) {
+    long millis;
+    if (exp == 0) {
+      return 0;
+    } else if (exp < 0) {
+      millis = 0;
+    } else if (exp <= MAX_RELATIVE_EXPIRATION) {
+      millis = exp * 1000L;
+    } else {
+      millis = exp * 1000L - System.currentTimeMillis();
+    }
+    return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+
+  /**
+   * A locally held value, or just the remembered server-side expiration of a
+   * key whose value isn't held.
+   */
+  private static final class Entry {
+    private final Object owner;
+    private final Object value;
+    private final int weight;
+    private final long expiresAt;
+    private final boolean serverExpires;
+
+    Entry(Object o, Object v, int w, long e, boolean se) {
+      owner = o;
+      value = v;
+      weight = w;
+      expiresAt = e;
+      serverExpires = se;
+    }
+  }
+
+  /**
+   * One independently locked part of the cache, kept in LRU order.
+   */
+  private final class Segment {
+    private final LinkedHashMap<String, Entry> map =
+        new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private final long maxWeight;
+    private long weight = 0;
+    private volatile long version = 0;
+
+    Segment(long max) {
+      maxWeight = max;
+    }
+
+    synchronized Object get(String key, Object owner, long now) {
+      Entry e = map.get(key);
+      if (e == null || e.value == null || e.owner != owner) {
+        return null;
+      }
+      if (e.expiresAt - now <= 0) {
+        expirations.incrementAndGet();
+        remove(key);
+        return null;
+      }
+      return e.value;
+    }
+
+    synchronized boolean put(String key, Object owner, Object value,
+        int entryWeight, long stamp, long now) {
+      if (stamp != version || entryWeight > maxWeight) {
+        return false;
+      }
+      long expiry = now + ttlNanos;
+      boolean serverExpires = false;
+      Entry old = map.get(key);
+      // A server expiration that has already passed means somebody else
+      // has stored the key since; only a pending one limits our copy.
+      if (old != null && old.serverExpires && old.expiresAt - now > 0
+          && old.expiresAt - expiry < 0) {
+        expiry = old.expiresAt;
+        serverExpires = true;
+      }
+      remove(key);
+      add(key, new Entry(owner, value, entryWeight, expiry, serverExpires));
+      return true;
+    }
+
+    synchronized void invalidate(String key, long serverExpiry,
+        boolean remember) {
+      version++;
+      remove(key);
+      if (remember) {
+        // Hold on to the expiration so the next load can honor it.
+        add(key, new Entry(null, null, key.length() + ENTRY_OVERHEAD,
+            serverExpiry, true));
+      }
+    }
+
+    synchronized void clear() {
+      version++;
+      map.clear();
+      weight = 0;
+    }
+
+    synchronized long weight() {
+      return weight;
+    }
+
+    synchronized int size() {
+      int rv = 0;
+      for (Entry e : map.values()) {
+        if (e.value != null) {
+          rv++;
+        }
+      }
+      return rv;
+    }
+
+    private void add(String key, Entry e) {
+      map.put(key, e);
+      weight += e.weight;
+      Iterator<Entry> i = map.values().iterator();
+      while (weight > maxWeight && i.hasNext()) {
+        Entry eldest = i.next();
+        i.remove();
+        weight -= eldest.weight;
+        if (eldest.value != null) {
+          evictions.incrementAndGet();
+        }
+      }
+    }
+
+    private void remove(String key) {
+      Entry e = map.remove(key);
+      if (e != null) {
+        weight -= e.weight;
+      }
+    }
+  }
+}
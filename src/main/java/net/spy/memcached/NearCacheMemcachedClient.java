@@ -0,0 +1,672 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.spy.memcached.internal.AbstractListenableFuture;
+import net.spy.memcached.internal.BulkFuture;
+import net.spy.memcached.internal.FutureListener;
+import net.spy.memcached.internal.SingleElementInfiniteIterator;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * A client that keeps recently read values in a {@link NearCache} in front of
+ * another client.
+ *
+ * <p>
+ * Plain gets (single and bulk) are answered from the near cache when it holds
+ * a copy decoded by the same transcoder, and fill it when they go to the
+ * server. Everything else is passed straight through. Writes made through
+ * this client drop the local copy of the key as soon as they're queued, so a
+ * client always sees its own writes; writes made by other clients are only
+ * seen once the local copy expires, so keep the near cache's time to live
+ * short.
+ * </p>
+ *
+ * <p>
+ * Cached values are shared between callers. Don't modify objects returned
+ * from this client.
+ * </p>
+ */
+public class NearCacheMemcachedClient implements MemcachedClientIF {
+
+  private static final OperationStatus HIT_STATUS =
+      new OperationStatus(true, "Found in near cache");
+
+  private final MemcachedClientIF client;
+  private final NearCache cache;
+  private final long operationTimeout;
+
+  /**
+   * Put a near cache in front of a client, using the client's operation
+   * timeout for synchronous gets.
+   */
+  public NearCacheMemcachedClient(MemcachedClient c, NearCache nc) {
+    this(c, nc, c.operationTimeout);
+  }
+
+  /**
+   * Put a near cache in front of a client.
+   *
+   * @param c the client to fetch from and write through
+   * @param nc the near cache
+   * @param opTimeout the timeout (in milliseconds) for synchronous gets that
+   *        miss the near cache
+   */
+  public NearCacheMemcachedClient(MemcachedClientIF c, NearCache nc,
+      long opTimeout) {
+    client = c;
+    cache = nc;
+    operationTimeout = opTimeout;
+  }
+
+  /**
+   * Get the near cache.
+   */
+  public NearCache getNearCache() {
+    return cache;
+  }
+
+  public Collection<SocketAddress> getAvailableServers() {
+    return client.getAvailableServers();
+  }
+
+  public Collection<SocketAddress> getUnavailableServers() {
+    return client.getUnavailableServers();
+  }
+
+  public Transcoder<Object> getTranscoder() {
+    return client.getTranscoder();
+  }
+
+  public NodeLocator getNodeLocator() {
+    return client.getNodeLocator();
+  }
+
+  public Future<Boolean> append(long cas, String key, Object val) {
+    return invalidated(key, client.append(cas, key, val));
+  }
+
+  public <T> Future<Boolean> append(long cas, String key, T val,
+      Transcoder<T> tc) {
+    return invalidated(key, client.append(cas, key, val, tc));
+  }
+
+  public Future<Boolean> prepend(long cas, String key, Object val) {
+    return invalidated(key, client.prepend(cas, key, val));
+  }
+
+  public <T> Future<Boolean> prepend(long cas, String key, T val,
+      Transcoder<T> tc) {
+    return invalidated(key, client.prepend(cas, key, val, tc));
+  }
+
+  public <T> Future<CASResponse> asyncCAS(String key, long casId, T value,
+      Transcoder<T> tc) {
+    return invalidated(key, client.asyncCAS(key, casId, value, tc));
+  }
+
+  public Future<CASResponse> asyncCAS(String key, long casId, Object value) {
+    return invalidated(key, client.asyncCAS(key, casId, value));
+  }
+
+  public <T> CASResponse cas(String key, long casId, T value,
+      Transcoder<T> tc) {
+    return invalidated(key, client.cas(key, casId, value, tc));
+  }
+
+  public CASResponse cas(String key, long casId, Object value) {
+    return invalidated(key, client.cas(key, casId, value));
+  }
+
+  public <T> Future<Boolean> add(String key, int exp, T o, Transcoder<T> tc) {
+    return invalidated(key, exp, client.add(key, exp, o, tc));
+  }
+
+  public Future<Boolean> add(String key, int exp, Object o) {
+    return invalidated(key, exp, client.add(key, exp, o));
+  }
+
+  public <T> Future<Boolean> set(String key, int exp, T o, Transcoder<T> tc) {
+    return invalidated(key, exp, client.set(key, exp, o, tc));
+  }
+
+  public Future<Boolean> set(String key, int exp, Object o) {
+    return invalidated(key, exp, client.set(key, exp, o));
+  }
+
+  public <T> Future<Boolean> replace(String key, int exp, T o,
+      Transcoder<T> tc) {
+    return invalidated(key, exp, client.replace(key, exp, o, tc));
+  }
+
+  public Future<Boolean> replace(String key, int exp, Object o) {
+    return invalidated(key, exp, client.replace(key, exp, o));
+  }
+
+  public <T> BulkFuture<Map<String, Boolean>> asyncSetBulk(
+      Map<String, T> values, int exp, Transcoder<T> tc) {
+    return allInvalidated(values.keySet(), exp,
+        client.asyncSetBulk(values, exp, tc));
+  }
+
+  public BulkFuture<Map<String, Boolean>> asyncSetBulk(Map<String, ?> values,
+      int exp) {
+    return allInvalidated(values.keySet(), exp,
+        client.asyncSetBulk(values, exp));
+  }
+
+  public <T> BulkFuture<Map<String, Boolean>> asyncAddBulk(
+      Map<String, T> values, int exp, Transcoder<T> tc) {
+    return allInvalidated(values.keySet(), exp,
+        client.asyncAddBulk(values, exp, tc));
+  }
+
+  public BulkFuture<Map<String, Boolean>> asyncAddBulk(Map<String, ?> values,
+      int exp) {
+    return allInvalidated(values.keySet(), exp,
+        client.asyncAddBulk(values, exp));
+  }
+
+  public <T> BulkFuture<Map<String, Boolean>> asyncReplaceBulk(
+      Map<String, T> values, int exp, Transcoder<T> tc) {
+    return allInvalidated(values.keySet(), exp,
+        client.asyncReplaceBulk(values, exp, tc));
+  }
+
+  public BulkFuture<Map<String, Boolean>> asyncReplaceBulk(Map<String, ?> values,
+      int exp) {
+    return allInvalidated(values.keySet(), exp,
+        client.asyncReplaceBulk(values, exp));
+  }
+
+  /**
+   * Drop the local copy of a key once a write of it has been queued, and
+   * return the write's result. A get that misses any earlier could be queued
+   * ahead of the write, read the old value and keep it. Gets whose loads
+   * started before this can't store what they read, and later ones are
+   * queued behind the write.
+   */
+  private <R> R invalidated(String key, R written) {
+    cache.invalidate(key);
+    return written;
+  }
+
+  /**
+   * Drop the local copy of a key once a write with the given expiration has
+   * been queued, and return the write's result.
+   */
+  private <R> R invalidated(String key, int exp, R written) {
+    cache.invalidate(key, exp);
+    return written;
+  }
+
+  private <R> R allInvalidated(Collection<String> keys, int exp, R written) {
+    for (String key : keys) {
+      cache.invalidate(key, exp);
+    }
+    return written;
+  }
+
+  private <R> R allInvalidated(Collection<String> keys, R written) {
+    for (String key : keys) {
+      cache.invalidate(key);
+    }
+    return written;
+  }
+
+  @SuppressWarnings("unchecked")
+  public <T> Future<T> asyncGet(String key, Transcoder<T> tc) {
+    T rv = (T) cache.get(key, tc);
+    if (rv != null) {
+      return new HitFuture<T>(rv);
+    }
+    return client.asyncGet(key, new Loader<T>(key, tc));
+  }
+
+  public Future<Object> asyncGet(String key) {
+    return asyncGet(key, getTranscoder());
+  }
+
+  public Future<CASValue<Object>> asyncGetAndTouch(String key, int exp) {
+    return invalidated(key, exp, client.asyncGetAndTouch(key, exp));
+  }
+
+  public <T> Future<CASValue<T>> asyncGetAndTouch(String key, int exp,
+      Transcoder<T> tc) {
+    return invalidated(key, exp, client.asyncGetAndTouch(key, exp, tc));
+  }
+
+  public CASValue<Object> getAndTouch(String key, int exp) {
+    return invalidated(key, exp, client.getAndTouch(key, exp));
+  }
+
+  public <T> CASValue<T> getAndTouch(String key, int exp, Transcoder<T> tc) {
+    return invalidated(key, exp, client.getAndTouch(key, exp, tc));
+  }
+
+  public <T> Future<CASValue<T>> asyncGets(String key, Transcoder<T> tc) {
+    return client.asyncGets(key, tc);
+  }
+
+  public Future<CASValue<Object>> asyncGets(String key) {
+    return client.asyncGets(key);
+  }
+
+  public <T> CASValue<T> gets(String key, Transcoder<T> tc) {
+    return client.gets(key, tc);
+  }
+
+  public CASValue<Object> gets(String key) {
+    return client.gets(key);
+  }
+
+  @SuppressWarnings("unchecked")
+  public <T> T get(String key, Transcoder<T> tc) {
+    T rv = (T) cache.get(key, tc);
+    if (rv != null) {
+      return rv;
+    }
+    return client.get(key, new Loader<T>(key, tc));
+  }
+
+  public Object get(String key) {
+    return get(key, getTranscoder());
+  }
+
+  @SuppressWarnings("unchecked")
+  public <T> BulkFuture<Map<String, T>> asyncGetBulk(Collection<String> keys,
+      Iterator<Transcoder<T>> tcs) {
+    Map<String, T> hits = new HashMap<String, T>();
+    List<String> missed = new ArrayList<String>(keys.size());
+    List<Transcoder<T>> loaders = new ArrayList<Transcoder<T>>(keys.size());
+    Iterator<String> ki = keys.iterator();
+    while (ki.hasNext() && tcs.hasNext()) {
+      String key = ki.next();
+      Transcoder<T> tc = tcs.next();
+      T val = (T) cache.get(key, tc);
+      if (val != null) {
+        hits.put(key, val);
+      } else {
+        missed.add(key);
+        loaders.add(new Loader<T>(key, tc));
+      }
+    }
+    BulkFuture<Map<String, T>> rest = null;
+    if (!missed.isEmpty()) {
+      rest = client.asyncGetBulk(missed, loaders.iterator());
+    }
+    return new MergedBulkFuture<T>(hits, rest);
+  }
+
+  public <T> BulkFuture<Map<String, T>> asyncGetBulk(Collection<String> keys,
+      Transcoder<T> tc) {
+    return asyncGetBulk(keys,
+        new SingleElementInfiniteIterator<Transcoder<T>>(tc));
+  }
+
+  public BulkFuture<Map<String, Object>> asyncGetBulk(Collection<String> keys) {
+    return asyncGetBulk(keys, getTranscoder());
+  }
+
+  public <T> BulkFuture<Map<String, T>> asyncGetBulk(Transcoder<T> tc,
+      String... keys) {
+    return asyncGetBulk(Arrays.asList(keys), tc);
+  }
+
+  public BulkFuture<Map<String, Object>> asyncGetBulk(String... keys) {
+    return asyncGetBulk(Arrays.asList(keys), getTranscoder());
+  }
+
+  public <T> Map<String, T> getBulk(Collection<String> keys,
+      Transcoder<T> tc) {
+    try {
+      return asyncGetBulk(keys, tc).get(operationTimeout,
+          TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      throw new RuntimeException("Interrupted getting bulk values", e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Failed getting bulk values", e);
+    } catch (TimeoutException e) {
+      throw new OperationTimeoutException("Timeout waiting for bulkvalues", e);
+    }
+  }
+
+  public Map<String, Object> getBulk(Collection<String> keys) {
+    return getBulk(keys, getTranscoder());
+  }
+
+  public <T> Map<String, T> getBulk(Transcoder<T> tc, String... keys) {
+    return getBulk(Arrays.asList(keys), tc);
+  }
+
+  public Map<String, Object> getBulk(String... keys) {
+    return getBulk(Arrays.asList(keys), getTranscoder());
+  }
+
+  public <T> Future<Boolean> touch(String key, int exp, Transcoder<T> tc) {
+    return invalidated(key, exp, client.touch(key, exp, tc));
+  }
+
+  public <T> Future<Boolean> touch(String key, int exp) {
+    return invalidated(key, exp, client.touch(key, exp));
+  }
+
+  public BulkFuture<Map<String, Boolean>> asyncTouchBulk(
+      Collection<String> keys, int exp) {
+    return allInvalidated(keys, exp, client.asyncTouchBulk(keys, exp));
+  }
+
+  public Map<SocketAddress, String> getVersions() {
+    return client.getVersions();
+  }
+
+  public Map<SocketAddress, Map<String, String>> getStats() {
+    return client.getStats();
+  }
+
+  public Map<SocketAddress, Map<String, String>> getStats(String prefix) {
+    return client.getStats(prefix);
+  }
+
+  public long incr(String key, long by) {
+    return invalidated(key, client.incr(key, by));
+  }
+
+  public long incr(String key, int by) {
+    return invalidated(key, client.incr(key, by));
+  }
+
+  public long decr(String key, long by) {
+    return invalidated(key, client.decr(key, by));
+  }
+
+  public long decr(String key, int by) {
+    return invalidated(key, client.decr(key, by));
+  }
+
+  public long incr(String key, long by, long def, int exp) {
+    return invalidated(key, client.incr(key, by, def, exp));
+  }
+
+  public long incr(String key, int by, long def, int exp) {
+    return invalidated(key, client.incr(key, by, def, exp));
+  }
+
+  public long decr(String key, long by, long def, int exp) {
+    return invalidated(key, client.decr(key, by, def, exp));
+  }
+
+  public long decr(String key, int by, long def, int exp) {
+    return invalidated(key, client.decr(key, by, def, exp));
+  }
+
+  public Future<Long> asyncIncr(String key, long by) {
+    return invalidated(key, client.asyncIncr(key, by));
+  }
+
+  public Future<Long> asyncIncr(String key, int by) {
+    return invalidated(key, client.asyncIncr(key, by));
+  }
+
+  public Future<Long> asyncDecr(String key, long by) {
+    return invalidated(key, client.asyncDecr(key, by));
+  }
+
+  public Future<Long> asyncDecr(String key, int by) {
+    return invalidated(key, client.asyncDecr(key, by));
+  }
+
+  public BulkFuture<Map<String, Boolean>> asyncIncrBulk(
+      Collection<String> keys, long by) {
+    return allInvalidated(keys, client.asyncIncrBulk(keys, by));
+  }
+
+  public BulkFuture<Map<String, Boolean>> asyncDecrBulk(
+      Collection<String> keys, long by) {
+    return allInvalidated(keys, client.asyncDecrBulk(keys, by));
+  }
+
+  public long incr(String key, long by, long def) {
+    return invalidated(key, client.incr(key, by, def));
+  }
+
+  public long incr(String key, int by, long def) {
+    return invalidated(key, client.incr(key, by, def));
+  }
+
+  public long decr(String key, long by, long def) {
+    return invalidated(key, client.decr(key, by, def));
+  }
+
+  public long decr(String key, int by, long def) {
+    return invalidated(key, client.decr(key, by, def));
+  }
+
+  public Future<Boolean> delete(String key) {
+    return invalidated(key, client.delete(key));
+  }
+
+  public BulkFuture<Map<String, Boolean>> asyncDeleteBulk(
+      Collection<String> keys) {
+    return allInvalidated(keys, client.asyncDeleteBulk(keys));
+  }
+
+  public Future<Boolean> flush(int delay) {
+    Future<Boolean> rv = client.flush(delay);
+    cache.clear();
+    return rv;
+  }
+
+  public Future<Boolean> flush() {
+    Future<Boolean> rv = client.flush();
+    cache.clear();
+    return rv;
+  }
+
+  public void shutdown() {
+    client.shutdown();
+  }
+
+  public boolean shutdown(long timeout, TimeUnit unit) {
+    return client.shutdown(timeout, unit);
+  }
+
+  public boolean waitForQueues(long timeout, TimeUnit unit) {
+    return client.waitForQueues(timeout, unit);
+  }
+
+  public boolean addObserver(ConnectionObserver obs) {
+    return client.addObserver(obs);
+  }
+
+  public boolean removeObserver(ConnectionObserver obs) {
+    return client.removeObserver(obs);
+  }
+
+  public Set<String> listSaslMechanisms() {
+    return client.listSaslMechanisms();
+  }
+
+  @Override
+  public String toString() {
+    return "{NearCacheMemcachedClient " + cache + " in front of " + client
+        + "}";
+  }
+
+  /**
+   * Wraps the caller's transcoder for a fetch, keeping what it decodes.
+   */
+  private final class Loader<T> implements Transcoder<T> {
+    private final String key;
+    private final Transcoder<T> tc;
+    private final long stamp;
+
+    Loader(String k, Transcoder<T> t) {
+      key = k;
+      tc = t;
+      stamp = cache.startLoad(k);
+    }
+
+    public boolean asyncDecode(CachedData d) {
+      return tc.asyncDecode(d);
+    }
+
+    public CachedData encode(T o) {
+      return tc.encode(o);
+    }
+
+    public T decode(CachedData d) {
+      T rv = tc.decode(d);
+      if (rv != null) {
+        cache.put(key, tc, rv, d.getData().length, stamp);
+      }
+      return rv;
+    }
+
+    public int getMaxSize() {
+      return tc.getMaxSize();
+    }
+  }
+
+  /**
+   * The result of a get answered from the near cache.
+   */
+  private static final class HitFuture<T> extends
+      AbstractListenableFuture<T> {
+    private final T value;
+
+    HitFuture(T v) {
+      value = v;
+      notifyListeners();
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      return false;
+    }
+
+    public T get() {
+      return value;
+    }
+
+    public T get(long timeout, TimeUnit unit) {
+      return value;
+    }
+
+    public boolean isCancelled() {
+      return false;
+    }
+
+    public boolean isDone() {
+      return true;
+    }
+  }
+
+  /**
+   * A bulk get partly answered from the near cache.
+   */
+  private static final class MergedBulkFuture<T> implements
+      BulkFuture<Map<String, T>> {
+    private final Map<String, T> hits;
+    private final BulkFuture<Map<String, T>> rest;
+
+    MergedBulkFuture(Map<String, T> h, BulkFuture<Map<String, T>> r) {
+      hits = h;
+      rest = r;
+    }
+
+    private Map<String, T> merge(Map<String, T> fetched) {
+      if (fetched == null || fetched.isEmpty()) {
+        return hits;
+      }
+      Map<String, T> rv = new HashMap<String, T>(fetched);
+      rv.putAll(hits);
+      return rv;
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      return rest != null && rest.cancel(mayInterruptIfRunning);
+    }
+
+    public Map<String, T> get() throws InterruptedException,
+        ExecutionException {
+      return merge(rest == null ? null : rest.get());
+    }
+
+    public Map<String, T> get(long timeout, TimeUnit unit)
+      throws InterruptedException, ExecutionException, TimeoutException {
+      return merge(rest == null ? null : rest.get(timeout, unit));
+    }
+
+    public Map<String, T> getSome(long timeout, TimeUnit unit)
+      throws InterruptedException, ExecutionException {
+      return merge(rest == null ? null : rest.getSome(timeout, unit));
+    }
+
+    public OperationStatus getStatus() {
+      return rest == null ? HIT_STATUS : rest.getStatus();
+    }
+
+    public boolean isTimeout() {
+      return rest != null && rest.isTimeout();
+    }
+
+    public boolean isCancelled() {
+      return rest != null && rest.isCancelled();
+    }
+
+    public boolean isDone() {
+      return rest == null || rest.isDone();
+    }
+
+    public void addListener(Executor executor,
+        final FutureListener<? super Map<String, T>> listener) {
+      FutureListener<Map<String, T>> l = new FutureListener<Map<String, T>>() {
+        public void onComplete(Future<? extends Map<String, T>> f)
+          throws Exception {
+          listener.onComplete(MergedBulkFuture.this);
+        }
+      };
+      if (rest == null) {
+        new HitFuture<Map<String, T>>(hits).addListener(executor, l);
+      } else {
+        rest.addListener(executor, l);
+      }
+    }
+  }
+}
@@ -28,6 +28,11 @@ import java.util.Map;
 
 import javax.security.auth.callback.CallbackHandler;
 
+import net.spy.memcached.ops.BulkDeleteOperation;
+import net.spy.memcached.ops.BulkMutatorOperation;
+import net.spy.memcached.ops.BulkOperationCallback;
+import net.spy.memcached.ops.BulkStoreOperation;
+import net.spy.memcached.ops.BulkTouchOperation;
 import net.spy.memcached.ops.CASOperation;
 import net.spy.memcached.ops.ConcatenationOperation;
 import net.spy.memcached.ops.ConcatenationType;
@@ -76,6 +81,15 @@ public interface OperationFactory {
    */
   DeleteOperation delete(String key, OperationCallback operationCallback);
 
+  /**
+   * Create a deletion operation for many keys on the same server.
+   *
+   * @param keys the keys to delete
+   * @param cb the callback that will be told of each key not deleted
+   * @return the new bulk delete operation
+   */
+  BulkDeleteOperation delete(Collection<String> keys, BulkOperationCallback cb);
+
   /**
    * Create a flush operation.
    *
@@ -149,6 +163,22 @@ public interface OperationFactory {
   MutatorOperation mutate(Mutator m, String key, long by, long def, int exp,
       OperationCallback cb);
 
+  /**
+   * Create a mutator operation for many counters on the same server.
+   *
+   * <p>
+   * Counters that don't exist are left alone.
+   * </p>
+   *
+   * @param m the mutator type
+   * @param keys the mutatee keys
+   * @param by the amount to increment or decrement
+   * @param cb the callback that will be told of each key not mutated
+   * @return the new bulk mutator operation
+   */
+  BulkMutatorOperation mutate(Mutator m, Collection<String> keys, long by,
+      BulkOperationCallback cb);
+
   /**
    * Get a new StatsOperation.
    *
@@ -172,6 +202,18 @@ public interface OperationFactory {
   StoreOperation store(StoreType storeType, String key, int flags, int exp,
       byte[] data, OperationCallback cb);
 
+  /**
+   * Create a store operation for many keys on the same server.
+   *
+   * @param storeType the type of store operation
+   * @param data the encoded values to store, by key
+   * @param exp the expiration time
+   * @param cb the callback that will be told of each key not stored
+   * @return the new bulk store operation
+   */
+  BulkStoreOperation store(StoreType storeType, Map<String, CachedData> data,
+      int exp, BulkOperationCallback cb);
+
   /**
    * Resets a keys expiration time.
    *
@@ -182,6 +224,17 @@ public interface OperationFactory {
    */
   KeyedOperation touch(String key, int expiration, OperationCallback cb);
 
+  /**
+   * Resets the expiration time of many keys on the same server.
+   *
+   * @param keys the keys whose expiration time is to be reset
+   * @param expiration the new expiration time for the keys
+   * @param cb the callback that will be told of each key not touched
+   * @return the new bulk touch operation
+   */
+  BulkTouchOperation touch(Collection<String> keys, int expiration,
+      BulkOperationCallback cb);
+
   /**
    * Get a concatenation operation.
    *
@@ -0,0 +1,248 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import net.spy.memcached.vbucket.config.Config;
+
+/**
+ * NodeLocator implementation using weighted rendezvous (highest random
+ * weight) hashing.
+ *
+ * <p>
+ * Every node scores every key, and a key lives on the node with the best
+ * score. Adding or removing any node only moves the keys that it wins or
+ * held, and a key's backups are simply the nodes with the next best scores,
+ * so a dead node's keys are spread over all the others. Each lookup scores
+ * every node, which is cheap for the tens of nodes most clusters have.
+ * </p>
+ *
+ * <p>
+ * A node can be given a weight, for a share of the keys in proportion to it.
+ * </p>
+ *
+ * @see <a href="http://en.wikipedia.org/wiki/Rendezvous_hashing">rendezvous
+ *      hashing at wikipedia</a>
+ */
+public final class RendezvousNodeLocator implements NodeLocator,
+    EncodedKeyLocator, WeightedNodeLocator {
+
+  private static final double TWO_TO_53 = 1L << 53;
+
+  private final HashAlgorithm hashAlg;
+  private volatile Map<? extends SocketAddress, Integer> weights;
+
+  private volatile Members members;
+
+  /**
+   * Construct a RendezvousNodeLocator over the given nodes, all weighted
+   * equally.
+   *
+   * @param nodes the nodes
+   * @param alg the hash algorithm for keys
+   */
+  public RendezvousNodeLocator(List<MemcachedNode> nodes, HashAlgorithm alg) {
+    this(nodes, alg, Collections.<SocketAddress, Integer>emptyMap());
+  }
+
+  /**
+   * Construct a RendezvousNodeLocator over the given nodes, weighted by
+   * address.
+   *
+   * @param nodes the nodes
+   * @param alg the hash algorithm for keys
+   * @param w the weight of the node at each address, for nodes that don't
+   *          have the default weight of 1
+   */
+  public RendezvousNodeLocator(List<MemcachedNode> nodes, HashAlgorithm alg,
+      Map<? extends SocketAddress, Integer> w) {
+    super();
+    hashAlg = alg;
+    weights = w;
+    members = new Members(nodes, w);
+  }
+
+  private RendezvousNodeLocator(Members m, HashAlgorithm alg,
+      Map<? extends SocketAddress, Integer> w) {
+    super();
+    hashAlg = alg;
+    weights = w;
+    members = m;
+  }
+
+  public Collection<MemcachedNode> getAll() {
+    return Arrays.asList(members.nodes);
+  }
+
+  public MemcachedNode getPrimary(String k) {
+    return getPrimary(hashAlg.hash(k));
+  }
+
+  public MemcachedNode getPrimary(EncodedKey k) {
+    return getPrimary(k.hash(hashAlg));
+  }
+
+  private MemcachedNode getPrimary(long h) {
+    Members m = members;
+    int best = 0;
+    double bestScore = m.score(0, h);
+    for (int i = 1; i < m.nodes.length; i++) {
+      double s = m.score(i, h);
+      if (s > bestScore) {
+        best = i;
+        bestScore = s;
+      }
+    }
+    return m.nodes[best];
+  }
+
+  /**
+   * Get the other nodes, best scoring first.
+   */
+  public Iterator<MemcachedNode> getSequence(String k) {
+    final Members m = members;
+    final long h = hashAlg.hash(k);
+    final double[] scores = new double[m.nodes.length];
+    Integer[] order = new Integer[scores.length];
+    for (int i = 0; i < scores.length; i++) {
+      scores[i] = m.score(i, h);
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        return Double.compare(scores[b], scores[a]);
+      }
+    });
+    MemcachedNode[] seq = new MemcachedNode[order.length - 1];
+    for (int i = 0; i < seq.length; i++) {
+      seq[i] = m.nodes[order[i + 1]];
+    }
+    return Collections.unmodifiableList(Arrays.asList(seq)).iterator();
+  }
+
+  public NodeLocator getReadonlyCopy() {
+    Members m = members;
+    MemcachedNode[] n = new MemcachedNode[m.nodes.length];
+    for (int i = 0; i < n.length; i++) {
+      n[i] = new MemcachedNodeROImpl(m.nodes[i]);
+    }
+    return new RendezvousNodeLocator(new Members(n, m.seeds, m.weights),
+        hashAlg, weights);
+  }
+
+  @Override
+  public synchronized void updateLocator(List<MemcachedNode> nodes,
+      Config conf) {
+    members = new Members(nodes, weights);
+  }
+
+  public synchronized void setNodeWeights(
+      Map<? extends SocketAddress, Integer> w) {
+    Map<SocketAddress, Integer> m = new HashMap<SocketAddress, Integer>(w);
+    members = new Members(Arrays.asList(members.nodes), m);
+    weights = m;
+  }
+
+  /**
+   * A finalizer from MurmurHash3, to spread the combined node and key hashes
+   * over all 64 bits.
+   */
+  static long mix(long z) {
+    z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+    z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return z ^ (z >>> 33);
+  }
+
+  /**
+   * An immutable set of nodes, with the hash of each node's address and its
+   * weight. Changes build a new one.
+   */
+  private static final class Members {
+    private final MemcachedNode[] nodes;
+    private final long[] seeds;
+    // Null if every node has the same weight.
+    private final double[] weights;
+
+    Members(List<MemcachedNode> n, Map<? extends SocketAddress, Integer> w) {
+      nodes = n.toArray(new MemcachedNode[n.size()]);
+      seeds = new long[nodes.length];
+      double[] ws = new double[nodes.length];
+      boolean same = true;
+      for (int i = 0; i < nodes.length; i++) {
+        SocketAddress sa = nodes[i].getSocketAddress();
+        seeds[i] = seedFor(sa);
+        Integer weight = w.get(sa);
+        if (weight != null && weight <= 0) {
+          throw new IllegalArgumentException("Weight of " + sa
+              + " must be positive, not " + weight);
+        }
+        ws[i] = weight == null ? 1 : weight;
+        same &= ws[i] == ws[0];
+      }
+      weights = same ? null : ws;
+    }
+
+    Members(MemcachedNode[] n, long[] s, double[] w) {
+      nodes = n;
+      seeds = s;
+      weights = w;
+    }
+
+    private static long seedFor(SocketAddress sa) {
+      String name = String.valueOf(sa);
+      if (name.startsWith("/")) {
+        name = name.substring(1);
+      }
+      byte[] md5 = DefaultHashAlgorithm.computeMd5(name);
+      long seed = 0;
+      for (int i = 0; i < 8; i++) {
+        seed = seed << 8 | (md5[i] & 0xff);
+      }
+      return seed;
+    }
+
+    /**
+     * Score the key with the given hash on a node.
+     */
+    double score(int node, long hash) {
+      long x = mix(seeds[node] ^ hash);
+      // A uniform draw from (0, 1).
+      double u = ((x >>> 11) + 0.5) / TWO_TO_53;
+      if (weights == null) {
+        return u;
+      }
+      // Of nodes drawing uniform values, the one with the greatest
+      // -weight / ln(u) wins with a chance in proportion to its weight.
+      return -weights[node] / Math.log(u);
+    }
+  }
+}
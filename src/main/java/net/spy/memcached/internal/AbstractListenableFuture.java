@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import net.spy.memcached.compat.SpyObject;
+
+/**
+ * Keeps track of the listeners of a {@link ListenableFuture}.
+ *
+ * Not intended for general use.
+ *
+ * @param <T> the type of the future's result
+ */
+public abstract class AbstractListenableFuture<T> extends SpyObject
+    implements ListenableFuture<T> {
+
+  private List<Runnable> listeners = new ArrayList<Runnable>();
+
+  public void addListener(Executor executor,
+      FutureListener<? super T> listener) {
+    Runnable r = new ListenerTask(executor, listener);
+    synchronized (this) {
+      if (listeners != null) {
+        listeners.add(r);
+        return;
+      }
+    }
+    r.run();
+  }
+
+  /**
+   * Run every listener added so far, and any added later as soon as they
+   * are added. Only the first call has any effect.
+   */
+  protected final void notifyListeners() {
+    List<Runnable> toRun;
+    synchronized (this) {
+      toRun = listeners;
+      listeners = null;
+    }
+    if (toRun != null) {
+      for (Runnable r : toRun) {
+        r.run();
+      }
+    }
+  }
+
+  private final class ListenerTask implements Runnable {
+    private final Executor executor;
+    private final FutureListener<? super T> listener;
+
+    private ListenerTask(Executor e, FutureListener<? super T> l) {
+      executor = e;
+      listener = l;
+    }
+
+    public void run() {
+      try {
+        executor.execute(new Runnable() {
+          public void run() {
+            try {
+              listener.onComplete(AbstractListenableFuture.this);
+            } catch (Exception e) {
+              getLogger().warn("Exception thrown by future listener", e);
+            }
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        getLogger().warn("Couldn't run future listener", e);
+      }
+    }
+  }
+}
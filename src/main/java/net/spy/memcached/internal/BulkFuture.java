@@ -24,7 +24,6 @@
 package net.spy.memcached.internal;
 
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import net.spy.memcached.ops.OperationStatus;
@@ -43,7 +42,7 @@ import net.spy.memcached.ops.OperationStatus;
  * @author boris.partensky@gmail.com
  * @param <V>
  */
-public interface BulkFuture<V> extends Future<V> {
+public interface BulkFuture<V> extends ListenableFuture<V> {
 
   /**
    * @return true if timeout was reached, false otherwise
@@ -46,12 +46,14 @@ import net.spy.memcached.ops.OperationStatus;
  *
  * @param <T> types of objects returned from the GET
  */
-public class BulkGetFuture<T> implements BulkFuture<Map<String, T>> {
+public class BulkGetFuture<T> extends
+    AbstractListenableFuture<Map<String, T>> implements
+    BulkFuture<Map<String, T>> {
   private final Map<String, Future<T>> rvMap;
   private final Collection<Operation> ops;
   private final CountDownLatch latch;
   private OperationStatus status;
-  private boolean cancelled = false;
+  private volatile boolean cancelled = false;
   private boolean timeout = false;
 
   public BulkGetFuture(Map<String, Future<T>> m, Collection<Operation> getOps,
@@ -61,19 +63,32 @@ public class BulkGetFuture<T> implements BulkFuture<Map<String, T>> {
     ops = getOps;
     latch = l;
     status = null;
+    // Nothing will count down a latch that starts at zero.
+    signalComplete();
   }
 
   public boolean cancel(boolean ign) {
+    cancelled = true;
+    status = new OperationStatus(false, "Cancelled");
+    boolean rv = cancelOperations();
+    for (Future<T> v : rvMap.values()) {
+      v.cancel(ign);
+    }
+    return rv;
+  }
+
+  /**
+   * Stop fetching the keys, counting the latch down for every key that will
+   * no longer be answered.
+   *
+   * @return true if any of the fetches had not been sent yet
+   */
+  protected boolean cancelOperations() {
     boolean rv = false;
     for (Operation op : ops) {
       rv |= op.getState() == OperationState.WRITE_QUEUED;
       op.cancel();
     }
-    for (Future<T> v : rvMap.values()) {
-      v.cancel(ign);
-    }
-    cancelled = true;
-    status = new OperationStatus(false, "Cancelled");
     return rv;
   }
 
@@ -147,6 +162,9 @@ public class BulkGetFuture<T> implements BulkFuture<Map<String, T>> {
         }
       }
     }
+    if (cancelled) {
+      throw new ExecutionException(new RuntimeException("Cancelled"));
+    }
     for (Operation op : ops) {
       if (op.isCancelled()) {
         throw new ExecutionException(new RuntimeException("Cancelled"));
@@ -180,6 +198,17 @@ public class BulkGetFuture<T> implements BulkFuture<Map<String, T>> {
     status = s;
   }
 
+  /**
+   * Run the listeners once the operation for every node has completed.
+   *
+   * Called from the operation callback after counting down the latch.
+   */
+  public void signalComplete() {
+    if (latch.getCount() == 0) {
+      notifyListeners();
+    }
+  }
+
   public boolean isCancelled() {
     return cancelled;
   }
@@ -40,11 +40,13 @@ import net.spy.memcached.ops.OperationStatus;
  *
  * @param <T> Type of object returned from the get
  */
-public class GetFuture<T> implements Future<T> {
+public class GetFuture<T> extends AbstractListenableFuture<T> {
 
   private final OperationFuture<Future<T>> rv;
+  private final CountDownLatch latch;
 
   public GetFuture(CountDownLatch l, long opTimeout, String key) {
+    this.latch = l;
     this.rv = new OperationFuture<Future<T>>(key, l, opTimeout);
   }
 
@@ -75,6 +77,17 @@ public class GetFuture<T> implements Future<T> {
     rv.setOperation(to);
   }
 
+  /**
+   * Run the listeners once the get has completed.
+   *
+   * Called from the operation callback after counting down the latch.
+   */
+  public void signalComplete() {
+    if (latch.getCount() == 0) {
+      notifyListeners();
+    }
+  }
+
   public boolean isCancelled() {
     return rv.isCancelled();
   }
@@ -24,20 +24,18 @@ package net.spy.memcached.internal;
 
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicReference;
 
 import net.spy.memcached.OperationTimeoutException;
-import net.spy.memcached.compat.SpyObject;
 import net.spy.memcached.ops.OperationStatus;
 import net.spy.memcached.protocol.couch.HttpOperation;
 
 /**
  * A future http response.
  */
-public class HttpFuture<T> extends SpyObject implements Future<T> {
+public class HttpFuture<T> extends AbstractListenableFuture<T> {
   protected final AtomicReference<T> objRef;
   protected final CountDownLatch latch;
   protected final long timeout;
@@ -126,6 +124,17 @@ public class HttpFuture<T> extends SpyObject implements Future<T> {
     this.op = to;
   }
 
+  /**
+   * Run the listeners once the operation has completed.
+   *
+   * Called from the operation callback after counting down the latch.
+   */
+  public void signalComplete() {
+    if (latch.getCount() == 0) {
+      notifyListeners();
+    }
+  }
+
   @Override
   public boolean isCancelled() {
     assert op != null : "No operation";
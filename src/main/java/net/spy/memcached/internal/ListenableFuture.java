@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.internal;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ * A Future that can notify listeners when it completes, so callers don't
+ * need to block a thread in get() for every outstanding operation.
+ *
+ * @param <T> the type of the future's result
+ */
+public interface ListenableFuture<T> extends Future<T> {
+
+  /**
+   * Run the given listener on the given executor once this future is done.
+   * If it is already done the listener is run right away.
+   *
+   * <p>
+   * Futures complete on the IO thread, so a direct executor should only be
+   * used for listeners that return quickly.
+   * </p>
+   *
+   * <p>
+   * An operation whose response never arrives only completes once it is
+   * timed out. Unless the connection factory uses proactive timeouts (see
+   * {@link net.spy.memcached.ConnectionFactory#useProactiveTimeouts()}),
+   * that only happens when a thread's {@link #get(long,
+   * java.util.concurrent.TimeUnit)} gives up on it, so callers relying on
+   * listeners alone should turn them on.
+   * </p>
+   *
+   * @param executor the executor to run the listener on
+   * @param listener the listener to run
+   */
+  void addListener(Executor executor, FutureListener<? super T> listener);
+}
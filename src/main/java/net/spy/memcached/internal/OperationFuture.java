@@ -25,13 +25,11 @@ package net.spy.memcached.internal;
 
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicReference;
 
 import net.spy.memcached.MemcachedConnection;
-import net.spy.memcached.compat.SpyObject;
 import net.spy.memcached.ops.Operation;
 import net.spy.memcached.ops.OperationState;
 import net.spy.memcached.ops.OperationStatus;
@@ -43,7 +41,7 @@ import net.spy.memcached.ops.OperationStatus;
  *
  * @param <T> Type of object returned from this future.
  */
-public class OperationFuture<T> extends SpyObject implements Future<T> {
+public class OperationFuture<T> extends AbstractListenableFuture<T> {
 
   private final CountDownLatch latch;
   private final AtomicReference<T> objRef;
@@ -137,6 +135,17 @@ public class OperationFuture<T> extends SpyObject implements Future<T> {
     op = to;
   }
 
+  /**
+   * Run the listeners once the operation has completed.
+   *
+   * Called from the operation callback after counting down the latch.
+   */
+  public void signalComplete() {
+    if (latch.getCount() == 0) {
+      notifyListeners();
+    }
+  }
+
   public boolean isCancelled() {
     assert op != null : "No operation";
     return op.isCancelled();
@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.internal;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.spy.memcached.MemcachedConnection;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+
+/**
+ * Future for a streaming bulk get.
+ *
+ * The values themselves are handed to a
+ * {@link net.spy.memcached.BulkGetCallback} as they arrive, so this only
+ * tracks completion. Its value is true if every server answered
+ * successfully.
+ *
+ * Not intended for general use.
+ */
+public class StreamingGetFuture extends AbstractListenableFuture<Boolean> {
+  private final Collection<Operation> ops;
+  private final CountDownLatch latch;
+  // Servers on different IO threads may report at the same time.
+  private final AtomicReference<OperationStatus> status =
+      new AtomicReference<OperationStatus>();
+  private volatile boolean cancelled = false;
+
+  public StreamingGetFuture(Collection<Operation> getOps, CountDownLatch l) {
+    super();
+    ops = getOps;
+    latch = l;
+    // Nothing will count down a latch that starts at zero.
+    signalComplete();
+  }
+
+  public boolean cancel(boolean ign) {
+    boolean rv = false;
+    for (Operation op : ops) {
+      rv |= op.getState() == OperationState.WRITE_QUEUED;
+      op.cancel();
+    }
+    cancelled = true;
+    status.set(new OperationStatus(false, "Cancelled"));
+    return rv;
+  }
+
+  public Boolean get() throws InterruptedException, ExecutionException {
+    try {
+      return get(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      throw new RuntimeException("Timed out waiting forever", e);
+    }
+  }
+
+  public Boolean get(long to, TimeUnit unit)
+    throws InterruptedException, ExecutionException, TimeoutException {
+    if (!latch.await(to, unit)) {
+      Collection<Operation> timedoutOps = new HashSet<Operation>();
+      for (Operation op : ops) {
+        if (op.getState() != OperationState.COMPLETE) {
+          MemcachedConnection.opTimedOut(op);
+          timedoutOps.add(op);
+        } else {
+          MemcachedConnection.opSucceeded(op);
+        }
+      }
+      if (timedoutOps.size() > 0) {
+        throw new CheckedOperationTimeoutException("Operation timed out.",
+            timedoutOps);
+      }
+    }
+    for (Operation op : ops) {
+      if (op.isCancelled()) {
+        throw new ExecutionException(new RuntimeException("Cancelled"));
+      }
+      if (op.hasErrored()) {
+        throw new ExecutionException(op.getException());
+      }
+    }
+    OperationStatus s = status.get();
+    return s == null || s.isSuccess();
+  }
+
+  public OperationStatus getStatus() {
+    if (status.get() == null) {
+      try {
+        get();
+      } catch (InterruptedException e) {
+        setStatus(new OperationStatus(false, "Interrupted"));
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+        return status.get();
+      }
+    }
+    return status.get();
+  }
+
+  /**
+   * Record the status of one server's part of the get. A failure is kept
+   * over any later success.
+   */
+  public void setStatus(OperationStatus s) {
+    OperationStatus old;
+    do {
+      old = status.get();
+      if (old != null && !old.isSuccess()) {
+        return;
+      }
+    } while (!status.compareAndSet(old, s));
+  }
+
+  /**
+   * Run the listeners once the operation for every node has completed.
+   *
+   * Called from the operation callback after counting down the latch.
+   */
+  public void signalComplete() {
+    if (latch.getCount() == 0) {
+      notifyListeners();
+    }
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  public boolean isDone() {
+    return latch.getCount() == 0;
+  }
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.metrics;
+
+import java.net.SocketAddress;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.compat.SpyObject;
+import net.spy.memcached.ops.Operation;
+
+/**
+ * A collector that keeps {@link OperationTimings} per node and per type of
+ * operation.
+ *
+ * <p>
+ * The type of an operation is the simple name of its class without the
+ * "OperationImpl" or "Impl" suffix, e.g. "Get", "Store" or "OptimizedGet".
+ * Timings for a node or type are created the first time one of its
+ * operations completes.
+ * </p>
+ */
+public class HistogramMetricsCollector extends SpyObject implements
+    MetricsCollector {
+
+  private final ConcurrentMap<SocketAddress, OperationTimings> byNode =
+      new ConcurrentHashMap<SocketAddress, OperationTimings>();
+  private final ConcurrentMap<String, OperationTimings> byType =
+      new ConcurrentHashMap<String, OperationTimings>();
+  private final ConcurrentMap<Class<?>, String> typeNames =
+      new ConcurrentHashMap<Class<?>, String>();
+
+  public void operationCompleted(MemcachedNode node, Operation op) {
+    SocketAddress sa = node.getSocketAddress();
+    OperationTimings t = byNode.get(sa);
+    if (t == null) {
+      t = register(byNode, sa, "node", String.valueOf(sa));
+    }
+    t.record(op);
+    String type = getTypeName(op);
+    t = byType.get(type);
+    if (t == null) {
+      t = register(byType, type, "operation", type);
+    }
+    t.record(op);
+  }
+
+  private <K> OperationTimings register(ConcurrentMap<K, OperationTimings> m,
+      K key, String scope, String name) {
+    OperationTimings t = new OperationTimings();
+    OperationTimings prev = m.putIfAbsent(key, t);
+    if (prev != null) {
+      return prev;
+    }
+    timingsCreated(scope, name, t);
+    return t;
+  }
+
+  /**
+   * Called once for every set of timings this collector creates.
+   *
+   * @param scope "node" or "operation"
+   * @param name the address of the node or the type of the operation
+   * @param timings the new timings
+   */
+  protected void timingsCreated(String scope, String name,
+      OperationTimings timings) {
+    // Nothing to do by default.
+  }
+
+  /**
+   * Get the type an operation is counted under.
+   */
+  protected String getTypeName(Operation op) {
+    Class<?> c = op.getClass();
+    String rv = typeNames.get(c);
+    if (rv == null) {
+      rv = c.getSimpleName();
+      if (rv.endsWith("OperationImpl")) {
+        rv = rv.substring(0, rv.length() - "OperationImpl".length());
+      } else if (rv.endsWith("Impl")) {
+        rv = rv.substring(0, rv.length() - "Impl".length());
+      }
+      if (rv.length() == 0) {
+        // Anonymous operations are counted under their superclass.
+        rv = c.getSuperclass().getSimpleName();
+      }
+      typeNames.put(c, rv);
+    }
+    return rv;
+  }
+
+  /**
+   * Get the timings of every node that has completed an operation.
+   */
+  public Map<SocketAddress, OperationTimings> getNodeTimings() {
+    return Collections.unmodifiableMap(byNode);
+  }
+
+  /**
+   * Get the timings of every type of operation that has completed.
+   */
+  public Map<String, OperationTimings> getOperationTimings() {
+    return Collections.unmodifiableMap(byType);
+  }
+
+  /**
+   * Forget all timings recorded so far.
+   */
+  public void reset() {
+    for (OperationTimings t : byNode.values()) {
+      t.reset();
+    }
+    for (OperationTimings t : byType.values()) {
+      t.reset();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "{HistogramMetricsCollector nodes=" + byNode + ", operations="
+        + byType + "}";
+  }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A {@link HistogramMetricsCollector} that publishes each set of timings as
+ * an {@link OperationTimingsMBean}.
+ *
+ * <p>
+ * The beans are registered under the <code>net.spy.memcached</code> domain
+ * as <code>type=OperationTimings,client=&lt;name&gt;,node=&lt;address&gt;</code>
+ * and <code>type=OperationTimings,client=&lt;name&gt;,operation=&lt;type&gt;</code>,
+ * so several clients can publish side by side as long as their names
+ * differ. Call {@link #unregister()} when the client is shut down.
+ * </p>
+ */
+public class JmxMetricsCollector extends HistogramMetricsCollector {
+
+  /**
+   * The JMX domain the beans are registered in.
+   */
+  public static final String DOMAIN = "net.spy.memcached";
+
+  private final MBeanServer server;
+  private final String clientName;
+  private final ConcurrentLinkedQueue<ObjectName> registered =
+      new ConcurrentLinkedQueue<ObjectName>();
+
+  /**
+   * Create a collector publishing to the platform MBean server.
+   *
+   * @param name the name identifying the client in the bean names
+   */
+  public JmxMetricsCollector(String name) {
+    this(ManagementFactory.getPlatformMBeanServer(), name);
+  }
+
+  /**
+   * Create a collector publishing to the given MBean server.
+   *
+   * @param s the server to register the beans with
+   * @param name the name identifying the client in the bean names
+   */
+  public JmxMetricsCollector(MBeanServer s, String name) {
+    if (s == null) {
+      throw new NullPointerException("MBean server required");
+    }
+    if (name == null) {
+      throw new NullPointerException("Client name required");
+    }
+    server = s;
+    clientName = name;
+  }
+
+  @Override
+  protected void timingsCreated(String scope, String name,
+      OperationTimings timings) {
+    try {
+      ObjectName on = getObjectName(scope, name);
+      server.registerMBean(timings, on);
+      registered.add(on);
+    } catch (JMException e) {
+      getLogger().warn("Could not register timings for %s %s", scope, name,
+          e);
+    }
+  }
+
+  /**
+   * Get the name the timings for the given node or operation type are
+   * registered under.
+   *
+   * @param scope "node" or "operation"
+   * @param name the address of the node or the type of the operation
+   */
+  public ObjectName getObjectName(String scope, String name)
+    throws JMException {
+    return new ObjectName(DOMAIN + ":type=OperationTimings,client="
+        + ObjectName.quote(clientName) + "," + scope + "="
+        + ObjectName.quote(name));
+  }
+
+  /**
+   * Remove all of the beans registered by this collector.
+   */
+  public void unregister() {
+    ObjectName on;
+    while ((on = registered.poll()) != null) {
+      try {
+        server.unregisterMBean(on);
+      } catch (JMException e) {
+        getLogger().warn("Could not unregister %s", on, e);
+      }
+    }
+  }
+}
@@ -0,0 +1,193 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative long values such as latencies in
+ * nanoseconds.
+ *
+ * <p>
+ * Values are counted in log-linear buckets in the manner of HdrHistogram:
+ * every power of two range is split into a fixed number of equally sized
+ * sub-buckets, so values are tracked with a bounded relative error (about
+ * 3% with the default precision) over the whole range of a long. Recording
+ * is a couple of atomic increments and never allocates or blocks.
+ * </p>
+ *
+ * <p>
+ * Readers see a consistent view of each bucket but not of the histogram as
+ * a whole while values are being recorded.
+ * </p>
+ */
+public final class LatencyHistogram {
+
+  /**
+   * The default number of bits of precision kept for each value.
+   */
+  public static final int DEFAULT_PRECISION_BITS = 5;
+
+  private final int subBits;
+  private final AtomicLongArray counts;
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Create a histogram with the default precision.
+   */
+  public LatencyHistogram() {
+    this(DEFAULT_PRECISION_BITS);
+  }
+
+  /**
+   * Create a histogram.
+   *
+   * @param precisionBits how many of the most significant bits of a value
+   *        are kept; recorded values are off by less than one part in
+   *        2^precisionBits
+   */
+  public LatencyHistogram(int precisionBits) {
+    assert precisionBits > 0 && precisionBits < 16
+      : "Precision must be between 1 and 15 bits";
+    subBits = precisionBits;
+    counts = new AtomicLongArray((65 - subBits) << subBits);
+  }
+
+  /**
+   * Record a value. Negative values are counted as zero.
+   */
+  public void record(long value) {
+    long v = Math.max(0, value);
+    counts.incrementAndGet(indexOf(v));
+    count.incrementAndGet();
+    sum.addAndGet(v);
+    long m = max.get();
+    while (v > m && !max.compareAndSet(m, v)) {
+      m = max.get();
+    }
+  }
+
+  /**
+   * Get the number of recorded values.
+   */
+  public long getCount() {
+    return count.get();
+  }
+
+  /**
+   * Get the largest recorded value, exactly.
+   */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Get the mean of the recorded values, or 0 if there are none.
+   */
+  public double getMean() {
+    long n = count.get();
+    return n == 0 ? 0 : (double) sum.get() / n;
+  }
+
+  /**
+   * Get the value at or below which the given percentage of the recorded
+   * values fall.
+   *
+   * <p>
+   * The answer is the highest value equivalent (within the precision of the
+   * histogram) to the recorded value at that rank, and never more than the
+   * largest recorded value.
+   * </p>
+   *
+   * @param percentile a percentage between 0 and 100
+   * @return the value, or 0 if nothing was recorded
+   */
+  public long getValueAtPercentile(double percentile) {
+    assert percentile >= 0 && percentile <= 100
+      : "Percentile must be between 0 and 100";
+    long[] snapshot = new long[counts.length()];
+    long total = 0;
+    for (int i = 0; i < snapshot.length; i++) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+    long seen = 0;
+    for (int i = 0; i < snapshot.length; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return Math.min(highestEquivalentValue(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  /**
+   * Forget everything recorded so far.
+   *
+   * <p>
+   * Values recorded concurrently with a reset may be partially kept.
+   * </p>
+   */
+  public void reset() {
+    for (int i = 0; i < counts.length(); i++) {
+      counts.set(i, 0);
+    }
+    count.set(0);
+    sum.set(0);
+    max.set(0);
+  }
+
+  int indexOf(long v) {
+    int exp = 63 - Long.numberOfLeadingZeros(v) - subBits;
+    if (exp <= 0) {
+      return (int) v;
+    }
+    // (v >>> exp) keeps the subBits + 1 most significant bits of v.
+    return (exp << subBits) + (int) (v >>> exp);
+  }
+
+  long highestEquivalentValue(int index) {
+    int exp = (index >>> subBits) - 1;
+    if (exp <= 0) {
+      return index;
+    }
+    long mantissa = index - ((long) exp << subBits);
+    long rv = ((mantissa + 1) << exp) - 1;
+    // The very last bucket reaches past Long.MAX_VALUE.
+    return rv < 0 ? Long.MAX_VALUE : rv;
+  }
+
+  @Override
+  public String toString() {
+    return "{LatencyHistogram count=" + getCount() + ", mean=" + getMean()
+        + ", p50=" + getValueAtPercentile(50) + ", p99="
+        + getValueAtPercentile(99) + ", max=" + getMax() + "}";
+  }
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.metrics;
+
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.ops.Operation;
+
+/**
+ * Receives the timings of completed operations.
+ *
+ * <p>
+ * A collector is given to a connection through
+ * {@link net.spy.memcached.ConnectionFactoryBuilder#setMetricsCollector}.
+ * Without one, operations take no timestamps and nothing is reported.
+ * </p>
+ */
+public interface MetricsCollector {
+
+  /**
+   * Called when the response to an operation has been read.
+   *
+   * <p>
+   * The timestamps of the operation ({@link Operation#getEnqueueTime()} and
+   * friends) are all set by the time this is called. It is called on an IO
+   * thread, so implementations must be quick and must never block.
+   * </p>
+   *
+   * @param node the node that answered the operation
+   * @param op the operation
+   */
+  void operationCompleted(MemcachedNode node, Operation op);
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.ops.Operation;
+
+/**
+ * Latency histograms for the phases of a group of operations.
+ *
+ * <p>
+ * Each operation is split into the time it spent queued (enqueue to write
+ * start), the time it took to write (write start to write complete) and the
+ * time spent waiting for the response (write complete to response). The
+ * total latency runs from enqueue to response. All histograms are in
+ * nanoseconds.
+ * </p>
+ */
+public class OperationTimings implements OperationTimingsMBean {
+
+  private final LatencyHistogram latency = new LatencyHistogram();
+  private final LatencyHistogram queueTime = new LatencyHistogram();
+  private final LatencyHistogram writeTime = new LatencyHistogram();
+  private final LatencyHistogram responseTime = new LatencyHistogram();
+
+  /**
+   * Record the timestamps of a completed operation.
+   */
+  public void record(Operation op) {
+    long enqueued = op.getEnqueueTime();
+    long done = op.getResponseCompleteTime();
+    if (enqueued == 0 || done == 0) {
+      return;
+    }
+    latency.record(done - enqueued);
+    long writeStart = op.getWriteStartTime();
+    long writeDone = op.getWriteCompleteTime();
+    if (writeStart != 0) {
+      queueTime.record(writeStart - enqueued);
+      if (writeDone != 0) {
+        writeTime.record(writeDone - writeStart);
+        responseTime.record(done - writeDone);
+      }
+    }
+  }
+
+  /**
+   * Get the enqueue to response histogram.
+   */
+  public LatencyHistogram getLatency() {
+    return latency;
+  }
+
+  /**
+   * Get the enqueue to write start histogram.
+   */
+  public LatencyHistogram getQueueTime() {
+    return queueTime;
+  }
+
+  /**
+   * Get the write start to write complete histogram.
+   */
+  public LatencyHistogram getWriteTime() {
+    return writeTime;
+  }
+
+  /**
+   * Get the write complete to response histogram.
+   */
+  public LatencyHistogram getResponseTime() {
+    return responseTime;
+  }
+
+  public long getCount() {
+    return latency.getCount();
+  }
+
+  public double getMeanLatency() {
+    return latency.getMean() / 1000;
+  }
+
+  public long getMaxLatency() {
+    return micros(latency.getMax());
+  }
+
+  public long getLatency50thPercentile() {
+    return micros(latency.getValueAtPercentile(50));
+  }
+
+  public long getLatency90thPercentile() {
+    return micros(latency.getValueAtPercentile(90));
+  }
+
+  public long getLatency99thPercentile() {
+    return micros(latency.getValueAtPercentile(99));
+  }
+
+  public long getLatency999thPercentile() {
+    return micros(latency.getValueAtPercentile(99.9));
+  }
+
+  public double getMeanQueueTime() {
+    return queueTime.getMean() / 1000;
+  }
+
+  public double getMeanWriteTime() {
+    return writeTime.getMean() / 1000;
+  }
+
+  public double getMeanResponseTime() {
+    return responseTime.getMean() / 1000;
+  }
+
+  public void reset() {
+    latency.reset();
+    queueTime.reset();
+    writeTime.reset();
+    responseTime.reset();
+  }
+
+  private static long micros(long nanos) {
+    return TimeUnit.NANOSECONDS.toMicros(nanos);
+  }
+
+  @Override
+  public String toString() {
+    return "{OperationTimings latency=" + latency + ", queue=" + queueTime
+        + ", write=" + writeTime + ", response=" + responseTime + "}";
+  }
+}
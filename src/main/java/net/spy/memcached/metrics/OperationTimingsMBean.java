@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.metrics;
+
+/**
+ * JMX view of a set of {@link OperationTimings}. All times are in
+ * microseconds.
+ */
+public interface OperationTimingsMBean {
+
+  /**
+   * Get the number of operations timed.
+   */
+  long getCount();
+
+  /**
+   * Get the mean time from enqueueing an operation to reading its response.
+   */
+  double getMeanLatency();
+
+  /**
+   * Get the longest time from enqueueing an operation to reading its
+   * response.
+   */
+  long getMaxLatency();
+
+  long getLatency50thPercentile();
+
+  long getLatency90thPercentile();
+
+  long getLatency99thPercentile();
+
+  long getLatency999thPercentile();
+
+  /**
+   * Get the mean time operations spent queued before being written.
+   */
+  double getMeanQueueTime();
+
+  /**
+   * Get the mean time it took to write an operation.
+   */
+  double getMeanWriteTime();
+
+  /**
+   * Get the mean time from having written an operation to reading its
+   * response.
+   */
+  double getMeanResponseTime();
+
+  /**
+   * Forget all timings recorded so far.
+   */
+  void reset();
+}
@@ -25,7 +25,10 @@ package net.spy.memcached.ops;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
 
+import net.spy.memcached.CachedData;
 import net.spy.memcached.MemcachedNode;
 import net.spy.memcached.OperationFactory;
 
@@ -70,6 +73,36 @@ public abstract class BaseOperationFactory implements OperationFactory {
       MutatorOperation mo = (MutatorOperation) op;
       rv.add(mutate(mo.getType(), first(op.getKeys()), mo.getBy(),
           mo.getDefault(), mo.getExpiration(), op.getCallback()));
+    } else if (op instanceof BulkDeleteOperation) {
+      BulkOperationCallback cb = new MultiBulkOperationCallback(
+          op.getCallback(), op.getKeys().size());
+      for (String k : op.getKeys()) {
+        rv.add(delete(Collections.singleton(k), cb));
+      }
+    } else if (op instanceof BulkTouchOperation) {
+      BulkTouchOperation to = (BulkTouchOperation) op;
+      BulkOperationCallback cb = new MultiBulkOperationCallback(
+          op.getCallback(), op.getKeys().size());
+      for (String k : op.getKeys()) {
+        rv.add(touch(Collections.singleton(k), to.getExpiration(), cb));
+      }
+    } else if (op instanceof BulkMutatorOperation) {
+      BulkMutatorOperation mo = (BulkMutatorOperation) op;
+      BulkOperationCallback cb = new MultiBulkOperationCallback(
+          op.getCallback(), op.getKeys().size());
+      for (String k : op.getKeys()) {
+        rv.add(mutate(mo.getType(), Collections.singleton(k), mo.getBy(),
+            cb));
+      }
+    } else if (op instanceof BulkStoreOperation) {
+      BulkStoreOperation bo = (BulkStoreOperation) op;
+      BulkOperationCallback cb = new MultiBulkOperationCallback(
+          op.getCallback(), bo.getData().size());
+      for (Map.Entry<String, CachedData> me : bo.getData().entrySet()) {
+        rv.add(store(bo.getStoreType(),
+            Collections.singletonMap(me.getKey(), me.getValue()),
+            bo.getExpiration(), cb));
+      }
     } else if (op instanceof StoreOperation) {
       StoreOperation so = (StoreOperation) op;
       rv.add(store(so.getStoreType(), first(op.getKeys()), so.getFlags(),
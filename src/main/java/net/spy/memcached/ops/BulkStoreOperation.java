@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.ops;
+
+import java.util.Map;
+
+import net.spy.memcached.CachedData;
+
+/**
+ * Operation that stores many objects on one server at once.
+ *
+ * <p>
+ * Only the keys that could not be stored are reported to the
+ * {@link BulkOperationCallback}.
+ * </p>
+ */
+public interface BulkStoreOperation extends KeyedOperation {
+
+  /**
+   * Get the store type used by this operation.
+   */
+  StoreType getStoreType();
+
+  /**
+   * Get the expiration value to be set.
+   */
+  int getExpiration();
+
+  /**
+   * Get the encoded values to be stored, by key.
+   *
+   * <p>
+   * Note, the values are exact references and <em>must not</em> be
+   * modified.
+   * </p>
+   */
+  Map<String, CachedData> getData();
+}
@@ -0,0 +1,385 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.ops;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A node write queue that keeps operations in several lanes and interleaves
+ * them with weighted fairness.
+ *
+ * <p>
+ * A {@link LaneClassifier} puts each operation in a lane as it is added.
+ * Each lane is FIFO, and the head of the queue is picked among the heads of
+ * the non-empty lanes by smooth weighted round robin: with weights of 4 and
+ * 1, four operations leave the first lane for every one that leaves the
+ * second while both have some waiting. A few large stores thus no longer hold
+ * up the small requests queued behind them.
+ * </p>
+ *
+ * <p>
+ * The lane picked stays the head until its operation is removed, so a
+ * {@link #peek()} followed by a {@link #remove()} always agree, which is
+ * what a node's write path relies on.
+ * </p>
+ *
+ * <p>
+ * Operations in different lanes are written, and so usually answered, out of
+ * the order they were issued in. A small get may overtake a large set of the
+ * same key issued just before it and miss the value. Applications that need
+ * that order should wait for the store before the get.
+ * </p>
+ *
+ * <p>
+ * All methods synchronize on the queue, which suits the node's IO thread
+ * being nearly its only user. The iterator walks a snapshot, one lane at a
+ * time.
+ * </p>
+ */
+public class LaneOperationQueue extends AbstractQueue<Operation> implements
+    BlockingQueue<Operation> {
+
+  private final LaneClassifier classifier;
+  private final int[] weights;
+  private final int capacity;
+  private final LaneStats[] stats;
+  private final ArrayDeque<Entry>[] lanes;
+  private final int[] credits;
+  // The lane holding the current head, or -1 if none is picked yet.
+  private int selected = -1;
+  private int count;
+  private int waiters;
+
+  /**
+   * Create a queue with stats of its own.
+   *
+   * @param c the classifier putting operations in lanes
+   * @param w the weight of each lane, which also gives the number of lanes
+   * @param cap the most operations the queue holds over all lanes
+   */
+  public LaneOperationQueue(LaneClassifier c, int[] w, int cap) {
+    this(c, w, cap, newStats(w.length));
+  }
+
+  /**
+   * Create a queue that reports to the given stats.
+   *
+   * @param c the classifier putting operations in lanes
+   * @param w the weight of each lane, which also gives the number of lanes
+   * @param cap the most operations the queue holds over all lanes
+   * @param s the stats of each lane
+   */
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  public LaneOperationQueue(LaneClassifier c, int[] w, int cap,
+      LaneStats[] s) {
+    if (c == null) {
+      throw new NullPointerException("Null classifier");
+    }
+    checkWeights(w);
+    if (cap <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive");
+    }
+    if (s.length != w.length) {
+      throw new IllegalArgumentException("Need stats for each of the "
+          + w.length + " lanes, got " + s.length);
+    }
+    classifier = c;
+    weights = w.clone();
+    capacity = cap;
+    stats = s.clone();
+    lanes = new ArrayDeque[w.length];
+    for (int i = 0; i < lanes.length; i++) {
+      lanes[i] = new ArrayDeque<Entry>();
+    }
+    credits = new int[w.length];
+  }
+
+  static void checkWeights(int[] w) {
+    if (w.length == 0) {
+      throw new IllegalArgumentException("Need at least one lane");
+    }
+    for (int i = 0; i < w.length; i++) {
+      if (w[i] <= 0) {
+        throw new IllegalArgumentException("Weight of lane " + i
+            + " must be positive, not " + w[i]);
+      }
+    }
+  }
+
+  static LaneStats[] newStats(int n) {
+    LaneStats[] rv = new LaneStats[n];
+    for (int i = 0; i < n; i++) {
+      rv[i] = new LaneStats();
+    }
+    return rv;
+  }
+
+  /**
+   * Get the number of lanes.
+   */
+  public int getLaneCount() {
+    return lanes.length;
+  }
+
+  /**
+   * Get the stats of a lane.
+   */
+  public LaneStats getStats(int lane) {
+    return stats[lane];
+  }
+
+  /**
+   * Get the number of operations waiting in a lane of this queue.
+   */
+  public synchronized int size(int lane) {
+    return lanes[lane].size();
+  }
+
+  // Pick the lane the head comes from, or -1 if the queue is empty.
+  private int select() {
+    if (selected >= 0 && !lanes[selected].isEmpty()) {
+      return selected;
+    }
+    int best = -1;
+    int total = 0;
+    for (int i = 0; i < lanes.length; i++) {
+      if (lanes[i].isEmpty()) {
+        // An idle lane doesn't save up turns for later.
+        credits[i] = 0;
+      } else {
+        credits[i] += weights[i];
+        total += weights[i];
+        if (best < 0 || credits[i] > credits[best]) {
+          best = i;
+        }
+      }
+    }
+    if (best >= 0) {
+      credits[best] -= total;
+    }
+    selected = best;
+    return best;
+  }
+
+  private void signal() {
+    if (waiters > 0) {
+      notifyAll();
+    }
+  }
+
+  private void await(long millis) throws InterruptedException {
+    waiters++;
+    try {
+      wait(millis);
+    } finally {
+      waiters--;
+    }
+  }
+
+  public synchronized boolean offer(Operation op) {
+    if (op == null) {
+      throw new NullPointerException();
+    }
+    if (count >= capacity) {
+      return false;
+    }
+    int lane = classifier.laneFor(op);
+    if (lane < 0 || lane >= lanes.length) {
+      throw new IllegalStateException(classifier + " put " + op
+          + " in lane " + lane + " of " + lanes.length);
+    }
+    lanes[lane].add(new Entry(op, System.nanoTime()));
+    count++;
+    stats[lane].added();
+    signal();
+    return true;
+  }
+
+  public synchronized boolean offer(Operation op, long timeout, TimeUnit unit)
+    throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (!offer(op)) {
+      long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+      if (left <= 0) {
+        return false;
+      }
+      await(left);
+    }
+    return true;
+  }
+
+  public synchronized void put(Operation op) throws InterruptedException {
+    while (!offer(op)) {
+      await(0);
+    }
+  }
+
+  public synchronized Operation poll() {
+    int lane = select();
+    if (lane < 0) {
+      return null;
+    }
+    Entry e = lanes[lane].poll();
+    selected = -1;
+    count--;
+    stats[lane].removed(System.nanoTime() - e.enqueued);
+    signal();
+    return e.op;
+  }
+
+  public synchronized Operation poll(long timeout, TimeUnit unit)
+    throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    Operation rv;
+    while ((rv = poll()) == null) {
+      long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+      if (left <= 0) {
+        return null;
+      }
+      await(left);
+    }
+    return rv;
+  }
+
+  public synchronized Operation take() throws InterruptedException {
+    Operation rv;
+    while ((rv = poll()) == null) {
+      await(0);
+    }
+    return rv;
+  }
+
+  public synchronized Operation peek() {
+    int lane = select();
+    return lane < 0 ? null : lanes[lane].peek().op;
+  }
+
+  public int drainTo(Collection<? super Operation> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  public synchronized int drainTo(Collection<? super Operation> c,
+      int maxElements) {
+    if (c == this) {
+      throw new IllegalArgumentException("Can't drain a queue to itself");
+    }
+    int n = 0;
+    Operation op;
+    while (n < maxElements && (op = poll()) != null) {
+      c.add(op);
+      n++;
+    }
+    return n;
+  }
+
+  @Override
+  public synchronized boolean remove(Object o) {
+    for (int i = 0; i < lanes.length; i++) {
+      boolean head = true;
+      for (Iterator<Entry> it = lanes[i].iterator(); it.hasNext();) {
+        if (it.next().op.equals(o)) {
+          it.remove();
+          // The lane was charged for its head, not for whatever is next.
+          if (head && i == selected) {
+            selected = -1;
+          }
+          count--;
+          stats[i].discarded();
+          signal();
+          return true;
+        }
+        head = false;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public synchronized void clear() {
+    for (int i = 0; i < lanes.length; i++) {
+      while (lanes[i].poll() != null) {
+        stats[i].discarded();
+      }
+    }
+    count = 0;
+    selected = -1;
+    signal();
+  }
+
+  @Override
+  public synchronized int size() {
+    return count;
+  }
+
+  public synchronized int remainingCapacity() {
+    return capacity - count;
+  }
+
+  @Override
+  public synchronized Iterator<Operation> iterator() {
+    List<Operation> snapshot = new ArrayList<Operation>(count);
+    for (ArrayDeque<Entry> lane : lanes) {
+      for (Entry e : lane) {
+        snapshot.add(e.op);
+      }
+    }
+    final Iterator<Operation> it = snapshot.iterator();
+    return new Iterator<Operation>() {
+      private Operation last;
+
+      public boolean hasNext() {
+        return it.hasNext();
+      }
+
+      public Operation next() {
+        last = it.next();
+        return last;
+      }
+
+      public void remove() {
+        if (last == null) {
+          throw new IllegalStateException();
+        }
+        LaneOperationQueue.this.remove(last);
+        last = null;
+      }
+    };
+  }
+
+  private static final class Entry {
+    private final Operation op;
+    private final long enqueued;
+
+    Entry(Operation o, long t) {
+      op = o;
+      enqueued = t;
+    }
+  }
+}
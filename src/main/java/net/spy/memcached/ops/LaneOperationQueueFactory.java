@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.ops;
+
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * OperationQueueFactory that creates {@link LaneOperationQueue}s, for use as
+ * node write queues.
+ *
+ * <p>
+ * By default operations are put in two lanes by the size of their requests,
+ * with the small lane given four turns for each turn of the large one:
+ * </p>
+ *
+ * <pre>
+ * new ConnectionFactoryBuilder()
+ *     .setWriteOpQueueFactory(new LaneOperationQueueFactory())
+ * </pre>
+ *
+ * <p>
+ * The queues made by one factory share their {@link LaneStats}, so
+ * {@link #getStats(int)} covers a lane over every node of a connection.
+ * </p>
+ */
+public class LaneOperationQueueFactory implements OperationQueueFactory {
+
+  /**
+   * The default weights: four turns for small requests to one for large.
+   */
+  private static final int[] DEFAULT_WEIGHTS = {4, 1};
+
+  private final LaneClassifier classifier;
+  private final int[] weights;
+  private final int capacity;
+  private final LaneStats[] stats;
+
+  /**
+   * Create a LaneOperationQueueFactory that splits unbounded queues by
+   * request size with the default threshold and weights.
+   */
+  public LaneOperationQueueFactory() {
+    this(new SizeLaneClassifier(), DEFAULT_WEIGHTS, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Create a LaneOperationQueueFactory.
+   *
+   * @param c the classifier putting operations in lanes
+   * @param w the weight of each lane, which also gives the number of lanes
+   * @param cap maximum size of a queue produced by this factory
+   */
+  public LaneOperationQueueFactory(LaneClassifier c, int[] w, int cap) {
+    super();
+    if (c == null) {
+      throw new NullPointerException("Null classifier");
+    }
+    LaneOperationQueue.checkWeights(w);
+    if (cap <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive");
+    }
+    classifier = c;
+    weights = w.clone();
+    capacity = cap;
+    stats = LaneOperationQueue.newStats(w.length);
+  }
+
+  /**
+   * Get the number of lanes of the queues.
+   */
+  public int getLaneCount() {
+    return weights.length;
+  }
+
+  /**
+   * Get the stats of a lane over all the queues made by this factory.
+   */
+  public LaneStats getStats(int lane) {
+    return stats[lane];
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ops.OperationQueueFactory#create()
+   */
+  public BlockingQueue<Operation> create() {
+    return new LaneOperationQueue(classifier, weights, capacity, stats);
+  }
+}
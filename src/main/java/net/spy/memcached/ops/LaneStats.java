@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.ops;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queue depth and wait times of one lane of a {@link LaneOperationQueue}.
+ *
+ * <p>
+ * The queues made by a {@link LaneOperationQueueFactory} share their stats,
+ * so these add up the lane over every node. Waits run from the time an
+ * operation enters the write queue to the time it is taken off to be
+ * written.
+ * </p>
+ */
+public final class LaneStats {
+
+  private final AtomicInteger depth = new AtomicInteger();
+  private final AtomicLong dequeued = new AtomicLong();
+  private final AtomicLong totalWait = new AtomicLong();
+  private final AtomicLong maxWait = new AtomicLong();
+
+  void added() {
+    depth.incrementAndGet();
+  }
+
+  void removed(long waitNanos) {
+    depth.decrementAndGet();
+    dequeued.incrementAndGet();
+    totalWait.addAndGet(waitNanos);
+    long m;
+    while (waitNanos > (m = maxWait.get())
+        && !maxWait.compareAndSet(m, waitNanos)) {
+      // retry
+    }
+  }
+
+  void discarded() {
+    depth.decrementAndGet();
+  }
+
+  /**
+   * Get the number of operations waiting in the lane.
+   */
+  public int getDepth() {
+    return depth.get();
+  }
+
+  /**
+   * Get the number of operations that have left the lane.
+   */
+  public long getDequeuedCount() {
+    return dequeued.get();
+  }
+
+  /**
+   * Get the total time, in nanoseconds, operations have waited in the lane.
+   */
+  public long getTotalWaitNanos() {
+    return totalWait.get();
+  }
+
+  /**
+   * Get the longest time, in nanoseconds, an operation waited in the lane.
+   */
+  public long getMaxWaitNanos() {
+    return maxWait.get();
+  }
+
+  /**
+   * Get the mean time, in nanoseconds, operations waited in the lane, or 0
+   * if none has left it yet.
+   */
+  public long getMeanWaitNanos() {
+    long n = dequeued.get();
+    return n == 0 ? 0 : totalWait.get() / n;
+  }
+
+  @Override
+  public String toString() {
+    return "{depth=" + getDepth() + ", dequeued=" + getDequeuedCount()
+        + ", meanWaitNanos=" + getMeanWaitNanos() + ", maxWaitNanos="
+        + getMaxWaitNanos() + "}";
+  }
+}
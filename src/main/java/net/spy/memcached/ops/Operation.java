@@ -151,4 +151,40 @@ public interface Operation {
    * written to the network, this will be true.
    */
   boolean isTimedOutUnsent();
+
+  /**
+   * Start timing this operation.
+   *
+   * <p>
+   * This is called with the {@link System#nanoTime()} at which the operation
+   * was put on a node's queue when the connection collects metrics. An
+   * operation that was never given an enqueue time takes no timestamps.
+   * </p>
+   *
+   * @param nanos the time the operation was enqueued
+   */
+  void setEnqueueTime(long nanos);
+
+  /**
+   * Get the time this operation was enqueued, or 0 if it is not timed.
+   */
+  long getEnqueueTime();
+
+  /**
+   * Get the time this operation started being written, or 0 if it has not
+   * been or is not timed.
+   */
+  long getWriteStartTime();
+
+  /**
+   * Get the time this operation was completely written, or 0 if it has not
+   * been or is not timed.
+   */
+  long getWriteCompleteTime();
+
+  /**
+   * Get the time the response completing this operation was read, or 0 if it
+   * has not been or is not timed.
+   */
+  long getResponseCompleteTime();
 }
@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.ops;
+
+import java.nio.ByteBuffer;
+
+/**
+ * LaneClassifier that puts operations in one of two lanes by the size of
+ * the request they write.
+ *
+ * <p>
+ * Requests of up to the threshold go to lane 0 and larger ones, such as
+ * stores of big values, to lane 1.
+ * </p>
+ */
+public class SizeLaneClassifier implements LaneClassifier {
+
+  /**
+   * The default largest size, in bytes, of a request in the small lane.
+   */
+  public static final int DEFAULT_THRESHOLD = 1024;
+
+  private final int threshold;
+
+  /**
+   * Create a SizeLaneClassifier with the default threshold.
+   */
+  public SizeLaneClassifier() {
+    this(DEFAULT_THRESHOLD);
+  }
+
+  /**
+   * Create a SizeLaneClassifier.
+   *
+   * @param max the largest size, in bytes, of a request in the small lane
+   */
+  public SizeLaneClassifier(int max) {
+    super();
+    if (max < 0) {
+      throw new IllegalArgumentException("Threshold must not be negative");
+    }
+    threshold = max;
+  }
+
+  public int laneFor(Operation op) {
+    ByteBuffer b = op.getBuffer();
+    return b == null || b.remaining() <= threshold ? 0 : 1;
+  }
+
+  @Override
+  public String toString() {
+    return "SizeLaneClassifier{threshold=" + threshold + "}";
+  }
+}
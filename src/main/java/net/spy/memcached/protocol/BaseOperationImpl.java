@@ -28,6 +28,7 @@ import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.HashSet;
 
+import net.spy.memcached.KeyUtil;
 import net.spy.memcached.MemcachedNode;
 import net.spy.memcached.compat.SpyObject;
 import net.spy.memcached.ops.CancelledOperationStatus;
@@ -53,6 +54,8 @@ public abstract class BaseOperationImpl extends SpyObject implements Operation {
       new TimedOutOperationStatus();
   private OperationState state = OperationState.WRITE_QUEUED;
   private ByteBuffer cmd = null;
+  private DirectBufferPool bufferPool = null;
+  private ByteBuffer pooledBuffer = null;
   private boolean cancelled = false;
   private OperationException exception = null;
   protected OperationCallback callback = null;
@@ -60,8 +63,16 @@ public abstract class BaseOperationImpl extends SpyObject implements Operation {
   private boolean timedout;
   private long creationTime;
   private boolean timedOutUnsent = false;
+  // Timestamps are only taken once an enqueue time has been set.
+  private long enqueueTime = 0;
+  private long writeStartTime = 0;
+  private long writeCompleteTime = 0;
+  private long responseCompleteTime = 0;
   protected Collection<MemcachedNode> notMyVbucketNodes =
       new HashSet<MemcachedNode>();
+  // A key the client has already encoded, and its bytes.
+  private String encodedKey = null;
+  private byte[] encodedKeyBytes = null;
 
   public BaseOperationImpl() {
     super();
@@ -82,6 +93,28 @@ public abstract class BaseOperationImpl extends SpyObject implements Operation {
     callback = to;
   }
 
+  /**
+   * Hand over the UTF-8 bytes of a key this operation is for, as already
+   * encoded by the client, so they aren't worked out again when the
+   * operation is initialized.
+   *
+   * @param key the key
+   * @param keyBytes its bytes, which must not be modified
+   */
+  public final void setKeyBytes(String key, byte[] keyBytes) {
+    encodedKey = key;
+    encodedKeyBytes = keyBytes;
+  }
+
+  /**
+   * Get the UTF-8 bytes of a key, reusing those handed over for it if there
+   * were any.
+   */
+  protected final byte[] getKeyBytes(String key) {
+    return key.equals(encodedKey) ? encodedKeyBytes
+        : KeyUtil.getKeyBytes(key);
+  }
+
   public final synchronized boolean isCancelled() {
     return cancelled;
   }
@@ -96,6 +129,12 @@ public abstract class BaseOperationImpl extends SpyObject implements Operation {
 
   public final synchronized void cancel() {
     cancelled = true;
+    // An unsent op will never be written, so its buffer can go back now.
+    // Once writing has started the node may still be reading from it.
+    if (state == OperationState.WRITE_QUEUED) {
+      cmd = null;
+      releaseBuffer();
+    }
     wasCancelled();
     callback.receivedStatus(CANCELLED);
     callback.complete();
@@ -125,22 +164,117 @@ public abstract class BaseOperationImpl extends SpyObject implements Operation {
     cmd.mark();
   }
 
+  /**
+   * Set the pool to borrow this operation's write buffer from, or null to
+   * allocate it on the heap. Takes effect from the next initialize.
+   */
+  public final synchronized void setBufferPool(DirectBufferPool to) {
+    releaseBuffer();
+    bufferPool = to;
+  }
+
+  /**
+   * Get the pool this operation borrows its write buffer from, or null if
+   * it allocates it on the heap.
+   */
+  public final synchronized DirectBufferPool getBufferPool() {
+    return bufferPool;
+  }
+
+  /**
+   * Get a buffer with room for the given number of bytes to encode this
+   * operation into.
+   *
+   * The buffer comes from the operation's {@link DirectBufferPool}, if it
+   * has one, and goes back to it once the operation no longer needs its
+   * write buffer.
+   */
+  protected final synchronized ByteBuffer allocateBuffer(int size) {
+    releaseBuffer();
+    if (bufferPool == null) {
+      return ByteBuffer.allocate(size);
+    }
+    pooledBuffer = bufferPool.borrow(size);
+    return pooledBuffer;
+  }
+
+  /**
+   * Give up the write buffer of an operation that will never be written
+   * itself, such as one that has been folded into another operation.
+   */
+  public final synchronized void discardBuffer() {
+    assert state == OperationState.WRITE_QUEUED
+      : "Discarding the buffer of an op in state " + state;
+    cmd = null;
+    releaseBuffer();
+  }
+
+  private void releaseBuffer() {
+    if (pooledBuffer != null) {
+      bufferPool.release(pooledBuffer);
+      pooledBuffer = null;
+    }
+  }
+
   /**
    * Transition the state of this operation to the given state.
    */
   protected final synchronized void transitionState(OperationState newState) {
     getLogger().debug("Transitioned state from %s to %s", state, newState);
     state = newState;
+    if (enqueueTime != 0) {
+      stamp(newState);
+    }
     // Discard our buffer when we no longer need it.
     if(state != OperationState.WRITE_QUEUED
         && state != OperationState.WRITING) {
       cmd = null;
+      releaseBuffer();
     }
     if (state == OperationState.COMPLETE) {
       callback.complete();
     }
   }
 
+  private void stamp(OperationState newState) {
+    switch (newState) {
+    case WRITING:
+      writeStartTime = System.nanoTime();
+      break;
+    case READING:
+      writeCompleteTime = System.nanoTime();
+      break;
+    case COMPLETE:
+      responseCompleteTime = System.nanoTime();
+      break;
+    default:
+      break;
+    }
+  }
+
+  public final synchronized void setEnqueueTime(long nanos) {
+    enqueueTime = nanos;
+    writeStartTime = 0;
+    writeCompleteTime = 0;
+    responseCompleteTime = 0;
+  }
+
+  public final synchronized long getEnqueueTime() {
+    return enqueueTime;
+  }
+
+  public final synchronized long getWriteStartTime() {
+    return writeStartTime;
+  }
+
+  public final synchronized long getWriteCompleteTime() {
+    return writeCompleteTime;
+  }
+
+  public final synchronized long getResponseCompleteTime() {
+    return responseCompleteTime;
+  }
+
   public final void writing() {
     transitionState(OperationState.WRITING);
   }
@@ -204,6 +338,10 @@ public abstract class BaseOperationImpl extends SpyObject implements Operation {
     long elapsed = System.nanoTime();
     long ttlNanos = ttlMillis * 1000 * 1000;
     if (elapsed - creationTime > ttlNanos) {
+      if (state == OperationState.WRITE_QUEUED) {
+        cmd = null;
+        releaseBuffer();
+      }
       timedOutUnsent = true;
       timedout = true;
       callback.receivedStatus(TIMED_OUT);
@@ -0,0 +1,286 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of direct ByteBuffers used for encoding operations.
+ *
+ * <p>
+ * Buffers are handed out in power-of-two size classes. A borrowed buffer has
+ * its limit set to the requested size, so callers can fill and flip it just
+ * like a freshly allocated one. Requests larger than the biggest size class
+ * are served with an ordinary heap buffer that is never pooled.
+ * </p>
+ *
+ * <p>
+ * Operations hold their buffers from when they're queued until they've been
+ * written, so a deep queue of large values would pin as much direct memory.
+ * The pool caps the direct bytes out on loan. Past the cap, or if the JVM
+ * has no direct memory left, borrows get heap buffers instead, and the
+ * queue's own bounds apply as they would without a pool.
+ * </p>
+ *
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+public final class DirectBufferPool {
+
+  /**
+   * The smallest buffer handed out by the default pool.
+   */
+  public static final int DEFAULT_MIN_BUFFER_SIZE = 64;
+
+  /**
+   * The largest buffer handed out by the default pool.
+   */
+  public static final int DEFAULT_MAX_BUFFER_SIZE = 1024 * 1024;
+
+  /**
+   * How many bytes worth of idle buffers each size class may hold on to.
+   */
+  public static final int DEFAULT_RETAINED_BYTES = 1024 * 1024;
+
+  /**
+   * How many bytes of direct buffers the default pool lends out at once.
+   */
+  public static final long DEFAULT_MAX_LOANED_BYTES = 64L * 1024 * 1024;
+
+  private static final DirectBufferPool INSTANCE = new DirectBufferPool(
+      DEFAULT_MIN_BUFFER_SIZE, DEFAULT_MAX_BUFFER_SIZE,
+      DEFAULT_RETAINED_BYTES, DEFAULT_MAX_LOANED_BYTES);
+
+  private final int minShift;
+  private final SizeClass[] classes;
+  private final long maxLoaned;
+  private final AtomicLong loaned = new AtomicLong();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong oversized = new AtomicLong();
+  private final AtomicLong overLoaned = new AtomicLong();
+
+  /**
+   * Create a pool that lends out the default number of direct bytes.
+   *
+   * @param minSize the smallest size class (rounded up to a power of two)
+   * @param maxSize the largest size class (rounded up to a power of two)
+   * @param retainedBytes the number of bytes of idle buffers each size class
+   *        keeps around; every class keeps at least one
+   */
+  public DirectBufferPool(int minSize, int maxSize, int retainedBytes) {
+    this(minSize, maxSize, retainedBytes, DEFAULT_MAX_LOANED_BYTES);
+  }
+
+  /**
+   * Create a pool.
+   *
+   * @param minSize the smallest size class (rounded up to a power of two)
+   * @param maxSize the largest size class (rounded up to a power of two)
+   * @param retainedBytes the number of bytes of idle buffers each size class
+   *        keeps around; every class keeps at least one
+   * @param maxLoanedBytes the most bytes of direct buffers to have out on
+   *        loan at once
+   */
+  public DirectBufferPool(int minSize, int maxSize, int retainedBytes,
+      long maxLoanedBytes) {
+    assert minSize > 0 : "Minimum size must be positive";
+    assert maxSize >= minSize : "Maximum size is smaller than minimum size";
+    assert maxLoanedBytes >= 0 : "Maximum loaned bytes can't be negative";
+    maxLoaned = maxLoanedBytes;
+    minShift = log2Ceil(minSize);
+    int maxShift = log2Ceil(maxSize);
+    classes = new SizeClass[maxShift - minShift + 1];
+    for (int i = 0; i < classes.length; i++) {
+      int size = 1 << (minShift + i);
+      classes[i] = new SizeClass(size, Math.max(1, retainedBytes / size));
+    }
+  }
+
+  /**
+   * Get the pool connection factories use by default.
+   */
+  public static DirectBufferPool getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Get a buffer with room for at least the given number of bytes.
+   *
+   * @param size the number of bytes needed
+   * @return a cleared buffer whose limit is <code>size</code>
+   */
+  public ByteBuffer borrow(int size) {
+    int idx = classIndex(size);
+    if (idx >= classes.length) {
+      oversized.incrementAndGet();
+      return ByteBuffer.allocate(size);
+    }
+    int capacity = classes[idx].size;
+    if (loaned.addAndGet(capacity) > maxLoaned) {
+      loaned.addAndGet(-capacity);
+      overLoaned.incrementAndGet();
+      return ByteBuffer.allocate(size);
+    }
+    ByteBuffer rv = classes[idx].poll();
+    if (rv == null) {
+      misses.incrementAndGet();
+      try {
+        rv = ByteBuffer.allocateDirect(capacity);
+      } catch (OutOfMemoryError e) {
+        // Out of direct memory rather than heap: do without.
+        loaned.addAndGet(-capacity);
+        overLoaned.incrementAndGet();
+        return ByteBuffer.allocate(size);
+      }
+    } else {
+      hits.incrementAndGet();
+    }
+    rv.limit(size);
+    return rv;
+  }
+
+  /**
+   * Return a buffer obtained from {@link #borrow(int)}.
+   *
+   * The caller must not touch the buffer after giving it back. Buffers that
+   * did not come from this pool are ignored.
+   */
+  public void release(ByteBuffer b) {
+    if (b == null || !b.isDirect()) {
+      return;
+    }
+    int idx = classIndex(b.capacity());
+    if (idx < classes.length && classes[idx].size == b.capacity()) {
+      long l;
+      do {
+        l = loaned.get();
+        if (l < b.capacity()) {
+          // More than was lent out, so not one of ours.
+          return;
+        }
+      } while (!loaned.compareAndSet(l, l - b.capacity()));
+      b.clear();
+      classes[idx].offer(b);
+    }
+  }
+
+  /**
+   * Get the number of borrows satisfied by an idle pooled buffer.
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Get the number of borrows that had to allocate a new direct buffer.
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Get the number of borrows too big for any size class.
+   */
+  public long getOversized() {
+    return oversized.get();
+  }
+
+  /**
+   * Get the number of borrows given heap buffers because the pool had as
+   * many direct bytes out on loan as it may, or couldn't allocate more.
+   */
+  public long getOverLoaned() {
+    return overLoaned.get();
+  }
+
+  /**
+   * Get the number of bytes of direct buffers currently out on loan.
+   */
+  public long getLoanedBytes() {
+    return loaned.get();
+  }
+
+  /**
+   * Get the number of idle buffers currently held by the pool.
+   */
+  public int getIdleCount() {
+    int rv = 0;
+    for (SizeClass sc : classes) {
+      rv += sc.idle();
+    }
+    return rv;
+  }
+
+  @Override
+  public String toString() {
+    return "{DirectBufferPool hits=" + getHits() + ", misses=" + getMisses()
+        + ", oversized=" + getOversized() + ", overLoaned=" + getOverLoaned()
+        + ", loanedBytes=" + getLoanedBytes() + ", idle=" + getIdleCount()
+        + "}";
+  }
+
+  private int classIndex(int size) {
+    return Math.max(0, log2Ceil(size) - minShift);
+  }
+
+  private static int log2Ceil(int n) {
+    return n <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(n - 1);
+  }
+
+  /**
+   * Idle buffers of a single size, kept as a bounded stack so the most
+   * recently used (and most likely cache-warm) buffer goes out first.
+   */
+  private static final class SizeClass {
+    private final int size;
+    private final ByteBuffer[] stack;
+    private int top = 0;
+
+    SizeClass(int sz, int maxIdle) {
+      size = sz;
+      stack = new ByteBuffer[maxIdle];
+    }
+
+    synchronized ByteBuffer poll() {
+      if (top == 0) {
+        return null;
+      }
+      ByteBuffer rv = stack[--top];
+      stack[top] = null;
+      return rv;
+    }
+
+    synchronized void offer(ByteBuffer b) {
+      if (top < stack.length) {
+        stack[top++] = b;
+      }
+    }
+
+    synchronized int idle() {
+      return top;
+    }
+  }
+}
@@ -30,6 +30,9 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -51,9 +54,21 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
   private final SocketAddress socketAddress;
   private final ByteBuffer rbuf;
   private final ByteBuffer wbuf;
+  // The write buffer followed by the buffer of an operation being written
+  // without copying, for gathering writes.
+  private final ByteBuffer[] gatherBufs = new ByteBuffer[2];
+  // Operation buffers at least this large are written straight from the
+  // operation instead of being copied into the write buffer.
+  private final int directWriteThreshold;
+  private Operation directWriteOp = null;
   protected final BlockingQueue<Operation> writeQ;
   private final BlockingQueue<Operation> readQ;
   private final BlockingQueue<Operation> inputQueue;
+  // Counts of the ops waiting in the input queue, kept as they're added and
+  // drained, and of those the IO thread holds in the write and read queues,
+  // kept by the IO thread. Reading these takes none of the queues' locks.
+  private final AtomicInteger queuedOps = new AtomicInteger(0);
+  private volatile int ioOps = 0;
   private final long opQueueMaxBlockTime;
   // This has been declared volatile so it can be used as an availability
   // indicator.
@@ -61,6 +76,12 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
   private SocketChannel channel;
   private int toWrite = 0;
   protected Operation optimizedOp = null;
+  // The read op picked for the current response when responses are matched
+  // to requests, and the ops that completed while others ahead of them in
+  // the read queue were still waiting.
+  private Operation routedReadOp = null;
+  private final Set<Operation> finishedReads =
+      Collections.newSetFromMap(new IdentityHashMap<Operation, Boolean>());
   private volatile SelectionKey sk = null;
   private boolean shouldAuth = false;
   private CountDownLatch authLatch;
@@ -90,6 +111,8 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
     rbuf = ByteBuffer.allocateDirect(bufSize);
     wbuf = ByteBuffer.allocateDirect(bufSize);
     getWbuf().clear();
+    gatherBufs[0] = wbuf;
+    directWriteThreshold = Math.max(1, bufSize / 4);
     readQ = rq;
     writeQ = wq;
     inputQueue = iq;
@@ -108,8 +131,13 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
     Collection<Operation> tmp = new ArrayList<Operation>();
 
     // don't drain more than we have space to place
-    inputQueue.drainTo(tmp, writeQ.remainingCapacity());
+    int n = inputQueue.drainTo(tmp, writeQ.remainingCapacity());
     writeQ.addAll(tmp);
+    if (n > 0) {
+      // Count them as in IO first, so they're never briefly not counted.
+      ioOps += n;
+      queuedOps.addAndGet(-n);
+    }
   }
 
   /*
@@ -119,7 +147,7 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
    */
   public Collection<Operation> destroyInputQueue() {
     Collection<Operation> rv = new ArrayList<Operation>();
-    inputQueue.drainTo(rv);
+    queuedOps.addAndGet(-inputQueue.drainTo(rv));
     return rv;
   }
 
@@ -162,6 +190,8 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
     getWbuf().clear();
     getRbuf().clear();
     toWrite = 0;
+    directWriteOp = null;
+    gatherBufs[1] = null;
   }
 
   // Prepare the pending operations. Return true if there are any pending
@@ -186,6 +216,15 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
    * @see net.spy.memcached.MemcachedNode#fillWriteBuffer(boolean)
    */
   public final void fillWriteBuffer(boolean shouldOptimize) {
+    if (toWrite == 0 && directWriteOp != null) {
+      // The last op went out straight from its own buffer.
+      Operation o = directWriteOp;
+      directWriteOp = null;
+      gatherBufs[1] = null;
+      synchronized(o) {
+        finishedWriting(o, shouldOptimize);
+      }
+    }
     if (toWrite == 0 && readQ.remainingCapacity() > 0) {
       getWbuf().clear();
       Operation o=getNextWritableOp();
@@ -196,35 +235,47 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
 
           ByteBuffer obuf = o.getBuffer();
           assert obuf != null : "Didn't get a write buffer from " + o;
-          int bytesToCopy = Math.min(getWbuf().remaining(), obuf.remaining());
-          byte[] b = new byte[bytesToCopy];
-          obuf.get(b);
-          getWbuf().put(b);
-          getLogger().debug("After copying stuff from %s: %s", o, getWbuf());
-          if (!o.getBuffer().hasRemaining()) {
-            o.writeComplete();
-            transitionWriteItem();
-
-            preparePending();
-            if (shouldOptimize) {
-              optimize();
-            }
-
-            o=getNextWritableOp();
+          int bytes = obuf.remaining();
+          if (bytes >= directWriteThreshold
+              || bytes > getWbuf().remaining()) {
+            // Too big to be worth copying; gather it behind whatever is
+            // already in the write buffer and write it from where it is.
+            directWriteOp = o;
+            gatherBufs[1] = obuf;
+            toWrite += bytes;
+            getLogger().debug("Writing %d bytes directly from %s", bytes, o);
+            break;
           }
-          toWrite += bytesToCopy;
+          getWbuf().put(obuf);
+          getLogger().debug("After copying stuff from %s: %s", o, getWbuf());
+          toWrite += bytes;
+          finishedWriting(o, shouldOptimize);
+          o=getNextWritableOp();
         }
       }
       getWbuf().flip();
-      assert toWrite <= getWbuf().capacity() : "toWrite exceeded capacity: "
-          + this;
-      assert toWrite == getWbuf().remaining() : "Expected " + toWrite
-          + " remaining, got " + getWbuf().remaining();
+      assert directWriteOp != null || toWrite <= getWbuf().capacity()
+          : "toWrite exceeded capacity: " + this;
+      assert toWrite == getWbuf().remaining()
+          + (directWriteOp == null ? 0 : gatherBufs[1].remaining())
+          : "Expected " + toWrite + " remaining, got "
+          + getWbuf().remaining();
     } else {
       getLogger().debug("Buffer is full, skipping");
     }
   }
 
+  // Move past an operation whose bytes have all been handed off for writing.
+  private void finishedWriting(Operation o, boolean shouldOptimize) {
+    o.writeComplete();
+    transitionWriteItem();
+
+    preparePending();
+    if (shouldOptimize) {
+      optimize();
+    }
+  }
+
 
   private Operation getNextWritableOp() {
     Operation o = getCurrentWriteOp();
@@ -238,10 +289,16 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
           getLogger().debug("Not writing timed out op.");
           Operation timedOutOp = removeCurrentWriteOp();
           assert o == timedOutOp;
+        } else if (!(o instanceof TapAckOperationImpl)
+            && readQ.remainingCapacity() == 0) {
+          // Nowhere to wait for the reply, so leave it to be written once
+          // replies have been read.
+          return null;
         } else {
           o.writing();
           if (!(o instanceof TapAckOperationImpl)) {
             readQ.add(o);
+            readQueued(o);
           }
           return o;
         }
@@ -273,7 +330,7 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
    * @see net.spy.memcached.MemcachedNode#getCurrentReadOp()
    */
   public final Operation getCurrentReadOp() {
-    return readQ.peek();
+    return routedReadOp == null ? readQ.peek() : routedReadOp;
   }
 
   /*
@@ -282,7 +339,53 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
    * @see net.spy.memcached.MemcachedNode#removeCurrentReadOp()
    */
   public final Operation removeCurrentReadOp() {
-    return readQ.remove();
+    Operation rv = routedReadOp;
+    routedReadOp = null;
+    if (rv == null || rv == readQ.peek()) {
+      rv = readQ.remove();
+    } else {
+      // Leave it for when the ops ahead of it are done.
+      finishedReads.add(rv);
+    }
+    while (!finishedReads.isEmpty() && finishedReads.remove(readQ.peek())) {
+      readQ.remove();
+    }
+    readDequeued(rv);
+    return rv;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.MemcachedNode#getReadOpFor(java.nio.ByteBuffer)
+   */
+  public Operation getReadOpFor(ByteBuffer b) {
+    return getCurrentReadOp();
+  }
+
+  /**
+   * Make the given operation the current read operation, ahead of those
+   * queued before it.
+   *
+   * @param op the operation, which must be waiting for input, or null to go
+   *          back to the head of the read queue
+   */
+  protected final void setCurrentReadOp(Operation op) {
+    routedReadOp = op;
+  }
+
+  /**
+   * Called when an operation is queued for input, just before it is written.
+   */
+  protected void readQueued(Operation op) {
+    // Nothing to track by default.
+  }
+
+  /**
+   * Called when an operation is removed as the current read operation.
+   */
+  protected void readDequeued(Operation op) {
+    // Nothing to track by default.
   }
 
   /*
@@ -342,7 +445,21 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
         getLogger().debug("Canceled operation %s", op.toString());
         return;
       }
-      if (!inputQueue.offer(op, opQueueMaxBlockTime, TimeUnit.MILLISECONDS)) {
+      // Count it before it's visible to the IO thread, which may drain it
+      // straight away.
+      queuedOps.incrementAndGet();
+      boolean added = false;
+      try {
+        // Only fall back to the blocking offer when the queue is full, as
+        // the plain one never touches a lock in a lock-free queue.
+        added = inputQueue.offer(op)
+            || inputQueue.offer(op, opQueueMaxBlockTime, TimeUnit.MILLISECONDS);
+      } finally {
+        if (!added) {
+          queuedOps.decrementAndGet();
+        }
+      }
+      if (!added) {
         throw new IllegalStateException("Timed out waiting to add " + op
             + "(max wait=" + opQueueMaxBlockTime + "ms)");
       }
@@ -362,6 +479,7 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
   public final void insertOp(Operation op) {
     ArrayList<Operation> tmp = new ArrayList<Operation>(inputQueue.size() + 1);
     tmp.add(op);
+    queuedOps.incrementAndGet();
     inputQueue.drainTo(tmp);
     inputQueue.addAll(tmp);
   }
@@ -541,7 +659,12 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
    * @see net.spy.memcached.MemcachedNode#writeSome()
    */
   public final int writeSome() throws IOException {
-    int wrote = channel.write(wbuf);
+    int wrote;
+    if (directWriteOp == null) {
+      wrote = channel.write(wbuf);
+    } else {
+      wrote = (int) channel.write(gatherBufs);
+    }
     assert wrote >= 0 : "Wrote negative bytes?";
     toWrite -= wrote;
     assert toWrite >= 0 : "toWrite went negative after writing " + wrote
@@ -572,7 +695,18 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
     return continuousTimeout.get();
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.MemcachedNode#getOutstandingOps()
+   */
+  public int getOutstandingOps() {
+    return queuedOps.get() + ioOps;
+  }
+
   public final void fixupOps() {
+    // Catch the count up with whatever was written, read or dropped.
+    ioOps = writeQ.size() + readQ.size() + (optimizedOp == null ? 0 : 1);
     // As the selection key can be changed at any point due to node
     // failure, we'll grab the current volatile value and configure it.
     SelectionKey s = sk;
@@ -53,6 +53,8 @@ public final class AsciiMemcachedNodeImpl extends TCPMemcachedNodeImpl {
       optimizedOp = writeQ.remove();
       if (writeQ.peek() instanceof GetOperation) {
         OptimizedGetImpl og = new OptimizedGetImpl((GetOperation) optimizedOp);
+        // The combined op is timed from when its first op was queued.
+        og.setEnqueueTime(optimizedOp.getEnqueueTime());
         optimizedOp = og;
 
         while (writeQ.peek() instanceof GetOperation) {
@@ -29,7 +29,13 @@ import java.util.Map;
 
 import javax.security.auth.callback.CallbackHandler;
 
+import net.spy.memcached.CachedData;
 import net.spy.memcached.ops.BaseOperationFactory;
+import net.spy.memcached.ops.BulkDeleteOperation;
+import net.spy.memcached.ops.BulkMutatorOperation;
+import net.spy.memcached.ops.BulkOperationCallback;
+import net.spy.memcached.ops.BulkStoreOperation;
+import net.spy.memcached.ops.BulkTouchOperation;
 import net.spy.memcached.ops.CASOperation;
 import net.spy.memcached.ops.ConcatenationOperation;
 import net.spy.memcached.ops.ConcatenationType;
@@ -67,6 +73,11 @@ public class AsciiOperationFactory extends BaseOperationFactory {
     return new DeleteOperationImpl(key, cb);
   }
 
+  public BulkDeleteOperation delete(Collection<String> keys,
+      BulkOperationCallback cb) {
+    return new BulkDeleteOperationImpl(keys, cb);
+  }
+
   public FlushOperation flush(int delay, OperationCallback cb) {
     return new FlushOperationImpl(delay, cb);
   }
@@ -98,6 +109,11 @@ public class AsciiOperationFactory extends BaseOperationFactory {
     return new MutatorOperationImpl(m, key, by, cb);
   }
 
+  public BulkMutatorOperation mutate(Mutator m, Collection<String> keys,
+      long by, BulkOperationCallback cb) {
+    return new BulkMutatorOperationImpl(m, keys, by, cb);
+  }
+
   public StatsOperation stats(String arg, StatsOperation.Callback cb) {
     return new StatsOperationImpl(arg, cb);
   }
@@ -107,12 +123,23 @@ public class AsciiOperationFactory extends BaseOperationFactory {
     return new StoreOperationImpl(storeType, key, flags, exp, data, cb);
   }
 
+  public BulkStoreOperation store(StoreType storeType,
+      Map<String, CachedData> data, int exp, BulkOperationCallback cb) {
+    return new BulkStoreOperationImpl(storeType, data, exp, cb);
+  }
+
   public KeyedOperation touch(String key, int expiration,
       OperationCallback cb) {
     throw new UnsupportedOperationException("Touch is not supported for "
         + "ASCII protocol");
   }
 
+  public BulkTouchOperation touch(Collection<String> keys, int expiration,
+      BulkOperationCallback cb) {
+    throw new UnsupportedOperationException("Touch is not supported for "
+        + "ASCII protocol");
+  }
+
   public VersionOperation version(OperationCallback cb) {
     return new VersionOperationImpl(cb);
   }
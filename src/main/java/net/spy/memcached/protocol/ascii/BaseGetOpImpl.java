@@ -24,10 +24,10 @@
 package net.spy.memcached.protocol.ascii;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 
-import net.spy.memcached.KeyUtil;
 import net.spy.memcached.ops.GetAndTouchOperation;
 import net.spy.memcached.ops.GetOperation;
 import net.spy.memcached.ops.GetlOperation;
@@ -193,7 +193,10 @@ abstract class BaseGetOpImpl extends OperationImpl {
   public final void initialize() {
     // Figure out the length of the request
     int size = 6; // Enough for gets\r\n
-    Collection<byte[]> keyBytes = KeyUtil.getKeyBytes(keys);
+    Collection<byte[]> keyBytes = new ArrayList<byte[]>(keys.size());
+    for (String k : keys) {
+      keyBytes.add(getKeyBytes(k));
+    }
     for (byte[] k : keyBytes) {
       size += k.length;
       size++;
@@ -26,7 +26,6 @@ import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.Collections;
 
-import net.spy.memcached.KeyUtil;
 import net.spy.memcached.ops.OperationCallback;
 import net.spy.memcached.ops.OperationState;
 import net.spy.memcached.ops.OperationStatus;
@@ -66,7 +65,7 @@ abstract class BaseStoreOperationImpl extends OperationImpl {
   @Override
   public void initialize() {
     ByteBuffer bb = ByteBuffer.allocate(data.length
-        + KeyUtil.getKeyBytes(key).length + OVERHEAD);
+        + getKeyBytes(key).length + OVERHEAD);
     setArguments(bb, type, key, flags, exp, data.length);
     assert bb.remaining() >= data.length + 2 : "Not enough room in buffer,"
         + " need another " + (2 + data.length - bb.remaining());
@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.ascii;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+import net.spy.memcached.KeyUtil;
+import net.spy.memcached.ops.BulkDeleteOperation;
+import net.spy.memcached.ops.BulkOperationCallback;
+import net.spy.memcached.ops.OperationStatus;
+
+/**
+ * Delete many keys on one server by pipelining their delete commands.
+ */
+final class BulkDeleteOperationImpl extends BulkOperationImpl implements
+    BulkDeleteOperation {
+
+  private static final int OVERHEAD = 32;
+  private static final OperationStatus DELETED = new OperationStatus(true,
+      "DELETED");
+  private static final OperationStatus NOT_FOUND = new OperationStatus(false,
+      "NOT_FOUND");
+
+  public BulkDeleteOperationImpl(Collection<String> k,
+      BulkOperationCallback cb) {
+    super(k, cb);
+  }
+
+  @Override
+  protected int commandLength(String key) {
+    return KeyUtil.getKeyBytes(key).length + OVERHEAD;
+  }
+
+  @Override
+  protected void putCommand(ByteBuffer bb, String key) {
+    setArguments(bb, "delete", key);
+  }
+
+  @Override
+  protected OperationStatus matchLine(String line) {
+    return matchStatus(line, DELETED, NOT_FOUND);
+  }
+
+  @Override
+  public String toString() {
+    return "Cmd: delete Keys: " + keys.size();
+  }
+}
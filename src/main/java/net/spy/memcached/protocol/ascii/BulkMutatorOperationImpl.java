@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.ascii;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+import net.spy.memcached.KeyUtil;
+import net.spy.memcached.ops.BulkMutatorOperation;
+import net.spy.memcached.ops.BulkOperationCallback;
+import net.spy.memcached.ops.Mutator;
+import net.spy.memcached.ops.OperationStatus;
+
+/**
+ * Increment or decrement many counters on one server by pipelining their
+ * commands.
+ */
+final class BulkMutatorOperationImpl extends BulkOperationImpl implements
+    BulkMutatorOperation {
+
+  private static final OperationStatus NOT_FOUND = new OperationStatus(false,
+      "NOT_FOUND");
+
+  private final Mutator mutator;
+  private final long amount;
+
+  public BulkMutatorOperationImpl(Mutator m, Collection<String> k, long amt,
+      BulkOperationCallback cb) {
+    super(k, cb);
+    mutator = m;
+    amount = amt;
+  }
+
+  @Override
+  protected int commandLength(String key) {
+    return KeyUtil.getKeyBytes(key).length + MutatorOperationImpl.OVERHEAD;
+  }
+
+  @Override
+  protected void putCommand(ByteBuffer bb, String key) {
+    setArguments(bb, mutator.name(), key, amount);
+  }
+
+  @Override
+  protected OperationStatus matchLine(String line) {
+    if (line.equals("NOT_FOUND")) {
+      return NOT_FOUND;
+    }
+    // Anything else is either the new value or an error.
+    boolean isNumber = line.length() > 0;
+    for (int i = 0; isNumber && i < line.length(); i++) {
+      isNumber = Character.isDigit(line.charAt(i));
+    }
+    return new OperationStatus(isNumber, line);
+  }
+
+  public long getBy() {
+    return amount;
+  }
+
+  public Mutator getType() {
+    return mutator;
+  }
+
+  @Override
+  public String toString() {
+    return "Cmd: " + mutator.name() + " Keys: " + keys.size() + " Amount: "
+      + amount;
+  }
+}
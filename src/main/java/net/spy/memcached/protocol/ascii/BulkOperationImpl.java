@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.ascii;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import net.spy.memcached.ops.BulkOperationCallback;
+import net.spy.memcached.ops.OperationErrorType;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+
+/**
+ * Base class for operations that pipeline one command per key.
+ *
+ * <p>
+ * The server answers every command in order, so each response line is
+ * matched to its key by position.
+ * </p>
+ */
+abstract class BulkOperationImpl extends OperationImpl {
+
+  private static final OperationStatus OK = new OperationStatus(true, "OK");
+
+  protected final List<String> keys;
+  private int responses = 0;
+
+  protected BulkOperationImpl(Collection<String> k, BulkOperationCallback cb) {
+    super(cb);
+    assert !k.isEmpty() : "No keys";
+    keys = new ArrayList<String>(k);
+  }
+
+  /**
+   * Get an upper bound on the length of the command for the given key.
+   */
+  protected abstract int commandLength(String key);
+
+  /**
+   * Write the command for the given key.
+   */
+  protected abstract void putCommand(ByteBuffer bb, String key);
+
+  /**
+   * Get the status for the response line to the command for a key.
+   */
+  protected abstract OperationStatus matchLine(String line);
+
+  @Override
+  OperationErrorType classifyError(String line) {
+    // An error answers a single command, not the whole operation.
+    return null;
+  }
+
+  @Override
+  public void handleLine(String line) {
+    assert getState() == OperationState.READING : "Read ``" + line
+        + "'' when in " + getState() + " state";
+    String key = keys.get(responses++);
+    OperationStatus status = matchLine(line);
+    if (!status.isSuccess()) {
+      ((BulkOperationCallback) getCallback()).gotFailure(key, status);
+    }
+    if (responses == keys.size()) {
+      getCallback().receivedStatus(OK);
+      transitionState(OperationState.COMPLETE);
+    }
+  }
+
+  @Override
+  public void initialize() {
+    long size = 0;
+    for (String k : keys) {
+      size += commandLength(k);
+    }
+    if (size > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Too much data for one operation ("
+          + size + " bytes), split the keys into smaller runs");
+    }
+    ByteBuffer bb = ByteBuffer.allocate((int) size);
+    for (String k : keys) {
+      putCommand(bb, k);
+    }
+    bb.flip();
+    setBuffer(bb);
+  }
+
+  @Override
+  protected void wasCancelled() {
+    getCallback().receivedStatus(CANCELLED);
+  }
+
+  public Collection<String> getKeys() {
+    return keys;
+  }
+}
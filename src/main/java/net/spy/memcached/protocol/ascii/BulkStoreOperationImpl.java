@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.ascii;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.KeyUtil;
+import net.spy.memcached.ops.BulkOperationCallback;
+import net.spy.memcached.ops.BulkStoreOperation;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StoreType;
+
+/**
+ * Store many keys on one server by pipelining their store commands.
+ */
+final class BulkStoreOperationImpl extends BulkOperationImpl implements
+    BulkStoreOperation {
+
+  private static final int OVERHEAD = 64;
+  private static final OperationStatus STORED = new OperationStatus(true,
+      "STORED");
+
+  private final StoreType storeType;
+  private final Map<String, CachedData> data;
+  private final int exp;
+
+  public BulkStoreOperationImpl(StoreType t, Map<String, CachedData> d, int e,
+      BulkOperationCallback cb) {
+    super(d.keySet(), cb);
+    storeType = t;
+    data = d;
+    exp = e;
+  }
+
+  @Override
+  protected int commandLength(String key) {
+    return data.get(key).getData().length + KeyUtil.getKeyBytes(key).length
+        + OVERHEAD;
+  }
+
+  @Override
+  protected void putCommand(ByteBuffer bb, String key) {
+    CachedData d = data.get(key);
+    setArguments(bb, storeType.name(), key, d.getFlags(), exp,
+        d.getData().length);
+    bb.put(d.getData());
+    bb.put(CRLF);
+  }
+
+  @Override
+  protected OperationStatus matchLine(String line) {
+    return matchStatus(line, STORED);
+  }
+
+  public StoreType getStoreType() {
+    return storeType;
+  }
+
+  public int getExpiration() {
+    return exp;
+  }
+
+  public Map<String, CachedData> getData() {
+    return data;
+  }
+
+  @Override
+  public String toString() {
+    return "Cmd: " + storeType + " Keys: " + keys.size() + " Exp: " + exp;
+  }
+}
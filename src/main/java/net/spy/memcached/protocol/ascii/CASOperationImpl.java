@@ -27,7 +27,6 @@ import java.util.Collection;
 import java.util.Collections;
 
 import net.spy.memcached.CASResponse;
-import net.spy.memcached.KeyUtil;
 import net.spy.memcached.ops.CASOperation;
 import net.spy.memcached.ops.CASOperationStatus;
 import net.spy.memcached.ops.OperationCallback;
@@ -76,7 +75,7 @@ class CASOperationImpl extends OperationImpl implements CASOperation {
   @Override
   public void initialize() {
     ByteBuffer bb = ByteBuffer.allocate(data.length
-        + KeyUtil.getKeyBytes(key).length + OVERHEAD);
+        + getKeyBytes(key).length + OVERHEAD);
     setArguments(bb, "cas", key, flags, exp, data.length, casValue);
     assert bb.remaining() >= data.length + 2 : "Not enough room in buffer,"
         + " need another " + (2 + data.length - bb.remaining());
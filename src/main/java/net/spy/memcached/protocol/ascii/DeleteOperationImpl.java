@@ -26,7 +26,6 @@ import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.Collections;
 
-import net.spy.memcached.KeyUtil;
 import net.spy.memcached.ops.DeleteOperation;
 import net.spy.memcached.ops.OperationCallback;
 import net.spy.memcached.ops.OperationState;
@@ -61,7 +60,7 @@ final class DeleteOperationImpl extends OperationImpl implements
 
   @Override
   public void initialize() {
-    ByteBuffer b = ByteBuffer.allocate(KeyUtil.getKeyBytes(key).length
+    ByteBuffer b = ByteBuffer.allocate(getKeyBytes(key).length
         + OVERHEAD);
     setArguments(b, "delete", key);
     b.flip();
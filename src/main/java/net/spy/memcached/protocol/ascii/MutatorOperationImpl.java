@@ -26,7 +26,6 @@ import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.Collections;
 
-import net.spy.memcached.KeyUtil;
 import net.spy.memcached.ops.Mutator;
 import net.spy.memcached.ops.MutatorOperation;
 import net.spy.memcached.ops.OperationCallback;
@@ -71,7 +70,7 @@ final class MutatorOperationImpl extends OperationImpl implements
 
   @Override
   public void initialize() {
-    int size = KeyUtil.getKeyBytes(key).length + OVERHEAD;
+    int size = getKeyBytes(key).length + OVERHEAD;
     ByteBuffer b = ByteBuffer.allocate(size);
     setArguments(b, mutator.name(), key, amount);
     b.flip();
@@ -26,7 +26,6 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
-import net.spy.memcached.KeyUtil;
 import net.spy.memcached.ops.Operation;
 import net.spy.memcached.ops.OperationCallback;
 import net.spy.memcached.ops.OperationErrorType;
@@ -104,7 +103,7 @@ abstract class OperationImpl extends BaseOperationImpl implements Operation {
       } else {
         bb.put((byte) ' ');
       }
-      bb.put(KeyUtil.getKeyBytes(String.valueOf(o)));
+      bb.put(getKeyBytes(String.valueOf(o)));
     }
     bb.put(CRLF);
   }
@@ -24,56 +24,329 @@
 package net.spy.memcached.protocol.binary;
 
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import net.spy.memcached.ops.CASOperation;
 import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.KeyedOperation;
+import net.spy.memcached.ops.LaneOperationQueue;
 import net.spy.memcached.ops.Operation;
 import net.spy.memcached.ops.OperationState;
 import net.spy.memcached.ops.StoreOperation;
+import net.spy.memcached.protocol.BaseOperationImpl;
 import net.spy.memcached.protocol.ProxyCallback;
 import net.spy.memcached.protocol.TCPMemcachedNodeImpl;
 
 /**
  * Implementation of MemcachedNode for speakers of the binary protocol.
+ *
+ * <p>
+ * By default responses are expected in the order the requests were written.
+ * A node can instead match each response to its request by the opaque in
+ * the header, for servers and proxies that answer out of order. The opaques
+ * of every request an operation writes are noted as it is written, so quiet
+ * requests followed by a noop, as in bulk gets, work just as well. Tap
+ * streams can't be matched this way.
+ * </p>
+ *
+ * <p>
+ * The optimizer folds the gets, or the stores, at the head of the write
+ * queue into one operation. Given a window, it looks that many operations
+ * into the queue for gets or stores it can pull forward without reordering
+ * anything done to the same key. Either way, a batch that takes more than a
+ * tenth of the operation timeout to be answered halves the size later
+ * batches may grow to, which then creeps back up while batches are quick.
+ * </p>
  */
 public class BinaryMemcachedNodeImpl extends TCPMemcachedNodeImpl {
 
   private static final int MAX_GET_OPTIMIZATION_COUNT = 4096;
   private static final int MAX_SET_OPTIMIZATION_COUNT = 65535;
   private static final int MAX_SET_OPTIMIZATION_BYTES = 2 * 1024 * 1024;
+  private static final int MIN_GET_OPTIMIZATION_COUNT = 16;
+  private static final int MIN_SET_OPTIMIZATION_BYTES = 64 * 1024;
+
+  // Header offsets of the fields needed to match responses.
+  private static final int BODY_LEN_OFFSET = 8;
+  private static final int OPAQUE_OFFSET = 12;
+
+  private final boolean matchByOpaque;
+  private final Map<Integer, Operation> readsByOpaque =
+      new HashMap<Integer, Operation>();
+  private final Map<Operation, int[]> opaquesByRead =
+      new IdentityHashMap<Operation, int[]>();
+
+  private final int optimizeWindow;
+  private final long batchLatencyTarget;
+  // Batch limits, shrunk when batches are slow to be answered.
+  private int getLimit = MAX_GET_OPTIMIZATION_COUNT;
+  private int setBytesLimit = MAX_SET_OPTIMIZATION_BYTES;
+  // The batches being answered, and when they were written.
+  private OptimizedGetImpl timedGets = null;
+  private long timedGetsStart;
+  private OptimizedSetImpl timedSets = null;
+  private long timedSetsStart;
 
   public BinaryMemcachedNodeImpl(SocketAddress sa, SocketChannel c,
       int bufSize, BlockingQueue<Operation> rq, BlockingQueue<Operation> wq,
       BlockingQueue<Operation> iq, Long opQueueMaxBlockTimeNs,
       boolean waitForAuth, long dt) {
+    this(sa, c, bufSize, rq, wq, iq, opQueueMaxBlockTimeNs, waitForAuth, dt,
+        false, 0);
+  }
+
+  /**
+   * Create a node that may match responses to requests by opaque, and may
+   * look past the head of the write queue for operations to optimize.
+   *
+   * @param matchOpaques true to accept responses in any order
+   * @param window how many queued operations the optimizer looks through,
+   *          or 0 to only merge those at the head; the write queue must
+   *          support removing any element if this is not 0, and a
+   *          {@link LaneOperationQueue} only merges at the head, since its
+   *          iterator doesn't follow the order operations leave it in
+   */
+  public BinaryMemcachedNodeImpl(SocketAddress sa, SocketChannel c,
+      int bufSize, BlockingQueue<Operation> rq, BlockingQueue<Operation> wq,
+      BlockingQueue<Operation> iq, Long opQueueMaxBlockTimeNs,
+      boolean waitForAuth, long dt, boolean matchOpaques, int window) {
     super(sa, c, bufSize, rq, wq, iq, opQueueMaxBlockTimeNs, waitForAuth, dt);
+    assert window >= 0 : "Negative optimize window";
+    matchByOpaque = matchOpaques;
+    optimizeWindow = wq instanceof LaneOperationQueue ? 0 : window;
+    batchLatencyTarget = TimeUnit.MILLISECONDS.toNanos(dt) / 10;
+  }
+
+  @Override
+  public Operation getReadOpFor(ByteBuffer b) {
+    Operation current = getCurrentReadOp();
+    if (!matchByOpaque || current == null
+        || (current instanceof OperationImpl
+            && ((OperationImpl) current).isReadingResponse())) {
+      return current;
+    }
+    if (b.remaining() < OperationImpl.MIN_RECV_PACKET) {
+      return null;
+    }
+    int p = b.position();
+    Operation op = null;
+    if (b.get(p) == OperationImpl.RES_MAGIC) {
+      op = readsByOpaque.get(b.getInt(p + OPAQUE_OFFSET));
+    }
+    // Anything unknown is left to the op at the head of the queue, as it
+    // would be without matching.
+    setCurrentReadOp(op);
+    return getCurrentReadOp();
+  }
+
+  @Override
+  protected void readQueued(Operation op) {
+    if (op instanceof OptimizedGetImpl) {
+      timedGets = (OptimizedGetImpl) op;
+      timedGetsStart = System.nanoTime();
+    } else if (op instanceof OptimizedSetImpl) {
+      timedSets = (OptimizedSetImpl) op;
+      timedSetsStart = System.nanoTime();
+    }
+    ByteBuffer b = op.getBuffer();
+    if (!matchByOpaque || b == null) {
+      return;
+    }
+    int[] opaques = new int[1];
+    int n = 0;
+    int p = b.position();
+    while (p + OperationImpl.MIN_RECV_PACKET <= b.limit()
+        && b.get(p) == OperationImpl.REQ_MAGIC) {
+      if (n == opaques.length) {
+        int[] bigger = new int[n * 2];
+        System.arraycopy(opaques, 0, bigger, 0, n);
+        opaques = bigger;
+      }
+      opaques[n] = b.getInt(p + OPAQUE_OFFSET);
+      readsByOpaque.put(opaques[n], op);
+      n++;
+      p += OperationImpl.MIN_RECV_PACKET + b.getInt(p + BODY_LEN_OFFSET);
+    }
+    if (n > 0) {
+      if (n < opaques.length) {
+        int[] exact = new int[n];
+        System.arraycopy(opaques, 0, exact, 0, n);
+        opaques = exact;
+      }
+      opaquesByRead.put(op, opaques);
+    }
+  }
+
+  @Override
+  protected void readDequeued(Operation op) {
+    if (op == timedGets) {
+      timedGets = null;
+      if (!op.isCancelled()) {
+        getLimit = adaptLimit(getLimit, ((OptimizedGetImpl) op).size(),
+            MIN_GET_OPTIMIZATION_COUNT, MAX_GET_OPTIMIZATION_COUNT,
+            System.nanoTime() - timedGetsStart);
+      }
+    } else if (op == timedSets) {
+      timedSets = null;
+      if (!op.isCancelled()) {
+        setBytesLimit = adaptLimit(setBytesLimit,
+            ((OptimizedSetImpl) op).bytes(), MIN_SET_OPTIMIZATION_BYTES,
+            MAX_SET_OPTIMIZATION_BYTES, System.nanoTime() - timedSetsStart);
+      }
+    }
+    int[] opaques = opaquesByRead.remove(op);
+    if (opaques != null) {
+      for (int o : opaques) {
+        if (readsByOpaque.get(o) == op) {
+          readsByOpaque.remove(o);
+        }
+      }
+    }
+  }
+
+  // Halve a batch limit after a slow batch, and grow it a little after a
+  // quick one that the limit cut short.
+  private int adaptLimit(int limit, int used, int min, int max, long nanos) {
+    if (nanos > batchLatencyTarget) {
+      return Math.max(min, limit / 2);
+    } else if (used >= limit) {
+      return Math.min(max, limit + Math.max(1, max / 64));
+    }
+    return limit;
+  }
+
+  int getGetLimit() {
+    return getLimit;
+  }
+
+  int getSetBytesLimit() {
+    return setBytesLimit;
   }
 
   @Override
   protected void optimize() {
     Operation firstOp = writeQ.peek();
-    if (firstOp instanceof GetOperation) {
+    if (optimizeWindow > 0) {
+      if (firstOp instanceof GetOperation
+          || firstOp instanceof CASOperation) {
+        optimizeWindow(firstOp instanceof GetOperation);
+      }
+    } else if (firstOp instanceof GetOperation) {
       optimizeGets();
     } else if (firstOp instanceof CASOperation) {
       optimizeSets();
     }
   }
 
+  // Merge the gets, or stores, within the window that can go ahead of the
+  // operations left in the queue. A get can't pass anything else done to
+  // its keys, and a store can't pass anything at all done to its key.
+  // Anything without keys ends the window.
+  private void optimizeWindow(boolean gets) {
+    List<Operation> batch = new ArrayList<Operation>();
+    Set<String> passed = new HashSet<String>();
+    int keyCount = 0;
+    int byteCount = 0;
+    Iterator<Operation> it = writeQ.iterator();
+    for (int i = 0; i < optimizeWindow && it.hasNext(); i++) {
+      Operation o = it.next();
+      if (!(o instanceof KeyedOperation)) {
+        break;
+      }
+      if (o.isCancelled()) {
+        continue;
+      }
+      Collection<String> keys = ((KeyedOperation) o).getKeys();
+      boolean fits;
+      if (gets) {
+        fits = o instanceof GetOperation && keyCount < getLimit;
+      } else {
+        fits = o instanceof CASOperation
+            && batch.size() < MAX_SET_OPTIMIZATION_COUNT
+            && byteCount < setBytesLimit;
+      }
+      if (fits && disjoint(keys, passed)) {
+        batch.add(o);
+        keyCount += keys.size();
+        byteCount += o.getBuffer().remaining();
+      } else if (!gets || !(o instanceof GetOperation)) {
+        // Held back gets don't stop later gets of the same keys.
+        passed.addAll(keys);
+      }
+    }
+    if (batch.size() < 2) {
+      return;
+    }
+
+    Operation first = batch.get(0);
+    Operation merged;
+    if (gets) {
+      OptimizedGetImpl og = new OptimizedGetImpl((GetOperation) first);
+      for (Operation o : batch.subList(1, batch.size())) {
+        og.addOperation((GetOperation) o);
+      }
+      merged = og;
+    } else {
+      OptimizedSetImpl os = new OptimizedSetImpl((CASOperation) first);
+      for (Operation o : batch.subList(1, batch.size())) {
+        os.addOperation((CASOperation) o);
+      }
+      merged = os;
+    }
+    for (Operation o : batch) {
+      writeQ.remove(o);
+      discardBuffer(o);
+    }
+    merged.setEnqueueTime(first.getEnqueueTime());
+    shareBufferPool(first, merged);
+    merged.initialize();
+    assert merged.getState() == OperationState.WRITE_QUEUED;
+    optimizedOp = merged;
+    getLogger().debug("Merged %d of the first %d queued ops on %s",
+        batch.size(), optimizeWindow, this);
+  }
+
+  private static boolean disjoint(Collection<String> keys, Set<String> s) {
+    if (!s.isEmpty()) {
+      for (String k : keys) {
+        if (s.contains(k)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
   private void optimizeGets() {
     // make sure there are at least two get operations in a row before
     // attempting to optimize them.
     optimizedOp = writeQ.remove();
     if (writeQ.peek() instanceof GetOperation) {
       OptimizedGetImpl og = new OptimizedGetImpl((GetOperation) optimizedOp);
+      // The combined op is timed from when its first op was queued.
+      og.setEnqueueTime(optimizedOp.getEnqueueTime());
+      shareBufferPool(optimizedOp, og);
+      discardBuffer(optimizedOp);
       optimizedOp = og;
 
       while (writeQ.peek() instanceof GetOperation
-          && og.size() < MAX_GET_OPTIMIZATION_COUNT) {
+          && og.size() < getLimit) {
         GetOperation o = (GetOperation) writeQ.remove();
         if (!o.isCancelled()) {
           og.addOperation(o);
+          discardBuffer(o);
         }
       }
 
@@ -92,14 +365,18 @@ public class BinaryMemcachedNodeImpl extends TCPMemcachedNodeImpl {
     optimizedOp = writeQ.remove();
     if (writeQ.peek() instanceof CASOperation) {
       OptimizedSetImpl og = new OptimizedSetImpl((CASOperation) optimizedOp);
+      og.setEnqueueTime(optimizedOp.getEnqueueTime());
+      shareBufferPool(optimizedOp, og);
+      discardBuffer(optimizedOp);
       optimizedOp = og;
 
       while (writeQ.peek() instanceof StoreOperation
           && og.size() < MAX_SET_OPTIMIZATION_COUNT
-          && og.bytes() < MAX_SET_OPTIMIZATION_BYTES) {
+          && og.bytes() < setBytesLimit) {
         CASOperation o = (CASOperation) writeQ.remove();
         if (!o.isCancelled()) {
           og.addOperation(o);
+          discardBuffer(o);
         }
       }
 
@@ -108,4 +385,20 @@ public class BinaryMemcachedNodeImpl extends TCPMemcachedNodeImpl {
       assert optimizedOp.getState() == OperationState.WRITE_QUEUED;
     }
   }
+
+  // An optimized op borrows its buffer from wherever its first op did.
+  private static void shareBufferPool(Operation from, Operation to) {
+    if (from instanceof BaseOperationImpl && to instanceof BaseOperationImpl) {
+      ((BaseOperationImpl) to).setBufferPool(
+          ((BaseOperationImpl) from).getBufferPool());
+    }
+  }
+
+  // An op folded into an optimized one is never written on its own, so its
+  // encoded request can go back to the buffer pool right away.
+  private static void discardBuffer(Operation o) {
+    if (o instanceof BaseOperationImpl) {
+      ((BaseOperationImpl) o).discardBuffer();
+    }
+  }
 }
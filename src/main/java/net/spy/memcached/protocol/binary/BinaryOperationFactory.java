@@ -29,7 +29,13 @@ import java.util.Map;
 
 import javax.security.auth.callback.CallbackHandler;
 
+import net.spy.memcached.CachedData;
 import net.spy.memcached.ops.BaseOperationFactory;
+import net.spy.memcached.ops.BulkDeleteOperation;
+import net.spy.memcached.ops.BulkMutatorOperation;
+import net.spy.memcached.ops.BulkOperationCallback;
+import net.spy.memcached.ops.BulkStoreOperation;
+import net.spy.memcached.ops.BulkTouchOperation;
 import net.spy.memcached.ops.CASOperation;
 import net.spy.memcached.ops.ConcatenationOperation;
 import net.spy.memcached.ops.ConcatenationType;
@@ -69,6 +75,11 @@ public class BinaryOperationFactory extends BaseOperationFactory {
     return new DeleteOperationImpl(key, operationCallback);
   }
 
+  public BulkDeleteOperation delete(Collection<String> keys,
+      BulkOperationCallback cb) {
+    return new BulkDeleteOperationImpl(keys, cb);
+  }
+
   public FlushOperation flush(int delay, OperationCallback cb) {
     return new FlushOperationImpl(cb);
   }
@@ -99,6 +110,11 @@ public class BinaryOperationFactory extends BaseOperationFactory {
     return new MutatorOperationImpl(m, key, by, def, exp, cb);
   }
 
+  public BulkMutatorOperation mutate(Mutator m, Collection<String> keys,
+      long by, BulkOperationCallback cb) {
+    return new BulkMutatorOperationImpl(m, keys, by, cb);
+  }
+
   public StatsOperation stats(String arg,
       net.spy.memcached.ops.StatsOperation.Callback cb) {
     return new StatsOperationImpl(arg, cb);
@@ -109,11 +125,21 @@ public class BinaryOperationFactory extends BaseOperationFactory {
     return new StoreOperationImpl(storeType, key, flags, exp, data, 0, cb);
   }
 
+  public BulkStoreOperation store(StoreType storeType,
+      Map<String, CachedData> data, int exp, BulkOperationCallback cb) {
+    return new BulkStoreOperationImpl(storeType, data, exp, cb);
+  }
+
   public KeyedOperation touch(String key, int expiration,
       OperationCallback cb) {
     return new TouchOperationImpl(key, expiration, cb);
   }
 
+  public BulkTouchOperation touch(Collection<String> keys, int expiration,
+      BulkOperationCallback cb) {
+    return new BulkTouchOperationImpl(keys, expiration, cb);
+  }
+
   public VersionOperation version(OperationCallback cb) {
     return new VersionOperationImpl(cb);
   }
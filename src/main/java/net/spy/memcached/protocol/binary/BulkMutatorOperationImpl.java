@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.binary;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+import net.spy.memcached.ops.BulkMutatorOperation;
+import net.spy.memcached.ops.BulkOperationCallback;
+import net.spy.memcached.ops.Mutator;
+
+/**
+ * Increment or decrement many counters on one server as a run of quiet
+ * mutations.
+ */
+class BulkMutatorOperationImpl extends BulkOperationImpl implements
+    BulkMutatorOperation {
+
+  private static final byte CMD_INCRQ = 0x15;
+  private static final byte CMD_DECRQ = 0x16;
+
+  // amount, initial value, expiration
+  private static final int EXTRA_LEN = 20;
+  // An expiration of all ones leaves missing counters missing.
+  private static final int NO_CREATE = -1;
+
+  private final Mutator mutator;
+  private final long by;
+
+  public BulkMutatorOperationImpl(Mutator m, Collection<String> k, long b,
+      BulkOperationCallback cb) {
+    super(m == Mutator.incr ? CMD_INCRQ : CMD_DECRQ, k, cb);
+    mutator = m;
+    by = b;
+  }
+
+  @Override
+  protected int extraLength() {
+    return EXTRA_LEN;
+  }
+
+  @Override
+  protected void putExtras(ByteBuffer bb, String key) {
+    bb.putLong(by);
+    bb.putLong(0);
+    bb.putInt(NO_CREATE);
+  }
+
+  public long getBy() {
+    return by;
+  }
+
+  public Mutator getType() {
+    return mutator;
+  }
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.binary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.spy.memcached.KeyUtil;
+import net.spy.memcached.ops.BulkOperationCallback;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+
+/**
+ * Base class for operations that send one quiet command per key, followed
+ * by a NOOP.
+ *
+ * <p>
+ * The server only answers a quiet command when it fails, and the NOOP's
+ * response tells us every command before it has been handled. Commands
+ * without a quiet form may be sent too; their successful responses are
+ * skipped.
+ * </p>
+ */
+abstract class BulkOperationImpl extends MultiKeyOperationImpl {
+
+  private final byte quietCmd;
+  private final List<String> keyList;
+  private final Map<Integer, String> keys = new HashMap<Integer, String>();
+  private final int terminalOpaque = generateOpaque();
+
+  protected BulkOperationImpl(byte cmd, Collection<String> k,
+      BulkOperationCallback cb) {
+    super(DUMMY_OPCODE, -1, cb);
+    quietCmd = cmd;
+    keyList = new ArrayList<String>(k);
+    for (String s : keyList) {
+      vbmap.put(s, Short.valueOf((short) 0));
+    }
+  }
+
+  /**
+   * Get the length of the extras sent with each command.
+   */
+  protected abstract int extraLength();
+
+  /**
+   * Write the extras for the command for the given key.
+   */
+  protected abstract void putExtras(ByteBuffer bb, String key);
+
+  /**
+   * Get the length of the value sent with the command for the given key.
+   */
+  protected int valueLength(String key) {
+    return 0;
+  }
+
+  /**
+   * Write the value for the command for the given key.
+   */
+  protected void putValue(ByteBuffer bb, String key) {
+    // No value by default.
+  }
+
+  @Override
+  public void initialize() {
+    final int extraLen = extraLength();
+    final byte[][] keyBytes = new byte[keyList.size()][];
+    long size = (1L + keyList.size()) * MIN_RECV_PACKET;
+    for (int i = 0; i < keyBytes.length; i++) {
+      String k = keyList.get(i);
+      keyBytes[i] = KeyUtil.getKeyBytes(k);
+      size += extraLen + keyBytes[i].length + valueLength(k);
+    }
+    if (size > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Too much data for one operation ("
+          + size + " bytes), split the keys into smaller runs");
+    }
+    ByteBuffer bb = allocateBuffer((int) size);
+    for (int i = 0; i < keyBytes.length; i++) {
+      final String k = keyList.get(i);
+      final int myOpaque = generateOpaque();
+      keys.put(myOpaque, k);
+
+      // Custom header
+      bb.put(REQ_MAGIC);
+      bb.put(quietCmd);
+      bb.putShort((short) keyBytes[i].length);
+      bb.put((byte) extraLen);
+      bb.put((byte) 0); // data type
+      bb.putShort(getVBucket(k)); // vbucket
+      bb.putInt(extraLen + keyBytes[i].length + valueLength(k));
+      bb.putInt(myOpaque);
+      bb.putLong(0); // cas
+      putExtras(bb, k);
+      // the actual key
+      bb.put(keyBytes[i]);
+      putValue(bb, k);
+    }
+    // Add the noop
+    bb.put(REQ_MAGIC);
+    bb.put(NoopOperationImpl.CMD);
+    bb.putShort((short) 0);
+    bb.put((byte) 0); // extralen
+    bb.put((byte) 0); // data type
+    bb.putShort((short) 0); // reserved
+    bb.putInt(0);
+    bb.putInt(terminalOpaque);
+    bb.putLong(0); // cas
+
+    bb.flip();
+    setBuffer(bb);
+  }
+
+  @Override
+  protected void finishedPayload(byte[] pl) throws IOException {
+    if (responseOpaque == terminalOpaque) {
+      getCallback().receivedStatus(STATUS_OK);
+      transitionState(OperationState.COMPLETE);
+    } else if (errorCode != SUCCESS) {
+      ((BulkOperationCallback) getCallback()).gotFailure(
+          keys.get(responseOpaque), getFailureStatus(pl));
+    }
+    resetInput();
+  }
+
+  private OperationStatus getFailureStatus(byte[] pl) throws IOException {
+    // These would error the whole operation, but only one key failed.
+    if (errorCode == ERR_2BIG || errorCode == ERR_INTERNAL) {
+      return new OperationStatus(false, new String(pl));
+    }
+    OperationStatus status = getStatusForErrorCode(errorCode, pl);
+    return status == null ? new OperationStatus(false, new String(pl))
+        : status;
+  }
+
+  @Override
+  protected boolean opaqueIsValid() {
+    return responseOpaque == terminalOpaque || keys.containsKey(responseOpaque);
+  }
+}
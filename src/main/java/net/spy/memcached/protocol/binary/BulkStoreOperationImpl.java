@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.binary;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.ops.BulkOperationCallback;
+import net.spy.memcached.ops.BulkStoreOperation;
+import net.spy.memcached.ops.StoreType;
+
+/**
+ * Store many keys on one server as a run of quiet sets, adds or replaces.
+ */
+class BulkStoreOperationImpl extends BulkOperationImpl implements
+    BulkStoreOperation {
+
+  private final StoreType storeType;
+  private final Map<String, CachedData> data;
+  private final int exp;
+
+  public BulkStoreOperationImpl(StoreType t, Map<String, CachedData> d, int e,
+      BulkOperationCallback cb) {
+    super(cmdMap(t), d.keySet(), cb);
+    storeType = t;
+    data = d;
+    exp = e;
+  }
+
+  private static byte cmdMap(StoreType t) {
+    switch (t) {
+    case set:
+      return StoreOperationImpl.SETQ;
+    case add:
+      return StoreOperationImpl.ADDQ;
+    case replace:
+      return StoreOperationImpl.REPLACEQ;
+    default:
+      throw new IllegalArgumentException("Unhandled store type:  " + t);
+    }
+  }
+
+  @Override
+  protected int extraLength() {
+    return StoreOperationImpl.EXTRA_LEN;
+  }
+
+  @Override
+  protected void putExtras(ByteBuffer bb, String key) {
+    bb.putInt(data.get(key).getFlags());
+    bb.putInt(exp);
+  }
+
+  @Override
+  protected int valueLength(String key) {
+    return data.get(key).getData().length;
+  }
+
+  @Override
+  protected void putValue(ByteBuffer bb, String key) {
+    bb.put(data.get(key).getData());
+  }
+
+  public StoreType getStoreType() {
+    return storeType;
+  }
+
+  public int getExpiration() {
+    return exp;
+  }
+
+  public Map<String, CachedData> getData() {
+    return data;
+  }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.binary;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+import net.spy.memcached.ops.BulkOperationCallback;
+import net.spy.memcached.ops.BulkTouchOperation;
+
+/**
+ * Touch many keys on one server in one pipeline.
+ *
+ * <p>
+ * There is no quiet touch, so every key gets a response, but only the
+ * failures are reported.
+ * </p>
+ */
+class BulkTouchOperationImpl extends BulkOperationImpl implements
+    BulkTouchOperation {
+
+  private static final int EXTRA_LEN = 4;
+
+  private final int exp;
+
+  public BulkTouchOperationImpl(Collection<String> k, int e,
+      BulkOperationCallback cb) {
+    super(TouchOperationImpl.CMD, k, cb);
+    exp = e;
+  }
+
+  @Override
+  protected int extraLength() {
+    return EXTRA_LEN;
+  }
+
+  @Override
+  protected void putExtras(ByteBuffer bb, String key) {
+    bb.putInt(exp);
+  }
+
+  public int getExpiration() {
+    return exp;
+  }
+}
@@ -51,12 +51,14 @@ public class GetlOperationImpl extends SingleKeyOperationImpl implements
   }
 
   @Override
-  protected void decodePayload(byte[] pl) {
-    final int flags = decodeInt(pl, 0);
-    final byte[] data = new byte[pl.length - EXTRA_HDR_LEN];
-    System.arraycopy(pl, EXTRA_HDR_LEN, data, 0, pl.length - EXTRA_HDR_LEN);
+  protected boolean hasValue() {
+    return true;
+  }
+
+  @Override
+  protected void decodeValue(int flags, byte[] val) {
     GetlOperation.Callback gcb = (GetlOperation.Callback) getCallback();
-    gcb.gotData(key, flags, responseCas, data);
+    gcb.gotData(key, flags, responseCas, val);
     getCallback().receivedStatus(STATUS_OK);
   }
 
@@ -48,12 +48,14 @@ public class GetsOperationImpl extends SingleKeyOperationImpl implements
   }
 
   @Override
-  protected void decodePayload(byte[] pl) {
-    final int flags = decodeInt(pl, 0);
-    final byte[] data = new byte[pl.length - EXTRA_HDR_LEN];
-    System.arraycopy(pl, EXTRA_HDR_LEN, data, 0, pl.length - EXTRA_HDR_LEN);
+  protected boolean hasValue() {
+    return true;
+  }
+
+  @Override
+  protected void decodeValue(int flags, byte[] val) {
     GetsOperation.Callback gcb = (GetsOperation.Callback) getCallback();
-    gcb.gotData(key, flags, responseCas, data);
+    gcb.gotData(key, flags, responseCas, val);
     getCallback().receivedStatus(STATUS_OK);
   }
 }
@@ -79,7 +79,7 @@ class MultiGetOperationImpl extends MultiKeyOperationImpl implements
       size += b.length;
     }
     // set up the initial header stuff
-    ByteBuffer bb = ByteBuffer.allocate(size);
+    ByteBuffer bb = allocateBuffer(size);
     for (Map.Entry<Integer, byte[]> me : bkeys.entrySet()) {
       final byte[] keyBytes = me.getValue();
       final String key = keys.get(me.getKey());
@@ -112,6 +112,18 @@ class MultiGetOperationImpl extends MultiKeyOperationImpl implements
     setBuffer(bb);
   }
 
+  @Override
+  protected boolean hasValue() {
+    return true;
+  }
+
+  @Override
+  protected void finishedValue(int flags, byte[] val) throws IOException {
+    Callback cb = (Callback) getCallback();
+    cb.gotData(keys.get(responseOpaque), flags, val);
+    resetInput();
+  }
+
   @Override
   protected void finishedPayload(byte[] pl) throws IOException {
     if (responseOpaque == terminalOpaque) {
@@ -29,7 +29,6 @@ import java.nio.ByteOrder;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import net.spy.memcached.CASResponse;
-import net.spy.memcached.KeyUtil;
 import net.spy.memcached.ops.CASOperationStatus;
 import net.spy.memcached.ops.Operation;
 import net.spy.memcached.ops.OperationCallback;
@@ -48,6 +47,9 @@ abstract class OperationImpl extends BaseOperationImpl implements Operation {
   protected static final byte DUMMY_OPCODE = (byte)0xff;
   protected static final int MIN_RECV_PACKET = 24;
 
+  // Length of the flags extra on responses carrying a value.
+  private static final int FLAGS_LEN = 4;
+
   /**
    * Error code for operations.
    */
@@ -78,9 +80,15 @@ abstract class OperationImpl extends BaseOperationImpl implements Operation {
   protected short vbucket = 0;
   protected final int opaque;
 
-  private final byte[] header = new byte[MIN_RECV_PACKET];
+  // Holds a header split across reads, and then the extras and key of a
+  // response with a value. Reused for every response this op reads.
+  private byte[] slab = new byte[MIN_RECV_PACKET];
   private int headerOffset = 0;
   private byte[] payload = null;
+  private int payloadLen = 0;
+  private int payloadOffset = 0;
+  private byte[] value = null;
+  private int valueOffset = 0;
 
   // Response header fields
   protected int keyLen;
@@ -89,8 +97,6 @@ abstract class OperationImpl extends BaseOperationImpl implements Operation {
   protected int responseOpaque;
   protected long responseCas;
 
-  private int payloadOffset = 0;
-
   /**
    * Construct with opaque.
    *
@@ -106,7 +112,10 @@ abstract class OperationImpl extends BaseOperationImpl implements Operation {
 
   protected void resetInput() {
     payload = null;
+    payloadLen = 0;
     payloadOffset = 0;
+    value = null;
+    valueOffset = 0;
     headerOffset = 0;
   }
 
@@ -121,45 +130,46 @@ abstract class OperationImpl extends BaseOperationImpl implements Operation {
   public void readFromBuffer(ByteBuffer b) throws IOException {
     // First process headers if we haven't completed them yet
     if (headerOffset < MIN_RECV_PACKET) {
-      int toRead = MIN_RECV_PACKET - headerOffset;
-      int available = b.remaining();
-      toRead = Math.min(toRead, available);
-      getLogger().debug("Reading %d header bytes", toRead);
-      b.get(header, headerOffset, toRead);
-      headerOffset += toRead;
-
-      // We've completed reading the header. Prepare body read.
-      if (headerOffset == MIN_RECV_PACKET) {
-        int magic = header[0];
-        assert magic == RES_MAGIC : "Invalid magic:  " + magic;
-        responseCmd = header[1];
-        assert cmd == DUMMY_OPCODE || responseCmd == cmd
-          : "Unexpected response command value";
-        keyLen = decodeShort(header, 2);
-        // TODO: Examine extralen and datatype
-        errorCode = decodeShort(header, 6);
-        int bytesToRead = decodeInt(header, 8);
-        payload = new byte[bytesToRead];
-        responseOpaque = decodeInt(header, 12);
-        responseCas = decodeLong(header, 16);
-        assert opaqueIsValid() : "Opaque is not valid";
+      if (headerOffset == 0 && b.remaining() >= MIN_RECV_PACKET) {
+        // The common case: decode the header right out of the read buffer.
+        decodeHeader(b);
+      } else {
+        int toRead = MIN_RECV_PACKET - headerOffset;
+        int available = b.remaining();
+        toRead = Math.min(toRead, available);
+        getLogger().debug("Reading %d header bytes", toRead);
+        b.get(slab, headerOffset, toRead);
+        headerOffset += toRead;
+
+        // We've completed reading the header. Prepare body read.
+        if (headerOffset == MIN_RECV_PACKET) {
+          decodeHeader(ByteBuffer.wrap(slab, 0, MIN_RECV_PACKET));
+        }
       }
     }
 
     // Now process the payload if we can.
-    if (headerOffset >= MIN_RECV_PACKET && payload == null) {
-      finishedPayload(EMPTY_BYTES);
-    } else if (payload != null) {
-      int toRead = payload.length - payloadOffset;
-      int available = b.remaining();
-      toRead = Math.min(toRead, available);
-      getLogger().debug("Reading %d payload bytes", toRead);
-      b.get(payload, payloadOffset, toRead);
-      payloadOffset += toRead;
+    if (headerOffset >= MIN_RECV_PACKET) {
+      if (payloadOffset < payloadLen) {
+        int toRead = Math.min(payloadLen - payloadOffset, b.remaining());
+        getLogger().debug("Reading %d payload bytes", toRead);
+        b.get(payload, payloadOffset, toRead);
+        payloadOffset += toRead;
+      }
+      if (value != null && payloadOffset == payloadLen) {
+        int toRead = Math.min(value.length - valueOffset, b.remaining());
+        getLogger().debug("Reading %d value bytes", toRead);
+        b.get(value, valueOffset, toRead);
+        valueOffset += toRead;
+      }
 
       // Have we read it all?
-      if (payloadOffset == payload.length) {
-        finishedPayload(payload);
+      if (payloadOffset == payloadLen) {
+        if (value == null) {
+          finishedPayload(payload);
+        } else if (valueOffset == value.length) {
+          finishedValue(decodeInt(payload, 0), value);
+        }
       }
     } else {
       // Haven't read enough to make up a payload. Must read more.
@@ -169,6 +179,77 @@ abstract class OperationImpl extends BaseOperationImpl implements Operation {
 
   }
 
+  /**
+   * Whether this operation is part way through reading a response.
+   */
+  boolean isReadingResponse() {
+    return headerOffset > 0 && getState() != OperationState.COMPLETE;
+  }
+
+  private void decodeHeader(ByteBuffer h) {
+    int magic = h.get();
+    assert magic == RES_MAGIC : "Invalid magic:  " + magic;
+    responseCmd = h.get();
+    assert cmd == DUMMY_OPCODE || responseCmd == cmd
+      : "Unexpected response command value";
+    keyLen = h.getShort() & 0xffff;
+    int extraLen = h.get() & 0xff;
+    // TODO: Examine datatype
+    h.get();
+    errorCode = h.getShort() & 0xffff;
+    int bytesToRead = h.getInt();
+    responseOpaque = h.getInt();
+    responseCas = h.getLong();
+    headerOffset = MIN_RECV_PACKET;
+    assert opaqueIsValid() : "Opaque is not valid";
+
+    if (errorCode == SUCCESS && extraLen == FLAGS_LEN && hasValue()) {
+      // Only the flags (and key, if any) go through the slab; the value is
+      // read straight into the array handed to the callback.
+      payloadLen = extraLen + keyLen;
+      if (slab.length < payloadLen) {
+        slab = new byte[payloadLen];
+      }
+      payload = slab;
+      int valueLen = bytesToRead - payloadLen;
+      value = valueLen == 0 ? EMPTY_BYTES : new byte[valueLen];
+    } else {
+      payloadLen = bytesToRead;
+      payload = bytesToRead == 0 ? EMPTY_BYTES : new byte[bytesToRead];
+    }
+  }
+
+  /**
+   * Whether successful responses to this operation carry flags and a value.
+   *
+   * Such responses are passed to {@link #finishedValue(int, byte[])} instead
+   * of {@link #finishedPayload(byte[])}.
+   */
+  protected boolean hasValue() {
+    return false;
+  }
+
+  /**
+   * Called when a successful response with a value has been read.
+   *
+   * @param flags the flags stored with the value
+   * @param val the value, which belongs to the operation from here on
+   */
+  protected void finishedValue(int flags, byte[] val) throws IOException {
+    decodeValue(flags, val);
+    transitionState(OperationState.COMPLETE);
+  }
+
+  /**
+   * Decode the value returned by a successful response.
+   *
+   * @param flags the flags stored with the value
+   * @param val the value
+   */
+  protected void decodeValue(int flags, byte[] val) {
+    assert false : "Got a value, but decode isn't overridden";
+  }
+
   protected void finishedPayload(byte[] pl) throws IOException {
     OperationStatus status = getStatusForErrorCode(errorCode, pl);
 
@@ -297,7 +378,7 @@ abstract class OperationImpl extends BaseOperationImpl implements Operation {
         assert false : "Unhandled extra header type:  " + o.getClass();
       }
     }
-    final byte[] keyBytes = KeyUtil.getKeyBytes(key);
+    final byte[] keyBytes = getKeyBytes(key);
     int bufSize = MIN_RECV_PACKET + keyBytes.length + val.length;
 
     // # magic, opcode, keylen, extralen, datatype, [reserved],
@@ -305,7 +386,7 @@ abstract class OperationImpl extends BaseOperationImpl implements Operation {
     // REQ_PKT_FMT=">BBHBBxxIIQ"
 
     // set up the initial header stuff
-    ByteBuffer bb = ByteBuffer.allocate(bufSize + extraLen);
+    ByteBuffer bb = allocateBuffer(bufSize + extraLen);
     assert bb.order() == ByteOrder.BIG_ENDIAN;
     bb.put(REQ_MAGIC);
     bb.put(cmd);
@@ -85,7 +85,7 @@ public class OptimizedSetImpl extends MultiKeyOperationImpl {
   @Override
   public void initialize() {
     // Now create a buffer.
-    ByteBuffer bb = ByteBuffer.allocate(byteCount);
+    ByteBuffer bb = allocateBuffer(byteCount);
     for (CASOperation so : ops) {
       Iterator<String> is = so.getKeys().iterator();
       String k = is.next();
@@ -23,7 +23,12 @@
 
 package net.spy.memcached.util;
 
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import net.spy.memcached.MemcachedNode;
@@ -31,17 +36,120 @@ import net.spy.memcached.MemcachedNode;
 /**
  * A Default implementation of the configuration required for the
  * KetamaNodeLocator algorithm to run.
+ *
+ * <p>
+ * Nodes may be weighted by socket address, for instance by memory size so
+ * that each node's share of keys matches its share of the cache. Nodes
+ * without a weight have a weight of 1.
+ * </p>
  */
 public class DefaultKetamaNodeLocatorConfiguration implements
     KetamaNodeLocatorConfiguration {
 
   private final int numReps = 160;
 
+  /**
+   * The stat holding the number of bytes a server may use for storage.
+   */
+  public static final String MAX_BYTES_STAT = "limit_maxbytes";
+
+  private volatile Map<SocketAddress, Integer> weights =
+      Collections.emptyMap();
+
   // Internal lookup map to try to carry forward the optimisation that was
   // previously in KetamaNodeLocator
   protected Map<MemcachedNode, String> socketAddresses =
       new HashMap<MemcachedNode, String>();
 
+  /**
+   * Create a configuration where every node has the same weight.
+   */
+  public DefaultKetamaNodeLocatorConfiguration() {
+    super();
+  }
+
+  /**
+   * Create a configuration weighting nodes by their socket address.
+   *
+   * @param w the weight of the node at each address, for nodes that don't
+   *          have the default weight of 1
+   */
+  public DefaultKetamaNodeLocatorConfiguration(
+      Map<? extends SocketAddress, Integer> w) {
+    super();
+    setNodeWeights(w);
+  }
+
+  /**
+   * Set the weights of nodes by their socket address.
+   *
+   * <p>
+   * A KetamaNodeLocator only reads weights when it builds its continuum, so
+   * call {@link net.spy.memcached.KetamaNodeLocator#reweight()} on the
+   * locators using this configuration afterwards, or weight a running client
+   * with {@link net.spy.memcached.MemcachedClient#setNodeWeights(Map)}.
+   * </p>
+   *
+   * @param w the weight of the node at each address, for nodes that don't
+   *          have the default weight of 1
+   * @throws IllegalArgumentException if a weight is not positive
+   */
+  public void setNodeWeights(Map<? extends SocketAddress, Integer> w) {
+    Map<SocketAddress, Integer> m = new HashMap<SocketAddress, Integer>(w);
+    for (Map.Entry<SocketAddress, Integer> me : m.entrySet()) {
+      if (me.getValue() == null || me.getValue() <= 0) {
+        throw new IllegalArgumentException("Weight of " + me.getKey()
+            + " must be positive, not " + me.getValue());
+      }
+    }
+    weights = m;
+  }
+
+  /**
+   * Weight servers by the memory they may use, in megabytes, from their
+   * {@value #MAX_BYTES_STAT} stat.
+   *
+   * <p>
+   * The result of {@link net.spy.memcached.MemcachedClient#getStats()} only
+   * covers the servers that answered. A server that is missing, or didn't
+   * report its memory limit, gets the median weight of those that did rather
+   * than the default weight of 1, which would all but drop it from the
+   * continuum. If no server reported, the result is empty and every server
+   * keeps the same weight.
+   * </p>
+   *
+   * @param stats the stats of each server
+   * @param servers every server to weight
+   * @return the weight of each server
+   */
+  public static Map<SocketAddress, Integer> getMaxBytesWeights(
+      Map<SocketAddress, Map<String, String>> stats,
+      Collection<? extends SocketAddress> servers) {
+    Map<SocketAddress, Integer> rv = new HashMap<SocketAddress, Integer>();
+    for (Map.Entry<SocketAddress, Map<String, String>> me
+        : stats.entrySet()) {
+      String maxBytes = me.getValue() == null ? null
+          : me.getValue().get(MAX_BYTES_STAT);
+      if (maxBytes != null) {
+        long mb = Long.parseLong(maxBytes.trim()) >> 20;
+        rv.put(me.getKey(), (int) Math.min(Integer.MAX_VALUE,
+            Math.max(1, mb)));
+      }
+    }
+    if (rv.isEmpty()) {
+      return rv;
+    }
+    List<Integer> reported = new ArrayList<Integer>(rv.values());
+    Collections.sort(reported);
+    Integer median = reported.get(reported.size() / 2);
+    for (SocketAddress sa : servers) {
+      if (!rv.containsKey(sa)) {
+        rv.put(sa, median);
+      }
+    }
+    return rv;
+  }
+
   /**
    * Returns the socket address of a given MemcachedNode.
    *
@@ -78,6 +186,16 @@ public class DefaultKetamaNodeLocatorConfiguration implements
     return numReps;
   }
 
+  /**
+   * Returns the weight of a node, looked up by its socket address.
+   *
+   * @return the configured weight, or 1 for nodes without one
+   */
+  public int getNodeWeight(MemcachedNode node) {
+    Integer rv = weights.get(node.getSocketAddress());
+    return rv == null ? 1 : rv;
+  }
+
   /**
    * Returns a uniquely identifying key, suitable for hashing by the
    * KetamaNodeLocator algorithm.
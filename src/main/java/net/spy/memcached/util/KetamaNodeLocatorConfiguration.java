@@ -48,4 +48,14 @@ public interface KetamaNodeLocatorConfiguration {
    * @return a value greater than 0
    */
   int getNodeRepetitions();
+
+  /**
+   * Returns the weight of a node. Each node gets a share of the points in the
+   * continuum in proportion to its weight, so nodes of equal weight each get
+   * {@link #getNodeRepetitions()} of them.
+   *
+   * @param node The MemcachedNode in question
+   * @return a value greater than 0
+   */
+  int getNodeWeight(MemcachedNode node);
 }
@@ -0,0 +1,278 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.util;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A blocking queue built for many producers and (mostly) one consumer.
+ *
+ * <p>
+ * Adding an element never takes a lock: producers swap themselves onto the
+ * tail of a linked list with a single atomic exchange, in the manner of
+ * Dmitry Vyukov's multi-producer single-consumer queue. Removals are
+ * serialized by a lock of their own, which is uncontended when one thread
+ * (such as an IO thread) does all the consuming, and which producers never
+ * touch.
+ * </p>
+ *
+ * <p>
+ * An element becomes visible to consumers a moment after its producer's
+ * exchange, so a consumer may briefly see the queue as empty while
+ * {@link #size()} already counts the element. Nothing waits on a condition
+ * either: a producer blocked on a full queue, or a consumer blocked on an
+ * empty one, polls with short parks. Both are meant to be rare.
+ * </p>
+ *
+ * <p>
+ * The iterator is weakly consistent and does not support removal, so
+ * neither does {@link #remove(Object)}.
+ * </p>
+ *
+ * @param <E> the type of the elements
+ */
+public class MpscBlockingQueue<E> extends AbstractQueue<E> implements
+    BlockingQueue<E> {
+
+  private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+  private final int capacity;
+  private final AtomicInteger count = new AtomicInteger();
+  private final AtomicReference<Node<E>> tail;
+  private final Object consumerLock = new Object();
+  // Guarded by consumerLock. Always a node whose value has been taken.
+  private Node<E> head;
+
+  /**
+   * Create an unbounded queue.
+   */
+  public MpscBlockingQueue() {
+    this(Integer.MAX_VALUE);
+  }
+
+  /**
+   * Create a queue holding at most the given number of elements.
+   */
+  public MpscBlockingQueue(int cap) {
+    if (cap <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive");
+    }
+    capacity = cap;
+    head = new Node<E>(null);
+    tail = new AtomicReference<Node<E>>(head);
+  }
+
+  public boolean offer(E e) {
+    if (e == null) {
+      throw new NullPointerException();
+    }
+    if (capacity == Integer.MAX_VALUE) {
+      count.incrementAndGet();
+    } else {
+      int c;
+      do {
+        c = count.get();
+        if (c >= capacity) {
+          return false;
+        }
+      } while (!count.compareAndSet(c, c + 1));
+    }
+    Node<E> n = new Node<E>(e);
+    tail.getAndSet(n).next = n;
+    return true;
+  }
+
+  public boolean offer(E e, long timeout, TimeUnit unit)
+    throws InterruptedException {
+    if (offer(e)) {
+      return true;
+    }
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    do {
+      if (deadline - System.nanoTime() <= 0) {
+        return false;
+      }
+      pause();
+    } while (!offer(e));
+    return true;
+  }
+
+  public void put(E e) throws InterruptedException {
+    while (!offer(e)) {
+      pause();
+    }
+  }
+
+  public E poll() {
+    synchronized (consumerLock) {
+      Node<E> next = head.next;
+      if (next == null) {
+        return null;
+      }
+      E rv = next.value;
+      next.value = null;
+      head = next;
+      count.decrementAndGet();
+      return rv;
+    }
+  }
+
+  public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+    E rv = poll();
+    if (rv != null) {
+      return rv;
+    }
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while ((rv = poll()) == null) {
+      if (deadline - System.nanoTime() <= 0) {
+        return null;
+      }
+      pause();
+    }
+    return rv;
+  }
+
+  public E take() throws InterruptedException {
+    E rv;
+    while ((rv = poll()) == null) {
+      pause();
+    }
+    return rv;
+  }
+
+  public E peek() {
+    synchronized (consumerLock) {
+      Node<E> next = head.next;
+      return next == null ? null : next.value;
+    }
+  }
+
+  public int drainTo(Collection<? super E> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  public int drainTo(Collection<? super E> c, int maxElements) {
+    if (c == this) {
+      throw new IllegalArgumentException("Can't drain a queue to itself");
+    }
+    int n = 0;
+    synchronized (consumerLock) {
+      Node<E> h = head;
+      Node<E> next;
+      while (n < maxElements && (next = h.next) != null) {
+        c.add(next.value);
+        next.value = null;
+        h = next;
+        n++;
+      }
+      head = h;
+    }
+    if (n > 0) {
+      count.addAndGet(-n);
+    }
+    return n;
+  }
+
+  @Override
+  public int size() {
+    return count.get();
+  }
+
+  public int remainingCapacity() {
+    return capacity == Integer.MAX_VALUE ? Integer.MAX_VALUE
+        : Math.max(0, capacity - count.get());
+  }
+
+  @Override
+  public Iterator<E> iterator() {
+    Node<E> h;
+    synchronized (consumerLock) {
+      h = head;
+    }
+    return new Itr<E>(h);
+  }
+
+  private static void pause() throws InterruptedException {
+    LockSupport.parkNanos(PARK_NANOS);
+    if (Thread.interrupted()) {
+      throw new InterruptedException();
+    }
+  }
+
+  private static final class Node<E> {
+    // Written by the producer before the node is published and cleared by
+    // the consumer once taken.
+    private volatile E value;
+    private volatile Node<E> next;
+
+    Node(E v) {
+      value = v;
+    }
+  }
+
+  private static final class Itr<E> implements Iterator<E> {
+    private Node<E> node;
+    private E nextValue;
+
+    Itr(Node<E> h) {
+      node = h;
+      advance();
+    }
+
+    private void advance() {
+      nextValue = null;
+      while (nextValue == null && node != null) {
+        node = node.next;
+        if (node != null) {
+          // Elements taken since the iterator was created read as null.
+          nextValue = node.value;
+        }
+      }
+    }
+
+    public boolean hasNext() {
+      return nextValue != null;
+    }
+
+    public E next() {
+      if (nextValue == null) {
+        throw new NoSuchElementException();
+      }
+      E rv = nextValue;
+      advance();
+      return rv;
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,201 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.util;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A hashed timing wheel, for expiring many items at about their deadlines.
+ *
+ * <p>
+ * Deadlines are rounded up to the next tick and kept in the slot of the
+ * wheel that tick falls on, so scheduling and cancelling an item take
+ * constant time, and each tick looks at one slot. Deadlines further off than
+ * a turn of the wheel share slots with nearer ones, and just wait for a
+ * later turn.
+ * </p>
+ *
+ * <p>
+ * Items are told apart by identity, and an item is in the wheel at most
+ * once. The wheel isn't thread-safe: it's meant to be owned by one thread,
+ * such as an IO thread, which calls {@link #expire} as it goes around its
+ * loop.
+ * </p>
+ *
+ * @param <T> the type of the items
+ */
+public class TimingWheel<T> {
+
+  private final long tickNanos;
+  private final Entry<T>[] slots;
+  private final int mask;
+  private final long start;
+  private final Map<T, Entry<T>> entries = new IdentityHashMap<T, Entry<T>>();
+  // The first tick not yet expired.
+  private long tick = 0;
+
+  /**
+   * Create a timing wheel.
+   *
+   * @param tickDuration how far apart the ticks are
+   * @param unit the unit of the tick duration
+   * @param ticksPerWheel the number of slots, rounded up to a power of two
+   */
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  public TimingWheel(long tickDuration, TimeUnit unit, int ticksPerWheel) {
+    if (tickDuration <= 0) {
+      throw new IllegalArgumentException("Tick duration must be positive");
+    }
+    if (ticksPerWheel <= 0 || ticksPerWheel > 1 << 30) {
+      throw new IllegalArgumentException("Invalid ticks per wheel: "
+          + ticksPerWheel);
+    }
+    int n = 1;
+    while (n < ticksPerWheel) {
+      n <<= 1;
+    }
+    tickNanos = unit.toNanos(tickDuration);
+    slots = new Entry[n];
+    mask = n - 1;
+    start = System.nanoTime();
+  }
+
+  /**
+   * Schedule an item to expire at the given time, replacing any deadline it
+   * already had.
+   *
+   * @param item the item
+   * @param deadline the {@link System#nanoTime()} to expire it at
+   */
+  public void schedule(T item, long deadline) {
+    cancel(item);
+    long due = (deadline - start + tickNanos - 1) / tickNanos;
+    // Anything already due goes out at the next tick.
+    Entry<T> e = new Entry<T>(item, Math.max(due, tick));
+    int slot = (int) (e.due & mask);
+    e.next = slots[slot];
+    if (e.next != null) {
+      e.next.prev = e;
+    }
+    slots[slot] = e;
+    entries.put(item, e);
+  }
+
+  /**
+   * Take an item out of the wheel.
+   *
+   * @return true if the item was scheduled
+   */
+  public boolean cancel(T item) {
+    Entry<T> e = entries.remove(item);
+    if (e == null) {
+      return false;
+    }
+    unlink(e);
+    return true;
+  }
+
+  /**
+   * Take every item whose deadline has passed out of the wheel.
+   *
+   * @param now the current {@link System#nanoTime()}
+   * @param into the collection to add the expired items to
+   * @return the number of items expired
+   */
+  public int expire(long now, Collection<? super T> into) {
+    long last = (now - start) / tickNanos;
+    int n = 0;
+    // A full turn visits every slot, so there's never a need for more.
+    long end = Math.min(last, tick + slots.length - 1);
+    for (long t = tick; t <= end && !entries.isEmpty(); t++) {
+      Entry<T> e = slots[(int) (t & mask)];
+      while (e != null) {
+        Entry<T> next = e.next;
+        if (e.due <= last) {
+          unlink(e);
+          entries.remove(e.item);
+          into.add(e.item);
+          n++;
+        }
+        e = next;
+      }
+    }
+    tick = Math.max(tick, last + 1);
+    return n;
+  }
+
+  /**
+   * Get the time until the next tick, when something may next expire.
+   *
+   * @param now the current {@link System#nanoTime()}
+   * @return nanoseconds until the next tick, or -1 if the wheel is empty
+   */
+  public long nanosToNextTick(long now) {
+    if (entries.isEmpty()) {
+      return -1;
+    }
+    return Math.max(0, start + tick * tickNanos - now);
+  }
+
+  /**
+   * Get the number of items in the wheel.
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Whether the wheel has no items.
+   */
+  public boolean isEmpty() {
+    return entries.isEmpty();
+  }
+
+  private void unlink(Entry<T> e) {
+    if (e.prev == null) {
+      slots[(int) (e.due & mask)] = e.next;
+    } else {
+      e.prev.next = e.next;
+    }
+    if (e.next != null) {
+      e.next.prev = e.prev;
+    }
+    e.prev = null;
+    e.next = null;
+  }
+
+  private static final class Entry<T> {
+    private final T item;
+    private final long due;
+    private Entry<T> prev;
+    private Entry<T> next;
+
+    Entry(T i, long d) {
+      item = i;
+      due = d;
+    }
+  }
+}
@@ -24,6 +24,8 @@
 package net.spy.memcached;
 
 import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
 
 /**
  * This test assumes a binary server is running on the host specified int the
@@ -113,6 +115,18 @@ public class BinaryClientTest extends ProtocolBaseCase {
     }
   }
 
+  public void testTouchBulk() throws Exception {
+    if (TestConfig.isMembase() || TestConfig.isFake()) {
+      assert client.set("touch1", 1, "touchvalue").get().booleanValue();
+      assert client.set("touch2", 1, "touchvalue").get().booleanValue();
+      assertEquals(Collections.singletonMap("touch3", Boolean.FALSE),
+          client.asyncTouchBulk(Arrays.asList("touch1", "touch2", "touch3"),
+              3).get());
+      Thread.sleep(1300);
+      assertEquals(2, client.getBulk("touch1", "touch2").size());
+    }
+  }
+
   @Override
   protected void syncGetTimeoutsInitClient() throws Exception {
     initClient(new BinaryConnectionFactory() {
@@ -0,0 +1,200 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.spy.memcached.util.DefaultKetamaNodeLocatorConfiguration;
+
+/**
+ * Test the BoundedLoadNodeLocator.
+ */
+public class BoundedLoadNodeLocatorTest extends AbstractNodeLocationCase {
+
+  private KetamaNodeLocator ketama;
+  private BoundedLoadNodeLocator bounded;
+
+  private void setupNodes(int n, double imbalance) {
+    super.setupNodes(n);
+    for (int i = 0; i < nodeMocks.length; i++) {
+      nodeMocks[i].expects(atLeastOnce()).method("getSocketAddress")
+          .will(returnValue(InetSocketAddress.createUnresolved("127.0.0.1",
+          10000 + i)));
+    }
+    List<MemcachedNode> l = Arrays.asList(nodes);
+    ketama = new KetamaNodeLocator(l, DefaultHashAlgorithm.KETAMA_HASH);
+    bounded = new BoundedLoadNodeLocator(l, ketama, imbalance);
+    locator = bounded;
+  }
+
+  @Override
+  protected void setupNodes(int n) {
+    setupNodes(n, BoundedLoadNodeLocator.DEFAULT_IMBALANCE);
+  }
+
+  public void testKeysStayPutWithinBound() {
+    // No node of this continuum gets twice its share of distinct keys.
+    setupNodes(4, 1.0);
+    for (int i = 0; i < 10000; i++) {
+      String k = "key" + i;
+      assertSame(ketama.getPrimary(k), bounded.getReadNode(k));
+    }
+    assertEquals(bounded.getPrimarySkew(), bounded.getSkew(), 0.0);
+  }
+
+  public void testWeightedBounds() {
+    super.setupNodes(4);
+    Map<SocketAddress, Integer> w = new HashMap<SocketAddress, Integer>();
+    for (int i = 0; i < nodeMocks.length; i++) {
+      SocketAddress sa = InetSocketAddress.createUnresolved("127.0.0.1",
+          10000 + i);
+      nodeMocks[i].expects(atLeastOnce()).method("getSocketAddress")
+          .will(returnValue(sa));
+      w.put(sa, i < 2 ? 1 : 4);
+    }
+    List<MemcachedNode> l = Arrays.asList(nodes);
+    ketama = new KetamaNodeLocator(l, DefaultHashAlgorithm.KETAMA_HASH,
+        new DefaultKetamaNodeLocatorConfiguration(w));
+    bounded = new BoundedLoadNodeLocator(l, ketama, 0.5);
+    // The large nodes' bounds are four times the small ones', so their
+    // larger share of keys doesn't overflow. Only the first few requests,
+    // while the bounds are a handful of requests, may move.
+    int moved = 0;
+    for (int i = 0; i < 10000; i++) {
+      String k = "key" + i;
+      if (ketama.getPrimary(k) != bounded.getReadNode(k)) {
+        moved++;
+      }
+    }
+    assertTrue("Moved " + moved + " keys", moved < 100);
+    assertTrue("Skew " + bounded.getSkew(), bounded.getSkew() < 1.5);
+  }
+
+  public void testBusyNodeSpillsNewKeys() {
+    setupNodes(4);
+    MemcachedNode busy = nodes[0];
+    int j = 0;
+    for (int i = 0; i < 8000; i++) {
+      String k = "key" + i;
+      bounded.getReadNode(k);
+      if (ketama.getPrimary(k) != busy) {
+        // Send about half of all the new keys' gets to one node.
+        while (ketama.getPrimary("busy" + j) != busy) {
+          j++;
+        }
+        bounded.getReadNode("busy" + j++);
+      }
+    }
+    assertTrue("Nothing moved", bounded.getMovedKeys() > 0);
+    assertTrue("Skew before " + bounded.getPrimarySkew(),
+        bounded.getPrimarySkew() > 1.8);
+    assertTrue("Skew after " + bounded.getSkew(),
+        bounded.getSkew() <= 1.0 + BoundedLoadNodeLocator.DEFAULT_IMBALANCE
+            + 0.01);
+  }
+
+  public void testMovedKeyStays() {
+    setupNodes(4);
+    MemcachedNode home = ketama.getPrimary("hot");
+    for (int i = 0; i < 1000; i++) {
+      bounded.getReadNode("hot");
+    }
+    MemcachedNode moved = bounded.getPrimary("hot");
+    assertNotSame(home, moved);
+    assertEquals(1, bounded.getMovedKeys());
+    // However busy its new node gets, and however quiet its old one, the
+    // key stays put.
+    for (int i = 0; i < 20000; i++) {
+      bounded.getReadNode("key" + i);
+      assertSame(moved, bounded.getReadNode("hot"));
+    }
+    assertSame(moved, bounded.getPrimary("hot"));
+  }
+
+  public void testOnlyGetsMoveKeys() {
+    setupNodes(4);
+    MemcachedNode home = nodes[0];
+    String cold = null;
+    int moved = 0;
+    for (int i = 0; i < 4000; i++) {
+      String k = "key" + i;
+      if (ketama.getPrimary(k) == home) {
+        if (cold == null) {
+          cold = k;
+        } else if (bounded.getReadNode(k) != home) {
+          moved++;
+        }
+        // The busy node fills, but changes don't move keys.
+        assertSame(home, bounded.getPrimary(cold));
+      }
+    }
+    assertTrue("Nothing moved", moved > 0);
+    assertEquals(moved, bounded.getMovedKeys());
+    // Whether or not its get moves it, everything follows the key.
+    assertSame(bounded.getReadNode(cold), bounded.getPrimary(cold));
+  }
+
+  public void testDepartedNodesDropMoves() {
+    setupNodes(4);
+    for (int i = 0; i < 1000; i++) {
+      bounded.getReadNode("hot");
+    }
+    MemcachedNode moved = bounded.getPrimary("hot");
+    List<MemcachedNode> rest = new ArrayList<MemcachedNode>();
+    for (MemcachedNode n : nodes) {
+      if (n != moved) {
+        rest.add(n);
+      }
+    }
+    bounded.updateLocator(rest, null);
+    assertEquals(0, bounded.getMovedKeys());
+    assertSame(ketama.getPrimary("hot"), bounded.getPrimary("hot"));
+  }
+
+  public void testSequenceAndCopiesFollowKetama() {
+    setupNodes(4);
+    assertSame(ketama.getAll(), bounded.getAll());
+    for (int i = 0; i < 100; i++) {
+      String k = "key" + i;
+      assertEquals(ketama.getPrimary(k).toString(),
+          bounded.getReadonlyCopy().getPrimary(k).toString());
+      assertSame(ketama.getSequence(k).next(),
+          bounded.getSequence(k).next());
+    }
+  }
+
+  public void testInvalidImbalance() {
+    try {
+      new BoundedLoadNodeLocator(Arrays.<MemcachedNode>asList(), ketama, 0);
+      fail("Expected a bad imbalance to be refused");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
@@ -26,7 +26,9 @@ package net.spy.memcached;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.nio.channels.SocketChannel;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -36,8 +38,11 @@ import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
 import net.spy.memcached.auth.AuthDescriptor;
 import net.spy.memcached.auth.PlainCallbackHandler;
 import net.spy.memcached.compat.BaseMockCase;
+import net.spy.memcached.metrics.HistogramMetricsCollector;
+import net.spy.memcached.metrics.MetricsCollector;
 import net.spy.memcached.ops.Operation;
 import net.spy.memcached.ops.OperationQueueFactory;
+import net.spy.memcached.protocol.DirectBufferPool;
 import net.spy.memcached.protocol.ascii.AsciiMemcachedNodeImpl;
 import net.spy.memcached.protocol.ascii.AsciiOperationFactory;
 import net.spy.memcached.protocol.binary.BinaryMemcachedNodeImpl;
@@ -100,6 +105,17 @@ public class ConnectionFactoryBuilderTest extends BaseMockCase {
     assertFalse(f.useNagleAlgorithm());
     assertEquals(f.getOpQueueMaxBlockTime(),
         DefaultConnectionFactory.DEFAULT_OP_QUEUE_MAX_BLOCK_TIME);
+    assertEquals(DefaultConnectionFactory.DEFAULT_IO_THREAD_COUNT,
+        f.getIOThreadCount());
+    assertEquals(DefaultConnectionFactory.DEFAULT_CONNECTIONS_PER_NODE,
+        f.getConnectionsPerNode());
+    assertFalse(f.shouldMatchResponsesByOpaque());
+    assertEquals(DefaultConnectionFactory.DEFAULT_OPTIMIZE_WINDOW,
+        f.getOptimizeWindow());
+    assertFalse(f.useProactiveTimeouts());
+    assertFalse(f.shouldCoalesceGets());
+    assertNull(f.getMetricsCollector());
+    assertSame(DirectBufferPool.getInstance(), f.getBufferPool());
   }
 
   public void testModifications() throws Exception {
@@ -122,6 +138,8 @@ public class ConnectionFactoryBuilderTest extends BaseMockCase {
     AuthDescriptor anAuthDescriptor = new AuthDescriptor(
         new String[] { "PLAIN" }, new PlainCallbackHandler("username",
           "password"));
+    MetricsCollector metrics = new HistogramMetricsCollector();
+    DirectBufferPool pool = new DirectBufferPool(64, 4096, 4096, 65536);
 
     ConnectionFactory f = b.setDaemon(true).setShouldOptimize(false)
         .setFailureMode(FailureMode.Redistribute)
@@ -133,7 +151,11 @@ public class ConnectionFactoryBuilderTest extends BaseMockCase {
         .setWriteOpQueueFactory(wQueueFactory).setReadBufferSize(19)
         .setTranscoder(new WhalinTranscoder()).setUseNagleAlgorithm(true)
         .setLocatorType(Locator.CONSISTENT).setOpQueueMaxBlockTime(19)
-        .setAuthDescriptor(anAuthDescriptor).build();
+        .setAuthDescriptor(anAuthDescriptor).setIOThreadCount(4)
+        .setConnectionsPerNode(3).setCoalesceGets(true)
+        .setMatchResponsesByOpaque(true).setOptimizeWindow(64)
+        .setProactiveTimeouts(true).setMetricsCollector(metrics)
+        .setBufferPool(pool).build();
 
     assertEquals(4225, f.getOperationTimeout());
     assertEquals(19, f.getReadBufSize());
@@ -151,6 +173,16 @@ public class ConnectionFactoryBuilderTest extends BaseMockCase {
     assertTrue(f.useNagleAlgorithm());
     assertEquals(f.getOpQueueMaxBlockTime(), 19);
     assertSame(anAuthDescriptor, f.getAuthDescriptor());
+    assertEquals(4, f.getIOThreadCount());
+    assertEquals(3, f.getConnectionsPerNode());
+    assertTrue(f.shouldMatchResponsesByOpaque());
+    assertEquals(64, f.getOptimizeWindow());
+    assertTrue(f.useProactiveTimeouts());
+    assertTrue(f.shouldCoalesceGets());
+    assertSame(metrics, f.getMetricsCollector());
+    assertSame(pool, f.getBufferPool());
+    assertNull(new ConnectionFactoryBuilder().setBufferPool(null).build()
+        .getBufferPool());
 
     MemcachedNode n = new MockMemcachedNode(
         InetSocketAddress.createUnresolved("localhost", 11211));
@@ -167,6 +199,38 @@ public class ConnectionFactoryBuilderTest extends BaseMockCase {
     }
   }
 
+  public void testLocatorTypes() {
+    List<MemcachedNode> nodes = Collections.<MemcachedNode>singletonList(
+        new MockMemcachedNode(
+            InetSocketAddress.createUnresolved("localhost", 11211)));
+    assertTrue(b.setLocatorType(Locator.JUMP).build().createLocator(nodes)
+        instanceof JumpNodeLocator);
+    assertTrue(b.setLocatorType(Locator.RENDEZVOUS).build()
+        .createLocator(nodes) instanceof RendezvousNodeLocator);
+    assertTrue(b.setLocatorType(Locator.CONSISTENT_BOUNDED_LOAD)
+        .setMaxLoadImbalance(0.5).build().createLocator(nodes)
+        instanceof BoundedLoadNodeLocator);
+  }
+
+  public void testNodeWeights() {
+    MemcachedNode small = new MockMemcachedNode(
+        InetSocketAddress.createUnresolved("localhost", 11211));
+    MemcachedNode large = new MockMemcachedNode(
+        InetSocketAddress.createUnresolved("localhost", 11212));
+    NodeLocator l = b.setLocatorType(Locator.CONSISTENT)
+        .setHashAlg(DefaultHashAlgorithm.KETAMA_HASH)
+        .setNodeWeights(Collections.singletonMap(
+            large.getSocketAddress(), 4))
+        .build().createLocator(Arrays.asList(small, large));
+    int onLarge = 0;
+    for (int i = 0; i < 10000; i++) {
+      if (l.getPrimary("key" + i) == large) {
+        onLarge++;
+      }
+    }
+    assertTrue("Large node had " + onLarge, onLarge > 7000);
+  }
+
   public void testProtocolSetterBinary() {
     assertTrue(b.setProtocol(Protocol.BINARY).build().getOperationFactory()
         instanceof BinaryOperationFactory);
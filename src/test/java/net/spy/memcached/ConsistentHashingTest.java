@@ -28,6 +28,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.SortedMap;
 
 import junit.framework.TestCase;
@@ -44,6 +45,32 @@ public class ConsistentHashingTest extends TestCase {
     runThisManyNodes(100);
   }
 
+  public void testContinuumLookups() {
+    List<MemcachedNode> nodes =
+        createNodes(AddrUtil.getAddresses(generateAddresses(5)[1]));
+    KetamaNodeLocator locator =
+        new KetamaNodeLocator(nodes, DefaultHashAlgorithm.KETAMA_HASH);
+    SortedMap<Long, MemcachedNode> ring = locator.getKetamaNodes();
+    assertEquals(5 * 160, ring.size());
+
+    // Every point on the ring maps to its own node...
+    for (Map.Entry<Long, MemcachedNode> me : ring.entrySet()) {
+      assertSame(me.getValue(), locator.getNodeForKey(me.getKey()));
+    }
+    // ...and anything else to the next point, wrapping past the end.
+    Random r = new Random(42);
+    for (int i = 0; i < 10000; i++) {
+      long h = r.nextLong() & 0xffffffffL;
+      SortedMap<Long, MemcachedNode> tail = ring.tailMap(h);
+      long expected = tail.isEmpty() ? ring.firstKey() : tail.firstKey();
+      assertSame(ring.get(expected), locator.getNodeForKey(h));
+    }
+    MemcachedNode first = ring.get(ring.firstKey());
+    assertSame(first, locator.getNodeForKey(ring.lastKey() + 1));
+    assertSame(first, locator.getNodeForKey(0));
+    assertEquals(ring.lastKey().longValue(), locator.getMaxKey());
+  }
+
   /**
    * Simulate dropping from (totalNodes) to (totalNodes-1). Ensure hashing is
    * consistent between the the two scenarios.
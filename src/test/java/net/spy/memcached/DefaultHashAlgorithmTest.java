@@ -144,4 +144,38 @@ public class DefaultHashAlgorithmTest extends TestCase {
           Math.abs(me.getValue()));
     }
   }
+
+  // Reference values of MurmurHash3_x86_32 with a seed of 0.
+  public void testMurmur3Hash() {
+    HashMap<String, Long> exp = new HashMap<String, Long>();
+    exp.put("", 0L);
+    exp.put("abc", 0xb3dd93faL);
+    exp.put("hello", 0x248bfa47L);
+    exp.put("The quick brown fox jumps over the lazy dog", 0x2e4ff723L);
+
+    for (Map.Entry<String, Long> me : exp.entrySet()) {
+      assertHash(DefaultHashAlgorithm.MURMUR3_HASH, me.getKey(),
+          me.getValue());
+    }
+  }
+
+  // The lower halves of reference values of XXH64 with a seed of 0.
+  public void testXxHash64() {
+    HashMap<String, Long> exp = new HashMap<String, Long>();
+    exp.put("", 0x51d8e999L);
+    exp.put("abc", 0xad770999L);
+    exp.put("Nobody inspects the spammish repetition", 0x8a378bf1L);
+
+    for (Map.Entry<String, Long> me : exp.entrySet()) {
+      assertHash(DefaultHashAlgorithm.XXHASH64_HASH, me.getKey(),
+          me.getValue());
+    }
+  }
+
+  public void testRegistered() {
+    assertSame(DefaultHashAlgorithm.MURMUR3_HASH,
+        HashAlgorithmRegistry.lookupHashAlgorithm("murmur3"));
+    assertSame(DefaultHashAlgorithm.XXHASH64_HASH,
+        HashAlgorithmRegistry.lookupHashAlgorithm("XXHASH64"));
+  }
 }
@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.protocol.BaseOperationImpl;
+import net.spy.memcached.protocol.ascii.AsciiOperationFactory;
+
+/**
+ * Test the encoded keys.
+ */
+public class EncodedKeyTest extends TestCase {
+
+  public void testEncoding() {
+    EncodedKey k = EncodedKey.of("k\u00e9y");
+    assertEquals("k\u00e9y", k.getKey());
+    assertTrue(Arrays.equals(KeyUtil.getKeyBytes("k\u00e9y"), k.getBytes()));
+    assertEquals(4, k.getBytes().length);
+    assertEquals(EncodedKey.of("k\u00e9y"), k);
+    assertEquals("k\u00e9y".hashCode(), k.hashCode());
+  }
+
+  public void testInvalidKeys() {
+    char[] tooLong = new char[MemcachedClientIF.MAX_KEY_LENGTH + 1];
+    Arrays.fill(tooLong, 'x');
+    for (String key : new String[] { "", "a key", "a\nkey", "a\rkey",
+      "a\u0000key", new String(tooLong), }) {
+      try {
+        EncodedKey.of(key);
+        fail("Expected an invalid key: " + key);
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+    EncodedKey.of(new String(tooLong, 1, tooLong.length - 1));
+  }
+
+  public void testHashes() {
+    String s = "UDATA:edevil@sapo.pt";
+    EncodedKey k = EncodedKey.of(s);
+    for (DefaultHashAlgorithm alg : DefaultHashAlgorithm.values()) {
+      assertEquals(alg.name(), alg.hash(s), k.hash(alg));
+      // And again, from the cache.
+      assertEquals(alg.name(), alg.hash(s), k.hash(alg));
+    }
+  }
+
+  public void testLocatorsPlaceEncodedKeys() {
+    List<MemcachedNode> nodes = new ArrayList<MemcachedNode>();
+    for (int i = 0; i < 5; i++) {
+      nodes.add(new MockMemcachedNode(
+          InetSocketAddress.createUnresolved("node" + i, 11211)));
+    }
+    HashAlgorithm alg = DefaultHashAlgorithm.KETAMA_HASH;
+    KetamaNodeLocator ketama = new KetamaNodeLocator(nodes, alg);
+    List<NodeLocator> locators = Arrays.<NodeLocator>asList(ketama,
+        new RendezvousNodeLocator(nodes, alg),
+        new JumpNodeLocator(nodes, alg),
+        new ArrayModNodeLocator(nodes, alg));
+    // Bounded load placement depends on what was placed before.
+    BoundedLoadNodeLocator byString =
+        new BoundedLoadNodeLocator(nodes, ketama, 0.25);
+    BoundedLoadNodeLocator byEncoded =
+        new BoundedLoadNodeLocator(nodes, ketama, 0.25);
+    for (int i = 0; i < 500; i++) {
+      String s = "key" + i;
+      EncodedKey k = EncodedKey.of(s);
+      for (NodeLocator l : locators) {
+        assertSame(l.getClass().getSimpleName(), l.getPrimary(s),
+            ((EncodedKeyLocator) l).getPrimary(k));
+      }
+      assertSame(byString.getReadNode(s), byEncoded.getReadNode(k));
+    }
+  }
+
+  public void testOperationUsesHandedKeyBytes() {
+    BaseOperationImpl op = (BaseOperationImpl) new AsciiOperationFactory()
+        .get("k\u00e9y", new GetOperation.Callback() {
+          public void receivedStatus(OperationStatus status) {
+            // Never called.
+          }
+
+          public void gotData(String key, int flags, byte[] data) {
+            // Never called.
+          }
+
+          public void complete() {
+            // Never called.
+          }
+        });
+    // Stand-in bytes show which ones the operation was encoded with.
+    op.setKeyBytes("k\u00e9y", "other".getBytes());
+    op.initialize();
+    ByteBuffer b = op.getBuffer();
+    byte[] written = new byte[b.remaining()];
+    b.get(written);
+    assertEquals("get other\r\n", new String(written));
+  }
+}
@@ -0,0 +1,223 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
+import net.spy.memcached.internal.BulkFuture;
+import net.spy.memcached.internal.CheckedOperationTimeoutException;
+import net.spy.memcached.internal.GetFuture;
+import net.spy.memcached.server.FakeMemcachedServer;
+
+/**
+ * Test that concurrent gets of a key share one fetch.
+ */
+public class GetCoalescingTest extends TestCase {
+
+  private FakeMemcachedServer server;
+  private MemcachedClient client;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    server = new FakeMemcachedServer();
+    client = newClient(true);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    client.shutdown();
+    server.shutdown();
+    super.tearDown();
+  }
+
+  private MemcachedClient newClient(boolean coalesce) throws Exception {
+    return new MemcachedClient(new ConnectionFactoryBuilder()
+        .setProtocol(Protocol.BINARY).setFailureMode(FailureMode.Retry)
+        .setCoalesceGets(coalesce).build(),
+        Collections.singletonList(server.getAddress()));
+  }
+
+  public void testConcurrentGetsShareOneFetch() throws Exception {
+    assertTrue(client.set("k", 0, "v").get());
+    server.setLatency(200, TimeUnit.MILLISECONDS);
+    long requests = server.getRequestCount();
+    List<GetFuture<Object>> fs = new ArrayList<GetFuture<Object>>();
+    for (int i = 0; i < 50; i++) {
+      fs.add(client.asyncGet("k"));
+    }
+    for (GetFuture<Object> f : fs) {
+      assertEquals("v", f.get());
+      assertTrue(f.getStatus().isSuccess());
+    }
+    assertEquals(requests + 1, server.getRequestCount());
+    assertEquals(49, client.getCoalescedGetCount());
+  }
+
+  public void testMissIsShared() throws Exception {
+    server.setLatency(200, TimeUnit.MILLISECONDS);
+    List<GetFuture<Object>> fs = new ArrayList<GetFuture<Object>>();
+    for (int i = 0; i < 10; i++) {
+      fs.add(client.asyncGet("missing"));
+    }
+    for (GetFuture<Object> f : fs) {
+      assertNull(f.get());
+      assertFalse(f.getStatus().isSuccess());
+    }
+    assertEquals(9, client.getCoalescedGetCount());
+  }
+
+  public void testEachWaiterDecodesItsOwnValue() throws Exception {
+    assertTrue(client.set("k", 0, new ArrayList<String>()).get());
+    server.setLatency(100, TimeUnit.MILLISECONDS);
+    Future<Object> f1 = client.asyncGet("k");
+    Future<Object> f2 = client.asyncGet("k");
+    Object v1 = f1.get();
+    Object v2 = f2.get();
+    assertEquals(v1, v2);
+    assertNotSame(v1, v2);
+    assertEquals(1, client.getCoalescedGetCount());
+  }
+
+  public void testWriteStopsJoining() throws Exception {
+    assertTrue(client.set("k", 0, "v1").get());
+    server.setLatency(100, TimeUnit.MILLISECONDS);
+    Future<Object> before = client.asyncGet("k");
+    Future<Boolean> set = client.set("k", 0, "v2");
+    Future<Object> after = client.asyncGet("k");
+    assertEquals("v1", before.get());
+    assertTrue(set.get());
+    assertEquals("v2", after.get());
+    assertEquals(0, client.getCoalescedGetCount());
+  }
+
+  public void testBulkGetJoinsInFlightGet() throws Exception {
+    assertTrue(client.set("a", 0, "va").get());
+    assertTrue(client.set("b", 0, "vb").get());
+    server.setLatency(100, TimeUnit.MILLISECONDS);
+    Future<Object> single = client.asyncGet("a");
+    BulkFuture<Map<String, Object>> bulk =
+        client.asyncGetBulk(Arrays.asList("a", "b", "c"));
+    Future<Object> late = client.asyncGet("b");
+    Map<String, Object> m = bulk.get();
+    assertEquals(2, m.size());
+    assertEquals("va", m.get("a"));
+    assertEquals("vb", m.get("b"));
+    assertEquals("va", single.get());
+    assertEquals("vb", late.get());
+    assertEquals(2, client.getCoalescedGetCount());
+  }
+
+  public void testWaitersTimeOutOnTheirOwn() throws Exception {
+    assertTrue(client.set("k", 0, "v").get());
+    server.setLatency(500, TimeUnit.MILLISECONDS);
+    long requests = server.getRequestCount();
+    GetFuture<Object> impatient = client.asyncGet("k");
+    GetFuture<Object> patient = client.asyncGet("k");
+    try {
+      impatient.get(50, TimeUnit.MILLISECONDS);
+      fail("Expected a timeout");
+    } catch (CheckedOperationTimeoutException e) {
+      // expected
+    }
+    assertTrue(impatient.isDone());
+    assertEquals("v", patient.get(2, TimeUnit.SECONDS));
+    assertTrue(patient.getStatus().isSuccess());
+    try {
+      impatient.get();
+      fail("Expected the timed out get to stay timed out");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof CheckedOperationTimeoutException);
+    }
+    assertEquals(requests + 1, server.getRequestCount());
+    assertEquals(1, client.getCoalescedGetCount());
+  }
+
+  public void testCancelLeavesOtherWaiters() throws Exception {
+    assertTrue(client.set("k", 0, "v").get());
+    server.setLatency(200, TimeUnit.MILLISECONDS);
+    GetFuture<Object> f1 = client.asyncGet("k");
+    GetFuture<Object> f2 = client.asyncGet("k");
+    assertTrue(f1.cancel(true));
+    assertTrue(f1.isCancelled());
+    try {
+      f1.get();
+      fail("Expected the get to be cancelled");
+    } catch (ExecutionException e) {
+      assertEquals("Cancelled", e.getCause().getMessage());
+    }
+    assertEquals("v", f2.get(1, TimeUnit.SECONDS));
+    assertFalse(f2.isCancelled());
+  }
+
+  public void testLastWaiterCancelsFetch() throws Exception {
+    assertTrue(client.set("k", 0, "v").get());
+    server.setLatency(500, TimeUnit.MILLISECONDS);
+    GetFuture<Object> f1 = client.asyncGet("k");
+    GetFuture<Object> f2 = client.asyncGet("k");
+    assertTrue(f1.cancel(true));
+    assertTrue(f2.cancel(true));
+    // The fetch was given up on, so a new get doesn't join it.
+    server.setLatency(0, TimeUnit.MILLISECONDS);
+    assertEquals("v", client.get("k"));
+    assertEquals(1, client.getCoalescedGetCount());
+  }
+
+  public void testBulkCancelLeavesOtherWaiters() throws Exception {
+    assertTrue(client.set("a", 0, "va").get());
+    server.setLatency(200, TimeUnit.MILLISECONDS);
+    GetFuture<Object> single = client.asyncGet("a");
+    BulkFuture<Map<String, Object>> bulk =
+        client.asyncGetBulk(Arrays.asList("a", "b"));
+    bulk.cancel(true);
+    assertTrue(bulk.isDone());
+    try {
+      bulk.get();
+      fail("Expected the bulk get to be cancelled");
+    } catch (ExecutionException e) {
+      assertEquals("Cancelled", e.getCause().getMessage());
+    }
+    assertEquals("va", single.get(1, TimeUnit.SECONDS));
+  }
+
+  public void testDisabledByDefault() throws Exception {
+    client.shutdown();
+    client = newClient(false);
+    assertTrue(client.set("k", 0, "v").get());
+    Future<Object> f1 = client.asyncGet("k");
+    Future<Object> f2 = client.asyncGet("k");
+    assertEquals("v", f1.get());
+    assertEquals("v", f2.get());
+    assertEquals(0, client.getCoalescedGetCount());
+  }
+}
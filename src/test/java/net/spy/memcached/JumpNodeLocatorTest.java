@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Test the JumpNodeLocator.
+ */
+public class JumpNodeLocatorTest extends AbstractNodeLocationCase {
+
+  private static final int KEYS = 10000;
+
+  @Override
+  protected void setupNodes(int n) {
+    super.setupNodes(n);
+    locator = new JumpNodeLocator(Arrays.asList(nodes),
+        DefaultHashAlgorithm.MURMUR3_HASH);
+  }
+
+  public void testOneBucket() {
+    for (long k = 0; k < 1000; k++) {
+      assertEquals(0, JumpNodeLocator.jump(k, 1));
+    }
+  }
+
+  public void testGrowingOnlyMovesToNewBucket() {
+    for (long k = 0; k < 1000; k++) {
+      long key = DefaultHashAlgorithm.MURMUR3_HASH.hash("key" + k);
+      int b = JumpNodeLocator.jump(key, 1);
+      for (int n = 2; n <= 20; n++) {
+        int next = JumpNodeLocator.jump(key, n);
+        assertTrue(next == b || next == n - 1);
+        b = next;
+      }
+    }
+  }
+
+  public void testDistribution() {
+    setupNodes(10);
+    int[] counts = new int[nodes.length];
+    for (int i = 0; i < KEYS; i++) {
+      counts[Arrays.asList(nodes).indexOf(locator.getPrimary("key" + i))]++;
+    }
+    for (int c : counts) {
+      assertTrue("Uneven counts " + Arrays.toString(counts),
+          Math.abs(c - KEYS / nodes.length) < KEYS / nodes.length / 5);
+    }
+  }
+
+  public void testAppendingNode() {
+    setupNodes(5);
+    NodeLocator l = new JumpNodeLocator(Arrays.asList(nodes).subList(0, 4),
+        DefaultHashAlgorithm.MURMUR3_HASH);
+    MemcachedNode[] before = new MemcachedNode[KEYS];
+    for (int i = 0; i < KEYS; i++) {
+      before[i] = l.getPrimary("key" + i);
+    }
+    l.updateLocator(Arrays.asList(nodes), null);
+    int moved = 0;
+    for (int i = 0; i < KEYS; i++) {
+      MemcachedNode n = l.getPrimary("key" + i);
+      if (n != before[i]) {
+        assertSame(nodes[4], n);
+        moved++;
+      }
+    }
+    assertTrue("Moved " + moved, moved > KEYS / 10 && moved < KEYS * 3 / 10);
+  }
+
+  public void testPrimaryClone() {
+    setupNodes(4);
+    NodeLocator ro = locator.getReadonlyCopy();
+    for (int i = 0; i < 100; i++) {
+      assertEquals(locator.getPrimary("key" + i).toString(),
+          ro.getPrimary("key" + i).toString());
+    }
+  }
+
+  public void testSequence() {
+    setupNodes(4);
+    Set<MemcachedNode> all = new HashSet<MemcachedNode>(locator.getAll());
+    int n = 0;
+    for (Iterator<MemcachedNode> i = locator.getSequence("key"); i.hasNext();) {
+      assertTrue(all.contains(i.next()));
+      n++;
+    }
+    assertEquals(7, n);
+  }
+}
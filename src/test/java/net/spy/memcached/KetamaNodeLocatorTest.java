@@ -24,9 +24,16 @@
 package net.spy.memcached;
 
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+
+import net.spy.memcached.util.DefaultKetamaNodeLocatorConfiguration;
+import net.spy.memcached.util.KetamaNodeLocatorConfiguration;
 
 /**
  * Test ketama node location.
@@ -1794,4 +1801,156 @@ public class KetamaNodeLocatorTest extends AbstractNodeLocationCase {
     }
 
   }
+
+  private DefaultKetamaNodeLocatorConfiguration setupWeightedNodes(
+      HashAlgorithm alg, int... weights) {
+    super.setupNodes(weights.length);
+    Map<SocketAddress, Integer> w = new HashMap<SocketAddress, Integer>();
+    for (int i = 0; i < nodeMocks.length; i++) {
+      SocketAddress sa = InetSocketAddress.createUnresolved("127.0.0.1",
+          10000 + i);
+      nodeMocks[i].expects(atLeastOnce()).method("getSocketAddress")
+          .will(returnValue(sa));
+      w.put(sa, weights[i]);
+    }
+    DefaultKetamaNodeLocatorConfiguration conf =
+        new DefaultKetamaNodeLocatorConfiguration(w);
+    locator = new KetamaNodeLocator(Arrays.asList(nodes), alg, conf);
+    return conf;
+  }
+
+  private int[] countPoints() {
+    int[] rv = new int[nodes.length];
+    for (MemcachedNode n
+        : ((KetamaNodeLocator) locator).getKetamaNodes().values()) {
+      rv[Arrays.asList(nodes).indexOf(n)]++;
+    }
+    return rv;
+  }
+
+  public void testWeightedPoints() {
+    setupWeightedNodes(DefaultHashAlgorithm.KETAMA_HASH, 1, 1, 4, 4);
+    assertTrue(Arrays.equals(new int[] {64, 64, 256, 256}, countPoints()));
+
+    setupWeightedNodes(DefaultHashAlgorithm.FNV1A_32_HASH, 1, 3);
+    assertTrue(Arrays.equals(new int[] {80, 240}, countPoints()));
+  }
+
+  public void testWeightedShares() {
+    setupWeightedNodes(DefaultHashAlgorithm.KETAMA_HASH, 16, 16, 64, 64);
+    int[] counts = new int[nodes.length];
+    int keys = 100000;
+    for (int i = 0; i < keys; i++) {
+      MemcachedNode n = locator.getPrimary("key" + i);
+      counts[Arrays.asList(nodes).indexOf(n)]++;
+    }
+    double[] expected = {0.1, 0.1, 0.4, 0.4};
+    for (int i = 0; i < counts.length; i++) {
+      assertEquals("Share of node " + i, expected[i],
+          (double) counts[i] / keys, 0.04);
+    }
+  }
+
+  public void testEqualWeightsMatchUnweighted() {
+    setupWeightedNodes(DefaultHashAlgorithm.KETAMA_HASH, 5, 5, 5, 5);
+    assertEquals(new KetamaNodeLocator(Arrays.asList(nodes),
+        DefaultHashAlgorithm.KETAMA_HASH).getKetamaNodes(),
+        ((KetamaNodeLocator) locator).getKetamaNodes());
+  }
+
+  public void testReweight() {
+    DefaultKetamaNodeLocatorConfiguration conf =
+        setupWeightedNodes(DefaultHashAlgorithm.KETAMA_HASH, 1, 1);
+    assertTrue(Arrays.equals(new int[] {160, 160}, countPoints()));
+
+    conf.setNodeWeights(Collections.singletonMap(
+        nodes[1].getSocketAddress(), 3));
+    assertTrue(Arrays.equals(new int[] {160, 160}, countPoints()));
+    ((KetamaNodeLocator) locator).reweight();
+    assertTrue(Arrays.equals(new int[] {80, 240}, countPoints()));
+    assertEquals(1, conf.getNodeWeight(nodes[0]));
+  }
+
+  public void testInvalidWeight() {
+    try {
+      new DefaultKetamaNodeLocatorConfiguration(Collections.singletonMap(
+          InetSocketAddress.createUnresolved("127.0.0.1", 11211), 0));
+      fail("Expected a bad weight to be refused");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  public void testMaxBytesWeights() {
+    SocketAddress small = InetSocketAddress.createUnresolved("10.0.1.1",
+        11211);
+    SocketAddress medium = InetSocketAddress.createUnresolved("10.0.1.2",
+        11211);
+    SocketAddress large = InetSocketAddress.createUnresolved("10.0.1.3",
+        11211);
+    SocketAddress unknown = InetSocketAddress.createUnresolved("10.0.1.4",
+        11211);
+    SocketAddress missing = InetSocketAddress.createUnresolved("10.0.1.5",
+        11211);
+    Map<SocketAddress, Map<String, String>> stats =
+        new HashMap<SocketAddress, Map<String, String>>();
+    stats.put(small, Collections.singletonMap("limit_maxbytes",
+        String.valueOf(16L << 30)));
+    stats.put(medium, Collections.singletonMap("limit_maxbytes",
+        String.valueOf(32L << 30)));
+    stats.put(large, Collections.singletonMap("limit_maxbytes",
+        String.valueOf(64L << 30)));
+    stats.put(unknown, Collections.<String, String>emptyMap());
+
+    Map<SocketAddress, Integer> w =
+        DefaultKetamaNodeLocatorConfiguration.getMaxBytesWeights(stats,
+            Arrays.asList(small, medium, large, unknown, missing));
+    assertEquals(5, w.size());
+    assertEquals(16384, (int) w.get(small));
+    assertEquals(32768, (int) w.get(medium));
+    assertEquals(65536, (int) w.get(large));
+    // Servers without a limit get the median.
+    assertEquals(32768, (int) w.get(unknown));
+    assertEquals(32768, (int) w.get(missing));
+  }
+
+  public void testMaxBytesWeightsWithoutStats() {
+    SocketAddress sa = InetSocketAddress.createUnresolved("10.0.1.1", 11211);
+    assertTrue(DefaultKetamaNodeLocatorConfiguration.getMaxBytesWeights(
+        Collections.singletonMap(sa, Collections.<String, String>emptyMap()),
+        Collections.singletonList(sa)).isEmpty());
+  }
+
+  public void testSetNodeWeights() {
+    setupWeightedNodes(DefaultHashAlgorithm.KETAMA_HASH, 1, 1);
+    ((KetamaNodeLocator) locator).setNodeWeights(Collections.singletonMap(
+        nodes[0].getSocketAddress(), 3));
+    assertTrue(Arrays.equals(new int[] {240, 80}, countPoints()));
+  }
+
+  public void testSetNodeWeightsNeedsDefaultConfiguration() {
+    setupNodes(DefaultHashAlgorithm.KETAMA_HASH, 2);
+    KetamaNodeLocator l = new KetamaNodeLocator(Arrays.asList(nodes),
+        DefaultHashAlgorithm.KETAMA_HASH,
+        new KetamaNodeLocatorConfiguration() {
+          public int getNodeRepetitions() {
+            return 160;
+          }
+
+          public String getKeyForNode(MemcachedNode node, int repetition) {
+            return node.getSocketAddress() + "-" + repetition;
+          }
+
+          public int getNodeWeight(MemcachedNode node) {
+            return 1;
+          }
+        });
+    try {
+      l.setNodeWeights(Collections.singletonMap(
+          nodes[0].getSocketAddress(), 3));
+      fail("Expected a custom configuration to refuse weights");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+  }
 }
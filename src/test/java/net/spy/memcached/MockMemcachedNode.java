@@ -95,6 +95,10 @@ public class MockMemcachedNode implements MemcachedNode {
     return null;
   }
 
+  public Operation getReadOpFor(ByteBuffer rbuf) {
+    return null;
+  }
+
   public Operation getCurrentWriteOp() {
     return null;
   }
@@ -195,6 +199,10 @@ public class MockMemcachedNode implements MemcachedNode {
     return 0;
   }
 
+  public int getOutstandingOps() {
+    return 0;
+  }
+
   public void setContinuousTimeout(boolean timedOut) {
     // noop
   }
@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
+import net.spy.memcached.server.FakeMemcachedServer;
+
+/**
+ * Test the near cache decorator against an in-process server.
+ */
+public class NearCacheMemcachedClientTest extends TestCase {
+
+  private FakeMemcachedServer server;
+  private MemcachedClient memcached;
+  private NearCacheMemcachedClient client;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    server = new FakeMemcachedServer();
+    memcached = new MemcachedClient(new ConnectionFactoryBuilder()
+        .setProtocol(Protocol.BINARY).setFailureMode(FailureMode.Retry)
+        .build(), Collections.singletonList(server.getAddress()));
+    client = new NearCacheMemcachedClient(memcached,
+        new NearCache(1024 * 1024, 1, TimeUnit.HOURS));
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    client.shutdown();
+    server.shutdown();
+    super.tearDown();
+  }
+
+  public void testRepeatedGetsStayLocal() throws Exception {
+    assertTrue(client.set("k", 0, "v").get());
+    assertEquals("v", client.get("k"));
+    long requests = server.getRequestCount();
+    for (int i = 0; i < 100; i++) {
+      assertEquals("v", client.get("k"));
+      assertEquals("v", client.asyncGet("k").get());
+    }
+    assertEquals(requests, server.getRequestCount());
+    assertEquals(200, client.getNearCache().getHitCount());
+  }
+
+  public void testMissesAreNotCached() throws Exception {
+    assertNull(client.get("missing"));
+    assertNull(client.get("missing"));
+    assertEquals(0, client.getNearCache().size());
+  }
+
+  public void testLocalWritesInvalidate() throws Exception {
+    assertTrue(client.set("k", 0, "v1").get());
+    assertEquals("v1", client.get("k"));
+    assertTrue(client.set("k", 0, "v2").get());
+    assertEquals("v2", client.get("k"));
+    assertTrue(client.append(0, "k", "x").get());
+    assertEquals("v2x", client.get("k"));
+    CASValue<Object> cv = client.gets("k");
+    assertSame(CASResponse.OK, client.cas("k", cv.getCas(), "v3"));
+    assertEquals("v3", client.get("k"));
+    assertTrue(client.delete("k").get());
+    assertNull(client.get("k"));
+  }
+
+  public void testGetRacingWriteKeepsNothingStale() throws Exception {
+    // Another thread's get lands after the near cache has seen each write
+    // but before the write reaches the client underneath.
+    InvocationHandler h = new InvocationHandler() {
+      public Object invoke(Object proxy, Method m, Object[] args)
+        throws Throwable {
+        if (!m.getName().startsWith("get") && args != null
+            && args.length > 0 && "k".equals(args[0])) {
+          client.get("k");
+        }
+        try {
+          return m.invoke(memcached, args);
+        } catch (InvocationTargetException e) {
+          throw e.getCause();
+        }
+      }
+    };
+    client = new NearCacheMemcachedClient((MemcachedClientIF) Proxy
+        .newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[] {MemcachedClientIF.class}, h),
+        client.getNearCache(), 5000);
+    assertTrue(memcached.set("k", 0, "v1").get());
+    assertTrue(client.set("k", 0, "v2").get());
+    assertEquals("v2", client.get("k"));
+    assertTrue(client.append(0, "k", "x").get());
+    assertEquals("v2x", client.get("k"));
+    assertTrue(client.set("k", 0, "v3").get());
+    assertEquals("v3", client.get("k"));
+    assertTrue(client.delete("k").get());
+    assertNull(client.get("k"));
+  }
+
+  public void testOtherWritersAreSeenAfterTtl() throws Exception {
+    client = new NearCacheMemcachedClient(memcached,
+        new NearCache(1024 * 1024, 100, TimeUnit.MILLISECONDS));
+    assertTrue(client.set("k", 0, "v1").get());
+    assertEquals("v1", client.get("k"));
+    assertTrue(memcached.set("k", 0, "v2").get());
+    assertEquals("v1", client.get("k"));
+    Thread.sleep(200);
+    assertEquals("v2", client.get("k"));
+  }
+
+  public void testBulkGetMergesLocalAndRemote() throws Exception {
+    for (int i = 0; i < 10; i++) {
+      assertTrue(client.set("k" + i, 0, "v" + i).get());
+    }
+    for (int i = 0; i < 5; i++) {
+      assertEquals("v" + i, client.get("k" + i));
+    }
+    long requests = server.getRequestCount();
+    Map<String, Object> m = client.getBulk("k0", "k1", "k2", "k3", "k4", "k5",
+        "k6", "k7", "k8", "k9", "missing");
+    assertEquals(10, m.size());
+    for (int i = 0; i < 10; i++) {
+      assertEquals("v" + i, m.get("k" + i));
+    }
+    assertTrue(server.getRequestCount() > requests);
+
+    // Everything found is now local.
+    requests = server.getRequestCount();
+    m = client.getBulk(Arrays.asList("k0", "k5", "k9"));
+    assertEquals(3, m.size());
+    assertEquals(requests, server.getRequestCount());
+    assertTrue(client.asyncGetBulk("k0", "k5").getStatus().isSuccess());
+  }
+
+  public void testFlushClears() throws Exception {
+    assertTrue(client.set("k", 0, "v").get());
+    assertEquals("v", client.get("k"));
+    assertTrue(client.flush().get());
+    assertEquals(0, client.getNearCache().size());
+    assertNull(client.get("k"));
+  }
+}
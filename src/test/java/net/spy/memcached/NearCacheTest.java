@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the near cache on its own.
+ */
+public class NearCacheTest extends TestCase {
+
+  private static final Object OWNER = new Object();
+
+  private NearCache cache;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    // One segment so the byte bound is exact.
+    cache = new NearCache(1000, 1, TimeUnit.HOURS, 1);
+  }
+
+  private void load(String key, Object value, int size) {
+    assertTrue(cache.put(key, OWNER, value, size, cache.startLoad(key)));
+  }
+
+  public void testHitAndMiss() {
+    assertNull(cache.get("k", OWNER));
+    load("k", "v", 1);
+    assertEquals("v", cache.get("k", OWNER));
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+  }
+
+  public void testOtherOwnerMisses() {
+    load("k", "v", 1);
+    assertNull(cache.get("k", new Object()));
+  }
+
+  public void testInvalidate() {
+    load("k", "v", 1);
+    cache.invalidate("k");
+    assertNull(cache.get("k", OWNER));
+    assertEquals(0, cache.size());
+    assertEquals(1, cache.getInvalidationCount());
+  }
+
+  public void testLoadRacingInvalidationIsDropped() {
+    long stamp = cache.startLoad("k");
+    cache.invalidate("k");
+    assertFalse(cache.put("k", OWNER, "stale", 1, stamp));
+    assertNull(cache.get("k", OWNER));
+  }
+
+  public void testEvictsLeastRecentlyUsed() {
+    // Each entry weighs 180 + 2 + overhead, so four fit.
+    for (int i = 0; i < 4; i++) {
+      load("k" + i, "v" + i, 180);
+    }
+    assertEquals(4, cache.size());
+    // Touch k0 so that k1 is the eldest.
+    assertNotNull(cache.get("k0", OWNER));
+    load("k4", "v4", 180);
+    assertEquals(4, cache.size());
+    assertEquals(1, cache.getEvictionCount());
+    assertNull(cache.get("k1", OWNER));
+    assertNotNull(cache.get("k0", OWNER));
+    assertTrue(cache.getWeight() <= 1000);
+  }
+
+  public void testTooBigIsNotCached() {
+    assertFalse(cache.put("k", OWNER, "v", 2000, cache.startLoad("k")));
+    assertEquals(0, cache.size());
+  }
+
+  public void testTtl() throws Exception {
+    cache = new NearCache(1000, 50, TimeUnit.MILLISECONDS, 1);
+    load("k", "v", 1);
+    assertEquals("v", cache.get("k", OWNER));
+    Thread.sleep(100);
+    assertNull(cache.get("k", OWNER));
+    assertEquals(1, cache.getExpirationCount());
+  }
+
+  public void testServerExpirationCapsTtl() throws Exception {
+    cache.invalidate("k", 1);
+    load("k", "v", 1);
+    assertEquals("v", cache.get("k", OWNER));
+    Thread.sleep(1100);
+    assertNull(cache.get("k", OWNER));
+  }
+
+  public void testStoreWithoutExpirationForgetsOldOne() throws Exception {
+    cache.invalidate("k", 1);
+    cache.invalidate("k", 0);
+    load("k", "v", 1);
+    Thread.sleep(1100);
+    assertEquals("v", cache.get("k", OWNER));
+  }
+
+  public void testClear() {
+    load("k", "v", 1);
+    long stamp = cache.startLoad("j");
+    cache.clear();
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.getWeight());
+    assertFalse(cache.put("j", OWNER, "v", 1, stamp));
+  }
+}
@@ -29,20 +29,28 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import net.spy.memcached.compat.SyncThread;
 import net.spy.memcached.internal.BulkFuture;
+import net.spy.memcached.internal.FutureListener;
 import net.spy.memcached.internal.GetFuture;
 import net.spy.memcached.internal.OperationFuture;
 import net.spy.memcached.ops.OperationErrorType;
 import net.spy.memcached.ops.OperationException;
+import net.spy.memcached.ops.OperationStatus;
 import net.spy.memcached.transcoders.SerializingTranscoder;
 import net.spy.memcached.transcoders.Transcoder;
 
@@ -494,6 +502,131 @@ public abstract class ProtocolBaseCase extends ClientBaseCase {
     }
   }
 
+  public void testFutureListeners() throws Exception {
+    final CountDownLatch done = new CountDownLatch(3);
+    final Collection<Object> results = new ConcurrentLinkedQueue<Object>();
+    FutureListener<Object> l = new FutureListener<Object>() {
+      public void onComplete(Future<? extends Object> f) throws Exception {
+        results.add(f.get());
+        done.countDown();
+      }
+    };
+    ExecutorService exec = Executors.newSingleThreadExecutor();
+    try {
+      OperationFuture<Boolean> sf = client.set("listened", 5, "val");
+      sf.addListener(exec, l);
+      assertTrue(sf.get());
+      client.asyncGet("listened").addListener(exec, l);
+      client.asyncGetBulk("listened", "missing").addListener(exec, l);
+      assertTrue(done.await(5, TimeUnit.SECONDS));
+    } finally {
+      exec.shutdown();
+    }
+    assertTrue(results.contains(Boolean.TRUE));
+    assertTrue(results.contains("val"));
+    assertTrue(results.contains(Collections.singletonMap("listened", "val")));
+  }
+
+  public void testStreamingGetBulk() throws Exception {
+    client.set("test1", 5, "val1");
+    client.set("test2", 5, "val2");
+    final Map<String, Object> vals = new ConcurrentHashMap<String, Object>();
+    final Collection<SocketAddress> done =
+        new ConcurrentLinkedQueue<SocketAddress>();
+    Future<Boolean> f = client.asyncGetBulk(
+        Arrays.asList("test1", "test2", "test3"),
+        new BulkGetCallback<Object>() {
+          public void gotValue(String key, Object value) {
+            vals.put(key, value);
+          }
+
+          public void serverComplete(SocketAddress server,
+              OperationStatus status) {
+            assertTrue(status.isSuccess());
+            done.add(server);
+          }
+        });
+    assertTrue(f.get());
+    assertEquals(2, vals.size());
+    assertEquals("val1", vals.get("test1"));
+    assertEquals("val2", vals.get("test2"));
+    assertFalse(done.isEmpty());
+  }
+
+  public void testStreamingGetBulkSurvivesCallbackFailure() throws Exception {
+    Transcoder<String> t = new TestTranscoder();
+    client.set("test1", 5, "val1", t);
+    client.set("test2", 5, "val2", t);
+    final Collection<String> got = new ConcurrentLinkedQueue<String>();
+    Future<Boolean> f = client.asyncGetBulk(Arrays.asList("test1", "test2"),
+        t, new BulkGetCallback<String>() {
+          public void gotValue(String key, String value) {
+            if (key.equals("test1")) {
+              throw new RuntimeException("Intentional failure");
+            }
+            got.add(value);
+          }
+
+          public void serverComplete(SocketAddress server,
+              OperationStatus status) {
+            // Nothing to do.
+          }
+        });
+    assertTrue(f.get());
+    assertEquals(Collections.singletonList("val2"),
+        new ArrayList<String>(got));
+  }
+
+  public void testSetBulk() throws Exception {
+    Map<String, Object> values = new HashMap<String, Object>();
+    for (int i = 0; i < 100; i++) {
+      values.put("bulk" + i, "val" + i);
+    }
+    BulkFuture<Map<String, Boolean>> f = client.asyncSetBulk(values, 5);
+    assertTrue(f.get().isEmpty());
+    assertTrue(f.getStatus().isSuccess());
+    assertEquals(values, client.getBulk(values.keySet()));
+  }
+
+  public void testSetBulkWithTranscoder() throws Exception {
+    Transcoder<String> t = new TestTranscoder();
+    Map<String, String> values = new HashMap<String, String>();
+    values.put("test1", "val1");
+    values.put("test2", "val2");
+    assertTrue(client.asyncSetBulk(values, 5, t).get().isEmpty());
+    assertEquals(values, client.getBulk(values.keySet(), t));
+  }
+
+  public void testAddBulk() throws Exception {
+    assertTrue(client.set("test1", 5, "old").get());
+    Map<String, Object> values = new HashMap<String, Object>();
+    values.put("test1", "val1");
+    values.put("test2", "val2");
+    values.put("test3", "val3");
+    BulkFuture<Map<String, Boolean>> f = client.asyncAddBulk(values, 5);
+    assertEquals(Collections.singletonMap("test1", Boolean.FALSE), f.get());
+    assertFalse(f.getStatus().isSuccess());
+    assertEquals("old", client.get("test1"));
+    assertEquals("val2", client.get("test2"));
+    assertEquals("val3", client.get("test3"));
+  }
+
+  public void testReplaceBulk() throws Exception {
+    assertTrue(client.set("test1", 5, "old").get());
+    Map<String, Object> values = new HashMap<String, Object>();
+    values.put("test1", "val1");
+    values.put("test2", "val2");
+    assertEquals(Collections.singletonMap("test2", Boolean.FALSE),
+        client.asyncReplaceBulk(values, 5).get());
+    assertEquals("val1", client.get("test1"));
+    assertNull(client.get("test2"));
+  }
+
+  public void testSetBulkEmpty() throws Exception {
+    Map<String, Object> values = Collections.emptyMap();
+    assertTrue(client.asyncSetBulk(values, 5).get().isEmpty());
+  }
+
   public void testAvailableServers() {
     client.getVersions();
     assertEquals(new ArrayList<String>(
@@ -566,6 +699,22 @@ public abstract class ProtocolBaseCase extends ClientBaseCase {
     assertEquals(-1, (long) f.get());
   }
 
+  public void testIncrAndDecrBulk() throws Exception {
+    assertEquals(10, client.incr("mtest1", 1, 10));
+    assertEquals(20, client.incr("mtest2", 1, 20));
+    Collection<String> keys = Arrays.asList("mtest1", "mtest2", "mtest3");
+    BulkFuture<Map<String, Boolean>> f = client.asyncIncrBulk(keys, 5);
+    assertEquals(Collections.singletonMap("mtest3", Boolean.FALSE), f.get());
+    assertFalse(f.getStatus().isSuccess());
+    assertEquals(15, client.incr("mtest1", 0));
+    assertEquals(25, client.incr("mtest2", 0));
+    assertEquals(Collections.singletonMap("mtest3", Boolean.FALSE),
+        client.asyncDecrBulk(keys, 3).get());
+    assertEquals(12, client.incr("mtest1", 0));
+    assertEquals(22, client.incr("mtest2", 0));
+    assertNull(client.get("mtest3"));
+  }
+
   public void testConcurrentMutation() throws Throwable {
     int num = SyncThread.getDistinctResultCount(10, new Callable<Long>() {
       public Long call() throws Exception {
@@ -583,6 +732,15 @@ public abstract class ProtocolBaseCase extends ClientBaseCase {
     assertNull(client.get("test1"));
   }
 
+  public void testDeleteBulk() throws Exception {
+    client.set("test1", 5, "test1value");
+    client.set("test2", 5, "test2value");
+    Collection<String> keys = Arrays.asList("test1", "test2", "test3");
+    assertEquals(Collections.singletonMap("test3", Boolean.FALSE),
+        client.asyncDeleteBulk(keys).get());
+    assertEquals(0, client.getBulk(keys).size());
+  }
+
   public void testFlush() throws Exception {
     assertNull(client.get("test1"));
     client.set("test1", 5, "test1value");
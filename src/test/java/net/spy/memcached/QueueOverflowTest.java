@@ -37,6 +37,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import net.spy.memcached.ops.Operation;
+import net.spy.memcached.server.FakeMemcachedServer;
 
 /**
  * Test queue overflow.
@@ -126,6 +127,22 @@ public class QueueOverflowTest extends ClientBaseCase {
   }
 
   public void testOverflowingReadQueue() throws Exception {
+    // The fake server answers faster than the gets can pile up unless it's
+    // held back.
+    FakeMemcachedServer server = TestConfig.getFakeServer();
+    if (server != null) {
+      server.setLatency(100, TimeUnit.MILLISECONDS);
+    }
+    try {
+      overflowReadQueue();
+    } finally {
+      if (server != null) {
+        server.setLatency(0, TimeUnit.MILLISECONDS);
+      }
+    }
+  }
+
+  private void overflowReadQueue() throws Exception {
     byte[] b = new byte[8192];
     Random r = new Random();
     r.nextBytes(b);
@@ -0,0 +1,190 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Test the RendezvousNodeLocator.
+ */
+public class RendezvousNodeLocatorTest extends AbstractNodeLocationCase {
+
+  private static final int KEYS = 10000;
+
+  private InetSocketAddress[] addrs;
+
+  @Override
+  protected void setupNodes(int n) {
+    super.setupNodes(n);
+    addrs = new InetSocketAddress[n];
+    for (int i = 0; i < nodeMocks.length; i++) {
+      addrs[i] = InetSocketAddress.createUnresolved("127.0.0.1", 10000 + i);
+      nodeMocks[i].expects(atLeastOnce()).method("getSocketAddress")
+          .will(returnValue(addrs[i]));
+    }
+    locator = new RendezvousNodeLocator(Arrays.asList(nodes),
+        DefaultHashAlgorithm.MURMUR3_HASH);
+  }
+
+  private int[] countPrimaries(NodeLocator l) {
+    int[] counts = new int[nodes.length];
+    for (int i = 0; i < KEYS; i++) {
+      counts[Arrays.asList(nodes).indexOf(l.getPrimary("key" + i))]++;
+    }
+    return counts;
+  }
+
+  public void testDistribution() {
+    setupNodes(10);
+    int[] counts = countPrimaries(locator);
+    for (int c : counts) {
+      assertTrue("Uneven counts " + Arrays.toString(counts),
+          Math.abs(c - KEYS / nodes.length) < KEYS / nodes.length / 5);
+    }
+  }
+
+  public void testWeights() {
+    setupNodes(4);
+    NodeLocator l = new RendezvousNodeLocator(Arrays.asList(nodes),
+        DefaultHashAlgorithm.MURMUR3_HASH,
+        Collections.singletonMap(addrs[0], 3));
+    int[] counts = countPrimaries(l);
+    // Node 0 should have 3 of every 6 keys, the others 1 each.
+    assertTrue("Counts " + Arrays.toString(counts),
+        Math.abs(counts[0] - KEYS / 2) < KEYS / 20);
+    for (int i = 1; i < counts.length; i++) {
+      assertTrue("Counts " + Arrays.toString(counts),
+          Math.abs(counts[i] - KEYS / 6) < KEYS / 30);
+    }
+  }
+
+  public void testSetNodeWeights() {
+    setupNodes(4);
+    ((RendezvousNodeLocator) locator).setNodeWeights(
+        Collections.singletonMap(addrs[0], 3));
+    int[] counts = countPrimaries(locator);
+    assertTrue("Counts " + Arrays.toString(counts),
+        Math.abs(counts[0] - KEYS / 2) < KEYS / 20);
+    // Dropping the weight spreads the keys out again.
+    ((RendezvousNodeLocator) locator).setNodeWeights(
+        Collections.<InetSocketAddress, Integer>emptyMap());
+    int[] even = countPrimaries(locator);
+    for (int i = 1; i < counts.length; i++) {
+      assertTrue("Counts " + Arrays.toString(even), even[i] > counts[i]);
+    }
+  }
+
+  public void testInvalidWeight() {
+    setupNodes(2);
+    try {
+      new RendezvousNodeLocator(Arrays.asList(nodes),
+          DefaultHashAlgorithm.MURMUR3_HASH,
+          Collections.singletonMap(addrs[1], 0));
+      fail("Expected a bad weight to be refused");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  public void testAddingNode() {
+    setupNodes(5);
+    NodeLocator l = new RendezvousNodeLocator(
+        Arrays.asList(nodes).subList(0, 4), DefaultHashAlgorithm.MURMUR3_HASH);
+    MemcachedNode[] before = new MemcachedNode[KEYS];
+    for (int i = 0; i < KEYS; i++) {
+      before[i] = l.getPrimary("key" + i);
+    }
+    l.updateLocator(Arrays.asList(nodes), null);
+    int moved = 0;
+    for (int i = 0; i < KEYS; i++) {
+      MemcachedNode n = l.getPrimary("key" + i);
+      if (n != before[i]) {
+        assertSame(nodes[4], n);
+        moved++;
+      }
+    }
+    assertTrue("Moved " + moved, moved > KEYS / 10 && moved < KEYS * 3 / 10);
+  }
+
+  public void testRemovingNode() {
+    setupNodes(5);
+    MemcachedNode[] before = new MemcachedNode[KEYS];
+    for (int i = 0; i < KEYS; i++) {
+      before[i] = locator.getPrimary("key" + i);
+    }
+    List<MemcachedNode> rest = new ArrayList<MemcachedNode>(
+        Arrays.asList(nodes));
+    rest.remove(2);
+    locator.updateLocator(rest, null);
+    for (int i = 0; i < KEYS; i++) {
+      if (before[i] != nodes[2]) {
+        assertSame(before[i], locator.getPrimary("key" + i));
+      }
+    }
+  }
+
+  public void testSequence() {
+    setupNodes(5);
+    for (int k = 0; k < 100; k++) {
+      String key = "key" + k;
+      MemcachedNode primary = locator.getPrimary(key);
+      Set<MemcachedNode> seen = new HashSet<MemcachedNode>();
+      Iterator<MemcachedNode> i = locator.getSequence(key);
+      MemcachedNode first = i.next();
+      seen.add(first);
+      while (i.hasNext()) {
+        assertTrue(seen.add(i.next()));
+      }
+      assertEquals(4, seen.size());
+      assertFalse(seen.contains(primary));
+      // The first backup is where the key goes without its primary.
+      List<MemcachedNode> rest = new ArrayList<MemcachedNode>(
+          Arrays.asList(nodes));
+      rest.remove(primary);
+      NodeLocator l = new RendezvousNodeLocator(rest,
+          DefaultHashAlgorithm.MURMUR3_HASH);
+      assertSame(first, l.getPrimary(key));
+    }
+  }
+
+  public void testPrimaryClone() {
+    setupNodes(4);
+    NodeLocator ro = locator.getReadonlyCopy();
+    for (int i = 0; i < 100; i++) {
+      assertEquals(locator.getPrimary("key" + i).toString(),
+          ro.getPrimary("key" + i).toString());
+    }
+  }
+
+  public void testSeqOnlyOneServer() {
+    setupNodes(1);
+    assertSequence("key");
+  }
+}
@@ -22,6 +22,11 @@
 
 package net.spy.memcached;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import net.spy.memcached.server.FakeMemcachedServer;
+
 /**
  * A testConfig.
  */
@@ -32,6 +37,7 @@ public final class TestConfig {
   public static final String TYPE_MEMCACHED = "memcached";
   public static final String TYPE_MEMBASE = "membase";
   public static final String TYPE_COUCHBASE = "couchbase";
+  public static final String TYPE_FAKE = "fake";
 
   public static final String IPV4_ADDR = System.getProperty(IPV4_PROP,
       "127.0.0.1");
@@ -39,6 +45,8 @@ public final class TestConfig {
   public static final String TYPE = System.getProperty(TYPE_PROP,
       TYPE_MEMCACHED).toLowerCase();
 
+  private static final FakeMemcachedServer FAKE_SERVER = startFakeServer();
+
   private TestConfig() {
     // Empty
   }
@@ -54,6 +62,18 @@ public final class TestConfig {
     return ipv6;
   }
 
+  private static FakeMemcachedServer startFakeServer() {
+    if (!isFake()) {
+      return null;
+    }
+    try {
+      // Listen on every interface so the IPv6 tests can reach it too.
+      return new FakeMemcachedServer(new InetSocketAddress(11211));
+    } catch (IOException e) {
+      throw new RuntimeException("Couldn't start the fake server", e);
+    }
+  }
+
   public static boolean defaultToIPV4() {
     if (("::ffff:" + IPV4_ADDR).equals(IPV6_ADDR)) {
       return true;
@@ -72,4 +92,16 @@ public final class TestConfig {
   public static boolean isCouchbase() {
     return TYPE.equals(TYPE_COUCHBASE);
   }
+
+  public static boolean isFake() {
+    return TYPE.equals(TYPE_FAKE);
+  }
+
+  /**
+   * Get the in-process server the tests run against, or null unless the
+   * server type is fake.
+   */
+  public static FakeMemcachedServer getFakeServer() {
+    return FAKE_SERVER;
+  }
 }
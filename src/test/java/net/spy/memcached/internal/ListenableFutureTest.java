@@ -0,0 +1,179 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.protocol.binary.BinaryOperationFactory;
+
+/**
+ * Test the listener support on the client futures.
+ */
+public class ListenableFutureTest extends TestCase {
+
+  private static final Executor DIRECT = new Executor() {
+    public void execute(Runnable r) {
+      r.run();
+    }
+  };
+
+  private List<Future<?>> fired;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    fired = Collections.synchronizedList(new ArrayList<Future<?>>());
+  }
+
+  private FutureListener<Object> recorder() {
+    return new FutureListener<Object>() {
+      public void onComplete(Future<? extends Object> f) {
+        fired.add(f);
+      }
+    };
+  }
+
+  public void testListenerAddedBeforeCompletion() {
+    CountDownLatch latch = new CountDownLatch(1);
+    OperationFuture<String> f =
+        new OperationFuture<String>("k", latch, 1000);
+    f.addListener(DIRECT, recorder());
+    f.signalComplete();
+    assertTrue(fired.isEmpty());
+
+    latch.countDown();
+    f.signalComplete();
+    f.signalComplete();
+    assertEquals(1, fired.size());
+    assertSame(f, fired.get(0));
+  }
+
+  public void testListenerAddedAfterCompletion() {
+    ImmediateFuture f = new ImmediateFuture(true);
+    f.addListener(DIRECT, recorder());
+    assertEquals(1, fired.size());
+    assertSame(f, fired.get(0));
+  }
+
+  public void testEmptyBulkCompletesImmediately() {
+    BulkGetFuture<String> f = new BulkGetFuture<String>(
+        new HashMap<String, Future<String>>(),
+        new ArrayList<Operation>(),
+        new CountDownLatch(0));
+    f.addListener(DIRECT, recorder());
+    assertEquals(1, fired.size());
+  }
+
+  public void testListenerOnTimedOutOperation() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+    final OperationFuture<Boolean> f =
+        new OperationFuture<Boolean>("k", latch, 10);
+    Operation op = new BinaryOperationFactory().delete("k",
+        new OperationCallback() {
+          public void receivedStatus(OperationStatus status) {
+            f.set(status.isSuccess(), status);
+          }
+
+          public void complete() {
+            latch.countDown();
+            f.signalComplete();
+          }
+        });
+    f.setOperation(op);
+    f.addListener(DIRECT, recorder());
+
+    // Nothing completes an unanswered operation by itself...
+    Thread.sleep(50);
+    assertTrue(fired.isEmpty());
+
+    // ...until it is timed out, as the IO threads do with proactive
+    // timeouts.
+    op.timeOut();
+    assertEquals(1, fired.size());
+    assertTrue(f.isDone());
+    assertFalse(f.getStatus().isSuccess());
+    try {
+      f.get();
+      fail("Expected a timeout");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof CheckedOperationTimeoutException);
+    }
+  }
+
+  public void testStreamingFailureIsKept() throws Exception {
+    for (int round = 0; round < 100; round++) {
+      final StreamingGetFuture f = new StreamingGetFuture(
+          Collections.<Operation>emptyList(), new CountDownLatch(0));
+      final CountDownLatch start = new CountDownLatch(1);
+      Thread[] servers = new Thread[4];
+      for (int i = 0; i < servers.length; i++) {
+        final boolean ok = i != 0;
+        servers[i] = new Thread() {
+          @Override
+          public void run() {
+            try {
+              start.await();
+            } catch (InterruptedException e) {
+              return;
+            }
+            f.setStatus(new OperationStatus(ok, ok ? "END" : "Failed"));
+          }
+        };
+        servers[i].start();
+      }
+      start.countDown();
+      for (Thread t : servers) {
+        t.join();
+      }
+      assertFalse("Failure lost in round " + round, f.get());
+      assertEquals("Failed", f.getStatus().getMessage());
+    }
+  }
+
+  public void testFailingListener() {
+    CountDownLatch latch = new CountDownLatch(1);
+    OperationFuture<String> f =
+        new OperationFuture<String>("k", latch, 1000);
+    f.addListener(DIRECT, new FutureListener<String>() {
+      public void onComplete(Future<? extends String> future)
+        throws Exception {
+        throw new Exception("Intentional failure");
+      }
+    });
+    f.addListener(DIRECT, recorder());
+    latch.countDown();
+    f.signalComplete();
+    assertEquals(1, fired.size());
+  }
+}
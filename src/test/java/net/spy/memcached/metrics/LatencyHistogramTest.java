@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.metrics;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the latency histogram.
+ */
+public class LatencyHistogramTest extends TestCase {
+
+  public void testEmpty() {
+    LatencyHistogram h = new LatencyHistogram();
+    assertEquals(0, h.getCount());
+    assertEquals(0, h.getMax());
+    assertEquals(0.0, h.getMean());
+    assertEquals(0, h.getValueAtPercentile(50));
+    assertEquals(0, h.getValueAtPercentile(100));
+  }
+
+  public void testSmallValuesAreExact() {
+    LatencyHistogram h = new LatencyHistogram();
+    for (int i = 0; i < 64; i++) {
+      h.record(i);
+    }
+    assertEquals(64, h.getCount());
+    assertEquals(63, h.getMax());
+    assertEquals(31.5, h.getMean());
+    assertEquals(0, h.getValueAtPercentile(0));
+    assertEquals(31, h.getValueAtPercentile(50));
+    assertEquals(63, h.getValueAtPercentile(100));
+  }
+
+  public void testBucketsAreContiguous() {
+    LatencyHistogram h = new LatencyHistogram(3);
+    int last = -1;
+    for (long v = 0; v < 100000; v++) {
+      int idx = h.indexOf(v);
+      assertTrue("Index went backwards at " + v, idx >= last);
+      assertTrue("Skipped an index at " + v, idx <= last + 1);
+      assertTrue(h.highestEquivalentValue(idx) >= v);
+      last = idx;
+    }
+  }
+
+  public void testRelativeError() {
+    LatencyHistogram h = new LatencyHistogram();
+    Random r = new Random(42);
+    for (int i = 0; i < 10000; i++) {
+      long v = Math.abs(r.nextLong()) >>> r.nextInt(60);
+      long hi = h.highestEquivalentValue(h.indexOf(v));
+      assertTrue(hi >= v);
+      assertTrue("Too coarse for " + v + ": " + hi,
+          hi - v <= v >>> LatencyHistogram.DEFAULT_PRECISION_BITS);
+    }
+  }
+
+  public void testPercentiles() {
+    LatencyHistogram h = new LatencyHistogram();
+    long[] values = new long[100000];
+    Random r = new Random(7);
+    for (int i = 0; i < values.length; i++) {
+      values[i] = 1000 + r.nextInt(10000000);
+      h.record(values[i]);
+    }
+    Arrays.sort(values);
+    for (double p : new double[] {1, 25, 50, 90, 99, 99.9}) {
+      long exact = values[(int) Math.ceil(p / 100 * values.length) - 1];
+      long approx = h.getValueAtPercentile(p);
+      assertTrue(p + "th was " + approx + " not " + exact,
+          approx >= exact && approx - exact <= exact / 32);
+    }
+    assertEquals(values[values.length - 1], h.getMax());
+    assertEquals(h.getMax(), h.getValueAtPercentile(100));
+  }
+
+  public void testExtremeValues() {
+    LatencyHistogram h = new LatencyHistogram();
+    h.record(-5);
+    h.record(Long.MAX_VALUE);
+    assertEquals(2, h.getCount());
+    assertEquals(0, h.getValueAtPercentile(50));
+    assertEquals(Long.MAX_VALUE, h.getValueAtPercentile(100));
+    assertEquals(Long.MAX_VALUE, h.getMax());
+  }
+
+  public void testConcurrentRecording() throws Exception {
+    final LatencyHistogram h = new LatencyHistogram();
+    Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 100000; j++) {
+            h.record(j);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    assertEquals(800000, h.getCount());
+    assertEquals(99999, h.getMax());
+    assertEquals(49999.5, h.getMean(), 0.001);
+  }
+
+  public void testReset() {
+    LatencyHistogram h = new LatencyHistogram();
+    h.record(100);
+    h.reset();
+    assertEquals(0, h.getCount());
+    assertEquals(0, h.getMax());
+    assertEquals(0, h.getValueAtPercentile(99));
+  }
+}
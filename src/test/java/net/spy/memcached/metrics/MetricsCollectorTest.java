@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.ConnectionFactoryBuilder;
+import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
+import net.spy.memcached.FailureMode;
+import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.server.FakeMemcachedServer;
+
+/**
+ * Test operation timing against an in-process server.
+ */
+public class MetricsCollectorTest extends TestCase {
+
+  private FakeMemcachedServer server;
+  private MemcachedClient client;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    server = new FakeMemcachedServer();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    if (client != null) {
+      client.shutdown();
+    }
+    server.shutdown();
+    super.tearDown();
+  }
+
+  private void connect(Protocol p, MetricsCollector mc) throws Exception {
+    client = new MemcachedClient(new ConnectionFactoryBuilder()
+        .setProtocol(p).setFailureMode(FailureMode.Retry)
+        .setMetricsCollector(mc).build(),
+        Collections.singletonList(server.getAddress()));
+  }
+
+  public void testTimestampsAreOrdered() throws Exception {
+    final List<Operation> ops = new ArrayList<Operation>();
+    connect(Protocol.BINARY, new MetricsCollector() {
+      public void operationCompleted(MemcachedNode node, Operation op) {
+        synchronized (ops) {
+          ops.add(op);
+        }
+      }
+    });
+    assertTrue(client.set("k", 0, "v").get());
+    assertEquals("v", client.get("k"));
+    synchronized (ops) {
+      assertEquals(2, ops.size());
+      for (Operation op : ops) {
+        assertTrue(op.getEnqueueTime() != 0);
+        assertTrue(op.getWriteStartTime() >= op.getEnqueueTime());
+        assertTrue(op.getWriteCompleteTime() >= op.getWriteStartTime());
+        assertTrue(op.getResponseCompleteTime() >= op.getWriteCompleteTime());
+      }
+    }
+  }
+
+  public void testTimingsPerNodeAndType() throws Exception {
+    HistogramMetricsCollector mc = new HistogramMetricsCollector();
+    connect(Protocol.BINARY, mc);
+    assertTrue(client.set("k", 0, "v").get());
+    server.setLatency(20, TimeUnit.MILLISECONDS);
+    for (int i = 0; i < 5; i++) {
+      assertEquals("v", client.get("k"));
+    }
+
+    OperationTimings get = mc.getOperationTimings().get("Get");
+    assertNotNull(mc.getOperationTimings().keySet().toString(), get);
+    assertEquals(5, get.getCount());
+    assertTrue(get.getLatency().getValueAtPercentile(50)
+        >= TimeUnit.MILLISECONDS.toNanos(20));
+    assertTrue(get.getResponseTime().getValueAtPercentile(50)
+        >= TimeUnit.MILLISECONDS.toNanos(20));
+    assertEquals(1, mc.getOperationTimings().get("Store").getCount());
+
+    OperationTimings node = mc.getNodeTimings().get(server.getAddress());
+    assertNotNull(mc.getNodeTimings().keySet().toString(), node);
+    assertEquals(6, node.getCount());
+    assertTrue(node.getMaxLatency() >= 20000);
+
+    mc.reset();
+    assertEquals(0, node.getCount());
+  }
+
+  public void testAsciiOperationsAreTimed() throws Exception {
+    HistogramMetricsCollector mc = new HistogramMetricsCollector();
+    connect(Protocol.TEXT, mc);
+    assertTrue(client.set("k", 0, "v").get());
+    assertEquals("v", client.get("k"));
+    assertEquals(1, mc.getOperationTimings().get("Store").getCount());
+    assertEquals(1, mc.getOperationTimings().get("Get").getCount());
+  }
+
+  public void testJmxBeans() throws Exception {
+    MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+    JmxMetricsCollector mc = new JmxMetricsCollector(mbs, "test");
+    connect(Protocol.BINARY, mc);
+    assertTrue(client.set("k", 0, "v").get());
+    assertEquals("v", client.get("k"));
+
+    ObjectName get = mc.getObjectName("operation", "Get");
+    ObjectName node = mc.getObjectName("node",
+        String.valueOf(server.getAddress()));
+    assertTrue(mbs.isRegistered(get));
+    assertTrue(mbs.isRegistered(node));
+    assertEquals(1L, mbs.getAttribute(get, "Count"));
+    assertEquals(2L, mbs.getAttribute(node, "Count"));
+    assertNotNull(mbs.getAttribute(get, "Latency99thPercentile"));
+
+    mbs.invoke(node, "reset", null, null);
+    assertEquals(0L, mbs.getAttribute(node, "Count"));
+
+    mc.unregister();
+    assertFalse(mbs.isRegistered(get));
+    assertFalse(mbs.isRegistered(node));
+  }
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.ops;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.OperationFactory;
+import net.spy.memcached.protocol.binary.BinaryOperationFactory;
+
+/**
+ * Test the write lanes.
+ */
+public class LaneOperationQueueTest extends TestCase {
+
+  private final OperationFactory opFact = new BinaryOperationFactory();
+
+  private Operation small(String key) {
+    Operation op = opFact.get(key, null);
+    op.initialize();
+    return op;
+  }
+
+  private Operation large(String key) {
+    Operation op = opFact.store(StoreType.set, key, 0, 0, new byte[4096],
+        null);
+    op.initialize();
+    return op;
+  }
+
+  public void testSizeClassifier() {
+    LaneClassifier c = new SizeLaneClassifier();
+    assertEquals(0, c.laneFor(small("k")));
+    assertEquals(1, c.laneFor(large("k")));
+    assertEquals(1, new SizeLaneClassifier(10).laneFor(small("longerkey")));
+  }
+
+  public void testWeightedInterleaving() {
+    LaneOperationQueue q = new LaneOperationQueue(new SizeLaneClassifier(),
+        new int[] {3, 1}, 100);
+    List<Operation> bigs = new ArrayList<Operation>();
+    List<Operation> smalls = new ArrayList<Operation>();
+    for (int i = 0; i < 4; i++) {
+      bigs.add(large("b" + i));
+      assertTrue(q.offer(bigs.get(i)));
+    }
+    for (int i = 0; i < 12; i++) {
+      smalls.add(small("s" + i));
+      assertTrue(q.offer(smalls.get(i)));
+    }
+    assertEquals(16, q.size());
+    assertEquals(4, q.size(1));
+    assertEquals(12, q.size(0));
+
+    // Three small operations for each large one, each lane in order.
+    int b = 0;
+    int s = 0;
+    for (int round = 0; round < 4; round++) {
+      int got = 0;
+      for (int i = 0; i < 4; i++) {
+        Operation op = q.peek();
+        assertSame(op, q.peek());
+        assertSame(op, q.remove());
+        if (bigs.contains(op)) {
+          assertSame(bigs.get(b++), op);
+          got++;
+        } else {
+          assertSame(smalls.get(s++), op);
+        }
+      }
+      assertEquals(1, got);
+    }
+    assertTrue(q.isEmpty());
+    assertNull(q.peek());
+    assertNull(q.poll());
+    assertEquals(4, q.getStats(1).getDequeuedCount());
+    assertEquals(12, q.getStats(0).getDequeuedCount());
+    assertEquals(0, q.getStats(0).getDepth());
+  }
+
+  public void testLoneLaneDrainsFully() {
+    LaneOperationQueue q = new LaneOperationQueue(new SizeLaneClassifier(),
+        new int[] {4, 1}, 100);
+    for (int i = 0; i < 5; i++) {
+      q.add(large("b" + i));
+    }
+    for (int i = 0; i < 5; i++) {
+      assertNotNull(q.poll());
+    }
+    assertTrue(q.isEmpty());
+  }
+
+  public void testCapacityAndRemoval() throws Exception {
+    LaneOperationQueue q = new LaneOperationQueue(new SizeLaneClassifier(),
+        new int[] {1, 1}, 2);
+    Operation a = small("a");
+    Operation b = large("b");
+    assertTrue(q.offer(a));
+    assertTrue(q.offer(b));
+    assertEquals(0, q.remainingCapacity());
+    assertFalse(q.offer(small("c")));
+    assertFalse(q.offer(small("c"), 10, TimeUnit.MILLISECONDS));
+    assertEquals(1, q.getStats(1).getDepth());
+
+    Iterator<Operation> it = q.iterator();
+    assertSame(a, it.next());
+    assertSame(b, it.next());
+    assertFalse(it.hasNext());
+    it.remove();
+    assertEquals(1, q.size());
+    assertEquals(0, q.getStats(1).getDepth());
+    assertEquals(0, q.getStats(1).getDequeuedCount());
+
+    List<Operation> l = new ArrayList<Operation>();
+    assertEquals(1, q.drainTo(l));
+    assertSame(a, l.get(0));
+    assertNull(q.poll(10, TimeUnit.MILLISECONDS));
+  }
+
+  public void testRemovingSelectedHeadPassesTurn() {
+    LaneOperationQueue q = new LaneOperationQueue(new SizeLaneClassifier(),
+        new int[] {1, 1}, 10);
+    Operation a0 = small("a0");
+    Operation a1 = small("a1");
+    Operation b0 = large("b0");
+    q.add(a0);
+    q.add(a1);
+    q.add(b0);
+    assertSame(a0, q.peek());
+    // The small lane spent its turn on a0, so removing it passes the turn.
+    assertTrue(q.remove(a0));
+    assertSame(b0, q.poll());
+    assertSame(a1, q.poll());
+  }
+
+  public void testFactorySharesStats() {
+    LaneOperationQueueFactory f = new LaneOperationQueueFactory();
+    assertEquals(2, f.getLaneCount());
+    BlockingQueue<Operation> q1 = f.create();
+    BlockingQueue<Operation> q2 = f.create();
+    assertNotSame(q1, q2);
+    q1.add(small("a"));
+    q2.add(small("b"));
+    q2.add(large("c"));
+    assertEquals(2, f.getStats(0).getDepth());
+    assertEquals(1, f.getStats(1).getDepth());
+    q2.poll();
+    q2.poll();
+    assertEquals(1, f.getStats(0).getDepth());
+    assertEquals(1, f.getStats(1).getDequeuedCount());
+    assertTrue(f.getStats(1).getMaxWaitNanos() >= 0);
+  }
+
+  public void testBadConfiguration() {
+    try {
+      new LaneOperationQueueFactory(new SizeLaneClassifier(),
+          new int[] {1, 0}, 10);
+      fail("Accepted a zero weight");
+    } catch (IllegalArgumentException e) {
+      // pass
+    }
+    LaneOperationQueue q = new LaneOperationQueue(new SizeLaneClassifier(),
+        new int[] {1}, 10);
+    try {
+      q.offer(large("k"));
+      fail("Accepted a lane out of range");
+    } catch (IllegalStateException e) {
+      // pass
+    }
+    assertTrue(q.isEmpty());
+  }
+}
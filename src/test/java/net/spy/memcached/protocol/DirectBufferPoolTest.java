@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the direct buffer pool.
+ */
+public class DirectBufferPoolTest extends TestCase {
+
+  private DirectBufferPool pool;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    pool = new DirectBufferPool(64, 1024, 256);
+  }
+
+  public void testBorrowRoundsUpToSizeClass() {
+    ByteBuffer b = pool.borrow(100);
+    assertTrue(b.isDirect());
+    assertEquals(128, b.capacity());
+    assertEquals(0, b.position());
+    assertEquals(100, b.limit());
+
+    assertEquals(64, pool.borrow(1).capacity());
+    assertEquals(1024, pool.borrow(1024).capacity());
+    assertEquals(3, pool.getMisses());
+    assertEquals(0, pool.getHits());
+  }
+
+  public void testReleasedBufferIsReused() {
+    ByteBuffer b = pool.borrow(100);
+    b.putInt(42);
+    pool.release(b);
+    assertEquals(1, pool.getIdleCount());
+
+    ByteBuffer b2 = pool.borrow(120);
+    assertSame(b, b2);
+    assertEquals(0, b2.position());
+    assertEquals(120, b2.limit());
+    assertEquals(1, pool.getHits());
+    assertEquals(1, pool.getMisses());
+    assertEquals(0, pool.getIdleCount());
+  }
+
+  public void testOversizedBuffersAreNotPooled() {
+    ByteBuffer b = pool.borrow(1025);
+    assertFalse(b.isDirect());
+    assertEquals(1025, b.capacity());
+    assertEquals(1, pool.getOversized());
+    pool.release(b);
+    assertEquals(0, pool.getIdleCount());
+  }
+
+  public void testForeignBuffersAreIgnored() {
+    pool.release(ByteBuffer.allocate(128));
+    pool.release(ByteBuffer.allocateDirect(100));
+    pool.release(null);
+    assertEquals(0, pool.getIdleCount());
+  }
+
+  public void testLoansAreCapped() {
+    pool = new DirectBufferPool(64, 1024, 256, 256);
+    ByteBuffer b1 = pool.borrow(128);
+    ByteBuffer b2 = pool.borrow(100);
+    assertTrue(b1.isDirect());
+    assertTrue(b2.isDirect());
+    assertEquals(256, pool.getLoanedBytes());
+
+    // Past the cap, borrows get heap buffers.
+    ByteBuffer b3 = pool.borrow(128);
+    assertFalse(b3.isDirect());
+    assertEquals(128, b3.limit());
+    assertEquals(1, pool.getOverLoaned());
+    assertEquals(256, pool.getLoanedBytes());
+    pool.release(b3);
+
+    pool.release(b1);
+    assertEquals(128, pool.getLoanedBytes());
+    assertSame(b1, pool.borrow(128));
+    pool.release(b1);
+    pool.release(b2);
+    assertEquals(0, pool.getLoanedBytes());
+    // A direct buffer it never lent out doesn't count against it.
+    pool.release(ByteBuffer.allocateDirect(128));
+    assertEquals(0, pool.getLoanedBytes());
+    assertEquals(2, pool.getIdleCount());
+  }
+
+  public void testIdleBuffersAreBounded() {
+    // 256 retained bytes allows two idle 128 byte buffers.
+    ByteBuffer[] bufs = new ByteBuffer[3];
+    for (int i = 0; i < bufs.length; i++) {
+      bufs[i] = pool.borrow(128);
+    }
+    for (ByteBuffer b : bufs) {
+      pool.release(b);
+    }
+    assertEquals(2, pool.getIdleCount());
+
+    // The biggest class still keeps one around.
+    pool.release(pool.borrow(1024));
+    assertEquals(3, pool.getIdleCount());
+  }
+}
@@ -0,0 +1,231 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.binary;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.ops.LaneOperationQueue;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.SizeLaneClassifier;
+import net.spy.memcached.ops.StoreType;
+
+/**
+ * Test the binary node's optimizer and how it fills its write buffer.
+ */
+public class BinaryMemcachedNodeImplTest extends TestCase {
+
+  private final BinaryOperationFactory opFact = new BinaryOperationFactory();
+  private BlockingQueue<Operation> writeQ;
+  private SocketChannel channel;
+  private BinaryMemcachedNodeImpl node;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    writeQ = new LinkedBlockingQueue<Operation>();
+    channel = SocketChannel.open();
+    node = createNode(8, 2500);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    channel.close();
+    super.tearDown();
+  }
+
+  private BinaryMemcachedNodeImpl createNode(int window, long timeout) {
+    return new BinaryMemcachedNodeImpl(
+        InetSocketAddress.createUnresolved("localhost", 11211), channel, 1024,
+        new LinkedBlockingQueue<Operation>(), writeQ,
+        new LinkedBlockingQueue<Operation>(), 0L, false, timeout, false,
+        window);
+  }
+
+  private Operation get(String key) {
+    Operation op = opFact.get(key, null);
+    op.initialize();
+    writeQ.add(op);
+    return op;
+  }
+
+  private Operation set(String key) {
+    Operation op = opFact.store(StoreType.set, key, 0, 0, new byte[10], null);
+    op.initialize();
+    writeQ.add(op);
+    return op;
+  }
+
+  private List<Operation> queued() {
+    return new ArrayList<Operation>(writeQ);
+  }
+
+  public void testInterleavedGetsAndSets() {
+    get("a");
+    Operation b = set("b");
+    get("c");
+    Operation d = set("d");
+
+    node.optimize();
+    Operation gets = node.getCurrentWriteOp();
+    assertTrue(gets instanceof OptimizedGetImpl);
+    assertEquals(2, ((OptimizedGetImpl) gets).size());
+    assertEquals(2, queued().size());
+    assertSame(b, queued().get(0));
+    assertSame(d, queued().get(1));
+
+    assertSame(gets, node.removeCurrentWriteOp());
+    node.optimize();
+    Operation sets = node.getCurrentWriteOp();
+    assertTrue(sets instanceof OptimizedSetImpl);
+    assertEquals(2, ((OptimizedSetImpl) sets).size());
+    assertTrue(writeQ.isEmpty());
+  }
+
+  public void testNoWindowWithLanes() {
+    writeQ = new LaneOperationQueue(new SizeLaneClassifier(),
+        new int[] {1, 1}, 100);
+    node = createNode(8, 2500);
+    Operation a = get("a");
+    Operation b = set("b");
+    Operation c = get("c");
+
+    // Only the run at the head is merged, and c doesn't pass b.
+    node.optimize();
+    assertSame(a, node.getCurrentWriteOp());
+    assertSame(a, node.removeCurrentWriteOp());
+    assertSame(b, node.removeCurrentWriteOp());
+    assertSame(c, node.removeCurrentWriteOp());
+  }
+
+  public void testGetsKeepOrderWithStores() {
+    get("a");
+    Operation setA = set("a");
+    Operation getA = get("a");
+    get("b");
+
+    node.optimize();
+    assertEquals(2, ((OptimizedGetImpl) node.getCurrentWriteOp()).size());
+    assertEquals(2, queued().size());
+    assertSame(setA, queued().get(0));
+    assertSame(getA, queued().get(1));
+  }
+
+  public void testStoresKeepOrder() {
+    set("a");
+    Operation getA = get("a");
+    Operation setA = set("a");
+    set("b");
+
+    node.optimize();
+    assertEquals(2, ((OptimizedSetImpl) node.getCurrentWriteOp()).size());
+    assertEquals(2, queued().size());
+    assertSame(getA, queued().get(0));
+    assertSame(setA, queued().get(1));
+  }
+
+  public void testUnkeyedOpEndsWindow() {
+    Operation a = get("a");
+    Operation noop = opFact.noop(null);
+    noop.initialize();
+    writeQ.add(noop);
+    get("b");
+
+    node.optimize();
+    assertSame(a, node.getCurrentWriteOp());
+    assertEquals(3, writeQ.size());
+  }
+
+  public void testWindowBounds() {
+    Operation a = get("a");
+    for (int i = 0; i < 7; i++) {
+      set("s" + i);
+    }
+    Operation outside = get("b");
+
+    node.optimize();
+    assertSame(a, node.getCurrentWriteOp());
+    assertSame(outside, queued().get(8));
+  }
+
+  public void testHeadOnlyWithoutWindow() {
+    node = createNode(0, 2500);
+    Operation a = get("a");
+    set("b");
+    get("c");
+
+    node.optimize();
+    assertSame(a, node.getCurrentWriteOp());
+    assertEquals(2, writeQ.size());
+  }
+
+  public void testSlowBatchesShrinkLimit() throws Exception {
+    node = createNode(8, 0);
+    get("a");
+    get("b");
+    node.optimize();
+    Operation batch = node.removeCurrentWriteOp();
+    int limit = node.getGetLimit();
+    node.readQueued(batch);
+    Thread.sleep(2);
+    node.readDequeued(batch);
+    assertEquals(limit / 2, node.getGetLimit());
+  }
+
+  public void testQuickBatchesKeepLimit() {
+    node = createNode(8, 60000);
+    get("a");
+    get("b");
+    node.optimize();
+    Operation batch = node.removeCurrentWriteOp();
+    int limit = node.getGetLimit();
+    node.readQueued(batch);
+    node.readDequeued(batch);
+    assertEquals(limit, node.getGetLimit());
+  }
+
+  public void testFullReadQueueHoldsWrites() {
+    BlockingQueue<Operation> readQ = new LinkedBlockingQueue<Operation>(1);
+    node = new BinaryMemcachedNodeImpl(
+        InetSocketAddress.createUnresolved("localhost", 11211), channel, 1024,
+        readQ, writeQ, new LinkedBlockingQueue<Operation>(), 0L, false, 2500,
+        false, 0);
+    Operation a = set("a");
+    Operation b = set("b");
+
+    // Both fit in the write buffer, but only a has room to wait for its
+    // reply.
+    node.fillWriteBuffer(false);
+    assertSame(a, readQ.peek());
+    assertSame(b, node.getCurrentWriteOp());
+    assertSame(OperationState.WRITE_QUEUED, b.getState());
+    assertEquals(1, readQ.size());
+  }
+}
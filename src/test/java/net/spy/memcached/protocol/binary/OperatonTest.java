@@ -22,11 +22,24 @@
 
 package net.spy.memcached.protocol.binary;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import junit.framework.TestCase;
 
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+
 import static net.spy.memcached.protocol.binary.OperationImpl.decodeInt;
 import static net.spy.memcached.protocol.binary.OperationImpl.decodeLong;
 import static net.spy.memcached.protocol.binary.OperationImpl.decodeUnsignedInt;
+import static net.spy.memcached.protocol.binary.OperationImpl.ERR_NOT_FOUND;
+import static net.spy.memcached.protocol.binary.OperationImpl.MIN_RECV_PACKET;
+import static net.spy.memcached.protocol.binary.OperationImpl.RES_MAGIC;
 
 /**
  * Test operation stuff.
@@ -64,4 +77,104 @@ public class OperatonTest extends TestCase {
     String s = String.valueOf(OperationImpl.STATUS_OK);
     assertEquals("{OperationStatus success=true:  OK}", s);
   }
+
+  public void testGetResponse() throws IOException {
+    GetCallback cb = new GetCallback();
+    GetOperationImpl op = new GetOperationImpl("k", cb);
+    op.readFromBuffer(ByteBuffer.wrap(getResponse(op.opaque, 0, 7,
+        "hello".getBytes())));
+    assertSame(OperationState.COMPLETE, op.getState());
+    assertEquals(Arrays.asList("k"), cb.keys);
+    assertEquals(7, cb.flags);
+    assertEquals("hello", new String(cb.values.get(0)));
+    assertTrue(cb.status.isSuccess());
+  }
+
+  public void testFragmentedGetResponse() throws IOException {
+    GetCallback cb = new GetCallback();
+    GetOperationImpl op = new GetOperationImpl("k", cb);
+    byte[] response = getResponse(op.opaque, 0, 3, "fragmented".getBytes());
+    for (byte b : response) {
+      assertNotSame(OperationState.COMPLETE, op.getState());
+      op.readFromBuffer(ByteBuffer.wrap(new byte[] { b }));
+    }
+    assertSame(OperationState.COMPLETE, op.getState());
+    assertEquals(3, cb.flags);
+    assertEquals("fragmented", new String(cb.values.get(0)));
+  }
+
+  public void testGetMissResponse() throws IOException {
+    GetCallback cb = new GetCallback();
+    GetOperationImpl op = new GetOperationImpl("k", cb);
+    ByteBuffer bb = ByteBuffer.allocate(MIN_RECV_PACKET + 9);
+    bb.put(RES_MAGIC).put(GetOperationImpl.GET_CMD).putShort((short) 0);
+    bb.put((byte) 0).put((byte) 0).putShort((short) ERR_NOT_FOUND);
+    bb.putInt(9).putInt(op.opaque).putLong(0);
+    bb.put("Not found".getBytes());
+    bb.flip();
+    op.readFromBuffer(bb);
+    assertSame(OperationState.COMPLETE, op.getState());
+    assertTrue(cb.keys.isEmpty());
+    assertFalse(cb.status.isSuccess());
+    assertEquals("Not found", cb.status.getMessage());
+  }
+
+  public void testMultiGetResponses() throws IOException {
+    GetCallback cb = new GetCallback();
+    MultiGetOperationImpl op =
+        new MultiGetOperationImpl(Arrays.asList("a", "b"), cb);
+    int aOpaque = op.addKey("a");
+    int bOpaque = op.addKey("b");
+    ByteBuffer bb = ByteBuffer.allocate(200);
+    bb.put(getResponse(bOpaque, 0, 1, "bee".getBytes()));
+    bb.put(getResponse(aOpaque, 0, 2, new byte[0]));
+    bb.flip();
+    while (bb.hasRemaining()) {
+      op.readFromBuffer(bb);
+    }
+    // Still waiting on the terminating noop.
+    assertSame(OperationState.WRITE_QUEUED, op.getState());
+    assertEquals(Arrays.asList("b", "a"), cb.keys);
+    assertEquals("bee", new String(cb.values.get(0)));
+    assertEquals(0, cb.values.get(1).length);
+    assertEquals(2, cb.flags);
+  }
+
+  private static byte[] getResponse(int opaque, long cas, int flags,
+      byte[] value) {
+    ByteBuffer bb = ByteBuffer.allocate(MIN_RECV_PACKET + 4 + value.length);
+    bb.put(RES_MAGIC);
+    bb.put((byte) 0);
+    bb.putShort((short) 0);
+    bb.put((byte) 4);
+    bb.put((byte) 0);
+    bb.putShort((short) 0);
+    bb.putInt(4 + value.length);
+    bb.putInt(opaque);
+    bb.putLong(cas);
+    bb.putInt(flags);
+    bb.put(value);
+    return bb.array();
+  }
+
+  static class GetCallback implements GetOperation.Callback {
+    private final List<String> keys = new ArrayList<String>();
+    private final List<byte[]> values = new ArrayList<byte[]>();
+    private int flags;
+    private OperationStatus status;
+
+    public void gotData(String key, int f, byte[] data) {
+      keys.add(key);
+      values.add(data);
+      flags = f;
+    }
+
+    public void receivedStatus(OperationStatus s) {
+      status = s;
+    }
+
+    public void complete() {
+      // nothing
+    }
+  }
 }
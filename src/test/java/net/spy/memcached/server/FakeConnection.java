@@ -0,0 +1,775 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.server;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import net.spy.memcached.server.FakeStorage.Item;
+import net.spy.memcached.server.FakeStorage.Result;
+
+/**
+ * One client connection to a {@link FakeMemcachedServer}.
+ *
+ * The protocol is picked from the first byte received, just like memcached
+ * does. Responses are queued with the time they become due, so the server
+ * can hold them back to simulate latency and dribble them out in fragments.
+ */
+final class FakeConnection {
+
+  static final String VERSION = "1.4.5-fake";
+
+  private static final int HEADER_LEN = 24;
+  private static final int MAX_ASCII_LINE = 8192;
+  private static final int MAX_ITEM_SIZE = 1024 * 1024;
+
+  private static final byte REQ_MAGIC = (byte) 0x80;
+  private static final byte RES_MAGIC = (byte) 0x81;
+
+  private static final byte GET = 0x00;
+  private static final byte SET = 0x01;
+  private static final byte ADD = 0x02;
+  private static final byte REPLACE = 0x03;
+  private static final byte DELETE = 0x04;
+  private static final byte INCR = 0x05;
+  private static final byte DECR = 0x06;
+  private static final byte QUIT = 0x07;
+  private static final byte FLUSH = 0x08;
+  private static final byte GETQ = 0x09;
+  private static final byte NOOP = 0x0a;
+  private static final byte VERSION_CMD = 0x0b;
+  private static final byte GETK = 0x0c;
+  private static final byte GETKQ = 0x0d;
+  private static final byte APPEND = 0x0e;
+  private static final byte PREPEND = 0x0f;
+  private static final byte STAT = 0x10;
+  private static final byte SETQ = 0x11;
+  private static final byte ADDQ = 0x12;
+  private static final byte REPLACEQ = 0x13;
+  private static final byte DELETEQ = 0x14;
+  private static final byte INCRQ = 0x15;
+  private static final byte DECRQ = 0x16;
+  private static final byte QUITQ = 0x17;
+  private static final byte FLUSHQ = 0x18;
+  private static final byte APPENDQ = 0x19;
+  private static final byte PREPENDQ = 0x1a;
+  private static final byte TOUCH = 0x1c;
+  private static final byte GAT = 0x1d;
+  private static final byte GATQ = 0x1e;
+  private static final byte SASL_LIST = 0x20;
+  private static final byte SASL_AUTH = 0x21;
+  private static final byte TAP_CONNECT = 0x40;
+  private static final byte TAP_MUTATION = 0x41;
+  private static final byte TAP_DELETE = 0x42;
+
+  static final short SUCCESS = 0x00;
+  static final short NOT_FOUND = 0x01;
+  static final short EXISTS = 0x02;
+  static final short TOO_BIG = 0x03;
+  static final short NOT_STORED = 0x05;
+  static final short DELTA_BADVAL = 0x06;
+  static final short NOT_MY_VBUCKET = 0x07;
+  static final short UNKNOWN_COMMAND = 0x81;
+
+  private static final int TAP_FLAG_DUMP = 0x02;
+  private static final int TAP_FLAG_SUPPORT_ACK = 0x10;
+  private static final short TAP_MSG_ACK = 0x01;
+
+  private static final byte[] EMPTY = new byte[0];
+
+  private final FakeMemcachedServer server;
+  private final FakeStorage storage;
+  private final SocketChannel channel;
+  private final SelectionKey key;
+  private final LinkedList<Pending> out = new LinkedList<Pending>();
+  // When reordering, the responses since the last non-quiet request, and
+  // the finished groups of responses, newest first.
+  private List<ByteBuffer> group = new ArrayList<ByteBuffer>();
+  private final LinkedList<List<ByteBuffer>> reordered =
+      new LinkedList<List<ByteBuffer>>();
+
+  private ByteBuffer in = ByteBuffer.allocate(16384);
+  private Boolean binary = null;
+  private int requests = 0;
+  private boolean closeWhenFlushed = false;
+  private boolean closed = false;
+
+  private boolean tapping = false;
+  private boolean tapAcks = false;
+  private int tapOpaque = 0;
+  private int tapUnacked = 0;
+  private boolean tapDumping = false;
+
+  FakeConnection(FakeMemcachedServer s, SocketChannel c, SelectionKey k) {
+    server = s;
+    storage = s.getStorage();
+    channel = c;
+    key = k;
+  }
+
+  boolean isClosed() {
+    return closed;
+  }
+
+  boolean isTapping() {
+    return tapping && !tapDumping;
+  }
+
+  void close() {
+    if (!closed) {
+      closed = true;
+      key.cancel();
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // Nothing more to do with it.
+      }
+      server.connectionClosed(this);
+    }
+  }
+
+  /**
+   * Read what the client sent and handle every complete request.
+   */
+  void read() throws IOException {
+    if (!in.hasRemaining()) {
+      ByteBuffer bigger = ByteBuffer.allocate(in.capacity() * 2);
+      in.flip();
+      bigger.put(in);
+      in = bigger;
+    }
+    if (channel.read(in) < 0) {
+      close();
+      return;
+    }
+    in.flip();
+    if (binary == null && in.hasRemaining()) {
+      byte first = in.get(in.position());
+      binary = first == REQ_MAGIC || first == RES_MAGIC;
+    }
+    boolean more = true;
+    while (more && !closed && in.hasRemaining()) {
+      more = binary ? processBinary() : processAscii();
+    }
+    in.compact();
+    long due = System.nanoTime() + server.getLatencyNanos();
+    for (List<ByteBuffer> g : reordered) {
+      for (ByteBuffer b : g) {
+        out.add(new Pending(b, due));
+      }
+    }
+    reordered.clear();
+  }
+
+  /**
+   * Write the responses that are due.
+   *
+   * @return nanoseconds until this connection next has something to write,
+   *         or Long.MAX_VALUE if there is nothing queued
+   */
+  long write(long now) throws IOException {
+    int fragment = server.getFragmentSize();
+    while (!closed && !out.isEmpty()) {
+      Pending p = out.getFirst();
+      if (p.due - now > 0) {
+        return p.due - now;
+      }
+      ByteBuffer b = p.buf;
+      int limit = b.limit();
+      if (fragment > 0 && b.remaining() > fragment) {
+        b.limit(b.position() + fragment);
+      }
+      channel.write(b);
+      b.limit(limit);
+      if (b.hasRemaining()) {
+        if (fragment > 0) {
+          // Give the client a chance to see the partial write.
+          key.interestOps(SelectionKey.OP_READ);
+          return FakeMemcachedServer.FRAGMENT_PAUSE_NANOS;
+        }
+        // The socket is full; wait to be told it's writable again.
+        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        return Long.MAX_VALUE;
+      }
+      out.removeFirst();
+      if (fragment > 0 && !out.isEmpty()) {
+        return FakeMemcachedServer.FRAGMENT_PAUSE_NANOS;
+      }
+    }
+    if (!closed) {
+      key.interestOps(SelectionKey.OP_READ);
+      if (closeWhenFlushed || (tapDumping && tapUnacked == 0)) {
+        close();
+      }
+    }
+    return Long.MAX_VALUE;
+  }
+
+  private void send(ByteBuffer b) {
+    b.flip();
+    if (server.isReorderResponses() && binary && !tapping) {
+      group.add(b);
+    } else {
+      out.add(new Pending(b, System.nanoTime() + server.getLatencyNanos()));
+    }
+  }
+
+  private static boolean isQuiet(byte cmd) {
+    switch (cmd) {
+    case GETQ:
+    case GETKQ:
+    case SETQ:
+    case ADDQ:
+    case REPLACEQ:
+    case DELETEQ:
+    case INCRQ:
+    case DECRQ:
+    case QUITQ:
+    case FLUSHQ:
+    case APPENDQ:
+    case PREPENDQ:
+    case GATQ:
+      return true;
+    default:
+      return false;
+    }
+  }
+
+  // Count a request, dropping the connection if it has had its share.
+  private boolean countRequest() {
+    server.requestReceived();
+    int dropAfter = server.getDropAfter();
+    if (dropAfter > 0 && ++requests >= dropAfter) {
+      close();
+      return false;
+    }
+    return true;
+  }
+
+  // -------------------------------------------------------------------
+  // Binary protocol
+  // -------------------------------------------------------------------
+
+  private boolean processBinary() throws IOException {
+    if (in.remaining() < HEADER_LEN) {
+      return false;
+    }
+    int p = in.position();
+    int bodyLen = in.getInt(p + 8);
+    if (in.remaining() < HEADER_LEN + bodyLen) {
+      return false;
+    }
+    byte magic = in.get(p);
+    byte cmd = in.get(p + 1);
+    int keyLen = in.getShort(p + 2) & 0xffff;
+    int extraLen = in.get(p + 4) & 0xff;
+    int vbucket = in.getShort(p + 6) & 0xffff;
+    int opaque = in.getInt(p + 12);
+    long cas = in.getLong(p + 16);
+    in.position(p + HEADER_LEN);
+    byte[] extras = new byte[extraLen];
+    in.get(extras);
+    byte[] k = new byte[keyLen];
+    in.get(k);
+    byte[] value = new byte[bodyLen - keyLen - extraLen];
+    in.get(value);
+
+    if (magic == RES_MAGIC) {
+      // The only responses a client sends are tap acks.
+      server.tapAckReceived();
+      tapUnacked--;
+      return true;
+    }
+    if (!countRequest()) {
+      return false;
+    }
+    if (keyLen > 0 && server.isNotMyVbucket(vbucket)) {
+      sendBinary(cmd, NOT_MY_VBUCKET, opaque, 0, EMPTY, EMPTY, EMPTY);
+    } else {
+      handleBinary(cmd, opaque, cas, extras, k, value);
+    }
+    if (!isQuiet(cmd) && !group.isEmpty()) {
+      reordered.addFirst(group);
+      group = new ArrayList<ByteBuffer>();
+    }
+    return true;
+  }
+
+  private void handleBinary(byte cmd, int opaque, long cas, byte[] extras,
+      byte[] kb, byte[] value) throws IOException {
+    String k = new String(kb, "UTF-8");
+    switch (cmd) {
+    case GET:
+    case GETQ:
+    case GETK:
+    case GETKQ:
+      Item item = storage.get(k);
+      boolean withKey = cmd == GETK || cmd == GETKQ;
+      if (item != null) {
+        sendBinary(cmd, SUCCESS, opaque, item.getCas(),
+            intBytes(item.getFlags()), withKey ? kb : EMPTY, item.getData());
+      } else if (cmd == GET || cmd == GETK) {
+        sendBinary(cmd, NOT_FOUND, opaque, 0, EMPTY, withKey ? kb : EMPTY,
+            "Not found".getBytes());
+      }
+      break;
+    case SET:
+    case SETQ:
+    case ADD:
+    case ADDQ:
+    case REPLACE:
+    case REPLACEQ:
+    case APPEND:
+    case APPENDQ:
+    case PREPEND:
+    case PREPENDQ:
+      handleBinaryStore(cmd, opaque, cas, extras, k, value);
+      break;
+    case DELETE:
+    case DELETEQ:
+      Result r = storage.delete(k, cas);
+      if (r == Result.STORED) {
+        server.itemChanged(k, null);
+        if (cmd == DELETE) {
+          sendBinary(cmd, SUCCESS, opaque, 0, EMPTY, EMPTY, EMPTY);
+        }
+      } else {
+        sendBinary(cmd, r == Result.EXISTS ? EXISTS : NOT_FOUND, opaque, 0,
+            EMPTY, EMPTY, "Not found".getBytes());
+      }
+      break;
+    case INCR:
+    case INCRQ:
+    case DECR:
+    case DECRQ:
+      handleBinaryMutate(cmd, opaque, extras, k);
+      break;
+    case QUIT:
+    case QUITQ:
+      if (cmd == QUIT) {
+        sendBinary(cmd, SUCCESS, opaque, 0, EMPTY, EMPTY, EMPTY);
+      }
+      closeWhenFlushed = true;
+      break;
+    case FLUSH:
+    case FLUSHQ:
+      storage.flush();
+      if (cmd == FLUSH) {
+        sendBinary(cmd, SUCCESS, opaque, 0, EMPTY, EMPTY, EMPTY);
+      }
+      break;
+    case NOOP:
+      sendBinary(cmd, SUCCESS, opaque, 0, EMPTY, EMPTY, EMPTY);
+      break;
+    case VERSION_CMD:
+      sendBinary(cmd, SUCCESS, opaque, 0, EMPTY, EMPTY, VERSION.getBytes());
+      break;
+    case STAT:
+      for (String[] stat : server.getStats(k)) {
+        sendBinary(cmd, SUCCESS, opaque, 0, EMPTY, stat[0].getBytes(),
+            stat[1].getBytes());
+      }
+      sendBinary(cmd, SUCCESS, opaque, 0, EMPTY, EMPTY, EMPTY);
+      break;
+    case TOUCH:
+    case GAT:
+    case GATQ:
+      Item touched = storage.touch(k, decodeInt(extras, 0));
+      if (touched == null) {
+        if (cmd != GATQ) {
+          sendBinary(cmd, NOT_FOUND, opaque, 0, EMPTY, EMPTY,
+              "Not found".getBytes());
+        }
+      } else if (cmd == TOUCH) {
+        sendBinary(cmd, SUCCESS, opaque, touched.getCas(), EMPTY, EMPTY,
+            EMPTY);
+      } else {
+        sendBinary(cmd, SUCCESS, opaque, touched.getCas(),
+            intBytes(touched.getFlags()), EMPTY, touched.getData());
+      }
+      break;
+    case SASL_LIST:
+      sendBinary(cmd, SUCCESS, opaque, 0, EMPTY, EMPTY, "PLAIN".getBytes());
+      break;
+    case SASL_AUTH:
+      sendBinary(cmd, SUCCESS, opaque, 0, EMPTY, EMPTY,
+          "Authenticated".getBytes());
+      break;
+    case TAP_CONNECT:
+      startTap(extras.length >= 4 ? decodeInt(extras, 0) : 0);
+      break;
+    default:
+      sendBinary(cmd, UNKNOWN_COMMAND, opaque, 0, EMPTY, EMPTY,
+          "Unknown command".getBytes());
+    }
+  }
+
+  private void handleBinaryStore(byte cmd, int opaque, long cas,
+      byte[] extras, String k, byte[] value) {
+    boolean quiet = cmd == SETQ || cmd == ADDQ || cmd == REPLACEQ
+        || cmd == APPENDQ || cmd == PREPENDQ;
+    String name;
+    switch (cmd) {
+    case ADD:
+    case ADDQ:
+      name = "add";
+      break;
+    case REPLACE:
+    case REPLACEQ:
+      name = "replace";
+      break;
+    case APPEND:
+    case APPENDQ:
+      name = "append";
+      break;
+    case PREPEND:
+    case PREPENDQ:
+      name = "prepend";
+      break;
+    default:
+      name = "set";
+    }
+    if (value.length > MAX_ITEM_SIZE) {
+      sendBinary(cmd, TOO_BIG, opaque, 0, EMPTY, EMPTY, "Too large.".getBytes());
+      return;
+    }
+    int flags = extras.length >= 8 ? decodeInt(extras, 0) : 0;
+    int exp = extras.length >= 8 ? decodeInt(extras, 4) : 0;
+    Result r = storage.store(name, k, flags, exp, cas, value);
+    if (r == Result.STORED) {
+      Item item = storage.get(k);
+      server.itemChanged(k, item);
+      if (!quiet) {
+        sendBinary(cmd, SUCCESS, opaque, item == null ? 0 : item.getCas(),
+            EMPTY, EMPTY, EMPTY);
+      }
+    } else {
+      short status;
+      if (r == Result.EXISTS) {
+        status = EXISTS;
+      } else if (r == Result.NOT_FOUND) {
+        status = NOT_FOUND;
+      } else if ("add".equals(name)) {
+        status = EXISTS;
+      } else if ("replace".equals(name)) {
+        status = NOT_FOUND;
+      } else {
+        status = NOT_STORED;
+      }
+      sendBinary(cmd, status, opaque, 0, EMPTY, EMPTY, r.name().getBytes());
+    }
+  }
+
+  private void handleBinaryMutate(byte cmd, int opaque, byte[] extras,
+      String k) {
+    boolean quiet = cmd == INCRQ || cmd == DECRQ;
+    long delta = decodeLong(extras, 0);
+    long initial = decodeLong(extras, 8);
+    int exp = decodeInt(extras, 16);
+    if (cmd == DECR || cmd == DECRQ) {
+      delta = -delta;
+    }
+    Long rv;
+    try {
+      rv = storage.mutate(k, delta, exp == -1 ? -1 : initial, exp);
+    } catch (NumberFormatException e) {
+      sendBinary(cmd, DELTA_BADVAL, opaque, 0, EMPTY, EMPTY,
+          "Non-numeric value".getBytes());
+      return;
+    }
+    if (rv == null) {
+      sendBinary(cmd, NOT_FOUND, opaque, 0, EMPTY, EMPTY,
+          "Not found".getBytes());
+    } else {
+      Item item = storage.get(k);
+      server.itemChanged(k, item);
+      if (!quiet) {
+        ByteBuffer b = ByteBuffer.allocate(8);
+        b.putLong(rv);
+        sendBinary(cmd, SUCCESS, opaque, item.getCas(), EMPTY, EMPTY,
+            b.array());
+      }
+    }
+  }
+
+  private void sendBinary(byte cmd, short status, int opaque, long cas,
+      byte[] extras, byte[] k, byte[] value) {
+    ByteBuffer b = ByteBuffer.allocate(HEADER_LEN + extras.length + k.length
+        + value.length);
+    b.put(RES_MAGIC);
+    b.put(cmd);
+    b.putShort((short) k.length);
+    b.put((byte) extras.length);
+    b.put((byte) 0);
+    b.putShort(status);
+    b.putInt(extras.length + k.length + value.length);
+    b.putInt(opaque);
+    b.putLong(cas);
+    b.put(extras);
+    b.put(k);
+    b.put(value);
+    send(b);
+  }
+
+  // -------------------------------------------------------------------
+  // TAP
+  // -------------------------------------------------------------------
+
+  private void startTap(int flags) {
+    tapping = true;
+    tapAcks = (flags & TAP_FLAG_SUPPORT_ACK) != 0;
+    tapDumping = (flags & TAP_FLAG_DUMP) != 0;
+    for (String k : storage.keys()) {
+      Item item = storage.get(k);
+      if (item != null) {
+        tapItem(k, item);
+      }
+    }
+  }
+
+  /**
+   * Stream a mutation (or, for a null item, a deletion) to a tap client.
+   */
+  void tapItem(String k, Item item) {
+    byte[] kb = k.getBytes();
+    int extraLen = item == null ? 8 : 16;
+    byte[] value = item == null ? EMPTY : item.getData();
+    ByteBuffer b = ByteBuffer.allocate(HEADER_LEN + extraLen + kb.length
+        + value.length);
+    b.put(REQ_MAGIC);
+    b.put(item == null ? TAP_DELETE : TAP_MUTATION);
+    b.putShort((short) kb.length);
+    b.put((byte) extraLen);
+    b.put((byte) 0);
+    b.putShort((short) 0);
+    b.putInt(extraLen + kb.length + value.length);
+    b.putInt(++tapOpaque);
+    b.putLong(item == null ? 0 : item.getCas());
+    b.putShort((short) 0); // engine private
+    b.putShort(tapAcks ? TAP_MSG_ACK : 0);
+    b.put((byte) 0); // ttl
+    b.put(new byte[3]); // reserved
+    if (item != null) {
+      b.putInt(item.getFlags());
+      b.putInt(item.getExpiration());
+    }
+    b.put(kb);
+    b.put(value);
+    if (tapAcks) {
+      tapUnacked++;
+    }
+    send(b);
+  }
+
+  // -------------------------------------------------------------------
+  // ASCII protocol
+  // -------------------------------------------------------------------
+
+  private boolean processAscii() throws IOException {
+    int start = in.position();
+    int eol = -1;
+    for (int i = start; i < in.limit(); i++) {
+      if (in.get(i) == '\n') {
+        eol = i;
+        break;
+      }
+    }
+    if (eol < 0) {
+      if (in.remaining() > MAX_ASCII_LINE) {
+        sendAscii("CLIENT_ERROR line too long");
+        closeWhenFlushed = true;
+        in.position(in.limit());
+      }
+      return false;
+    }
+    byte[] lb = new byte[eol - start];
+    in.get(lb);
+    in.get(); // the \n
+    String line = new String(lb, "UTF-8").trim();
+    String[] t = line.split(" +");
+    String cmd = t[0];
+
+    if (cmd.equals("set") || cmd.equals("add") || cmd.equals("replace")
+        || cmd.equals("append") || cmd.equals("prepend")
+        || cmd.equals("cas")) {
+      boolean isCas = cmd.equals("cas");
+      int n = Integer.parseInt(t[4]);
+      if (in.remaining() < n + 2) {
+        // Wait for the rest of the data block.
+        in.position(start);
+        return false;
+      }
+      byte[] data = new byte[n];
+      in.get(data);
+      in.position(in.position() + 2);
+      if (!countRequest()) {
+        return false;
+      }
+      long cas = isCas ? Long.parseLong(t[5]) : 0;
+      boolean noreply = t.length > (isCas ? 6 : 5);
+      if (n > MAX_ITEM_SIZE) {
+        reply(noreply, "SERVER_ERROR object too large for cache");
+        return true;
+      }
+      Result r = storage.store(isCas ? "set" : cmd, t[1],
+          (int) Long.parseLong(t[2]), Integer.parseInt(t[3]), cas, data);
+      if (r == Result.STORED) {
+        server.itemChanged(t[1], storage.get(t[1]));
+      }
+      if (!noreply) {
+        sendAscii(r.name());
+      }
+      return true;
+    }
+
+    if (!countRequest()) {
+      return false;
+    }
+    boolean noreply = line.endsWith(" noreply");
+    if (cmd.equals("get") || cmd.equals("gets")) {
+      sendValues(t, 1, cmd.equals("gets"), -1);
+    } else if (cmd.equals("gat") || cmd.equals("gats")) {
+      sendValues(t, 2, cmd.equals("gats"), Integer.parseInt(t[1]));
+    } else if (cmd.equals("delete")) {
+      Result r = storage.delete(t[1], 0);
+      if (r == Result.STORED) {
+        server.itemChanged(t[1], null);
+      }
+      reply(noreply, r == Result.STORED ? "DELETED" : "NOT_FOUND");
+    } else if (cmd.equals("incr") || cmd.equals("decr")) {
+      long delta = Long.parseLong(t[2]);
+      try {
+        Long rv = storage.mutate(t[1], cmd.equals("incr") ? delta : -delta,
+            -1, 0);
+        if (rv != null) {
+          server.itemChanged(t[1], storage.get(t[1]));
+        }
+        reply(noreply, rv == null ? "NOT_FOUND" : String.valueOf(rv));
+      } catch (NumberFormatException e) {
+        reply(noreply, "CLIENT_ERROR cannot increment or decrement "
+            + "non-numeric value");
+      }
+    } else if (cmd.equals("touch")) {
+      Item item = storage.touch(t[1], Integer.parseInt(t[2]));
+      reply(noreply, item == null ? "NOT_FOUND" : "TOUCHED");
+    } else if (cmd.equals("flush_all")) {
+      storage.flush();
+      reply(noreply, "OK");
+    } else if (cmd.equals("version")) {
+      sendAscii("VERSION " + VERSION);
+    } else if (cmd.equals("verbosity")) {
+      reply(noreply, "OK");
+    } else if (cmd.equals("stats")) {
+      String group = line.substring(cmd.length()).trim();
+      String prefix = group.startsWith("cachedump") ? "ITEM " : "STAT ";
+      StringBuilder sb = new StringBuilder();
+      for (String[] stat : server.getStats(group)) {
+        sb.append(prefix).append(stat[0]).append(' ').append(stat[1])
+          .append("\r\n");
+      }
+      sb.append("END");
+      sendAscii(sb.toString());
+    } else if (cmd.equals("quit")) {
+      close();
+      return false;
+    } else {
+      sendAscii("ERROR");
+    }
+    return true;
+  }
+
+  private void sendValues(String[] t, int firstKey, boolean withCas,
+      int touchExp) throws UnsupportedEncodingException {
+    ByteBuffer b = ByteBuffer.allocate(64);
+    for (int i = firstKey; i < t.length; i++) {
+      Item item = touchExp < 0 ? storage.get(t[i])
+          : storage.touch(t[i], touchExp);
+      if (item != null) {
+        String hdr = "VALUE " + t[i] + " " + (item.getFlags() & 0xffffffffL)
+            + " " + item.getData().length
+            + (withCas ? " " + item.getCas() : "") + "\r\n";
+        byte[] hb = hdr.getBytes("UTF-8");
+        b = ensure(b, hb.length + item.getData().length + 2);
+        b.put(hb);
+        b.put(item.getData());
+        b.put((byte) '\r');
+        b.put((byte) '\n');
+      }
+    }
+    b = ensure(b, 5);
+    b.put("END\r\n".getBytes());
+    send(b);
+  }
+
+  private void reply(boolean noreply, String msg) {
+    if (!noreply) {
+      sendAscii(msg);
+    }
+  }
+
+  private void sendAscii(String msg) {
+    byte[] mb = (msg + "\r\n").getBytes();
+    ByteBuffer b = ByteBuffer.allocate(mb.length);
+    b.put(mb);
+    send(b);
+  }
+
+  private static ByteBuffer ensure(ByteBuffer b, int more) {
+    if (b.remaining() >= more) {
+      return b;
+    }
+    ByteBuffer rv = ByteBuffer.allocate(Math.max(b.capacity() * 2,
+        b.position() + more));
+    b.flip();
+    rv.put(b);
+    return rv;
+  }
+
+  private static byte[] intBytes(int i) {
+    return ByteBuffer.allocate(4).putInt(i).array();
+  }
+
+  private static int decodeInt(byte[] b, int i) {
+    return ByteBuffer.wrap(b, i, 4).getInt();
+  }
+
+  private static long decodeLong(byte[] b, int i) {
+    return ByteBuffer.wrap(b, i, 8).getLong();
+  }
+
+  private static final class Pending {
+    private final ByteBuffer buf;
+    private final long due;
+
+    Pending(ByteBuffer b, long d) {
+      buf = b;
+      due = d;
+    }
+  }
+}
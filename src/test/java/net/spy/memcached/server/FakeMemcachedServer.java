@@ -0,0 +1,457 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.spy.memcached.server.FakeStorage.Item;
+
+/**
+ * A memcached server that runs inside the test JVM.
+ *
+ * <p>
+ * It speaks both the ascii and the binary protocol (including the quiet
+ * commands, NOOP and enough of TAP to stream items and take acks), keeps its
+ * items in a {@link FakeStorage}, and can be told to misbehave: responses can
+ * be delayed, written in small fragments, connections can be dropped and
+ * keyed requests can be answered with NOT_MY_VBUCKET.
+ * </p>
+ *
+ * <p>
+ * All the I/O happens on a single daemon thread, so a test can tweak the
+ * knobs at any time without coordinating with it.
+ * </p>
+ */
+public final class FakeMemcachedServer implements Runnable {
+
+  static final long FRAGMENT_PAUSE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final FakeStorage storage = new FakeStorage();
+  private final ServerSocketChannel serverChannel;
+  private final Selector selector;
+  private final Thread thread;
+  // In the order they were accepted.
+  private final Set<FakeConnection> connections =
+      new LinkedHashSet<FakeConnection>();
+  private final ConcurrentLinkedQueue<Runnable> tasks =
+      new ConcurrentLinkedQueue<Runnable>();
+
+  private final AtomicLong requestCount = new AtomicLong();
+  private final AtomicLong tapAckCount = new AtomicLong();
+  private final AtomicInteger connectionCount = new AtomicInteger();
+  private final AtomicInteger openConnections = new AtomicInteger();
+  private final AtomicInteger notMyVbucketCountdown = new AtomicInteger();
+
+  private volatile boolean running = true;
+  private volatile long latencyNanos = 0;
+  private volatile int fragmentSize = 0;
+  private volatile int dropAfter = 0;
+  private volatile long maxBytes = 0;
+  private volatile boolean reorderResponses = false;
+  private volatile Set<Integer> notMyVbuckets = Collections.emptySet();
+
+  /**
+   * Start a server on an ephemeral port of the loopback interface.
+   */
+  public FakeMemcachedServer() throws IOException {
+    this(0);
+  }
+
+  /**
+   * Start a server on the given port of the loopback interface.
+   *
+   * @param port the port to listen on, or 0 to pick any free one
+   */
+  public FakeMemcachedServer(int port) throws IOException {
+    this(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port));
+  }
+
+  /**
+   * Start a server on the given address.
+   */
+  public FakeMemcachedServer(InetSocketAddress addr) throws IOException {
+    selector = Selector.open();
+    serverChannel = ServerSocketChannel.open();
+    serverChannel.configureBlocking(false);
+    serverChannel.socket().setReuseAddress(true);
+    serverChannel.socket().bind(addr);
+    serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    thread = new Thread(this, "Fake memcached server on port " + getPort());
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Get the address the server is listening on.
+   */
+  public InetSocketAddress getAddress() {
+    return (InetSocketAddress) serverChannel.socket().getLocalSocketAddress();
+  }
+
+  /**
+   * Get the port the server is listening on.
+   */
+  public int getPort() {
+    return serverChannel.socket().getLocalPort();
+  }
+
+  /**
+   * Get the server's items.
+   */
+  public FakeStorage getStorage() {
+    return storage;
+  }
+
+  /**
+   * Hold every response back for the given time before writing it.
+   */
+  public void setLatency(long latency, TimeUnit unit) {
+    latencyNanos = unit.toNanos(latency);
+  }
+
+  long getLatencyNanos() {
+    return latencyNanos;
+  }
+
+  /**
+   * Write responses at most this many bytes at a time, pausing briefly
+   * between fragments.
+   *
+   * @param size the fragment size, or 0 to write as much as the socket takes
+   */
+  public void setFragmentSize(int size) {
+    assert size >= 0 : "Negative fragment size";
+    fragmentSize = size;
+  }
+
+  int getFragmentSize() {
+    return fragmentSize;
+  }
+
+  /**
+   * Answer the binary requests read together from a connection in reverse
+   * order.
+   *
+   * <p>
+   * Responses to quiet requests stay just ahead of the response to the next
+   * request that isn't quiet, as a proxy answering out of order would keep
+   * them.
+   * </p>
+   */
+  public void setReorderResponses(boolean to) {
+    reorderResponses = to;
+  }
+
+  boolean isReorderResponses() {
+    return reorderResponses;
+  }
+
+  /**
+   * Close each connection, without answering, when it sends its nth request.
+   *
+   * @param n the number of requests a connection may send, or 0 for no limit
+   */
+  public void setDropAfter(int n) {
+    assert n >= 0 : "Negative request count";
+    dropAfter = n;
+  }
+
+  int getDropAfter() {
+    return dropAfter;
+  }
+
+  /**
+   * Report a memory limit in the limit_maxbytes stat.
+   *
+   * @param bytes the limit, or 0 to leave the stat out
+   */
+  public void setMaxBytes(long bytes) {
+    assert bytes >= 0 : "Negative memory limit";
+    maxBytes = bytes;
+  }
+
+  /**
+   * Answer every keyed request for the given vbuckets with NOT_MY_VBUCKET.
+   */
+  public void setNotMyVbuckets(Collection<Integer> vbuckets) {
+    notMyVbuckets = Collections.unmodifiableSet(
+        new HashSet<Integer>(vbuckets));
+  }
+
+  /**
+   * Answer the next <code>n</code> keyed binary requests with
+   * NOT_MY_VBUCKET, whatever vbucket they are for.
+   */
+  public void failWithNotMyVbucket(int n) {
+    notMyVbucketCountdown.set(n);
+  }
+
+  boolean isNotMyVbucket(int vbucket) {
+    if (notMyVbuckets.contains(vbucket)) {
+      return true;
+    }
+    int remaining;
+    do {
+      remaining = notMyVbucketCountdown.get();
+      if (remaining <= 0) {
+        return false;
+      }
+    } while (!notMyVbucketCountdown.compareAndSet(remaining, remaining - 1));
+    return true;
+  }
+
+  /**
+   * Close every open client connection.
+   */
+  public void dropConnections() {
+    dropConnections(Integer.MAX_VALUE);
+  }
+
+  /**
+   * Close the given number of open client connections, oldest first.
+   *
+   * @param n how many to close
+   */
+  public void dropConnections(final int n) {
+    execute(new Runnable() {
+      public void run() {
+        List<FakeConnection> open = new ArrayList<FakeConnection>(connections);
+        for (FakeConnection c : open.subList(0, Math.min(n, open.size()))) {
+          c.close();
+        }
+      }
+    });
+  }
+
+  /**
+   * Get the number of requests received so far.
+   */
+  public long getRequestCount() {
+    return requestCount.get();
+  }
+
+  /**
+   * Get the number of TAP acks received so far.
+   */
+  public long getTapAckCount() {
+    return tapAckCount.get();
+  }
+
+  /**
+   * Get the number of connections accepted so far.
+   */
+  public int getConnectionCount() {
+    return connectionCount.get();
+  }
+
+  /**
+   * Get the number of connections currently open.
+   */
+  public int getOpenConnections() {
+    return openConnections.get();
+  }
+
+  /**
+   * Stop the server and close all its connections.
+   */
+  public void shutdown() throws InterruptedException {
+    running = false;
+    selector.wakeup();
+    thread.join();
+  }
+
+  void requestReceived() {
+    requestCount.incrementAndGet();
+  }
+
+  void tapAckReceived() {
+    tapAckCount.incrementAndGet();
+  }
+
+  void connectionClosed(FakeConnection c) {
+    if (connections.remove(c)) {
+      openConnections.decrementAndGet();
+    }
+  }
+
+  List<String[]> getStats(String group) {
+    List<String[]> rv = new ArrayList<String[]>();
+    if (group.equals("slabs")) {
+      rv.add(new String[] {"1:chunk_size", "96"});
+      rv.add(new String[] {"active_slabs", "1"});
+    } else if (group.equals("sizes")) {
+      // Item sizes in 32 byte buckets, like memcached.
+      Map<Integer, Integer> sizes = new TreeMap<Integer, Integer>();
+      for (String k : storage.keys()) {
+        Item item = storage.get(k);
+        if (item != null) {
+          int size = (k.length() + item.getData().length + 48 + 31) / 32 * 32;
+          Integer n = sizes.get(size);
+          sizes.put(size, n == null ? 1 : n + 1);
+        }
+      }
+      for (Map.Entry<Integer, Integer> me : sizes.entrySet()) {
+        rv.add(new String[] {String.valueOf(me.getKey()),
+          String.valueOf(me.getValue())});
+      }
+    } else if (group.startsWith("cachedump")) {
+      for (String k : storage.keys()) {
+        Item item = storage.get(k);
+        if (item != null) {
+          rv.add(new String[] {k, "[" + item.getData().length + " b; "
+            + item.getExpiration() + " s]"});
+        }
+      }
+    } else if (group.length() == 0) {
+      rv.add(new String[] {"pid", "0"});
+      rv.add(new String[] {"version", FakeConnection.VERSION});
+      rv.add(new String[] {"curr_items", String.valueOf(storage.size())});
+      rv.add(new String[] {"curr_connections",
+        String.valueOf(openConnections.get())});
+      rv.add(new String[] {"total_connections",
+        String.valueOf(connectionCount.get())});
+      rv.add(new String[] {"cmd_total", String.valueOf(requestCount.get())});
+      if (maxBytes > 0) {
+        rv.add(new String[] {"limit_maxbytes", String.valueOf(maxBytes)});
+      }
+    }
+    return rv;
+  }
+
+  // Called on the server thread whenever an item changes.
+  void itemChanged(String key, Item item) {
+    for (FakeConnection c : connections) {
+      if (c.isTapping()) {
+        c.tapItem(key, item);
+      }
+    }
+  }
+
+  private void execute(Runnable r) {
+    tasks.add(r);
+    selector.wakeup();
+  }
+
+  public void run() {
+    try {
+      while (running) {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+          task.run();
+        }
+        long wait = Long.MAX_VALUE;
+        long now = System.nanoTime();
+        for (FakeConnection c : new ArrayList<FakeConnection>(connections)) {
+          try {
+            wait = Math.min(wait, c.write(now));
+          } catch (IOException e) {
+            c.close();
+          }
+        }
+        if (wait == Long.MAX_VALUE) {
+          selector.select();
+        } else {
+          selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+        }
+        for (SelectionKey sk : selector.selectedKeys()) {
+          if (!sk.isValid()) {
+            continue;
+          }
+          if (sk.isAcceptable()) {
+            accept();
+          } else if (sk.isReadable()) {
+            FakeConnection c = (FakeConnection) sk.attachment();
+            try {
+              c.read();
+            } catch (IOException e) {
+              c.close();
+            }
+          }
+        }
+        selector.selectedKeys().clear();
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Fake memcached server failed", e);
+    } finally {
+      for (FakeConnection c : new ArrayList<FakeConnection>(connections)) {
+        c.close();
+      }
+      try {
+        serverChannel.close();
+        selector.close();
+      } catch (IOException e) {
+        // Shutting down anyway.
+      }
+    }
+  }
+
+  private void accept() throws IOException {
+    SocketChannel ch;
+    while ((ch = serverChannel.accept()) != null) {
+      ch.configureBlocking(false);
+      ch.socket().setTcpNoDelay(true);
+      SelectionKey sk = ch.register(selector, SelectionKey.OP_READ);
+      FakeConnection c = new FakeConnection(this, ch, sk);
+      sk.attach(c);
+      connections.add(c);
+      connectionCount.incrementAndGet();
+      openConnections.incrementAndGet();
+    }
+  }
+
+  /**
+   * Run a server on its own, for pointing load tests at.
+   *
+   * @param args the port to listen on (default 11211)
+   */
+  public static void main(String[] args) throws Exception {
+    FakeMemcachedServer s = new FakeMemcachedServer(
+        args.length > 0 ? Integer.parseInt(args[0]) : 11211);
+    System.out.println("Listening on " + s.getAddress());
+    s.thread.join();
+  }
+
+  @Override
+  public String toString() {
+    return "{FakeMemcachedServer port=" + getPort() + "}";
+  }
+}
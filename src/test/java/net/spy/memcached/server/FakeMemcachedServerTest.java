@@ -0,0 +1,681 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.server;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.CASResponse;
+import net.spy.memcached.CASValue;
+import net.spy.memcached.ConnectionFactoryBuilder;
+import net.spy.memcached.ConnectionFactoryBuilder.Locator;
+import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
+import net.spy.memcached.DefaultHashAlgorithm;
+import net.spy.memcached.FailureMode;
+import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.NodeLocator;
+import net.spy.memcached.TapClient;
+import net.spy.memcached.auth.AuthDescriptor;
+import net.spy.memcached.internal.CheckedOperationTimeoutException;
+import net.spy.memcached.internal.FutureListener;
+import net.spy.memcached.internal.GetFuture;
+import net.spy.memcached.ops.LaneOperationQueueFactory;
+import net.spy.memcached.protocol.DirectBufferPool;
+import net.spy.memcached.tapmessage.ResponseMessage;
+
+/**
+ * Exercise the client against a {@link FakeMemcachedServer}.
+ */
+public class FakeMemcachedServerTest extends TestCase {
+
+  private FakeMemcachedServer server;
+  private MemcachedClient client;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    server = new FakeMemcachedServer();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    if (client != null) {
+      client.shutdown();
+    }
+    server.shutdown();
+    super.tearDown();
+  }
+
+  private MemcachedClient connect(Protocol p) throws Exception {
+    return connect(new ConnectionFactoryBuilder().setProtocol(p));
+  }
+
+  private MemcachedClient connect(ConnectionFactoryBuilder b)
+    throws Exception {
+    b.setOpTimeout(5000).setFailureMode(FailureMode.Retry)
+      .setMaxReconnectDelay(1);
+    client = new MemcachedClient(b.build(),
+        Collections.singletonList(server.getAddress()));
+    return client;
+  }
+
+  private void roundTrips(boolean binary) throws Exception {
+    assertNull(client.get("k"));
+    assertTrue(client.set("k", 0, "v").get());
+    assertEquals("v", client.get("k"));
+    assertFalse(client.add("k", 0, "w").get());
+    assertTrue(client.replace("k", 0, "w").get());
+    assertFalse(client.replace("missing", 0, "w").get());
+    assertTrue(client.append(0, "k", "x").get());
+    assertTrue(client.prepend(0, "k", "y").get());
+    assertEquals("ywx", client.get("k"));
+
+    CASValue<Object> casv = client.gets("k");
+    assertEquals("ywx", casv.getValue());
+    assertSame(CASResponse.EXISTS, client.cas("k", casv.getCas() + 1, "z"));
+    assertSame(CASResponse.OK, client.cas("k", casv.getCas(), "z"));
+    assertEquals("z", client.get("k"));
+
+    assertEquals(-1, client.incr("n", 1));
+    assertTrue(client.set("n", 0, "5").get());
+    assertEquals(7, client.incr("n", 2));
+    assertEquals(4, client.decr("n", 3));
+    assertEquals(0, client.decr("n", 10));
+
+    if (binary) {
+      assertTrue(client.touch("k", 60).get());
+      assertFalse(client.touch("missing", 60).get());
+    }
+    assertTrue(client.delete("k").get());
+    assertFalse(client.delete("k").get());
+    assertNull(client.get("k"));
+
+    assertEquals(FakeConnection.VERSION,
+        client.getVersions().get(server.getAddress()));
+    Map<String, String> stats = client.getStats().get(server.getAddress());
+    assertEquals(FakeConnection.VERSION, stats.get("version"));
+    assertTrue(client.flush().get());
+    assertEquals(0, server.getStorage().size());
+  }
+
+  private void bulkGets() throws Exception {
+    List<String> keys = new ArrayList<String>();
+    for (int i = 0; i < 200; i++) {
+      keys.add("bulk" + i);
+      if (i % 2 == 0) {
+        server.getStorage().put("bulk" + i, 0, ("value" + i).getBytes());
+      }
+    }
+    Map<String, Object> m = client.getBulk(keys);
+    assertEquals(100, m.size());
+    for (int i = 0; i < 200; i += 2) {
+      assertEquals("value" + i, m.get("bulk" + i));
+    }
+  }
+
+  public void testBinaryRoundTrips() throws Exception {
+    connect(Protocol.BINARY);
+    roundTrips(true);
+  }
+
+  public void testAsciiRoundTrips() throws Exception {
+    connect(Protocol.TEXT);
+    roundTrips(false);
+  }
+
+  public void testBinaryBulkGet() throws Exception {
+    connect(Protocol.BINARY);
+    bulkGets();
+  }
+
+  public void testAsciiBulkGet() throws Exception {
+    connect(Protocol.TEXT);
+    bulkGets();
+  }
+
+  public void testBulkStoresGoInRuns() throws Exception {
+    connect(Protocol.BINARY);
+    Map<String, Object> values = new HashMap<String, Object>();
+    for (int i = 0; i < 5000; i++) {
+      values.put("run" + i, "v" + i);
+    }
+    long before = server.getRequestCount();
+    assertTrue(client.asyncSetBulk(values, 0).get().isEmpty());
+    // Runs of up to 1024 keys, each ending with a NOOP.
+    assertEquals(5000 + 5, server.getRequestCount() - before);
+    assertEquals("v4999", client.get("run4999"));
+
+    // Runs are also cut at about 2MB of values.
+    values.clear();
+    Random r = new Random();
+    for (int i = 0; i < 3; i++) {
+      // Random, so that they don't compress.
+      byte[] b = new byte[1024 * 1024];
+      r.nextBytes(b);
+      values.put("big" + i, b);
+    }
+    before = server.getRequestCount();
+    assertTrue(client.asyncSetBulk(values, 0).get().isEmpty());
+    assertEquals(3 + 3, server.getRequestCount() - before);
+
+    before = server.getRequestCount();
+    assertTrue(client.asyncDeleteBulk(new ArrayList<String>(
+        Arrays.asList("big0", "big1", "big2"))).get().isEmpty());
+    assertEquals(3 + 1, server.getRequestCount() - before);
+  }
+
+  public void testFragmentedResponses() throws Exception {
+    server.setFragmentSize(7);
+    connect(Protocol.BINARY);
+    bulkGets();
+    byte[] big = new byte[5000];
+    Arrays.fill(big, (byte) 'b');
+    assertTrue(client.set("big", 0, big).get());
+    assertTrue(Arrays.equals(big, (byte[]) client.get("big")));
+  }
+
+  public void testLargeValues() throws Exception {
+    connect(Protocol.BINARY);
+    // Bigger than any buffer the pool will hand out.
+    byte[] big = new byte[(1024 * 1024) - 1024];
+    for (int i = 0; i < big.length; i++) {
+      big[i] = (byte) i;
+    }
+    for (int i = 0; i < 3; i++) {
+      assertTrue(client.set("big" + i, 0, big).get());
+    }
+    for (int i = 0; i < 3; i++) {
+      assertTrue(Arrays.equals(big, (byte[]) client.get("big" + i)));
+    }
+  }
+
+  public void testWriteLanes() throws Exception {
+    LaneOperationQueueFactory lanes = new LaneOperationQueueFactory();
+    connect(new ConnectionFactoryBuilder().setProtocol(Protocol.BINARY)
+        .setWriteOpQueueFactory(lanes));
+    roundTrips(true);
+    // Random, so the transcoder can't compress it below the threshold.
+    byte[] big = new byte[20000];
+    new Random(1).nextBytes(big);
+    List<Future<Boolean>> sets = new ArrayList<Future<Boolean>>();
+    for (int i = 0; i < 20; i++) {
+      sets.add(client.set("big" + i, 0, big));
+      sets.add(client.set("small" + i, 0, "s" + i));
+    }
+    for (Future<Boolean> f : sets) {
+      assertTrue(f.get());
+    }
+    for (int i = 0; i < 20; i++) {
+      assertTrue(Arrays.equals(big, (byte[]) client.get("big" + i)));
+      assertEquals("s" + i, client.get("small" + i));
+    }
+    assertEquals(20, lanes.getStats(1).getDequeuedCount());
+    assertEquals(0, lanes.getStats(1).getDepth());
+    assertTrue(lanes.getStats(0).getDequeuedCount() > 40);
+  }
+
+  public void testReorderedResponses() throws Exception {
+    server.setReorderResponses(true);
+    connect(new ConnectionFactoryBuilder().setProtocol(Protocol.BINARY)
+        .setMatchResponsesByOpaque(true));
+    roundTrips(true);
+    bulkGets();
+  }
+
+  public void testReorderedGets() throws Exception {
+    server.setReorderResponses(true);
+    connect(new ConnectionFactoryBuilder().setProtocol(Protocol.BINARY)
+        .setMatchResponsesByOpaque(true).setShouldOptimize(false));
+    for (int i = 0; i < 100; i++) {
+      server.getStorage().put("k" + i, 0, ("v" + i).getBytes());
+    }
+    final List<Integer> order =
+        Collections.synchronizedList(new ArrayList<Integer>());
+    List<GetFuture<Object>> gets = new ArrayList<GetFuture<Object>>();
+    for (int i = 0; i < 100; i++) {
+      final int n = i;
+      GetFuture<Object> f = client.asyncGet("k" + i);
+      f.addListener(new Executor() {
+        public void execute(Runnable r) {
+          r.run();
+        }
+      }, new FutureListener<Object>() {
+        public void onComplete(Future<? extends Object> future) {
+          order.add(n);
+        }
+      });
+      gets.add(f);
+    }
+    for (int i = 0; i < 100; i++) {
+      assertEquals("v" + i, gets.get(i).get());
+    }
+    List<Integer> sorted = new ArrayList<Integer>(order);
+    Collections.sort(sorted);
+    assertEquals(100, sorted.size());
+    assertFalse("Responses came in order", sorted.equals(order));
+  }
+
+  public void testOptimizeWindow() throws Exception {
+    connect(new ConnectionFactoryBuilder().setProtocol(Protocol.BINARY)
+        .setOptimizeWindow(64));
+    roundTrips(true);
+    List<Future<Boolean>> sets = new ArrayList<Future<Boolean>>();
+    List<Future<Object>> gets = new ArrayList<Future<Object>>();
+    for (int i = 0; i < 500; i++) {
+      sets.add(client.set("w" + (i % 50), 0, "v" + i));
+      gets.add(client.asyncGet("w" + (i % 50)));
+    }
+    for (int i = 0; i < 500; i++) {
+      assertTrue(sets.get(i).get());
+      // Each get sees the set just before it, and no later one.
+      assertEquals("v" + i, gets.get(i).get());
+    }
+  }
+
+  public void testLatency() throws Exception {
+    connect(Protocol.BINARY);
+    assertTrue(client.set("k", 0, "v").get());
+    server.setLatency(100, TimeUnit.MILLISECONDS);
+    long start = System.nanoTime();
+    assertEquals("v", client.get("k"));
+    long took = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    assertTrue("Only took " + took + "ms", took >= 100);
+  }
+
+  public void testProactiveTimeouts() throws Exception {
+    client = new MemcachedClient(new ConnectionFactoryBuilder()
+        .setProtocol(Protocol.BINARY).setOpTimeout(200)
+        .setProactiveTimeouts(true).setFailureMode(FailureMode.Retry)
+        .setMaxReconnectDelay(1).build(),
+        Collections.singletonList(server.getAddress()));
+    assertTrue(client.set("k", 0, "v").get());
+    server.setLatency(1000, TimeUnit.MILLISECONDS);
+    final CountDownLatch done = new CountDownLatch(1);
+    GetFuture<Object> f = client.asyncGet("k");
+    f.addListener(new Executor() {
+      public void execute(Runnable r) {
+        r.run();
+      }
+    }, new FutureListener<Object>() {
+      public void onComplete(Future<? extends Object> future) {
+        done.countDown();
+      }
+    });
+    // Nothing waits on the future, and it still times out.
+    assertTrue(done.await(800, TimeUnit.MILLISECONDS));
+    try {
+      f.get();
+      fail("Expected a timeout");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof CheckedOperationTimeoutException);
+    }
+    // Once the late response is in, the connection carries on.
+    server.setLatency(0, TimeUnit.MILLISECONDS);
+    Thread.sleep(1000);
+    assertEquals("v", client.get("k"));
+  }
+
+  public void testNotMyVbucketRetried() throws Exception {
+    connect(Protocol.BINARY);
+    assertTrue(client.set("k", 0, "v").get());
+    long before = server.getRequestCount();
+    server.failWithNotMyVbucket(2);
+    assertEquals("v", client.get("k"));
+    assertEquals(before + 3, server.getRequestCount());
+  }
+
+  public void testDroppedConnectionsReconnect() throws Exception {
+    connect(Protocol.BINARY);
+    assertTrue(client.set("k", 0, "v").get());
+    assertEquals(1, server.getConnectionCount());
+    server.dropConnections();
+    // An idle client only notices the drop when it next reads, and the
+    // read in flight at that point is cancelled.
+    try {
+      client.get("k");
+    } catch (RuntimeException e) {
+      assertEquals("Cancelled", e.getCause().getCause().getMessage());
+    }
+    assertEquals("v", client.get("k"));
+    assertEquals(2, server.getConnectionCount());
+  }
+
+  public void testConnectionsPerNode() throws Exception {
+    connect(new ConnectionFactoryBuilder().setProtocol(Protocol.BINARY)
+        .setConnectionsPerNode(3).setIOThreadCount(2));
+    roundTrips(true);
+    List<String> keys = new ArrayList<String>();
+    List<Future<Boolean>> sets = new ArrayList<Future<Boolean>>();
+    for (int i = 0; i < 200; i++) {
+      keys.add("k" + i);
+      sets.add(client.set("k" + i, 0, "v" + i));
+    }
+    // Operations on different connections can overtake each other.
+    for (Future<Boolean> f : sets) {
+      assertTrue(f.get());
+    }
+    assertEquals(200, client.getBulk(keys).size());
+    assertEquals(3, server.getConnectionCount());
+
+    server.dropConnections();
+    // Each channel only notices the drop when it next reads, and the read
+    // in flight at that point is cancelled.
+    int found = 0;
+    for (int i = 0; i < 50 && found < 10; i++) {
+      try {
+        assertEquals("v0", client.get("k0"));
+        found++;
+      } catch (RuntimeException e) {
+        assertEquals("Cancelled", e.getCause().getCause().getMessage());
+      }
+    }
+    assertEquals(10, found);
+  }
+
+  public void testConnectionsPerNodeKeepKeyOrder() throws Exception {
+    connect(new ConnectionFactoryBuilder().setProtocol(Protocol.BINARY)
+        .setConnectionsPerNode(3));
+    List<Future<Boolean>> sets = new ArrayList<Future<Boolean>>();
+    List<Future<Boolean>> deletes = new ArrayList<Future<Boolean>>();
+    for (int i = 0; i < 500; i++) {
+      // Keep the connections busy with other keys.
+      client.set("other" + i, 0, new byte[8192]);
+      sets.add(client.set("k", 0, "v" + i));
+      deletes.add(client.delete("k"));
+    }
+    Future<Boolean> last = client.set("k", 0, "last");
+    for (int i = 0; i < 500; i++) {
+      assertTrue(sets.get(i).get());
+      // Each delete finds the set just before it.
+      assertTrue("Delete " + i, deletes.get(i).get());
+    }
+    assertTrue(last.get());
+    assertEquals("last", client.get("k"));
+    assertEquals(3, server.getConnectionCount());
+  }
+
+  public void testConnectionsPerNodeOutliveLostChannels() throws Exception {
+    // The first reconnect waits two seconds, longer than an op may take.
+    client = new MemcachedClient(new ConnectionFactoryBuilder()
+        .setProtocol(Protocol.BINARY).setConnectionsPerNode(3)
+        .setOpTimeout(1000).setFailureMode(FailureMode.Retry)
+        .setMaxReconnectDelay(30).build(),
+        Collections.singletonList(server.getAddress()));
+    for (int i = 0; i < 30; i++) {
+      assertTrue(client.set("k" + i, 0, "v" + i).get());
+    }
+    assertEquals(3, server.getOpenConnections());
+
+    // Lose the first channel, which the locator knows, and one other.
+    server.dropConnections(2);
+    // Each channel only notices the drop when it next reads, and the read
+    // in flight at that point is cancelled.
+    for (int i = 0; i < 30; i++) {
+      try {
+        assertEquals("v" + i, client.get("k" + i));
+      } catch (RuntimeException e) {
+        assertEquals("Cancelled", e.getCause().getCause().getMessage());
+      }
+    }
+    // Then every key goes over the channel that's left.
+    for (int i = 0; i < 30; i++) {
+      assertEquals("v" + i, client.get("k" + i));
+    }
+    Map<String, String> stats = client.getStats().get(server.getAddress());
+    assertEquals(FakeConnection.VERSION, stats.get("version"));
+  }
+
+  public void testBoundedLoadGetsNeverStale() throws Exception {
+    FakeMemcachedServer s2 = new FakeMemcachedServer();
+    FakeMemcachedServer s3 = new FakeMemcachedServer();
+    try {
+      client = new MemcachedClient(new ConnectionFactoryBuilder()
+          .setProtocol(Protocol.BINARY).setOpTimeout(5000)
+          .setLocatorType(Locator.CONSISTENT_BOUNDED_LOAD).build(),
+          Arrays.asList(server.getAddress(), s2.getAddress(),
+              s3.getAddress()));
+      // Until every node connects, a set may be redistributed away from
+      // its own node.
+      for (int i = 0; i < 100 && !client.getUnavailableServers().isEmpty();
+          i++) {
+        Thread.sleep(50);
+      }
+      assertEquals(3, client.getAvailableServers().size());
+      for (int round = 0; round < 3; round++) {
+        String v = "v" + round;
+        assertTrue(client.set("hot", 0, v).get());
+        assertEquals(1, holding(Arrays.asList(server, s2, s3), "hot", v));
+        // The first gets may move the key to an empty node and miss, but
+        // they never read an older value.
+        for (Object o : hammer("hot", 300)) {
+          assertTrue("Read " + o, o == null || v.equals(o));
+        }
+        assertTrue(client.set("hot", 0, v).get());
+        assertEquals(Collections.nCopies(300, v), hammer("hot", 300));
+
+        assertTrue(client.append(0, "hot", "x").get());
+        assertEquals(Collections.nCopies(300, v + "x"), hammer("hot", 300));
+
+        assertTrue(client.delete("hot").get());
+        assertEquals(Collections.nCopies(300, null), hammer("hot", 300));
+      }
+    } finally {
+      s2.shutdown();
+      s3.shutdown();
+    }
+  }
+
+  public void testReweightByMaxBytes() throws Exception {
+    FakeMemcachedServer s2 = new FakeMemcachedServer();
+    FakeMemcachedServer s3 = new FakeMemcachedServer();
+    try {
+      client = new MemcachedClient(new ConnectionFactoryBuilder()
+          .setOpTimeout(5000).setLocatorType(Locator.CONSISTENT)
+          .setHashAlg(DefaultHashAlgorithm.KETAMA_HASH).build(),
+          Arrays.asList(server.getAddress(), s2.getAddress(),
+              s3.getAddress()));
+      server.setMaxBytes(64L << 20);
+      s2.setMaxBytes(256L << 20);
+      // s3 doesn't report its limit, so gets the median rather than being
+      // all but dropped.
+      Map<SocketAddress, Integer> w = client.reweightByMaxBytes();
+      assertEquals(64, (int) w.get(server.getAddress()));
+      assertEquals(256, (int) w.get(s2.getAddress()));
+      assertEquals(256, (int) w.get(s3.getAddress()));
+
+      Map<SocketAddress, Integer> counts =
+          new HashMap<SocketAddress, Integer>();
+      NodeLocator locator = client.getNodeLocator();
+      for (int i = 0; i < 9000; i++) {
+        SocketAddress sa = locator.getPrimary("k" + i).getSocketAddress();
+        Integer n = counts.get(sa);
+        counts.put(sa, n == null ? 1 : n + 1);
+      }
+      // About 1000, 4000 and 4000.
+      assertTrue(counts.toString(), counts.get(server.getAddress()) < 2000);
+      assertTrue(counts.toString(), counts.get(s3.getAddress()) > 3000);
+      assertTrue(counts.toString(), counts.get(s2.getAddress()) > 3000);
+    } finally {
+      s2.shutdown();
+      s3.shutdown();
+    }
+  }
+
+  private int holding(List<FakeMemcachedServer> servers, String key,
+      String value) {
+    int rv = 0;
+    for (FakeMemcachedServer s : servers) {
+      FakeStorage.Item item = s.getStorage().get(key);
+      if (item != null && value.equals(new String(item.getData()))) {
+        rv++;
+      }
+    }
+    return rv;
+  }
+
+  private List<Object> hammer(String key, int n) throws Exception {
+    List<Future<Object>> fs = new ArrayList<Future<Object>>();
+    for (int i = 0; i < n; i++) {
+      fs.add(client.asyncGet(key));
+    }
+    List<Object> rv = new ArrayList<Object>();
+    for (Future<Object> f : fs) {
+      rv.add(f.get());
+    }
+    return rv;
+  }
+
+  public void testBufferPoolOfItsOwn() throws Exception {
+    // Only 4k of direct buffers may be out at once.
+    DirectBufferPool pool = new DirectBufferPool(64, 1 << 20, 1 << 20, 4096);
+    connect(new ConnectionFactoryBuilder().setProtocol(Protocol.BINARY)
+        .setBufferPool(pool));
+    char[] big = new char[16384];
+    Arrays.fill(big, 'x');
+    List<Future<Boolean>> sets = new ArrayList<Future<Boolean>>();
+    for (int i = 0; i < 100; i++) {
+      sets.add(client.set("k" + i, 0, i % 10 == 0 ? new String(big) : "v"));
+    }
+    for (Future<Boolean> f : sets) {
+      assertTrue(f.get());
+    }
+    assertEquals(new String(big), client.get("k0"));
+    assertEquals("v", client.get("k1"));
+    assertTrue(pool.getMisses() > 0);
+    assertTrue(pool.getOverLoaned() > 0);
+    assertEquals(0, pool.getLoanedBytes());
+  }
+
+  public void testNoBufferPool() throws Exception {
+    long loaned = DirectBufferPool.getInstance().getLoanedBytes();
+    connect(new ConnectionFactoryBuilder().setProtocol(Protocol.BINARY)
+        .setBufferPool(null));
+    roundTrips(true);
+    assertEquals(loaned, DirectBufferPool.getInstance().getLoanedBytes());
+  }
+
+  public void testConnectionsPerNodeAuthenticate() throws Exception {
+    connect(new ConnectionFactoryBuilder().setProtocol(Protocol.BINARY)
+        .setConnectionsPerNode(3)
+        .setAuthDescriptor(AuthDescriptor.typical("user", "pass")));
+    for (int i = 0; i < 100; i++) {
+      assertTrue(client.set("k" + i, 0, "v" + i).get());
+    }
+    assertEquals(3, server.getConnectionCount());
+  }
+
+  public void testDropAfter() throws Exception {
+    server.getStorage().put("k", 0, "v".getBytes());
+    server.setDropAfter(3);
+    connect(Protocol.TEXT);
+    int cancelled = 0;
+    for (int i = 0; i < 10; i++) {
+      try {
+        assertEquals("v", client.get("k"));
+      } catch (RuntimeException e) {
+        // Reads in flight when a connection goes away are cancelled.
+        assertEquals("Cancelled", e.getCause().getCause().getMessage());
+        cancelled++;
+      }
+    }
+    assertEquals(3, cancelled);
+    assertTrue(server.getConnectionCount() >= 4);
+  }
+
+  public void testTapDump() throws Exception {
+    Set<String> expected = new HashSet<String>();
+    for (int i = 0; i < 25; i++) {
+      server.getStorage().put("tap" + i, 0, ("value" + i).getBytes());
+      expected.add("tap" + i + "=value" + i);
+    }
+    TapClient tc = new TapClient(server.getAddress());
+    try {
+      tc.tapDump(null);
+      Set<String> seen = new HashSet<String>();
+      while (tc.hasMoreMessages()) {
+        ResponseMessage m = tc.getNextMessage(100, TimeUnit.MILLISECONDS);
+        if (m != null) {
+          seen.add(m.getKey() + "=" + new String(m.getValue()));
+        }
+      }
+      assertEquals(expected, seen);
+      assertEquals(25, server.getTapAckCount());
+    } finally {
+      tc.shutdown();
+    }
+  }
+
+  public void testMultipleIOThreads() throws Exception {
+    Collection<FakeMemcachedServer> others =
+        new ArrayList<FakeMemcachedServer>();
+    try {
+      List<InetSocketAddress> addrs = new ArrayList<InetSocketAddress>();
+      addrs.add(server.getAddress());
+      for (int i = 0; i < 3; i++) {
+        FakeMemcachedServer s = new FakeMemcachedServer();
+        others.add(s);
+        addrs.add(s.getAddress());
+      }
+      // Retry so that keys aren't redistributed while nodes are connecting.
+      client = new MemcachedClient(new ConnectionFactoryBuilder()
+          .setProtocol(Protocol.BINARY).setIOThreadCount(2)
+          .setFailureMode(FailureMode.Retry).setOpTimeout(5000).build(),
+          addrs);
+      for (int i = 0; i < 100; i++) {
+        assertTrue(client.set("k" + i, 0, "v" + i).get());
+      }
+      List<String> keys = new ArrayList<String>();
+      for (int i = 0; i < 100; i++) {
+        keys.add("k" + i);
+      }
+      assertEquals(100, client.getBulk(keys).size());
+      int total = server.getStorage().size();
+      for (FakeMemcachedServer s : others) {
+        assertTrue(s.getStorage().size() > 0);
+        total += s.getStorage().size();
+      }
+      assertEquals(100, total);
+    } finally {
+      for (FakeMemcachedServer s : others) {
+        s.shutdown();
+      }
+    }
+  }
+}
@@ -0,0 +1,253 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.server;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The items held by a {@link FakeMemcachedServer}, with memcached's storage
+ * semantics.
+ *
+ * All mutations happen on the server thread; tests may read and seed items
+ * from other threads.
+ */
+public final class FakeStorage {
+
+  /**
+   * The outcome of a storage command.
+   */
+  public enum Result {
+    STORED, NOT_STORED, EXISTS, NOT_FOUND
+  }
+
+  // Expirations beyond this many seconds are absolute unix times.
+  private static final int MAX_RELATIVE_EXPIRATION = 60 * 60 * 24 * 30;
+
+  private final Map<String, Item> items = new ConcurrentHashMap<String, Item>();
+  private final AtomicLong casCounter = new AtomicLong();
+
+  /**
+   * Get the live item stored under the given key.
+   *
+   * @return the item or null if there isn't one or it has expired
+   */
+  public Item get(String key) {
+    Item rv = items.get(key);
+    if (rv != null && rv.isExpired()) {
+      items.remove(key);
+      rv = null;
+    }
+    return rv;
+  }
+
+  /**
+   * Store a value directly, bypassing any protocol.
+   */
+  public void put(String key, int flags, byte[] data) {
+    items.put(key, new Item(flags, 0, casCounter.incrementAndGet(), data));
+  }
+
+  /**
+   * Run a set, add, replace, append or prepend.
+   *
+   * @param cmd one of "set", "add", "replace", "append" or "prepend"
+   * @param cas the cas value the item must have, or 0 for any
+   */
+  public Result store(String cmd, String key, int flags, int exp, long cas,
+      byte[] data) {
+    Item old = get(key);
+    if (cas != 0) {
+      if (old == null) {
+        return Result.NOT_FOUND;
+      } else if (old.getCas() != cas) {
+        return Result.EXISTS;
+      }
+    }
+    if ("add".equals(cmd)) {
+      if (old != null) {
+        return Result.NOT_STORED;
+      }
+    } else if ("replace".equals(cmd)) {
+      if (old == null) {
+        return Result.NOT_STORED;
+      }
+    } else if ("append".equals(cmd) || "prepend".equals(cmd)) {
+      if (old == null) {
+        return Result.NOT_STORED;
+      }
+      byte[] combined = new byte[old.data.length + data.length];
+      byte[] first = "append".equals(cmd) ? old.data : data;
+      byte[] second = "append".equals(cmd) ? data : old.data;
+      System.arraycopy(first, 0, combined, 0, first.length);
+      System.arraycopy(second, 0, combined, first.length, second.length);
+      items.put(key, new Item(old.flags, old.expiresAt,
+          casCounter.incrementAndGet(), combined));
+      return Result.STORED;
+    } else {
+      assert "set".equals(cmd) : "Unknown storage command " + cmd;
+    }
+    items.put(key, new Item(flags, expiresAt(exp),
+        casCounter.incrementAndGet(), data));
+    return Result.STORED;
+  }
+
+  /**
+   * Delete an item.
+   *
+   * @param cas the cas value the item must have, or 0 for any
+   */
+  public Result delete(String key, long cas) {
+    Item old = get(key);
+    if (old == null) {
+      return Result.NOT_FOUND;
+    } else if (cas != 0 && old.getCas() != cas) {
+      return Result.EXISTS;
+    }
+    items.remove(key);
+    return Result.STORED;
+  }
+
+  /**
+   * Increment or decrement a counter.
+   *
+   * @param delta the amount to add (or subtract, if negative)
+   * @param initial the value to create a missing counter with, or -1 to not
+   *        create it
+   * @return the new value, or null if the item does not exist
+   * @throws NumberFormatException if the item is not a number
+   */
+  public Long mutate(String key, long delta, long initial, int exp) {
+    Item old = get(key);
+    long value;
+    if (old == null) {
+      if (initial < 0) {
+        return null;
+      }
+      value = initial;
+      items.put(key, new Item(0, expiresAt(exp), casCounter.incrementAndGet(),
+          String.valueOf(value).getBytes()));
+      return value;
+    }
+    value = Long.parseLong(new String(old.data).trim());
+    value += delta;
+    if (delta < 0 && value < 0) {
+      // Decrements stop at zero.
+      value = 0;
+    }
+    items.put(key, new Item(old.flags, old.expiresAt,
+        casCounter.incrementAndGet(), String.valueOf(value).getBytes()));
+    return value;
+  }
+
+  /**
+   * Change the expiration of an item.
+   *
+   * @return the touched item, or null if there was none
+   */
+  public Item touch(String key, int exp) {
+    Item old = get(key);
+    if (old == null) {
+      return null;
+    }
+    Item rv = new Item(old.flags, expiresAt(exp), old.cas, old.data);
+    items.put(key, rv);
+    return rv;
+  }
+
+  /**
+   * Remove every item.
+   */
+  public void flush() {
+    items.clear();
+  }
+
+  /**
+   * Get the number of items currently stored, including any that expired
+   * but have not been noticed yet.
+   */
+  public int size() {
+    return items.size();
+  }
+
+  /**
+   * Get the keys of all the items currently stored.
+   */
+  public Collection<String> keys() {
+    return items.keySet();
+  }
+
+  private static long expiresAt(int exp) {
+    if (exp == 0) {
+      return 0;
+    } else if (exp < 0) {
+      return 1;
+    } else if (exp <= MAX_RELATIVE_EXPIRATION) {
+      return System.currentTimeMillis() + exp * 1000L;
+    } else {
+      return exp * 1000L;
+    }
+  }
+
+  /**
+   * A stored value.
+   */
+  public static final class Item {
+    private final int flags;
+    private final long expiresAt;
+    private final long cas;
+    private final byte[] data;
+
+    Item(int f, long e, long c, byte[] d) {
+      flags = f;
+      expiresAt = e;
+      cas = c;
+      data = d;
+    }
+
+    public int getFlags() {
+      return flags;
+    }
+
+    public long getCas() {
+      return cas;
+    }
+
+    public byte[] getData() {
+      return data;
+    }
+
+    /**
+     * Get the expiration in seconds since the epoch, or 0 for none.
+     */
+    public int getExpiration() {
+      return (int) (expiresAt / 1000);
+    }
+
+    boolean isExpired() {
+      return expiresAt != 0 && expiresAt <= System.currentTimeMillis();
+    }
+  }
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the multi-producer queue.
+ */
+public class MpscBlockingQueueTest extends TestCase {
+
+  public void testFifo() {
+    MpscBlockingQueue<Integer> q = new MpscBlockingQueue<Integer>();
+    assertTrue(q.isEmpty());
+    assertNull(q.poll());
+    assertNull(q.peek());
+    for (int i = 0; i < 10; i++) {
+      assertTrue(q.offer(i));
+    }
+    assertEquals(10, q.size());
+    assertEquals(Integer.valueOf(0), q.peek());
+    assertEquals(Integer.valueOf(0), q.poll());
+    List<Integer> l = new ArrayList<Integer>();
+    assertEquals(3, q.drainTo(l, 3));
+    assertEquals(6, q.size());
+    assertEquals(6, q.drainTo(l));
+    assertEquals(9, l.size());
+    for (int i = 0; i < 9; i++) {
+      assertEquals(Integer.valueOf(i + 1), l.get(i));
+    }
+    assertTrue(q.isEmpty());
+    assertEquals(0, q.drainTo(l));
+  }
+
+  public void testCapacity() throws Exception {
+    MpscBlockingQueue<String> q = new MpscBlockingQueue<String>(2);
+    assertEquals(2, q.remainingCapacity());
+    assertTrue(q.offer("a"));
+    assertTrue(q.offer("b"));
+    assertEquals(0, q.remainingCapacity());
+    assertFalse(q.offer("c"));
+    assertFalse(q.offer("c", 10, TimeUnit.MILLISECONDS));
+    assertEquals("a", q.poll());
+    assertTrue(q.offer("c", 10, TimeUnit.MILLISECONDS));
+    assertEquals(2, q.size());
+  }
+
+  public void testNulls() {
+    try {
+      new MpscBlockingQueue<String>().offer(null);
+      fail("Accepted a null");
+    } catch (NullPointerException e) {
+      // pass
+    }
+  }
+
+  public void testTimedPoll() throws Exception {
+    MpscBlockingQueue<String> q = new MpscBlockingQueue<String>();
+    assertNull(q.poll(10, TimeUnit.MILLISECONDS));
+    q.put("x");
+    assertEquals("x", q.poll(10, TimeUnit.MILLISECONDS));
+  }
+
+  public void testIterator() {
+    MpscBlockingQueue<String> q = new MpscBlockingQueue<String>();
+    q.add("a");
+    q.add("b");
+    q.add("c");
+    q.add("d");
+    Iterator<String> i = q.iterator();
+    assertEquals("a", i.next());
+    assertEquals("a", q.poll());
+    assertEquals("b", q.poll());
+    assertEquals("c", q.poll());
+    // The next element was read ahead, but later taken ones are skipped.
+    assertEquals("b", i.next());
+    assertEquals("d", i.next());
+    assertFalse(i.hasNext());
+    assertTrue(q.contains("d"));
+    assertFalse(q.contains("c"));
+  }
+
+  public void testConcurrentProducers() throws Exception {
+    final int producers = 4;
+    final int perProducer = 50000;
+    final MpscBlockingQueue<Integer> q = new MpscBlockingQueue<Integer>(128);
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int p = 0; p < producers; p++) {
+      final int base = p * perProducer;
+      Thread t = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            for (int i = 0; i < perProducer; i++) {
+              q.put(base + i);
+            }
+          } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      };
+      t.start();
+      threads.add(t);
+    }
+    start.countDown();
+
+    // Every element arrives once, and each producer's arrive in order.
+    int[] last = new int[producers];
+    for (int p = 0; p < producers; p++) {
+      last[p] = p * perProducer - 1;
+    }
+    List<Integer> batch = new ArrayList<Integer>();
+    int seen = 0;
+    while (seen < producers * perProducer) {
+      Integer first = q.poll(5, TimeUnit.SECONDS);
+      assertNotNull("Timed out after " + seen + " elements", first);
+      batch.add(first);
+      q.drainTo(batch);
+      for (Integer i : batch) {
+        int p = i / perProducer;
+        assertEquals(last[p] + 1, i.intValue());
+        last[p] = i;
+      }
+      seen += batch.size();
+      batch.clear();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    assertTrue(q.isEmpty());
+  }
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the timing wheel.
+ */
+public class TimingWheelTest extends TestCase {
+
+  private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private TimingWheel<String> wheel;
+  private long now;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    wheel = new TimingWheel<String>(1, TimeUnit.MILLISECONDS, 8);
+    now = System.nanoTime();
+  }
+
+  private List<String> expire(long at) {
+    List<String> l = new ArrayList<String>();
+    assertEquals(wheel.expire(at, l), l.size());
+    return l;
+  }
+
+  public void testExpiresAtDeadline() {
+    wheel.schedule("a", now + 5 * MS);
+    wheel.schedule("b", now + 3 * MS);
+    assertEquals(2, wheel.size());
+    assertTrue(expire(now + 2 * MS).isEmpty());
+    assertEquals(Collections.singletonList("b"), expire(now + 4 * MS));
+    assertEquals(Collections.singletonList("a"), expire(now + 6 * MS));
+    assertTrue(wheel.isEmpty());
+  }
+
+  public void testLaterTurns() {
+    wheel.schedule("a", now + 20 * MS);
+    wheel.schedule("b", now + 50 * MS);
+    assertTrue(expire(now + 10 * MS).isEmpty());
+    assertEquals(Collections.singletonList("a"), expire(now + 21 * MS));
+    assertEquals(1, wheel.size());
+    // A big jump still finds everything that's due.
+    assertEquals(Collections.singletonList("b"), expire(now + 1000 * MS));
+  }
+
+  public void testCancelAndReschedule() {
+    wheel.schedule("a", now + 5 * MS);
+    assertTrue(wheel.cancel("a"));
+    assertFalse(wheel.cancel("a"));
+    assertTrue(expire(now + 10 * MS).isEmpty());
+
+    wheel.schedule("b", now + 15 * MS);
+    wheel.schedule("b", now + 20 * MS);
+    assertEquals(1, wheel.size());
+    assertTrue(expire(now + 16 * MS).isEmpty());
+    assertEquals(Collections.singletonList("b"), expire(now + 21 * MS));
+  }
+
+  public void testItemsByIdentity() {
+    String a1 = new String("a");
+    String a2 = new String("a");
+    wheel.schedule(a1, now + 5 * MS);
+    wheel.schedule(a2, now + 5 * MS);
+    assertEquals(2, wheel.size());
+    assertTrue(wheel.cancel(a1));
+    List<String> l = expire(now + 6 * MS);
+    assertEquals(1, l.size());
+    assertSame(a2, l.get(0));
+  }
+
+  public void testPastDeadline() {
+    assertTrue(expire(now + 5 * MS).isEmpty());
+    wheel.schedule("a", now);
+    // Ticks that have gone by aren't looked at again.
+    assertEquals(Collections.singletonList("a"), expire(now + 6 * MS));
+  }
+
+  public void testNanosToNextTick() {
+    assertEquals(-1, wheel.nanosToNextTick(now));
+    wheel.schedule("a", now + 100 * MS);
+    long next = wheel.nanosToNextTick(now);
+    assertTrue(next >= 0 && next <= MS);
+    expire(now + 10 * MS);
+    assertEquals(0, wheel.nanosToNextTick(now + 20 * MS));
+  }
+}
@@ -73,6 +73,10 @@ public class MemcachedNodeMockImpl implements MemcachedNode {
     return 0;
   }
 
+  public int getOutstandingOps() {
+    return 0;
+  }
+
   public Operation getCurrentReadOp() {
     return null;
   }
@@ -130,6 +134,10 @@ public class MemcachedNodeMockImpl implements MemcachedNode {
     return null;
   }
 
+  public Operation getReadOpFor(ByteBuffer rbuf) {
+    return null;
+  }
+
   public Operation removeCurrentWriteOp() {
     return null;
   }